@@ -0,0 +1,304 @@
+/*
+ *  Copyright (C) 2026 by the PolyMesh plugin contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package artofillusion.polymesh;
+
+import java.util.Arrays;
+
+import artofillusion.math.Vec3;
+import artofillusion.object.MeshVertex;
+import artofillusion.polymesh.PolyMesh.Wedge;
+import artofillusion.polymesh.PolyMesh.Wvertex;
+
+/**
+ * Edge loops and edge rings of a PolyMesh, used by PolyMesh.findEdgeLoops()
+ * and findEdgeStrips().
+ *
+ * Walking a loop or a ring goes from half edge to half edge, the next half
+ * edge depending only on the current one : across the opposite edge of a quad
+ * for rings, and across valence 4 vertices or along the most nearly parallel
+ * edge for loops. Each half edge is thus on at most one loop and one ring.
+ * The next half edge of every half edge is computed once, then loops and rings
+ * are found in a single pass and stored as cycle numbers and positions, so
+ * that selecting the loops or rings of any number of edges is a table lookup.
+ *
+ * Rings only depend on the mesh topology; loops are computed again when
+ * vertices move, see PolyMesh.getEdgeLoopIndex(). When the mesh has null
+ * length edges, the loop walk depends on the edges already walked through and
+ * loops are not indexed (hasLoops() returns false).
+ *
+ * @author PolyMesh plugin contributors
+ */
+public class EdgeLoopIndex {
+
+	private PolyMesh mesh;
+
+	private Wedge[] edges;
+
+	private Cycles rings;
+
+	private Cycles loops;
+
+	private boolean loopsComputed;
+
+	/**
+	 * Next half edges stored as cycles
+	 */
+	private static class Cycles {
+		/** Cycle each half edge is on, -1 if none */
+		int[] cycle;
+
+		/** Position of each half edge on its cycle */
+		int[] position;
+
+		/** Half edges of cycle c are order[start[c]] to order[start[c + 1] - 1] */
+		int[] start;
+
+		int[] order;
+
+		/**
+		 * Finds the cycles formed by following next half edges, -1 meaning
+		 * there is no next half edge. Every half edge is visited once.
+		 */
+		Cycles(int[] next) {
+			int n = next.length;
+			cycle = new int[n];
+			position = new int[n];
+			order = new int[n];
+			Arrays.fill(cycle, -1);
+			int[] visit = new int[n];
+			Arrays.fill(visit, -1);
+			int[] cycleStart = new int[n + 1];
+			int count = 0;
+			int size = 0;
+			for (int i = 0; i < n; i++) {
+				if (visit[i] >= 0)
+					continue;
+				int e = i;
+				while (e >= 0 && visit[e] < 0) {
+					visit[e] = i;
+					e = next[e];
+				}
+				if (e < 0 || visit[e] != i)
+					continue;
+				int first = e;
+				cycleStart[count] = size;
+				int p = 0;
+				do {
+					cycle[e] = count;
+					position[e] = p++;
+					order[size++] = e;
+					e = next[e];
+				} while (e != first);
+				count++;
+			}
+			cycleStart[count] = size;
+			start = new int[count + 1];
+			System.arraycopy(cycleStart, 0, start, 0, count + 1);
+		}
+
+		int getLength(int c) {
+			return start[c + 1] - start[c];
+		}
+
+		int[] getHalfEdges(int e) {
+			int c = cycle[e];
+			if (c < 0)
+				return null;
+			int length = getLength(c);
+			int[] list = new int[length];
+			for (int k = 0; k < length; k++)
+				list[k] = order[start[c] + (position[e] + k) % length];
+			return list;
+		}
+	}
+
+	/**
+	 * Creates the index of a mesh. Loops and rings are computed on first use.
+	 */
+	public EdgeLoopIndex(PolyMesh mesh) {
+		this.mesh = mesh;
+		edges = mesh.getEdges();
+	}
+
+	/**
+	 * Returns true if the index was built from this edge array
+	 */
+	public boolean isBuiltFrom(Wedge[] e) {
+		return edges == e;
+	}
+
+	/**
+	 * Drops the loops, which depend on vertex positions. Rings are kept.
+	 */
+	public void invalidatePositions() {
+		loops = null;
+		loopsComputed = false;
+	}
+
+	private Cycles getRings() {
+		if (rings == null) {
+			int[] next = new int[edges.length];
+			for (int i = 0; i < edges.length; i++)
+				next[i] = edges[edges[edges[i].next].next].hedge;
+			rings = new Cycles(next);
+		}
+		return rings;
+	}
+
+	/**
+	 * Returns true if loops can be found from the index
+	 */
+	public boolean hasLoops() {
+		return getLoops() != null;
+	}
+
+	private Cycles getLoops() {
+		if (loopsComputed)
+			return loops;
+		loopsComputed = true;
+		MeshVertex[] vertices = mesh.getVertices();
+		int[] next = new int[edges.length];
+		for (int i = 0; i < edges.length; i++)
+			if (vertices[edges[i].vertex].r.minus(vertices[edges[edges[i].hedge].vertex].r).length() < 1.0e-6)
+				return null;
+		int[][] vertEdges = new int[vertices.length][];
+		for (int i = 0; i < edges.length; i++) {
+			int v = edges[i].vertex;
+			if (vertEdges[v] == null)
+				vertEdges[v] = mesh.getVertexEdges((Wvertex) vertices[v]);
+			next[i] = getNextLoopEdge(vertices, vertEdges[v], i);
+		}
+		loops = new Cycles(next);
+		return loops;
+	}
+
+	/**
+	 * Finds the edge following an edge on a loop, as the walk in
+	 * PolyMesh.findSingleEdgeLoop() does when no null length edge is met
+	 *
+	 * @return The next half edge, -1 if there is none
+	 */
+	private int getNextLoopEdge(MeshVertex[] vertices, int[] vertEdges, int currentEdge) {
+		if (vertEdges == null)
+			return -1;
+		if (vertEdges.length == 4)
+			return edges[edges[edges[currentEdge].next].hedge].next;
+		Vec3 dir1 = vertices[edges[currentEdge].vertex].r.minus(vertices[edges[edges[currentEdge].hedge].vertex].r);
+		dir1.normalize();
+		double maxDot = -1.0;
+		int bestEdge = -1;
+		for (int i = 0; i < vertEdges.length; i++) {
+			if (vertEdges[i] == edges[currentEdge].hedge)
+				continue;
+			Vec3 dir2 = vertices[edges[vertEdges[i]].vertex].r.minus(vertices[edges[edges[vertEdges[i]].hedge].vertex].r);
+			dir2.normalize();
+			double dot = dir1.dot(dir2);
+			if (edges[currentEdge].vertex == edges[vertEdges[i]].vertex)
+				dot = -dot;
+			if (dot > maxDot) {
+				maxDot = dot;
+				bestEdge = vertEdges[i];
+			}
+		}
+		return bestEdge;
+	}
+
+	/**
+	 * Selects the loops going through selected edges
+	 *
+	 * @param selection
+	 *            Edge selection
+	 * @return Edges of the loops, null if loops are not indexed
+	 */
+	public boolean[] findEdgeLoops(boolean[] selection) {
+		Cycles c = getLoops();
+		if (c == null)
+			return null;
+		return selectCycles(c, selection, edges.length);
+	}
+
+	/**
+	 * Selects every other edge of the rings going through selected edges
+	 *
+	 * @param selection
+	 *            Edge selection
+	 * @param every
+	 *            Select one edge every 'every' edges
+	 * @return Edges of the rings
+	 */
+	public boolean[] findEdgeStrips(boolean[] selection, int every) {
+		Cycles c = getRings();
+		int half = edges.length / 2;
+		if (every <= 1)
+			return selectCycles(c, selection, half);
+		// starting from half edge s, the walk selects ring edges 1, 1 + every,
+		// 1 + 2 * every... edges away from s
+		boolean[] sel = new boolean[edges.length];
+		boolean[] done = new boolean[edges.length];
+		for (int i = 0; i < selection.length; i++) {
+			if (!selection[i] || c.cycle[i] < 0)
+				continue;
+			int cycle = c.cycle[i];
+			int length = c.getLength(cycle);
+			if (length >= half)
+				continue;
+			int p = c.position[i];
+			if (length % every == 0) {
+				// same selection for all starting points 'every' edges apart
+				int key = c.order[c.start[cycle] + p % every];
+				if (done[key])
+					continue;
+				done[key] = true;
+			}
+			for (int k = 1; k <= length; k += every)
+				sel[c.order[c.start[cycle] + (p + k) % length]] = true;
+		}
+		return mergeHalfEdges(sel, selection.length);
+	}
+
+	private boolean[] selectCycles(Cycles c, boolean[] selection, int maxLength) {
+		boolean[] selCycle = new boolean[c.start.length - 1];
+		for (int i = 0; i < selection.length; i++)
+			if (selection[i] && c.cycle[i] >= 0 && c.getLength(c.cycle[i]) < maxLength)
+				selCycle[c.cycle[i]] = true;
+		boolean[] sel = new boolean[edges.length];
+		for (int i = 0; i < edges.length; i++)
+			sel[i] = c.cycle[i] >= 0 && selCycle[c.cycle[i]];
+		return mergeHalfEdges(sel, selection.length);
+	}
+
+	private boolean[] mergeHalfEdges(boolean[] sel, int size) {
+		boolean[] newSel = new boolean[size];
+		for (int j = 0; j < edges.length / 2; j++)
+			newSel[j] = sel[j] || sel[edges[j].hedge];
+		return newSel;
+	}
+
+	/**
+	 * Returns the half edges of the loop going through a half edge, starting
+	 * with it, or null if the half edge is not on a loop or loops are not
+	 * indexed
+	 */
+	public int[] getLoop(int edge) {
+		Cycles c = getLoops();
+		if (c == null)
+			return null;
+		return c.getHalfEdges(edge);
+	}
+
+	/**
+	 * Returns the half edges of the ring going through a half edge, starting
+	 * with it, or null if the half edge is not on a ring. Consecutive half
+	 * edges are opposite edges of a face, oriented the same way.
+	 */
+	public int[] getRing(int edge) {
+		return getRings().getHalfEdges(edge);
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ *  Copyright (C) 2026 by the PolyMesh plugin contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package artofillusion.polymesh;
+
+import java.util.ArrayList;
+
+/**
+ * The result of a PolyMesh validation, as returned by PolyMesh.validateMesh().
+ * Problems are counted by category, along with the number of them which have
+ * been repaired. Messages describing each problem are kept for display, up to
+ * MAX_MESSAGES per category so that a badly broken mesh does not produce a
+ * huge report.
+ *
+ * @author PolyMesh plugin contributors
+ */
+public class MeshCheckReport {
+
+	/** A vertex edge reference is out of range */
+	public final static int VERTEX_EDGE_RANGE = 0;
+
+	/** A vertex edge reference does not start at the vertex */
+	public final static int VERTEX_WRONG_EDGE = 1;
+
+	/** Edges around a vertex do not form a closed fan */
+	public final static int VERTEX_OPEN_FAN = 2;
+
+	/** A half edge has its other half out of range */
+	public final static int EDGE_HEDGE_RANGE = 3;
+
+	/** A half edge vertex reference is out of range */
+	public final static int EDGE_VERTEX_RANGE = 4;
+
+	/** A half edge face reference is out of range */
+	public final static int EDGE_FACE_RANGE = 5;
+
+	/** A half edge next reference is out of range */
+	public final static int EDGE_NEXT_RANGE = 6;
+
+	/** Two half edges do not point at each other */
+	public final static int EDGE_HEDGE_MISMATCH = 7;
+
+	/** The next half edge does not start where the half edge ends */
+	public final static int EDGE_BROKEN_NEXT = 8;
+
+	/** Half edge halves are not stored in the first and second half of the array */
+	public final static int EDGE_WRONG_POSITION = 9;
+
+	/** An edge has the same vertex at both ends */
+	public final static int EDGE_NULL_LENGTH = 10;
+
+	/** A half edge is its own next edge */
+	public final static int EDGE_SINGLE_LOOP = 11;
+
+	/** Two half edges form a face or a boundary */
+	public final static int EDGE_TWO_EDGE_LOOP = 12;
+
+	/** Both halves of an edge are boundary half edges */
+	public final static int EDGE_DOUBLE_BOUNDARY = 13;
+
+	/** A face edge reference is out of range */
+	public final static int FACE_EDGE_RANGE = 14;
+
+	/** A face edge reference does not border the face */
+	public final static int FACE_WRONG_EDGE = 15;
+
+	/** Half edges of a face loop do not refer to the face */
+	public final static int FACE_WRONG_EDGE_FACE = 16;
+
+	/** Half edges of a face do not form a closed loop */
+	public final static int FACE_UNCLOSED = 17;
+
+	public final static int CATEGORY_COUNT = 18;
+
+	/** Maximum number of messages kept per category */
+	public final static int MAX_MESSAGES = 100;
+
+	private final static String[] categoryNames = new String[] {
+			"vertex edge reference out of range", "wrong vertex edge reference",
+			"open edge fan around vertex", "other half edge out of range",
+			"edge vertex reference out of range", "edge face reference out of range",
+			"next edge reference out of range", "mismatched half edges",
+			"broken next edge reference", "half edges at wrong array position",
+			"null length edge", "single edge loop", "two edge face or boundary",
+			"both half edges on boundary", "face edge reference out of range",
+			"wrong face edge reference", "wrong edge face reference",
+			"unclosed face" };
+
+	private int vertexCount, edgeCount, faceCount;
+
+	private int[] count;
+
+	private int[] repaired;
+
+	private ArrayList<String>[] messages;
+
+	private ArrayList<String> repairMessages;
+
+	private boolean checked;
+
+	/**
+	 * Creates an empty report for a mesh
+	 *
+	 * @param vertexCount
+	 *            Number of vertices
+	 * @param edgeCount
+	 *            Number of edges (not half edges)
+	 * @param faceCount
+	 *            Number of faces
+	 */
+	@SuppressWarnings("unchecked")
+	public MeshCheckReport(int vertexCount, int edgeCount, int faceCount) {
+		this.vertexCount = vertexCount;
+		this.edgeCount = edgeCount;
+		this.faceCount = faceCount;
+		count = new int[CATEGORY_COUNT];
+		repaired = new int[CATEGORY_COUNT];
+		messages = new ArrayList[CATEGORY_COUNT];
+		for (int i = 0; i < CATEGORY_COUNT; i++)
+			messages[i] = new ArrayList<String>();
+		repairMessages = new ArrayList<String>();
+	}
+
+	/**
+	 * Records a problem
+	 *
+	 * @param category
+	 *            Problem category
+	 * @param message
+	 *            Problem description
+	 * @param repair
+	 *            True if the problem has been repaired
+	 */
+	void add(int category, String message, boolean repair) {
+		count[category]++;
+		if (repair)
+			repaired[category]++;
+		if (messages[category].size() < MAX_MESSAGES)
+			messages[category].add(message);
+	}
+
+	/**
+	 * Records a repair done once all problems have been found
+	 */
+	void addRepair(String message) {
+		repairMessages.add(message);
+	}
+
+	/**
+	 * Marks the report as complete. A report is left incomplete when mesh
+	 * references are so broken that structural checks can't be run.
+	 */
+	void setChecked() {
+		checked = true;
+	}
+
+	/**
+	 * Returns true if all checks have been run
+	 */
+	public boolean isComplete() {
+		return checked;
+	}
+
+	/**
+	 * Returns true if no problem has been found
+	 */
+	public boolean isValid() {
+		return checked && getProblemCount() == 0;
+	}
+
+	/**
+	 * Returns the number of problems found in a category
+	 */
+	public int getCount(int category) {
+		return count[category];
+	}
+
+	/**
+	 * Returns the number of problems repaired in a category
+	 */
+	public int getRepairedCount(int category) {
+		return repaired[category];
+	}
+
+	/**
+	 * Returns the total number of problems found
+	 */
+	public int getProblemCount() {
+		int n = 0;
+		for (int i = 0; i < CATEGORY_COUNT; i++)
+			n += count[i];
+		return n;
+	}
+
+	/**
+	 * Returns the number of problems which could not be repaired
+	 */
+	public int getUnrepairedCount() {
+		int n = 0;
+		for (int i = 0; i < CATEGORY_COUNT; i++)
+			n += count[i] - repaired[i];
+		return n;
+	}
+
+	/**
+	 * Returns the messages kept for a category
+	 */
+	public String[] getMessages(int category) {
+		return messages[category].toArray(new String[messages[category].size()]);
+	}
+
+	/**
+	 * Returns a short description of a category
+	 */
+	public static String getCategoryName(int category) {
+		return categoryNames[category];
+	}
+
+	private void appendMessages(StringBuffer s, int from, int to) {
+		for (int i = from; i < to; i++) {
+			for (String m : messages[i])
+				s.append(m).append('\n');
+			if (count[i] > messages[i].size())
+				s.append("... ").append(count[i] - messages[i].size()).append(
+						" more ").append(categoryNames[i]).append(" problem(s)\n");
+		}
+	}
+
+	/**
+	 * Returns the report as text
+	 */
+	public String toString() {
+		StringBuffer s = new StringBuffer();
+		s.append("Mesh consisting of:\n");
+		s.append(vertexCount + " vertices, " + edgeCount + " edges, " + faceCount + " faces.\n\n");
+		s.append("Checking Vertices...\n");
+		appendMessages(s, VERTEX_EDGE_RANGE, EDGE_HEDGE_RANGE);
+		s.append("Done checking vertices.\n\n");
+		s.append("Checking Edges...\n");
+		appendMessages(s, EDGE_HEDGE_RANGE, FACE_EDGE_RANGE);
+		s.append("Done checking edges.\n\n");
+		s.append("Checking Faces...\n");
+		appendMessages(s, FACE_EDGE_RANGE, CATEGORY_COUNT);
+		s.append("Done checking faces.\n\n");
+		for (String m : repairMessages)
+			s.append(m).append('\n');
+		if (!checked)
+			s.append("References out of range, mesh structure not checked.\n");
+		s.append(getProblemCount() + " problem(s) found, " + (getProblemCount() - getUnrepairedCount())
+				+ " repaired.\n");
+		for (int i = 0; i < CATEGORY_COUNT; i++)
+			if (count[i] > 0)
+				s.append("  " + categoryNames[i] + " : " + count[i] + " (" + repaired[i] + " repaired)\n");
+		return s.toString();
+	}
+}
@@ -0,0 +1,507 @@
+/*
+ *  Copyright (C) 2026 by the PolyMesh plugin contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package artofillusion.polymesh;
+
+import java.util.Arrays;
+
+import artofillusion.polymesh.PolyMesh.Wedge;
+import artofillusion.polymesh.PolyMesh.Wface;
+import artofillusion.polymesh.PolyMesh.Wvertex;
+import artofillusion.util.ThreadManager;
+
+/**
+ * Checks and repairs the vertex, edge and face arrays of a PolyMesh. Used by
+ * PolyMesh.validateMesh().
+ *
+ * References are first checked to be in range and copied into int arrays.
+ * Reverse indexes are then built once : the first half edge leaving each
+ * vertex, the first half edge referring to each face, and the loops formed by
+ * next edges around faces and around vertices, found in a single pass over
+ * the edges. With these, each vertex, edge and face is checked in constant
+ * time or in the length of its own loop, independently of other elements, so
+ * checks run in parallel on large meshes. Checks only record what they find;
+ * repairs are then applied serially in element order, vertices and edges
+ * first, then faces.
+ *
+ * @author PolyMesh plugin contributors
+ */
+public class MeshChecker {
+
+	private Wvertex[] vertices;
+
+	private Wedge[] edges;
+
+	private Wface[] faces;
+
+	private MeshCheckReport report;
+
+	private int[] edgeVertex, edgeHedge, edgeFace, edgeNext;
+
+	private int[] vertEdge, faceEdge;
+
+	/** First half edge leaving each vertex, -1 if none */
+	private int[] vertFirstEdge;
+
+	/** First half edge referring to each face, -1 if none */
+	private int[] faceFirstEdge;
+
+	/** Loop of next edges each half edge is on, -1 if the half edge leads to a loop without being on it */
+	private int[] faceLoop;
+
+	/** Face shared by all half edges of a loop, MIXED_FACES if half edges differ */
+	private int[] loopFace;
+
+	/** Loop of edges around a vertex each half edge is on, -1 if none */
+	private int[] fanLoop;
+
+	private final static int MIXED_FACES = -3;
+
+	// vertex check results
+	private final static byte WRONG_EDGE = 1, NO_EDGE = 2, OPEN_FAN = 4;
+
+	// edge check results
+	private final static short HEDGE_MISMATCH = 1, BROKEN_NEXT = 2, WRONG_POSITION = 4,
+			NULL_LENGTH = 8, SINGLE_LOOP = 16, TWO_EDGE_LOOP = 32, DOUBLE_BOUNDARY = 64;
+
+	// face check results
+	private final static byte FIX_FROM_LOOP = 1, FIX_FROM_INDEX = 2, FACE_NO_EDGE = 3,
+			FIX_EDGE_FACES = 4, UNCLOSED = 5;
+
+	private byte[] vertexResult;
+
+	private short[] edgeResult;
+
+	private byte[] faceResult;
+
+	/**
+	 * Creates a checker for mesh arrays. Arrays are repaired in place.
+	 */
+	public MeshChecker(Wvertex[] vertices, Wedge[] edges, Wface[] faces) {
+		this.vertices = vertices;
+		this.edges = edges;
+		this.faces = faces;
+	}
+
+	/**
+	 * Checks and repairs the mesh arrays
+	 *
+	 * @return The report of problems found
+	 */
+	public MeshCheckReport check() {
+		report = new MeshCheckReport(vertices.length, edges.length / 2, faces.length);
+		if (!checkRanges())
+			return report;
+		buildIndexes();
+		ThreadManager threads = null;
+		try {
+			vertexResult = new byte[vertices.length];
+			edgeResult = new short[edges.length];
+			threads = run(threads, CheckTask.VERTICES, vertices.length);
+			threads = run(threads, CheckTask.EDGES, edges.length);
+			boolean nextChanged = repairVerticesAndEdges();
+			if (nextChanged)
+				buildFaceLoops();
+			faceResult = new byte[faces.length];
+			threads = run(threads, CheckTask.FACES, faces.length);
+			repairFaces();
+		} finally {
+			if (threads != null)
+				threads.finish();
+		}
+		report.setChecked();
+		return report;
+	}
+
+	private ThreadManager run(ThreadManager threads, int kind, int count) {
+		if (count < QuadMesh.PARALLEL_THRESHOLD) {
+			for (int i = 0; i < count; i++)
+				execute(kind, i);
+			return threads;
+		}
+		if (threads == null)
+			threads = new ThreadManager();
+		threads.setNumIndices(count);
+		threads.setTask(new CheckTask(kind));
+		threads.run();
+		return threads;
+	}
+
+	private void execute(int kind, int index) {
+		if (kind == CheckTask.VERTICES)
+			checkVertex(index);
+		else if (kind == CheckTask.EDGES)
+			checkEdge(index);
+		else
+			checkFace(index);
+	}
+
+	/**
+	 * Checks references are in range and copies them. Out of range vertex,
+	 * face and next edge references are reset; out of range half edge and
+	 * vertex references of edges can't be repaired.
+	 *
+	 * @return False if the mesh can't be checked any further
+	 */
+	private boolean checkRanges() {
+		int nv = vertices.length;
+		int ne = edges.length;
+		int nf = faces.length;
+		vertEdge = new int[nv];
+		faceEdge = new int[nf];
+		edgeVertex = new int[ne];
+		edgeHedge = new int[ne];
+		edgeFace = new int[ne];
+		edgeNext = new int[ne];
+		boolean valid = true;
+		for (int i = 0; i < ne; i++) {
+			Wedge e = edges[i];
+			if (e.hedge < 0 || e.hedge >= ne) {
+				report.add(MeshCheckReport.EDGE_HEDGE_RANGE, "edge " + i
+						+ " : other half edge reference out of range. No correction possible.", false);
+				valid = false;
+			}
+			if (e.vertex < 0 || e.vertex >= nv) {
+				report.add(MeshCheckReport.EDGE_VERTEX_RANGE, "edge " + i
+						+ " : vertex reference out of range. No correction possible.", false);
+				valid = false;
+			}
+			if (e.face < -1 || e.face >= nf) {
+				report.add(MeshCheckReport.EDGE_FACE_RANGE, "edge " + i
+						+ " : face reference out of range. Set to boundary.", true);
+				e.face = -1;
+			}
+			if (e.next < 0 || e.next >= ne) {
+				report.add(MeshCheckReport.EDGE_NEXT_RANGE, "edge " + i
+						+ " : next edge reference out of range. Reset.", true);
+				e.next = 0;
+			}
+			edgeVertex[i] = e.vertex;
+			edgeHedge[i] = e.hedge;
+			edgeFace[i] = e.face;
+			edgeNext[i] = e.next;
+		}
+		if (ne == 0) {
+			if (nv > 0 || nf > 0) {
+				report.add(MeshCheckReport.VERTEX_EDGE_RANGE, "Mesh has no edges. No correction possible.", false);
+				return false;
+			}
+			return true;
+		}
+		for (int i = 0; i < nv; i++) {
+			if (vertices[i].edge < 0 || vertices[i].edge >= ne) {
+				report.add(MeshCheckReport.VERTEX_EDGE_RANGE, "vertex " + i
+						+ " : edge reference out of range. Reset.", true);
+				vertices[i].edge = 0;
+			}
+			vertEdge[i] = vertices[i].edge;
+		}
+		for (int i = 0; i < nf; i++) {
+			if (faces[i].edge < 0 || faces[i].edge >= ne) {
+				report.add(MeshCheckReport.FACE_EDGE_RANGE, "face " + i
+						+ " : edge reference out of range. Reset.", true);
+				faces[i].edge = 0;
+			}
+			faceEdge[i] = faces[i].edge;
+		}
+		return valid;
+	}
+
+	private void buildIndexes() {
+		int ne = edges.length;
+		vertFirstEdge = new int[vertices.length];
+		faceFirstEdge = new int[faces.length];
+		Arrays.fill(vertFirstEdge, -1);
+		Arrays.fill(faceFirstEdge, -1);
+		for (int i = 0; i < ne; i++) {
+			int v = edgeVertex[edgeHedge[i]];
+			if (vertFirstEdge[v] < 0)
+				vertFirstEdge[v] = i;
+			int f = edgeFace[i];
+			if (f >= 0 && faceFirstEdge[f] < 0)
+				faceFirstEdge[f] = i;
+		}
+		buildFaceLoops();
+		fanLoop = new int[ne];
+		findLoops(fanLoop, true);
+	}
+
+	private void buildFaceLoops() {
+		faceLoop = new int[edges.length];
+		int count = findLoops(faceLoop, false);
+		loopFace = new int[count];
+		Arrays.fill(loopFace, Integer.MIN_VALUE);
+		for (int i = 0; i < edges.length; i++) {
+			int l = faceLoop[i];
+			if (l < 0)
+				continue;
+			if (loopFace[l] == Integer.MIN_VALUE)
+				loopFace[l] = edgeFace[i];
+			else if (loopFace[l] != edgeFace[i])
+				loopFace[l] = MIXED_FACES;
+		}
+	}
+
+	/**
+	 * Finds the loops formed by following next edges (around faces) or the
+	 * next edge of the other half edge (around vertices). Every half edge is
+	 * visited once.
+	 *
+	 * @param loop
+	 *            Set to the loop each half edge is on, -1 if the half edge is
+	 *            not on a loop
+	 * @return Number of loops
+	 */
+	private int findLoops(int[] loop, boolean aroundVertex) {
+		int ne = edges.length;
+		int[] visit = new int[ne];
+		Arrays.fill(visit, -1);
+		Arrays.fill(loop, -1);
+		int count = 0;
+		for (int i = 0; i < ne; i++) {
+			if (visit[i] >= 0)
+				continue;
+			int e = i;
+			while (visit[e] < 0) {
+				visit[e] = i;
+				e = aroundVertex ? edgeNext[edgeHedge[e]] : edgeNext[e];
+			}
+			if (visit[e] != i)
+				continue; // reached a part already visited
+			int start = e;
+			do {
+				loop[e] = count;
+				e = aroundVertex ? edgeNext[edgeHedge[e]] : edgeNext[e];
+			} while (e != start);
+			count++;
+		}
+		return count;
+	}
+
+	private void checkVertex(int v) {
+		byte result = 0;
+		int e = vertEdge[v];
+		if (edgeVertex[edgeHedge[e]] != v) {
+			result |= WRONG_EDGE;
+			if (vertFirstEdge[v] < 0) {
+				vertexResult[v] = WRONG_EDGE | NO_EDGE;
+				return;
+			}
+			e = vertFirstEdge[v];
+		}
+		if (fanLoop[e] < 0)
+			result |= OPEN_FAN;
+		vertexResult[v] = result;
+	}
+
+	private void checkEdge(int i) {
+		short result = 0;
+		int h = edgeHedge[i];
+		int n = edgeNext[i];
+		int half = edges.length / 2;
+		if (edgeHedge[h] != i)
+			result |= HEDGE_MISMATCH;
+		if (edgeVertex[edgeHedge[n]] != edgeVertex[i])
+			result |= BROKEN_NEXT;
+		if (i < h) {
+			if ((i < half) == (h < half))
+				result |= WRONG_POSITION;
+			if (edgeFace[i] == -1 && edgeFace[h] == -1)
+				result |= DOUBLE_BOUNDARY;
+			if (edgeVertex[i] == edgeVertex[h])
+				result |= NULL_LENGTH;
+		}
+		if (n == i)
+			result |= SINGLE_LOOP;
+		else if (edgeNext[n] == i)
+			result |= TWO_EDGE_LOOP;
+		edgeResult[i] = result;
+	}
+
+	private void checkFace(int f) {
+		int e = faceEdge[f];
+		int l = faceLoop[e];
+		byte result = 0;
+		if (edgeFace[e] != f) {
+			if (l < 0)
+				result = UNCLOSED;
+			else if (loopFace[l] == MIXED_FACES && loopContainsFace(e, f))
+				result = FIX_FROM_LOOP;
+			else if (findFaceEdge(f) >= 0)
+				result = FIX_FROM_INDEX;
+			else
+				result = FACE_NO_EDGE;
+		} else if (l < 0)
+			result = UNCLOSED;
+		else if (loopFace[l] != f)
+			result = FIX_EDGE_FACES;
+		faceResult[f] = result;
+	}
+
+	/**
+	 * Finds a half edge referring to a face. The index is only searched again
+	 * if face repairs have given its edge to another face.
+	 */
+	private int findFaceEdge(int f) {
+		int e = faceFirstEdge[f];
+		if (e < 0 || edgeFace[e] == f)
+			return e;
+		faceFirstEdge[f] = -1;
+		for (int i = 0; i < edges.length; i++)
+			if (edgeFace[i] == f) {
+				faceFirstEdge[f] = i;
+				break;
+			}
+		return faceFirstEdge[f];
+	}
+
+	private boolean loopContainsFace(int start, int f) {
+		int e = start;
+		do {
+			if (edgeFace[e] == f)
+				return true;
+			e = edgeNext[e];
+		} while (e != start);
+		return false;
+	}
+
+	/**
+	 * Reports vertex and edge problems and repairs them
+	 *
+	 * @return True if next edge references have changed
+	 */
+	private boolean repairVerticesAndEdges() {
+		for (int v = 0; v < vertices.length; v++) {
+			byte result = vertexResult[v];
+			if ((result & WRONG_EDGE) != 0) {
+				if ((result & NO_EDGE) != 0)
+					report.add(MeshCheckReport.VERTEX_WRONG_EDGE, "Wrong edge reference for vertex " + v
+							+ ". No edge leaving this vertex. No correction possible.", false);
+				else {
+					report.add(MeshCheckReport.VERTEX_WRONG_EDGE, "Wrong edge reference for vertex " + v
+							+ ". Corrected.", true);
+					vertices[v].edge = vertEdge[v] = vertFirstEdge[v];
+				}
+			}
+			if ((result & OPEN_FAN) != 0)
+				report.add(MeshCheckReport.VERTEX_OPEN_FAN, "Problem infinite edge references on vertex: " + v
+						+ ".", false);
+		}
+		boolean nextChanged = false;
+		for (int i = 0; i < edges.length; i++) {
+			short result = edgeResult[i];
+			if (result == 0)
+				continue;
+			int h = edgeHedge[i];
+			if ((result & HEDGE_MISMATCH) != 0)
+				report.add(MeshCheckReport.EDGE_HEDGE_MISMATCH, "Edge " + i + " other half edge " + h
+						+ " does not refer to it.", false);
+			if ((result & BROKEN_NEXT) != 0)
+				report.add(MeshCheckReport.EDGE_BROKEN_NEXT, "Edge " + i + " next edge " + edgeNext[i]
+						+ " does not start at its end vertex.", false);
+			if ((result & WRONG_POSITION) != 0)
+				report.add(MeshCheckReport.EDGE_WRONG_POSITION, "Wrong position in array for edges " + i
+						+ " and " + h + ".", false);
+			if ((result & DOUBLE_BOUNDARY) != 0)
+				report.add(MeshCheckReport.EDGE_DOUBLE_BOUNDARY, "Edges " + i + " and other half-edge " + h
+						+ " both boundary edges.", false);
+			if ((result & NULL_LENGTH) != 0)
+				report.add(MeshCheckReport.EDGE_NULL_LENGTH, "Null length edge found : " + i + ".", false);
+			if ((result & SINGLE_LOOP) != 0) {
+				report.add(MeshCheckReport.EDGE_SINGLE_LOOP, "Single edge loop found : " + i + ".", true);
+				edges[i].next = edgeNext[i] = 0;
+				nextChanged = true;
+			}
+			if ((result & TWO_EDGE_LOOP) != 0)
+				report.add(MeshCheckReport.EDGE_TWO_EDGE_LOOP, "Two edge face/boundary found : " + i + ", "
+						+ edgeNext[i] + ".", true);
+		}
+		return nextChanged;
+	}
+
+	/**
+	 * Reports face problems and repairs them
+	 */
+	private void repairFaces() {
+		boolean changed = false;
+		for (int f = 0; f < faces.length; f++) {
+			if (changed && faceResult[f] != 0)
+				checkFace(f); // an earlier repair may have given this face edges
+			switch (faceResult[f]) {
+				case FIX_FROM_LOOP:
+					report.add(MeshCheckReport.FACE_WRONG_EDGE, "Wrong edge reference for face " + f
+							+ ". Corrected.", true);
+					setLoopFace(faceEdge[f], f);
+					changed = true;
+					break;
+				case FIX_FROM_INDEX:
+					report.add(MeshCheckReport.FACE_WRONG_EDGE, "Wrong edge reference for face " + f
+							+ ". Corrected.", true);
+					faces[f].edge = faceEdge[f] = faceFirstEdge[f];
+					if (faceLoop[faceEdge[f]] >= 0) {
+						setLoopFace(faceEdge[f], f);
+						changed = true;
+					}
+					break;
+				case FACE_NO_EDGE:
+					report.add(MeshCheckReport.FACE_WRONG_EDGE, "Wrong edge reference for face " + f
+							+ ". No edge sharing this face. No correction possible.", false);
+					break;
+				case FIX_EDGE_FACES:
+					int e = faceEdge[f];
+					do {
+						if (edgeFace[e] != f)
+							report.add(MeshCheckReport.FACE_WRONG_EDGE_FACE, "Wrong edge face reference for edge "
+									+ e + " (face " + f + "). Corrected.", true);
+						e = edgeNext[e];
+					} while (e != faceEdge[f]);
+					setLoopFace(faceEdge[f], f);
+					changed = true;
+					break;
+				case UNCLOSED:
+					report.add(MeshCheckReport.FACE_UNCLOSED, "Unclosed face " + f
+							+ ". No correction possible.", false);
+					break;
+			}
+		}
+	}
+
+	private void setLoopFace(int start, int f) {
+		loopFace[faceLoop[start]] = f;
+		int e = start;
+		do {
+			edges[e].face = edgeFace[e] = f;
+			e = edgeNext[e];
+		} while (e != start);
+	}
+
+	/**
+	 * ThreadManager task running one kind of checks
+	 */
+	private class CheckTask implements ThreadManager.Task {
+		private static final int VERTICES = 0;
+
+		private static final int EDGES = 1;
+
+		private static final int FACES = 2;
+
+		private int kind;
+
+		public CheckTask(int kind) {
+			this.kind = kind;
+		}
+
+		public void execute(int index) {
+			MeshChecker.this.execute(kind, index);
+		}
+
+		public void cleanup() {
+		}
+	}
+}
@@ -0,0 +1,569 @@
+/*
+ *  Copyright (C) 2026 by the PolyMesh plugin contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package artofillusion.polymesh;
+
+import artofillusion.math.Vec3;
+import artofillusion.util.ThreadManager;
+
+/**
+ * Face, edge and vertex normals of a PolyMesh computed together from its packed
+ * topology. Normals are stored in flat double arrays, x y z for each element.
+ *
+ * Faces are processed first : each face computes its normal and the angle
+ * weighted normal of each of its corners. Corners are stored in their own slots,
+ * so faces can be processed in parallel without any two threads writing to the
+ * same vertex. Vertex normals then sum the corners around each vertex, and edge
+ * normals are computed from vertex and face normals. Vertex types are not taken
+ * into account, CREASE and CORNER vertices get the same normal as other vertices
+ * just as in QuadMesh.getNormals(), since normals are used as displacement
+ * directions by tools. Shading creases is left to rendering meshes.
+ *
+ * When vertices move, only the faces, vertices and edges around them are
+ * computed again. Moved vertices are found by comparing the packed topology
+ * positions with the positions normals were last computed for, once
+ * invalidatePositions() has been called, or can be flagged one by one using
+ * invalidateVertex().
+ *
+ * @author PolyMesh plugin contributors
+ */
+public class MeshNormals {
+
+	private PackedTopology topo;
+
+	private double[] faceNormal;
+
+	private double[] vertexNormal;
+
+	private double[] edgeNormal;
+
+	private double[] cornerNormal; //angle weighted normal for each entry of topo.faceVert
+
+	private boolean[] cornerAdded; //false if the corner is too thin to give a normal
+
+	private int[] edgeCorner; //corner of the edge start vertex in the edge face
+
+	private int[] edgePrev;
+
+	private double[] computedPosition; //positions normals were computed for
+
+	private boolean checkPositions;
+
+	private boolean[] dirtyVertex;
+
+	private int[] dirtyList;
+
+	private int dirtyCount;
+
+	private boolean[] markFace;
+
+	private boolean[] markVertex;
+
+	private boolean[] markEdge;
+
+	/**
+	 * Creates normals for a packed topology. Normals are computed when first
+	 * updated.
+	 *
+	 * @param topo
+	 *            The mesh packed topology
+	 */
+	public MeshNormals(PackedTopology topo) {
+		this.topo = topo;
+		int nv = topo.getVertexCount();
+		int ne = topo.getEdgeCount();
+		int nf = topo.getFaceCount();
+		faceNormal = new double[3 * nf];
+		vertexNormal = new double[3 * nv];
+		edgeNormal = new double[3 * ne];
+		cornerNormal = new double[3 * topo.faceVert.length];
+		cornerAdded = new boolean[topo.faceVert.length];
+		edgeCorner = new int[ne];
+		edgePrev = new int[ne];
+		for (int i = 0; i < ne; i++) {
+			edgeCorner[i] = -1;
+			edgePrev[topo.edgeNext[i]] = i;
+		}
+		for (int i = 0; i < nf; i++) {
+			int e = topo.faceEdge[i];
+			for (int j = topo.faceVertStart[i]; j < topo.faceVertStart[i + 1]; j++) {
+				// faceVert[j] is the end of e, the next edge starts there
+				edgeCorner[topo.edgeNext[e]] = j;
+				e = topo.edgeNext[e];
+			}
+		}
+		dirtyVertex = new boolean[nv];
+		dirtyList = new int[nv];
+	}
+
+	/**
+	 * Returns the packed topology normals are computed for
+	 */
+	public PackedTopology getTopology() {
+		return topo;
+	}
+
+	/**
+	 * Tells that packed topology positions have been updated. Vertices which
+	 * have moved will be found on next update.
+	 */
+	public synchronized void invalidatePositions() {
+		checkPositions = true;
+	}
+
+	/**
+	 * Flags a vertex whose normals must be computed again on next update, as
+	 * well as the normals of the faces and edges around it
+	 *
+	 * @param vert
+	 *            The vertex index
+	 */
+	public synchronized void invalidateVertex(int vert) {
+		if (!dirtyVertex[vert]) {
+			dirtyVertex[vert] = true;
+			dirtyList[dirtyCount++] = vert;
+		}
+	}
+
+	/**
+	 * Brings normals up to date with the packed topology positions
+	 *
+	 * @return True if any normal has been computed
+	 */
+	public synchronized boolean update() {
+		double[] pos = topo.position;
+		if (computedPosition == null) {
+			computeAll();
+			return true;
+		}
+		if (checkPositions) {
+			for (int i = 0; i < dirtyVertex.length; i++) {
+				if (dirtyVertex[i])
+					continue;
+				if (pos[3 * i] != computedPosition[3 * i]
+						|| pos[3 * i + 1] != computedPosition[3 * i + 1]
+						|| pos[3 * i + 2] != computedPosition[3 * i + 2]) {
+					dirtyVertex[i] = true;
+					dirtyList[dirtyCount++] = i;
+				}
+			}
+			checkPositions = false;
+		}
+		if (dirtyCount == 0)
+			return false;
+		if (dirtyCount > dirtyVertex.length / 8)
+			computeAll();
+		else
+			computeDirty();
+		return true;
+	}
+
+	/**
+	 * Face normals, x y z for each face. The array is updated in place.
+	 */
+	public double[] getFaceNormalBuffer() {
+		return faceNormal;
+	}
+
+	/**
+	 * Vertex normals, x y z for each vertex. The array is updated in place.
+	 */
+	public double[] getVertexNormalBuffer() {
+		return vertexNormal;
+	}
+
+	/**
+	 * Edge normals, x y z for each half edge. The array is updated in place.
+	 */
+	public double[] getEdgeNormalBuffer() {
+		return edgeNormal;
+	}
+
+	public Vec3[] getFaceNormals() {
+		return toVec3(faceNormal);
+	}
+
+	public Vec3[] getVertexNormals() {
+		return toVec3(vertexNormal);
+	}
+
+	public Vec3[] getEdgeNormals() {
+		return toVec3(edgeNormal);
+	}
+
+	private static Vec3[] toVec3(double[] buffer) {
+		Vec3[] v = new Vec3[buffer.length / 3];
+		for (int i = 0; i < v.length; i++)
+			v[i] = new Vec3(buffer[3 * i], buffer[3 * i + 1], buffer[3 * i + 2]);
+		return v;
+	}
+
+	private void computeAll() {
+		int nv = topo.getVertexCount();
+		int nf = topo.getFaceCount();
+		int ne = topo.getEdgeCount() / 2;
+		ThreadManager threads = null;
+		try {
+			if (nf >= QuadMesh.PARALLEL_THRESHOLD) {
+				threads = new ThreadManager();
+				threads.setNumIndices(nf);
+				threads.setTask(new NormalTask(NormalTask.FACES));
+				threads.run();
+				threads.setNumIndices(nv);
+				threads.setTask(new NormalTask(NormalTask.VERTICES));
+				threads.run();
+				threads.setNumIndices(ne);
+				threads.setTask(new NormalTask(NormalTask.EDGES));
+				threads.run();
+			} else {
+				for (int i = 0; i < nf; i++)
+					computeFace(i);
+				for (int i = 0; i < nv; i++)
+					computeVertex(i);
+				for (int i = 0; i < ne; i++)
+					computeEdge(i);
+			}
+		} finally {
+			if (threads != null)
+				threads.finish();
+		}
+		for (int i = 0; i < dirtyCount; i++)
+			dirtyVertex[dirtyList[i]] = false;
+		dirtyCount = 0;
+		checkPositions = false;
+		computedPosition = topo.position.clone();
+	}
+
+	private void computeDirty() {
+		int[] edgeFace = topo.edgeFace;
+		int[] edgeVertex = topo.edgeVertex;
+		int[] edgeHedge = topo.edgeHedge;
+		int[] vertEdge = topo.vertEdge;
+		int[] vertEdgeStart = topo.vertEdgeStart;
+		int[] faceVert = topo.faceVert;
+		int[] faceVertStart = topo.faceVertStart;
+		double[] pos = topo.position;
+		if (markFace == null) {
+			markFace = new boolean[topo.getFaceCount()];
+			markVertex = new boolean[topo.getVertexCount()];
+			markEdge = new boolean[topo.getEdgeCount() / 2];
+		}
+		// faces around moved vertices
+		int size = 0;
+		for (int i = 0; i < dirtyCount; i++)
+			size += topo.getVertexEdgeCount(dirtyList[i]);
+		int[] faceList = new int[size];
+		int nfaces = 0;
+		int f;
+		for (int i = 0; i < dirtyCount; i++) {
+			int v = dirtyList[i];
+			for (int j = vertEdgeStart[v]; j < vertEdgeStart[v + 1]; j++) {
+				f = edgeFace[vertEdge[j]];
+				if (f != -1 && !markFace[f]) {
+					markFace[f] = true;
+					faceList[nfaces++] = f;
+				}
+			}
+		}
+		// vertices of these faces, moved vertices and their neighbours
+		size += dirtyCount;
+		for (int i = 0; i < nfaces; i++)
+			size += topo.getFaceVertCount(faceList[i]);
+		int[] vertList = new int[size];
+		int nverts = 0;
+		int v;
+		for (int i = 0; i < nfaces; i++) {
+			f = faceList[i];
+			computeFace(f);
+			markFace[f] = false;
+			for (int j = faceVertStart[f]; j < faceVertStart[f + 1]; j++) {
+				v = faceVert[j];
+				if (!markVertex[v]) {
+					markVertex[v] = true;
+					vertList[nverts++] = v;
+				}
+			}
+		}
+		for (int i = 0; i < dirtyCount; i++) {
+			v = dirtyList[i];
+			dirtyVertex[v] = false;
+			if (!markVertex[v]) {
+				markVertex[v] = true;
+				vertList[nverts++] = v;
+			}
+			for (int j = vertEdgeStart[dirtyList[i]]; j < vertEdgeStart[dirtyList[i] + 1]; j++) {
+				v = edgeVertex[vertEdge[j]];
+				if (!markVertex[v]) {
+					markVertex[v] = true;
+					vertList[nverts++] = v;
+				}
+			}
+		}
+		dirtyCount = 0;
+		for (int i = 0; i < nverts; i++)
+			computeVertex(vertList[i]);
+		// edges around vertices whose normal has changed
+		int half = topo.getEdgeCount() / 2;
+		int e;
+		for (int i = 0; i < nverts; i++) {
+			v = vertList[i];
+			markVertex[v] = false;
+			for (int j = vertEdgeStart[v]; j < vertEdgeStart[v + 1]; j++) {
+				e = vertEdge[j];
+				if (e >= half)
+					e = edgeHedge[e];
+				if (!markEdge[e]) {
+					markEdge[e] = true;
+					computeEdge(e);
+				}
+			}
+		}
+		for (int i = 0; i < nverts; i++) {
+			v = vertList[i];
+			for (int j = vertEdgeStart[v]; j < vertEdgeStart[v + 1]; j++) {
+				e = vertEdge[j];
+				if (e >= half)
+					e = edgeHedge[e];
+				markEdge[e] = false;
+			}
+		}
+		for (int i = 0; i < dirtyVertex.length; i++) {
+			computedPosition[3 * i] = pos[3 * i];
+			computedPosition[3 * i + 1] = pos[3 * i + 1];
+			computedPosition[3 * i + 2] = pos[3 * i + 2];
+		}
+	}
+
+	/**
+	 * Computes the normal of a face and the angle weighted normals of its corners
+	 */
+	private void computeFace(int face) {
+		int[] faceVert = topo.faceVert;
+		double[] pos = topo.position;
+		int start = topo.faceVertStart[face];
+		int n = topo.getFaceVertCount(face);
+		int pred, next, vp, vj, vn;
+		double v1x, v1y, v1z, v2x, v2y, v2z, nx, ny, nz, cx, cy, cz, length, angle;
+		nx = ny = nz = 0;
+		for (int j = 0; j < n; ++j) {
+			pred = j - 1;
+			if (pred < 0)
+				pred = n - 1;
+			next = j + 1;
+			if (next >= n)
+				next = 0;
+			vp = 3 * faceVert[start + pred];
+			vj = 3 * faceVert[start + j];
+			vn = 3 * faceVert[start + next];
+			v1x = pos[vj] - pos[vp];
+			v1y = pos[vj + 1] - pos[vp + 1];
+			v1z = pos[vj + 2] - pos[vp + 2];
+			v2x = pos[vn] - pos[vj];
+			v2y = pos[vn + 1] - pos[vj + 1];
+			v2z = pos[vn + 2] - pos[vj + 2];
+			nx += v1y * v2z - v1z * v2y;
+			ny += v1z * v2x - v1x * v2z;
+			nz += v1x * v2y - v1y * v2x;
+			// corner normal, seen from the corner vertex
+			v1x = pos[vp] - pos[vj];
+			v1y = pos[vp + 1] - pos[vj + 1];
+			v1z = pos[vp + 2] - pos[vj + 2];
+			length = Math.sqrt(v1x * v1x + v1y * v1y + v1z * v1z);
+			if (length > 0.0) {
+				v1x /= length;
+				v1y /= length;
+				v1z /= length;
+			}
+			length = Math.sqrt(v2x * v2x + v2y * v2y + v2z * v2z);
+			if (length > 0.0) {
+				v2x /= length;
+				v2y /= length;
+				v2z /= length;
+			}
+			angle = Math.acos(v1x * v2x + v1y * v2y + v1z * v2z);
+			// normal = v2 x v1
+			cx = v2y * v1z - v2z * v1y;
+			cy = v2z * v1x - v2x * v1z;
+			cz = v2x * v1y - v2y * v1x;
+			length = Math.sqrt(cx * cx + cy * cy + cz * cz);
+			if (length > 0.001) {
+				cornerNormal[3 * (start + j)] = cx / length * angle;
+				cornerNormal[3 * (start + j) + 1] = cy / length * angle;
+				cornerNormal[3 * (start + j) + 2] = cz / length * angle;
+				cornerAdded[start + j] = true;
+			} else
+				cornerAdded[start + j] = false;
+		}
+		setNormalized(faceNormal, face, nx, ny, nz);
+	}
+
+	/**
+	 * Computes the normal of a vertex from the corners around it. Face normals
+	 * must be up to date.
+	 */
+	private void computeVertex(int vert) {
+		int[] edgeVertex = topo.edgeVertex;
+		int[] edgeFace = topo.edgeFace;
+		int[] vertEdge = topo.vertEdge;
+		double[] pos = topo.position;
+		int start = topo.vertEdgeStart[vert];
+		int n = topo.getVertexEdgeCount(vert);
+		int e, f, c, vj, vp;
+		if (n > 1) {
+			boolean added = false;
+			double px = 0, py = 0, pz = 0;
+			for (int j = 0; j < n; ++j) {
+				e = vertEdge[start + j];
+				if (edgeFace[e] == -1)
+					continue;
+				c = edgeCorner[e];
+				if (cornerAdded[c]) {
+					px += cornerNormal[3 * c];
+					py += cornerNormal[3 * c + 1];
+					pz += cornerNormal[3 * c + 2];
+					added = true;
+				}
+			}
+			if (!added) {
+				for (int j = 0; j < n; ++j) {
+					f = edgeFace[vertEdge[start + j]];
+					if (f == -1)
+						continue;
+					px += faceNormal[3 * f];
+					py += faceNormal[3 * f + 1];
+					pz += faceNormal[3 * f + 2];
+				}
+			}
+			setNormalized(vertexNormal, vert, px, py, pz);
+		} else if (n == 1) {
+			vj = 3 * edgeVertex[vertEdge[start]];
+			vp = 3 * edgeVertex[topo.edgeHedge[vertEdge[start]]];
+			setNormalized(vertexNormal, vert, pos[vj] - pos[vp], pos[vj + 1] - pos[vp + 1], pos[vj + 2]
+					- pos[vp + 2]);
+		} else {
+			// broken vertex, see PolyMesh.checkMesh()
+			setNormalized(vertexNormal, vert, 0, 0, 0);
+		}
+	}
+
+	/**
+	 * Computes the normals of an edge and of its other half edge. Face and
+	 * vertex normals must be up to date.
+	 */
+	private void computeEdge(int edge) {
+		int[] edgeVertex = topo.edgeVertex;
+		int[] edgeHedge = topo.edgeHedge;
+		int[] edgeFace = topo.edgeFace;
+		int[] edgeNext = topo.edgeNext;
+		int hedge = edgeHedge[edge];
+		int vi = edgeVertex[edge];
+		int hvi = edgeVertex[hedge];
+		int pvi = edgeVertex[edgeHedge[edgePrev[edge]]];
+		int phvi = edgeVertex[edgeHedge[edgePrev[hedge]]];
+		int nvi = edgeVertex[edgeNext[edge]];
+		int nhvi = edgeVertex[edgeNext[hedge]];
+		int face = edgeFace[edge];
+		int hface = edgeFace[hedge];
+		computeEdgeSide(edge, vi, hvi, face, vi, hvi, nvi, hface, phvi, hvi, vi);
+		computeEdgeSide(hedge, vi, hvi, face, pvi, vi, hvi, hface, hvi, vi, nhvi);
+	}
+
+	/**
+	 * Sums the normals of the two faces at one end of an edge. Each face
+	 * normal is given as the cross product (a - o) x (b - o) of the corner at
+	 * this end, or the face normal if the corner is degenerate.
+	 */
+	private void computeEdgeSide(int edge, int vi, int hvi, int face, int a, int o, int b,
+			int hface, int ha, int ho, int hb) {
+		double x = 0, y = 0, z = 0;
+		double[] n = new double[3];
+		if (face != -1) {
+			cornerCross(a, o, b, face, n);
+			x = n[0];
+			y = n[1];
+			z = n[2];
+		}
+		if (hface != -1) {
+			cornerCross(ha, ho, hb, hface, n);
+			x += n[0];
+			y += n[1];
+			z += n[2];
+		}
+		if (Math.sqrt(x * x + y * y + z * z) < 1e-6) {
+			x = vertexNormal[3 * vi] + vertexNormal[3 * hvi];
+			y = vertexNormal[3 * vi + 1] + vertexNormal[3 * hvi + 1];
+			z = vertexNormal[3 * vi + 2] + vertexNormal[3 * hvi + 2];
+		}
+		setNormalized(edgeNormal, edge, x, y, z);
+	}
+
+	private void cornerCross(int a, int o, int b, int face, double[] n) {
+		double[] pos = topo.position;
+		double ax = pos[3 * a] - pos[3 * o];
+		double ay = pos[3 * a + 1] - pos[3 * o + 1];
+		double az = pos[3 * a + 2] - pos[3 * o + 2];
+		double bx = pos[3 * b] - pos[3 * o];
+		double by = pos[3 * b + 1] - pos[3 * o + 1];
+		double bz = pos[3 * b + 2] - pos[3 * o + 2];
+		double x = ay * bz - az * by;
+		double y = az * bx - ax * bz;
+		double z = ax * by - ay * bx;
+		double length = Math.sqrt(x * x + y * y + z * z);
+		if (length > 1e-6) {
+			n[0] = x / length;
+			n[1] = y / length;
+			n[2] = z / length;
+		} else {
+			n[0] = faceNormal[3 * face];
+			n[1] = faceNormal[3 * face + 1];
+			n[2] = faceNormal[3 * face + 2];
+		}
+	}
+
+	private static void setNormalized(double[] buffer, int index, double x, double y, double z) {
+		double length = Math.sqrt(x * x + y * y + z * z);
+		if (length > 0.0) {
+			x /= length;
+			y /= length;
+			z /= length;
+		}
+		buffer[3 * index] = x;
+		buffer[3 * index + 1] = y;
+		buffer[3 * index + 2] = z;
+	}
+
+	/**
+	 * ThreadManager task computing one kind of normals
+	 */
+	private class NormalTask implements ThreadManager.Task {
+		private static final int FACES = 0;
+
+		private static final int VERTICES = 1;
+
+		private static final int EDGES = 2;
+
+		private int kind;
+
+		public NormalTask(int kind) {
+			this.kind = kind;
+		}
+
+		public void execute(int index) {
+			if (kind == FACES)
+				computeFace(index);
+			else if (kind == VERTICES)
+				computeVertex(index);
+			else
+				computeEdge(index);
+		}
+
+		public void cleanup() {
+		}
+	}
+}
@@ -30,7 +30,7 @@ import artofillusion.ui.Translate;
 public class MeshStandardTool extends AdvancedEditingTool
 {
     private Vec3 baseVertPos[];
-    private UndoRecord undo;
+    private Vec3 undoVertPos[];
     private static Image icon, selectedIcon;
     /** hash maps are used to store manipulators for views */
     private HashMap manip2dHashMap, manip3dHashMap;
@@ -122,8 +122,8 @@ public class MeshStandardTool extends AdvancedEditingTool
     private void doManipulatorPrepareShapingMesh(Manipulator.ManipulatorEvent e)
     {
         Mesh mesh = (Mesh) controller.getObject().object;
-        if (undo == null)
-            undo = new UndoRecord(theWindow, false, UndoRecord.COPY_VERTEX_POSITIONS, new Object [] {mesh, mesh.getVertexPositions()});
+        if (undoVertPos == null)
+            undoVertPos = mesh.getVertexPositions();
         baseVertPos = mesh.getVertexPositions();
     }
 
@@ -161,10 +161,15 @@ public class MeshStandardTool extends AdvancedEditingTool
 
     private void doManipulatorShapedMesh(Manipulator.ManipulatorEvent e)
     {
-        if (undo != null)
+        if (undoVertPos != null)
         {
-            theWindow.setUndoRecord(undo);
-            undo = null;
+            Mesh mesh = (Mesh) controller.getObject().object;
+            //PolyMesh undo records only keep the vertices which have moved
+            if (mesh instanceof PolyMesh)
+                theWindow.setUndoRecord(new UndoRecord(theWindow, false, UndoRecord.COPY_OBJECT, new Object [] {mesh, MeshUndoState.recordPositions((PolyMesh) mesh, undoVertPos)}));
+            else
+                theWindow.setUndoRecord(new UndoRecord(theWindow, false, UndoRecord.COPY_VERTEX_POSITIONS, new Object [] {mesh, undoVertPos}));
+            undoVertPos = null;
         }
         baseVertPos = null;
         theWindow.setHelpText(Translate.text("polymesh:meshStandardTool.helpText"));
@@ -0,0 +1,235 @@
+/*
+ *  Copyright (C) 2026 by the PolyMesh plugin contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package artofillusion.polymesh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import artofillusion.math.Vec3;
+import artofillusion.object.MeshVertex;
+import artofillusion.polymesh.PolyMesh.Wedge;
+import artofillusion.polymesh.PolyMesh.Wface;
+import artofillusion.polymesh.PolyMesh.Wvertex;
+
+/**
+ * Compact mesh state recorded by PolyMesh editing undo records. Instead of a
+ * full copy of the mesh, an undo record holds a token PolyMesh without any
+ * geometry, which owns its MeshUndoState: the state lives exactly as long as
+ * the undo record does. When the record is undone, copying the token into the
+ * edited mesh restores the state (see PolyMesh.restoreUndoState()).
+ *
+ * Operations moving vertices only store the vertices which have moved, as a
+ * sparse array of indices and former positions. Operations changing the
+ * topology store the former mesh geometry as a deflated stream of variable
+ * length integers. Other mesh settings (texture, skeleton, UV mapping data...)
+ * are kept by the token.
+ *
+ * @author PolyMesh plugin contributors
+ */
+public abstract class MeshUndoState {
+
+	/**
+	 * Records the vertex positions of a mesh before vertices were moved. Only
+	 * the vertices which have moved since are stored.
+	 *
+	 * @param mesh
+	 *            The mesh, vertices already moved
+	 * @param oldPositions
+	 *            Vertex positions before vertices were moved
+	 * @return A token to use as the mesh copy of an UndoRecord.COPY_OBJECT command
+	 */
+	public static PolyMesh recordPositions(PolyMesh mesh, Vec3[] oldPositions) {
+		MeshVertex[] v = mesh.getVertices();
+		int count = 0;
+		for (int i = 0; i < oldPositions.length; i++)
+			if (i >= v.length || !oldPositions[i].equals(v[i].r))
+				count++;
+		int[] index = new int[count];
+		double[] pos = new double[3 * count];
+		count = 0;
+		for (int i = 0; i < oldPositions.length; i++) {
+			if (i < v.length && oldPositions[i].equals(v[i].r))
+				continue;
+			index[count] = i;
+			pos[3 * count] = oldPositions[i].x;
+			pos[3 * count + 1] = oldPositions[i].y;
+			pos[3 * count + 2] = oldPositions[i].z;
+			count++;
+		}
+		return PolyMesh.createUndoToken(new PositionState(oldPositions.length, index, pos), null);
+	}
+
+	/**
+	 * Records a mesh state. The mesh itself is left unchanged and can still be
+	 * used afterwards.
+	 *
+	 * @param previous
+	 *            The mesh before it was changed, or a copy of it
+	 * @return A token to use as the mesh copy of an UndoRecord.COPY_OBJECT command
+	 */
+	public static PolyMesh recordSnapshot(PolyMesh previous) {
+		try {
+			return PolyMesh.createUndoToken(new SnapshotState(previous), previous);
+		} catch (IOException ex) {
+			System.out.println("MeshUndoState : could not compress mesh, keeping a full copy");
+			ex.printStackTrace();
+			return (PolyMesh) previous.duplicate();
+		}
+	}
+
+	/**
+	 * Restores the recorded state into a mesh
+	 *
+	 * @param mesh
+	 *            The mesh to restore
+	 * @param token
+	 *            The token owning this state
+	 * @exception IllegalStateException
+	 *                If the state can't be restored into this mesh, which is
+	 *                then left unchanged
+	 */
+	abstract void restore(PolyMesh mesh, PolyMesh token);
+
+	/**
+	 * Former positions of moved vertices
+	 */
+	private static class PositionState extends MeshUndoState {
+		private int vertexCount;
+
+		private int[] index;
+
+		private double[] pos;
+
+		PositionState(int vertexCount, int[] index, double[] pos) {
+			this.vertexCount = vertexCount;
+			this.index = index;
+			this.pos = pos;
+		}
+
+		void restore(PolyMesh mesh, PolyMesh token) {
+			if (mesh.getVertices().length != vertexCount)
+				throw new IllegalStateException("MeshUndoState : mesh has " + mesh.getVertices().length
+						+ " vertices, positions were recorded for " + vertexCount);
+			mesh.restoreVertexPositions(index, pos);
+		}
+	}
+
+	/**
+	 * Compressed mesh geometry
+	 */
+	private static class SnapshotState extends MeshUndoState {
+		private byte[] data;
+
+		SnapshotState(PolyMesh mesh) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater));
+			Wvertex[] vertices = (Wvertex[]) mesh.getVertices();
+			Wedge[] edges = mesh.getEdges();
+			Wface[] faces = mesh.getFaces();
+			boolean[] seams = mesh.getSeams();
+			writeVarint(out, vertices.length);
+			for (int i = 0; i < vertices.length; i++) {
+				out.writeDouble(vertices[i].r.x);
+				out.writeDouble(vertices[i].r.y);
+				out.writeDouble(vertices[i].r.z);
+				writeVarint(out, vertices[i].edge - i);
+				out.writeShort(vertices[i].type);
+				writeVarint(out, vertices[i].ikJoint);
+				out.writeDouble(vertices[i].ikWeight);
+			}
+			writeVarint(out, edges.length);
+			for (int i = 0; i < edges.length; i++) {
+				writeVarint(out, edges[i].vertex - i / 2);
+				writeVarint(out, edges[i].hedge - i);
+				writeVarint(out, edges[i].face - i / 2);
+				writeVarint(out, edges[i].next - i);
+				out.writeFloat(edges[i].smoothness);
+			}
+			writeVarint(out, faces.length);
+			for (int i = 0; i < faces.length; i++)
+				writeVarint(out, faces[i].edge - 2 * i);
+			out.writeBoolean(seams != null);
+			if (seams != null)
+				for (int i = 0; i < seams.length; i++)
+					out.writeBoolean(seams[i]);
+			out.close();
+			deflater.end();
+			data = bytes.toByteArray();
+		}
+
+		void restore(PolyMesh mesh, PolyMesh token) {
+			try {
+				DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)));
+				Wvertex[] vertices = new Wvertex[readVarint(in)];
+				for (int i = 0; i < vertices.length; i++) {
+					Vec3 r = new Vec3(in.readDouble(), in.readDouble(), in.readDouble());
+					vertices[i] = mesh.new Wvertex(r, readVarint(in) + i);
+					vertices[i].type = in.readShort();
+					vertices[i].ikJoint = readVarint(in);
+					vertices[i].ikWeight = in.readDouble();
+				}
+				Wedge[] edges = new Wedge[readVarint(in)];
+				for (int i = 0; i < edges.length; i++) {
+					int vertex = readVarint(in) + i / 2;
+					int hedge = readVarint(in) + i;
+					int face = readVarint(in) + i / 2;
+					int next = readVarint(in) + i;
+					edges[i] = mesh.new Wedge(vertex, hedge, face, next);
+					edges[i].smoothness = in.readFloat();
+				}
+				Wface[] faces = new Wface[readVarint(in)];
+				for (int i = 0; i < faces.length; i++)
+					faces[i] = mesh.new Wface(readVarint(in) + 2 * i);
+				boolean[] seams = null;
+				if (in.readBoolean()) {
+					seams = new boolean[edges.length / 2];
+					for (int i = 0; i < seams.length; i++)
+						seams[i] = in.readBoolean();
+				}
+				in.close();
+				mesh.restoreUndoSnapshot(token, vertices, edges, faces, seams);
+			} catch (IOException ex) {
+				throw new IllegalStateException("MeshUndoState : could not read mesh state", ex);
+			}
+		}
+	}
+
+	/**
+	 * Writes a signed integer using one byte per 7 bits, small values taking
+	 * less room
+	 */
+	private static void writeVarint(DataOutputStream out, int value) throws IOException {
+		int v = (value << 1) ^ (value >> 31);
+		while ((v & ~0x7F) != 0) {
+			out.writeByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	private static int readVarint(DataInputStream in) throws IOException {
+		int v = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			v |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return (v >>> 1) ^ -(v & 1);
+	}
+}
@@ -219,7 +219,7 @@ public class PMBevelExtrudeTool extends EditingTool
             return;
         PolyMeshViewer mv = (PolyMeshViewer) view;
         PolyMesh mesh = (PolyMesh) controller.getObject().object;
-        theWindow.setUndoRecord( new UndoRecord( theWindow, false, UndoRecord.COPY_OBJECT, new Object[]{mesh, origMesh} ) );
+        theWindow.setUndoRecord( new UndoRecord( theWindow, false, UndoRecord.COPY_OBJECT, new Object[]{mesh, MeshUndoState.recordSnapshot( origMesh )} ) );
         controller.objectChanged();
         theWindow.updateImage();
         theWindow.setHelpText( Translate.text( "bevelExtrudeTool.helpText" ) );
@@ -216,7 +216,7 @@ public class PMCreateFaceTool extends EditingTool
             mesh.addStandaloneFace(newPoints);
         }
         controller.setMesh(mesh);
-        theWindow.setUndoRecord( new UndoRecord( theWindow, false, UndoRecord.COPY_OBJECT, new Object[]{mesh, origMesh} ) );
+        theWindow.setUndoRecord( new UndoRecord( theWindow, false, UndoRecord.COPY_OBJECT, new Object[]{mesh, MeshUndoState.recordSnapshot( origMesh )} ) );
         clickPoints.clear();
         fromPoint = null;
         from = to = -1;
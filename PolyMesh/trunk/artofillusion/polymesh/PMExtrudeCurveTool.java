@@ -365,7 +365,7 @@ public class PMExtrudeCurveTool extends EditingTool
         {
             fromPoint = null;
             clickPoints.clear();
-            theWindow.setUndoRecord( new UndoRecord( theWindow, false, UndoRecord.COPY_OBJECT, new Object[]{mesh, orMesh} ) );
+            theWindow.setUndoRecord( new UndoRecord( theWindow, false, UndoRecord.COPY_OBJECT, new Object[]{mesh, MeshUndoState.recordSnapshot( orMesh )} ) );
         }
     }
 
@@ -178,7 +178,7 @@ public class PMKnifeTool extends EditingTool
                 sel[i] &= !vertSelection[i];
             controller.setSelection( sel );
             theWindow.updateImage();
-            theWindow.setUndoRecord( new UndoRecord( theWindow, false, UndoRecord.COPY_OBJECT, new Object[]{mesh, originalMesh} ) );
+            theWindow.setUndoRecord( new UndoRecord( theWindow, false, UndoRecord.COPY_OBJECT, new Object[]{mesh, MeshUndoState.recordSnapshot( originalMesh )} ) );
             undo = null;
         }
         else
@@ -0,0 +1,291 @@
+/*
+ *  Copyright (C) 2026 by the PolyMesh plugin contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package artofillusion.polymesh;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import artofillusion.texture.ConstantParameterValue;
+import artofillusion.texture.FaceParameterValue;
+import artofillusion.texture.FaceVertexParameterValue;
+import artofillusion.texture.ParameterValue;
+import artofillusion.texture.VertexParameterValue;
+
+/**
+ * A triangulated mesh ready to be written into caller supplied buffers, as an
+ * alternative to RenderingMesh or TriangleMesh for exporters and GPU upload.
+ * Vertex data is interleaved : x y z, then nx ny nz if NORMALS is set, then
+ * u v if UVS is set. Indices are written three per triangle.
+ *
+ * No object is created per vertex or per triangle, and buffers can be reused
+ * from one frame to the next : ask for getFloatCount() and getIndexCount(),
+ * allocate buffers once at least that large and call write() whenever the mesh
+ * changes. Data is written at the current buffer positions, so that several
+ * meshes can be written one after the other in the same buffers.
+ *
+ * Normals are the smooth vertex normals of the mesh, creases are not split.
+ * UVs are taken from two texture parameters. When they are defined per face or
+ * per face vertex, each triangle corner gets its own vertex.
+ *
+ * @author PolyMesh plugin contributors
+ */
+public class PackedGeometry {
+
+	/** Write vertex normals */
+	public final static int NORMALS = 1;
+
+	/** Write texture coordinates */
+	public final static int UVS = 2;
+
+	private double[] position;
+
+	private double[] normal;
+
+	private int[] triangle;
+
+	private int triCount;
+
+	private boolean quadFaces; //triangles 2f and 2f+1 split quad f
+
+	private ParameterValue[] param;
+
+	private ParameterValue uValue;
+
+	private ParameterValue vValue;
+
+	private boolean splitVertices;
+
+	private static final int[][] QUAD_CORNER = { { 0, 1, 2 }, { 0, 2, 3 } };
+
+	/**
+	 * Creates a packed geometry. Arrays are used as is.
+	 *
+	 * @param position
+	 *            x y z for each vertex
+	 * @param normal
+	 *            nx ny nz for each vertex, or null
+	 * @param triangle
+	 *            Vertex indices, three per triangle
+	 * @param triCount
+	 *            Number of triangles
+	 * @param quadFaces
+	 *            True if triangles 2f and 2f + 1 are the two halves (v1 v2 v3)
+	 *            and (v1 v3 v4) of quad f, in which case per face parameter
+	 *            values are given per quad rather than per triangle
+	 * @param param
+	 *            Texture parameter values, or null
+	 */
+	PackedGeometry(double[] position, double[] normal, int[] triangle, int triCount, boolean quadFaces,
+			ParameterValue[] param) {
+		this.position = position;
+		this.normal = normal;
+		this.triangle = triangle;
+		this.triCount = triCount;
+		this.quadFaces = quadFaces;
+		this.param = param;
+	}
+
+	/**
+	 * Selects the texture parameters written as UVs
+	 *
+	 * @param uParam
+	 *            Index of the u parameter in the mesh parameter values
+	 * @param vParam
+	 *            Index of the v parameter in the mesh parameter values
+	 */
+	public void setUVParameters(int uParam, int vParam) {
+		if (param == null || uParam < 0 || vParam < 0 || uParam >= param.length || vParam >= param.length) {
+			System.out.println("PackedGeometry : no such texture parameters " + uParam + ", " + vParam);
+			uValue = vValue = null;
+			splitVertices = false;
+			return;
+		}
+		uValue = param[uParam];
+		vValue = param[vParam];
+		splitVertices = !isPerVertex(uValue) || !isPerVertex(vValue);
+	}
+
+	private static boolean isPerVertex(ParameterValue value) {
+		return value instanceof VertexParameterValue || value instanceof ConstantParameterValue;
+	}
+
+	/**
+	 * Returns true if normals are available. Meshes which are not smoothed
+	 * have none, they are meant to be flat shaded.
+	 */
+	public boolean hasNormals() {
+		return normal != null;
+	}
+
+	/**
+	 * Returns the number of vertices written for the given layout
+	 */
+	public int getVertexCount(int layout) {
+		if ((layout & UVS) != 0 && splitVertices)
+			return 3 * triCount;
+		return position.length / 3;
+	}
+
+	public int getTriangleCount() {
+		return triCount;
+	}
+
+	/**
+	 * Returns the number of floats per vertex for the given layout
+	 */
+	public static int getStride(int layout) {
+		int stride = 3;
+		if ((layout & NORMALS) != 0)
+			stride += 3;
+		if ((layout & UVS) != 0)
+			stride += 2;
+		return stride;
+	}
+
+	/**
+	 * Returns the number of floats written in the vertex buffer
+	 */
+	public int getFloatCount(int layout) {
+		return getStride(layout) * getVertexCount(layout);
+	}
+
+	/**
+	 * Returns the number of ints written in the index buffer
+	 */
+	public int getIndexCount() {
+		return 3 * triCount;
+	}
+
+	/**
+	 * Writes vertex data and triangle indices. Normals of a mesh without
+	 * normals and UVs of a mesh without UV parameters are written as zeros.
+	 *
+	 * @param vertexData
+	 *            Buffer receiving interleaved vertex data
+	 * @param indices
+	 *            Buffer receiving triangle indices
+	 * @param layout
+	 *            Combination of NORMALS and UVS
+	 */
+	public void write(FloatBuffer vertexData, IntBuffer indices, int layout) {
+		write(vertexData, indices, layout, 0);
+	}
+
+	/**
+	 * Writes vertex data and triangle indices
+	 *
+	 * @param vertexData
+	 *            Buffer receiving interleaved vertex data
+	 * @param indices
+	 *            Buffer receiving triangle indices
+	 * @param layout
+	 *            Combination of NORMALS and UVS
+	 * @param firstIndex
+	 *            Index of the first vertex written, added to all indices
+	 */
+	public void write(FloatBuffer vertexData, IntBuffer indices, int layout, int firstIndex) {
+		boolean norm = (layout & NORMALS) != 0;
+		boolean uv = (layout & UVS) != 0;
+		if (uv && splitVertices) {
+			// one vertex per triangle corner
+			int k = firstIndex;
+			for (int i = 0; i < triCount; i++) {
+				for (int j = 0; j < 3; j++) {
+					putVertex(vertexData, triangle[3 * i + j], norm);
+					putUV(vertexData, i, j);
+					indices.put(k++);
+				}
+			}
+			return;
+		}
+		int count = position.length / 3;
+		for (int i = 0; i < count; i++) {
+			putVertex(vertexData, i, norm);
+			if (uv) {
+				vertexData.put((float) getVertexValue(uValue, i));
+				vertexData.put((float) getVertexValue(vValue, i));
+			}
+		}
+		for (int i = 0; i < 3 * triCount; i++)
+			indices.put(triangle[i] + firstIndex);
+	}
+
+	/**
+	 * Writes vertex data and triangle indices into byte buffers, which can be
+	 * direct buffers. Values are written in the buffers byte order, starting
+	 * at their current positions which are then moved past the written data.
+	 *
+	 * @param vertexData
+	 *            Buffer receiving interleaved vertex data
+	 * @param indices
+	 *            Buffer receiving triangle indices
+	 * @param layout
+	 *            Combination of NORMALS and UVS
+	 * @param firstIndex
+	 *            Index of the first vertex written, added to all indices
+	 */
+	public void write(ByteBuffer vertexData, ByteBuffer indices, int layout, int firstIndex) {
+		FloatBuffer fb = vertexData.asFloatBuffer();
+		IntBuffer ib = indices.asIntBuffer();
+		write(fb, ib, layout, firstIndex);
+		vertexData.position(vertexData.position() + 4 * fb.position());
+		indices.position(indices.position() + 4 * ib.position());
+	}
+
+	private void putVertex(FloatBuffer buffer, int v, boolean norm) {
+		buffer.put((float) position[3 * v]);
+		buffer.put((float) position[3 * v + 1]);
+		buffer.put((float) position[3 * v + 2]);
+		if (norm) {
+			if (normal == null) {
+				buffer.put(0f);
+				buffer.put(0f);
+				buffer.put(0f);
+			} else {
+				buffer.put((float) normal[3 * v]);
+				buffer.put((float) normal[3 * v + 1]);
+				buffer.put((float) normal[3 * v + 2]);
+			}
+		}
+	}
+
+	private void putUV(FloatBuffer buffer, int tri, int corner) {
+		buffer.put((float) getCornerValue(uValue, tri, corner));
+		buffer.put((float) getCornerValue(vValue, tri, corner));
+	}
+
+	private static double getVertexValue(ParameterValue value, int vert) {
+		if (value instanceof VertexParameterValue)
+			return ((VertexParameterValue) value).getValue()[vert];
+		if (value instanceof ConstantParameterValue)
+			return ((ConstantParameterValue) value).getValue();
+		return 0.0;
+	}
+
+	private double getCornerValue(ParameterValue value, int tri, int corner) {
+		if (value == null)
+			return 0.0;
+		if (value instanceof VertexParameterValue)
+			return ((VertexParameterValue) value).getValue()[triangle[3 * tri + corner]];
+		if (value instanceof ConstantParameterValue)
+			return ((ConstantParameterValue) value).getValue();
+		int face = tri;
+		if (quadFaces) {
+			face = tri / 2;
+			corner = QUAD_CORNER[tri % 2][corner];
+		}
+		if (value instanceof FaceParameterValue)
+			return ((FaceParameterValue) value).getValue()[face];
+		if (value instanceof FaceVertexParameterValue)
+			return ((FaceVertexParameterValue) value).getValue(face, corner);
+		return value.getAverageValue();
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ *  Copyright (C) 2026 by the PolyMesh plugin contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package artofillusion.polymesh;
+
+import java.util.Arrays;
+
+import artofillusion.math.Vec3;
+import artofillusion.polymesh.PolyMesh.Wedge;
+import artofillusion.polymesh.PolyMesh.Wface;
+import artofillusion.polymesh.PolyMesh.Wvertex;
+
+/**
+ * A read only copy of a PolyMesh topology stored as parallel arrays of primitives.
+ * Half edge, face and vertex fields are packed into int, float and double arrays
+ * so that operations walking the whole mesh (normals, smoothing...) do not have
+ * to chase Wvertex/Wedge/Wface objects. Vertices around faces and edges around
+ * vertices are also precomputed as compressed row arrays.
+ *
+ * A PackedTopology is built from the mesh arrays and is not updated when
+ * the mesh changes, except for vertex positions which can be copied again
+ * using updatePositions(). PolyMesh keeps one cached until resetMesh() is called.
+ *
+ * @author PolyMesh plugin contributors
+ */
+public class PackedTopology {
+
+	/** Vertex at the end of each half edge */
+	public final int[] edgeVertex;
+
+	/** Other half edge */
+	public final int[] edgeHedge;
+
+	/** Face bordered by each half edge, -1 for boundaries */
+	public final int[] edgeFace;
+
+	/** Next half edge around the face */
+	public final int[] edgeNext;
+
+	/** Half edge smoothness */
+	public final float[] edgeSmoothness;
+
+	/** A half edge starting at each vertex */
+	public final int[] vertexEdge;
+
+	/** Vertex types (NONE, CREASE or CORNER) */
+	public final short[] vertexType;
+
+	/** Vertex positions, x y z for each vertex */
+	public final double[] position;
+
+	/** A half edge bordering each face */
+	public final int[] faceEdge;
+
+	/** faceVert[faceVertStart[f]] to faceVert[faceVertStart[f+1] - 1] are the vertices of face f */
+	public final int[] faceVertStart;
+
+	public final int[] faceVert;
+
+	/** vertEdge[vertEdgeStart[v]] to vertEdge[vertEdgeStart[v+1] - 1] are the half edges starting at v */
+	public final int[] vertEdgeStart;
+
+	public final int[] vertEdge;
+
+	private Wvertex[] vertices;
+
+	private Wedge[] edges;
+
+	private Wface[] faces;
+
+	/**
+	 * Builds a packed topology for the given mesh arrays
+	 *
+	 * @param vertices
+	 *            Mesh vertices
+	 * @param edges
+	 *            Mesh half edges
+	 * @param faces
+	 *            Mesh faces
+	 */
+	public PackedTopology(Wvertex[] vertices, Wedge[] edges, Wface[] faces) {
+		this.vertices = vertices;
+		this.edges = edges;
+		this.faces = faces;
+		edgeVertex = new int[edges.length];
+		edgeHedge = new int[edges.length];
+		edgeFace = new int[edges.length];
+		edgeNext = new int[edges.length];
+		edgeSmoothness = new float[edges.length];
+		for (int i = 0; i < edges.length; i++) {
+			edgeVertex[i] = edges[i].vertex;
+			edgeHedge[i] = edges[i].hedge;
+			edgeFace[i] = edges[i].face;
+			edgeNext[i] = edges[i].next;
+			edgeSmoothness[i] = edges[i].smoothness;
+		}
+		vertexEdge = new int[vertices.length];
+		vertexType = new short[vertices.length];
+		position = new double[3 * vertices.length];
+		for (int i = 0; i < vertices.length; i++) {
+			vertexEdge[i] = vertices[i].edge;
+			vertexType[i] = vertices[i].type;
+			Vec3 r = vertices[i].r;
+			position[3 * i] = r.x;
+			position[3 * i + 1] = r.y;
+			position[3 * i + 2] = r.z;
+		}
+		faceEdge = new int[faces.length];
+		for (int i = 0; i < faces.length; i++) {
+			faceEdge[i] = faces[i].edge;
+		}
+		// vertices around faces, same order as PolyMesh.getFaceVertices()
+		faceVertStart = new int[faces.length + 1];
+		int count = 0;
+		for (int i = 0; i < faces.length; i++) {
+			faceVertStart[i] = count;
+			count += countFaceVertices(faceEdge[i]);
+		}
+		faceVertStart[faces.length] = count;
+		faceVert = new int[count];
+		for (int i = 0; i < faces.length; i++) {
+			int e = faceEdge[i];
+			for (int j = faceVertStart[i]; j < faceVertStart[i + 1]; j++) {
+				faceVert[j] = edgeVertex[e];
+				e = edgeNext[e];
+			}
+		}
+		// edges around vertices, same order as PolyMesh.getVertexEdges()
+		vertEdgeStart = new int[vertices.length + 1];
+		count = 0;
+		for (int i = 0; i < vertices.length; i++) {
+			vertEdgeStart[i] = count;
+			count += countVertexEdges(vertexEdge[i]);
+		}
+		vertEdgeStart[vertices.length] = count;
+		vertEdge = new int[count];
+		for (int i = 0; i < vertices.length; i++) {
+			int e = vertexEdge[i];
+			for (int j = vertEdgeStart[i]; j < vertEdgeStart[i + 1]; j++) {
+				vertEdge[j] = e;
+				e = edgeNext[edgeHedge[e]];
+			}
+		}
+	}
+
+	private int countFaceVertices(int start) {
+		int startVert = edgeVertex[start];
+		int e = start;
+		int count = 1;
+		while (edgeVertex[edgeNext[e]] != startVert) {
+			++count;
+			if (count > edgeVertex.length) {
+				System.out.println("Error in PackedTopology : face is not closed");
+				return 0;
+			}
+			e = edgeNext[e];
+		}
+		return count;
+	}
+
+	private int countVertexEdges(int start) {
+		int e = start;
+		int count = 1;
+		while (edgeNext[edgeHedge[e]] != start) {
+			++count;
+			if (count > edgeVertex.length) {
+				System.out.println("Error in PackedTopology : too many edges around a vertex");
+				return 0;
+			}
+			e = edgeNext[edgeHedge[e]];
+		}
+		return count;
+	}
+
+	/**
+	 * Copies the current vertex positions of the mesh this topology was built from.
+	 * Used when vertices have moved but the topology has not changed.
+	 */
+	public void updatePositions() {
+		for (int i = 0; i < vertices.length; i++) {
+			Vec3 r = vertices[i].r;
+			position[3 * i] = r.x;
+			position[3 * i + 1] = r.y;
+			position[3 * i + 2] = r.z;
+		}
+	}
+
+	/**
+	 * Returns true if this packed topology was built from the given mesh arrays
+	 */
+	public boolean isBuiltFrom(Wvertex[] v, Wedge[] e, Wface[] f) {
+		return v == vertices && e == edges && f == faces;
+	}
+
+	/**
+	 * Returns true if the other packed topology describes the same mesh topology,
+	 * with the same smoothness values and vertex types. Positions are not compared.
+	 */
+	public boolean hasSameTopology(PackedTopology other) {
+		return Arrays.equals(edgeVertex, other.edgeVertex) && Arrays.equals(edgeHedge, other.edgeHedge)
+				&& Arrays.equals(edgeFace, other.edgeFace) && Arrays.equals(edgeNext, other.edgeNext)
+				&& Arrays.equals(edgeSmoothness, other.edgeSmoothness)
+				&& Arrays.equals(vertexEdge, other.vertexEdge) && Arrays.equals(vertexType, other.vertexType)
+				&& Arrays.equals(faceEdge, other.faceEdge);
+	}
+
+	public int getVertexCount() {
+		return vertexEdge.length;
+	}
+
+	public int getEdgeCount() {
+		return edgeVertex.length;
+	}
+
+	public int getFaceCount() {
+		return faceEdge.length;
+	}
+
+	public int getFaceVertCount(int face) {
+		return faceVertStart[face + 1] - faceVertStart[face];
+	}
+
+	public int getVertexEdgeCount(int vert) {
+		return vertEdgeStart[vert + 1] - vertEdgeStart[vert];
+	}
+}
@@ -10,15 +10,31 @@
 package artofillusion.polymesh;
 
 import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.UUID;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.prefs.Preferences;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import artofillusion.MeshViewer;
 import artofillusion.ObjectViewer;
@@ -76,7 +92,10 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
 	private int smoothingMethod;
 
-	private RenderingMesh cachedMesh;
+	private final AtomicReference<RenderingState> renderingState = new AtomicReference<RenderingState>(RenderingState.EMPTY);
+	//interactive rendering mesh and rendering mesh being built, see getRenderingMesh()
+
+	private final Object smoothingLock = new Object(); //guards smoothingCache updates
 
 	private WireframeMesh cachedWire;
 
@@ -86,32 +105,33 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
 	private Vec3[] cachedFaceNormals;
 
-	private Wvertex[] vertices;
+	private MeshNormals meshNormals; //normal buffers, kept while only vertices move
 
-	private Wedge[] edges;
+	private PackedTopology packedTopology; //packed copy of the mesh topology
 
-	private Wface[] faces;
+	private MeshUndoState undoState; //set if this mesh is an undo token
 
-	private boolean closed;
+	private String geometryFileId; //names the geometry cache file, see writeGeometryFile()
 
-	private Skeleton skeleton;
+	private SimilarityIndex similarityIndex; //see findSimilarFaces()
 
-	private Vector v1; //vectors used to store triangulation information
-	//persistent data, must de declared as fields
+	private EdgeLoopIndex edgeLoopIndex; //see findEdgeLoops()
+
+	private Wvertex[] vertices;
 
-	private Vector v2;
+	private Wedge[] edges;
 
-	private Vector v3;
+	private Wface[] faces;
 
-	private Vector vert;
+	private boolean closed;
 
-	private Vector vertInfo;
+	private Skeleton skeleton;
 
-	private Vector faceInfo;
+	private Triangulation triangulation; //set by convertToTriangleMesh()
 
 	private short mirrorState; //live mirrors
 
-	private PolyMesh mirroredMesh;
+	private volatile PolyMesh mirroredMesh;
 
 	private boolean controlledSmoothing;
 
@@ -132,7 +152,13 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
 	private int[] projectedEdges; //original edges in the case of a smoothed mesh
 
-	private QuadMesh subdividedMesh; //the subdivided mesh when smoothed
+	private volatile QuadMesh subdividedMesh; //the subdivided mesh when smoothed
+
+	private volatile SmoothingCache smoothingCache; //see getRenderingMesh()
+
+	private PoseStencils poseStencils; //shared with duplicates, see getRenderingMesh()
+
+	private boolean posed; //true once a pose keyframe has been applied
 
 	protected int[] mirroredVerts; //vert
 
@@ -146,10 +172,18 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
 	protected int[] invMirroredEdges;
 
+	private MirrorMapping mirrorMapping; //relates mirrored mesh vertices to this mesh vertices
+
 	protected UVMappingData mappingData; //UV Mapping
 
 	private int mappingVerts, mappingEdges, mappingFaces; //markers to check if UVMapping data
 	//is still valid
+
+	private byte[] mappingSection; //UV mapping data not read yet
+
+	private boolean mappingSectionCompressed;
+
+	private int[] mappingTextureIDs; //scene texture ids when the mapping section was loaded
 	
 	//colors and preferences
 	private boolean useCustomColors;
@@ -180,6 +214,20 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	
 	private static Preferences preferences = Preferences.userRoot().node("artofillusion.polymesh");
 
+	//file format constants
+	
+	private final static short FILE_VERSION = 11;
+
+	private final static byte NO_COMPRESSION = 0;
+
+	private final static byte DEFLATE_COMPRESSION = 1;
+
+	private final static byte GEOMETRY_FILE = 2; //geometry kept in a PolyMeshGeometryFile
+
+	private final static short SEAMS_SECTION = 1;
+
+	private final static short MAPPING_SECTION = 2;
+
 	// direction constants
 	/**
 	 * Action along the normal
@@ -1208,6 +1256,10 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	 * it. If the two objects are of different classes, this will throw a
 	 * ClassCastException.
 	 * 
+	 * If obj is an undo token created by MeshUndoState, the state it stands for
+	 * is restored instead, since this is what undoing an
+	 * UndoRecord.COPY_OBJECT record holding the token calls.
+	 * 
 	 * @param obj
 	 *            Object to copy
 	 */
@@ -1215,7 +1267,10 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	public void copyObject(Object3D obj) {
 		PolyMesh mesh = (PolyMesh) obj;
 
-		texParam = null;
+		if (mesh.undoState != null) {
+			restoreUndoState(mesh);
+			return;
+		}
 		vertices = new Wvertex[mesh.vertices.length];
 		edges = new Wedge[mesh.edges.length];
 		faces = new Wface[mesh.faces.length];
@@ -1225,6 +1280,22 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 			edges[i] = new Wedge(mesh.edges[i]);
 		for (int i = 0; i < mesh.faces.length; i++)
 			faces[i] = new Wface(mesh.faces[i]);
+		copySettings(mesh);
+		if (mesh.seams != null) {
+			seams = new boolean[mesh.seams.length];
+			for (int i = 0; i < seams.length; i++)
+				seams[i] = mesh.seams[i];
+		}
+	}
+
+	/**
+	 * Copies everything but the geometry of another mesh
+	 * 
+	 * @param mesh
+	 *            Mesh to copy
+	 */
+	private void copySettings(PolyMesh mesh) {
+		texParam = null;
 		if (skeleton == null)
 			skeleton = mesh.skeleton.duplicate();
 		else
@@ -1232,12 +1303,18 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		setSmoothingMethod(mesh.getSmoothingMethod());
 		mirrorState = mesh.getMirrorState();
 		closed = mesh.closed;
-		copyTextureAndMaterial(obj);
-		cachedMesh = null;
+		copyTextureAndMaterial(mesh);
+		clearCachedMesh();
 		cachedWire = null;
 		cachedNormals = null;
 		cachedEdgeNormals = null;
 		cachedFaceNormals = null;
+		meshNormals = null;
+		packedTopology = null;
+		similarityIndex = null;
+		edgeLoopIndex = null;
+		smoothingCache = null;
+		poseStencils = mesh.poseStencils;
 		bounds = null;
 		controlledSmoothing = mesh.controlledSmoothing;
 		minAngle = mesh.minAngle;
@@ -1254,10 +1331,14 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		} else {
 			mappingData = null;
 		}
-		if (mesh.seams != null) {
-			seams = new boolean[mesh.seams.length];
-			for (int i = 0; i < seams.length; i++)
-				seams[i] = mesh.seams[i];
+		//pending section data is never modified, it can be shared
+		mappingSection = mesh.mappingSection;
+		mappingSectionCompressed = mesh.mappingSectionCompressed;
+		mappingTextureIDs = mesh.mappingTextureIDs;
+		if (mappingSection != null) {
+			mappingVerts = mesh.mappingVerts;
+			mappingEdges = mesh.mappingEdges;
+			mappingFaces = mesh.mappingFaces;
 		}
 		useCustomColors = mesh.useCustomColors;
 		vertColor = mesh.vertColor;
@@ -1301,6 +1382,10 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
 	public Object3D duplicate() {
 		PolyMesh mesh = new PolyMesh();
+		//duplicates are posed for each animation frame, let them share the
+		//subdivision recorded by the first one
+		if (poseStencils == null)
+			poseStencils = new PoseStencils();
 		mesh.copyObject(this);
 		return mesh;
 	}
@@ -1336,7 +1421,10 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	}
 
 	/**
-	 * Returns a rendering mesh for the PolyMesh object
+	 * Returns a rendering mesh for the PolyMesh object. This method may be
+	 * called by several threads at the same time. Only one of the threads
+	 * asking for the same rendering mesh builds it, the others wait for it and
+	 * get their own copy (or the same mesh for interactive rendering).
 	 * 
 	 * @param tol
 	 *            Tolerance
@@ -1348,26 +1436,56 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	 */
 	public RenderingMesh getRenderingMesh(double tol, boolean interactive,
 			ObjectInfo info) {
-		if (interactive && cachedMesh != null)
-			return cachedMesh;
+		RenderingState state = renderingState.get();
+		if (interactive && state.mesh != null)
+			return state.mesh;
+		RenderingJob job = new RenderingJob(tol, interactive, info);
+		do {
+			state = renderingState.get();
+			if (state.job != null && state.job.isSameAs(job))
+				return state.job.waitForMesh(true);
+		} while (!renderingState.compareAndSet(state, new RenderingState(job, state.mesh)));
+		job.run();
+		return job.waitForMesh(false);
+	}
+
+	/**
+	 * Returns the interactive rendering mesh, null if there is none
+	 */
+	private RenderingMesh getCachedMesh() {
+		return renderingState.get().mesh;
+	}
+
+	/**
+	 * Forgets the interactive rendering mesh. Meshes being built are not
+	 * published when they are done.
+	 */
+	private void clearCachedMesh() {
+		renderingState.set(RenderingState.EMPTY);
+	}
+
+	/**
+	 * Builds a rendering mesh, see getRenderingMesh(). Apart from caches used
+	 * to speed up interactive smoothing, this method only writes local data.
+	 */
+	private RenderingMesh buildRenderingMesh(double tol, boolean interactive,
+			ObjectInfo info) {
 		RenderingMesh rend = null;
 		if (mirrorState != NO_MIRROR) {
-			if (mirroredMesh == null)
-				getMirroredMesh();
-			rend = mirroredMesh.getRenderingMesh(tol, interactive, info);
-			closed = mirroredMesh.isClosed();
-			subdividedMesh = mirroredMesh.getSubdividedMesh();
-			if (interactive)
-				cachedMesh = rend;
+			PolyMesh mirror = getMirroredMesh();
+			rend = mirror.getRenderingMesh(tol, interactive, info);
+			closed = mirror.isClosed();
+			subdividedMesh = mirror.getSubdividedMesh();
 			return rend;
 		}
-		closed = true;
+		boolean isClosed = true;
 		for (int i = 0; i < edges.length / 2; ++i) {
 			if ((edges[i].face == -1) || (edges[edges[i].hedge].face == -1)) {
-				closed = false;
+				isClosed = false;
 				break;
 			}
 		}
+		closed = isClosed;
 		//long time = new Date().getTime();
 		if (smoothingMethod == Mesh.APPROXIMATING) {
 			// long t = System.currentTimeMillis();
@@ -1380,12 +1498,26 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 //					mesh.smoothWholeMesh(i, true, smoothingMethod, false);
 //				cachedMesh = mesh.getRenderingMeshQuadCase();
 				//long time = System.currentTimeMillis(); 
-				QuadMesh qmesh = smoothWholeMesh(tol, true, interactiveSmoothLevel, false);
-				cachedMesh = qmesh.getRenderingMesh();
+				QuadMesh qmesh;
+				//interactive jobs for another info or tolerance may run at the
+				//same time, the cache is updated in place
+				synchronized (smoothingLock) {
+					SmoothingCache cache = smoothingCache;
+					if (cache != null && cache.isValid(tol, interactiveSmoothLevel)) {
+						//only vertex positions have changed since last time
+						cache.update();
+						qmesh = cache.qmesh;
+					} else {
+						cache = new SmoothingCache(tol, interactiveSmoothLevel);
+						qmesh = smoothWholeMesh(tol, true, interactiveSmoothLevel, false, cache);
+						smoothingCache = cache;
+					}
+					rend = qmesh.getRenderingMesh();
+				}
 				//time = System.currentTimeMillis() - time;
 				//System.out.println( time/1000.0 );
 				subdividedMesh = qmesh;
-				return cachedMesh;
+				return rend;
 			} else {
 				long time = System.currentTimeMillis(); 
 //				mesh.printSize();
@@ -1395,133 +1527,88 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 //				}
 //				mesh.finalSmoothing = true;
 //				cachedMesh = mesh.getRenderingMesh(tol, interactive, info);
-				QuadMesh qmesh = smoothWholeMesh(tol, false, Integer.MAX_VALUE, false);
+				QuadMesh qmesh;
+				//copies of this mesh may already have been smoothed
+				SmoothedMeshCache.Key key = SmoothedMeshCache.getKey(this, tol);
+				rend = SmoothedMeshCache.getSharedCache().get(key, getTextureMapping(), getMaterialMapping());
+				if (rend != null)
+					return rend;
+				if (posed) {
+					//posed copies share the subdivision of the first one
+					if (poseStencils == null)
+						poseStencils = new PoseStencils();
+					qmesh = poseStencils.getSmoothedMesh(this, tol);
+				} else
+					qmesh = smoothWholeMesh(tol, false, Integer.MAX_VALUE, false);
 				//System.out.println("vertices: " + qmesh.getVertices().length);
-				cachedMesh = qmesh.getRenderingMesh();
+				rend = qmesh.getRenderingMesh();
+				SmoothedMeshCache.getSharedCache().put(key, rend);
 				//time = System.currentTimeMillis() - time;
 				//System.out.println( time/1000.0 );
-				return cachedMesh;
+				return rend;
 			}
 		}
 		TextureMapping texMapping = getTextureMapping();
-		vert = new Vector();
-		v1 = new Vector();
-		v2 = new Vector();
-		v3 = new Vector();
-		vertInfo = new Vector();
-		faceInfo = new Vector();
-		for (int i = 0; i < vertices.length; ++i) {
-			vert.addElement(vertices[i].r);
-			vertInfo.add(new VertexParamInfo(new int[] { i },
-					new double[] { 1.0 }));
-		}
-		for (int i = 0; i < faces.length; ++i) {
-			int[] vf = getFaceVertices(faces[i]);
-			if (vf.length == 3) {
-				v1.addElement(new Integer(vf[0]));
-				v2.addElement(new Integer(vf[1]));
-				v3.addElement(new Integer(vf[2]));
-				faceInfo.add(new Integer(i));
-
-			} else if (vf.length > 3) {
-				triangulate(vf, i, false);
-			}
-		}
-		Vec3[] vertArray = new Vec3[vert.size()];
-		for (int i = 0; i < vertArray.length; ++i)
-			vertArray[i] = (Vec3) vert.elementAt(i);
-
-			RenderingTriangle[] tri = new RenderingTriangle[v1.size()];
-			for (int i = 0; i < v1.size(); ++i)
-				tri[i] = texMapping.mapTriangle(((Integer) v1.elementAt(i))
-						.intValue(), ((Integer) v2.elementAt(i)).intValue(),
-						((Integer) v3.elementAt(i)).intValue(), 0, 0, 0,
-						vertArray);
-			rend = new RenderingMesh(vertArray, new Vec3[] { null }, tri,
-					texMapping, getMaterialMapping());
-			ParameterValue oldParamVal[] = getParameterValues();
-			if (oldParamVal != null) {
-				ParameterValue newParamVal[] = new ParameterValue[oldParamVal.length];
-				for (int i = 0; i < oldParamVal.length; i++) {
-					if (oldParamVal[i] instanceof VertexParameterValue) {
-						double oldval[] = ((VertexParameterValue) oldParamVal[i])
-								.getValue();
-						double newval[] = new double[vert.size()];
-						for (int j = 0; j < vert.size(); ++j) {
-							int[] vf = ((VertexParamInfo) vertInfo.elementAt(j)).vert;
-							double[] coef = ((VertexParamInfo) vertInfo
-									.elementAt(j)).coef;
-							for (int k = 0; k < vf.length; ++k)
-								newval[j] += coef[k] * oldval[vf[k]];
-						}
-						newParamVal[i] = new VertexParameterValue(newval);
-
-					} else if (oldParamVal[i] instanceof FaceParameterValue) {
-						double oldval[] = ((FaceParameterValue) oldParamVal[i])
-								.getValue();
-						double newval[] = new double[faceInfo.size()];
-						for (int j = 0; j < newval.length; ++j)
-							newval[j] = oldval[((Integer) faceInfo.elementAt(j))
-									.intValue()];
-						newParamVal[i] = new FaceParameterValue(newval);
-					} else if (oldParamVal[i] instanceof FaceVertexParameterValue) {
-						FaceVertexParameterValue fvpv = (FaceVertexParameterValue) oldParamVal[i];
-						double newval[][] = new double[v1.size()][3];
-						for (int j = 0; j < v1.size(); ++j) {
-							for (int k = 0; k < 3; k++) {
-								int vertex = -1;
-								switch (k) {
-								case 0:
-									vertex = ((Integer) v1.elementAt(j))
-											.intValue();
-									break;
-								case 1:
-									vertex = ((Integer) v2.elementAt(j))
-											.intValue();
-									break;
-								case 2:
-									vertex = ((Integer) v3.elementAt(j))
-											.intValue();
-									break;
-								}
-								int pmeFace = ((Integer) faceInfo.elementAt(j))
-										.intValue();
-								int[] fv = getFaceVertices(faces[pmeFace]);
-								int[] vf = ((VertexParamInfo) vertInfo
-										.elementAt(vertex)).vert;
-								double[] coef = ((VertexParamInfo) vertInfo
-										.elementAt(vertex)).coef;
-								for (int l = 0; l < vf.length; ++l) {
-									int vv = -1;
-									for (int m = 0; m < fv.length; ++m) {
-										if (fv[m] == vf[l]) {
-											vv = m;
-											break;
-										}
-									}
-									if (vv == -1) {
-										System.out
-												.println("pb per face per vertex : point doesn't belong to face");
-										vv = 0;
-									}
-									newval[j][k] += coef[l]
-											* fvpv.getValue(pmeFace, vv);
-								}
-
-							}
-						}
-						newParamVal[i] = new FaceVertexParameterValue(newval);
-					} else
-						newParamVal[i] = oldParamVal[i].duplicate();
-				}
-				rend.setParameters(newParamVal);
-			}
-		
-		if (interactive)
-			cachedMesh = rend;
+		Triangulation t = triangulateMesh();
+		Vec3[] vertArray = t.getVertexPositions(vertices);
+		RenderingTriangle[] tri = new RenderingTriangle[t.triCount];
+		int[] tv = t.triVert;
+		for (int i = 0; i < tri.length; ++i)
+			tri[i] = texMapping.mapTriangle(tv[3 * i], tv[3 * i + 1],
+					tv[3 * i + 2], 0, 0, 0, vertArray);
+		rend = new RenderingMesh(vertArray, new Vec3[] { null }, tri,
+				texMapping, getMaterialMapping());
+		ParameterValue newParamVal[] = getTriangulationParameterValues(t);
+		if (newParamVal != null)
+			rend.setParameters(newParamVal);
 		return rend;
 	}
 
+	/**
+	 * Returns the mesh as packed triangles, to be written into buffers by
+	 * exporters or renderers. No object is created per vertex or face of the
+	 * smoothed mesh.
+	 * 
+	 * @param tol
+	 *            The smoothing tolerance, used if the smoothing method is
+	 *            APPROXIMATING. Otherwise faces are triangulated as for
+	 *            rendering.
+	 * @return The packed geometry
+	 */
+	public PackedGeometry getPackedGeometry(double tol) {
+		if (mirrorState != NO_MIRROR)
+			return getMirroredMesh().getPackedGeometry(tol);
+		if (smoothingMethod == Mesh.APPROXIMATING)
+			return smoothWholeMesh(tol, false, Integer.MAX_VALUE, false).getPackedGeometry();
+		Triangulation t = triangulateMesh();
+		int count = t.getVertexCount();
+		double[] position = new double[3 * count];
+		double[] normal = new double[3 * count];
+		MeshNormals normals = getMeshNormals();
+		System.arraycopy(normals.getVertexNormalBuffer(), 0, normal, 0, 3 * t.baseCount);
+		Vec3 r;
+		for (int i = 0; i < count; i++) {
+			r = (i < t.baseCount ? vertices[i].r : t.center[i - t.baseCount]);
+			position[3 * i] = r.x;
+			position[3 * i + 1] = r.y;
+			position[3 * i + 2] = r.z;
+		}
+		// face centers get the normal of their face
+		double[] faceNormal = normals.getFaceNormalBuffer();
+		int v, f;
+		for (int i = 0; i < 3 * t.triCount; i++) {
+			v = t.triVert[i];
+			if (v < t.baseCount)
+				continue;
+			f = t.triFace[i / 3];
+			normal[3 * v] = faceNormal[3 * f];
+			normal[3 * v + 1] = faceNormal[3 * f + 1];
+			normal[3 * v + 2] = faceNormal[3 * f + 2];
+		}
+		return new PackedGeometry(position, normal, t.triVert, t.triCount, false,
+				getTriangulationParameterValues(t));
+	}
+
 	/**
 	 * returns the subdivided polymesh after a call to interactive
 	 * getRenderingMesh()
@@ -1878,40 +1965,33 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		// first let's record any per face per vertex texture parameter
 		// System.out.println(vertices.length);
 		facesTextureIndexMap = recordFacesTexture(selected);
-		vert = new Vector();
-		for (int i = 0; i < vertices.length; ++i)
-			vert.addElement(vertices[i].r);
+		Triangulation t = new Triangulation(vertices.length, 1);
 		for (int i = 0; i < selected.length; i++) {
 			if (selected[i]) {
 				vf = getFaceVertices(faces[i]);
 				if (vf.length == 3)
 					continue;
-				v1 = new Vector();
-				v2 = new Vector();
-				v3 = new Vector();
-				vertInfo = new Vector();
-				faceInfo = new Vector();
+				t.clearTriangles();
 				/*
 				 * s1 = null; s2 = null; s3 = null;
 				 */
-				triangulate(vf, i, false);
-				Wvertex[] newVertices = new Wvertex[vert.size()];
-				Wedge[] newEdges = new Wedge[v1.size() * 6 + edges.length];
-				Wface[] newFaces = new Wface[faces.length - 1 + v1.size()];
+				triangulate(vf, i, t);
+				Wvertex[] newVertices = new Wvertex[t.getVertexCount()];
+				Wedge[] newEdges = new Wedge[t.triCount * 6 + edges.length];
+				Wface[] newFaces = new Wface[faces.length - 1 + t.triCount];
 				translateMesh(newVertices, newEdges, newFaces);
 				edgeCount = edges.length / 2;
 				faceCount = faces.length;
-				for (int j = vertices.length; j < vert.size(); ++j) {
-					newVertices[j] = new Wvertex((Vec3) vert.elementAt(j), -1);
+				for (int j = vertices.length; j < newVertices.length; ++j) {
+					newVertices[j] = new Wvertex(t.center[j - t.baseCount], -1);
 					// newVertices[j].smoothness =
 					// faces[i].centerSmoothness;
 					vertTable.add(new Integer(edges[faces[i].edge].vertex));
 				}
-				// System.out.println( v1.size() );
-				for (int j = 0; j < v1.size(); ++j) {
-					vert1 = ((Integer) v1.elementAt(j)).intValue();
-					vert2 = ((Integer) v2.elementAt(j)).intValue();
-					vert3 = ((Integer) v3.elementAt(j)).intValue();
+				for (int j = 0; j < t.triCount; ++j) {
+					vert1 = t.triVert[3 * j];
+					vert2 = t.triVert[3 * j + 1];
+					vert3 = t.triVert[3 * j + 2];
 					// System.out.println( vert1 + " " + vert2 + " " + vert3
 					// );
 					face = -1;
@@ -1963,7 +2043,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 						newEdges[e3].smoothness = 1.0f;
 						newEdges[e3 + newEdges.length / 2].smoothness = 1.0f;
 					}
-					if (j == v1.size() - 1) {
+					if (j == t.triCount - 1) {
 						newEdges[e1].next = e2;
 						newEdges[e2].next = e3;
 						newEdges[e3].next = e1;
@@ -2143,6 +2223,82 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		return facesTextureIndexMap;
 	}
 
+	/**
+	 * Triangulates every face of the mesh
+	 * 
+	 * @return The triangles and the vertices added at face centers
+	 */
+	private Triangulation triangulateMesh() {
+		Triangulation t = new Triangulation(vertices.length, faces.length);
+		for (int i = 0; i < faces.length; ++i) {
+			int[] vf = getFaceVertices(faces[i]);
+			if (vf.length == 3)
+				t.addTriangle(i, vf, 0, 1, 2);
+			else if (vf.length > 3)
+				triangulate(vf, i, t);
+		}
+		return t;
+	}
+
+	/**
+	 * Computes the texture parameter values of a triangulated mesh. Vertices
+	 * added at face centers get the average value of the face vertices.
+	 * 
+	 * @param t
+	 *            The triangulation
+	 * @return The parameter values, or null if the mesh has none
+	 */
+	private ParameterValue[] getTriangulationParameterValues(Triangulation t) {
+		ParameterValue oldParamVal[] = getParameterValues();
+		if (oldParamVal == null)
+			return null;
+		int[] cs = t.centerStart;
+		ParameterValue newParamVal[] = new ParameterValue[oldParamVal.length];
+		for (int i = 0; i < oldParamVal.length; i++) {
+			if (oldParamVal[i] instanceof VertexParameterValue) {
+				double oldval[] = ((VertexParameterValue) oldParamVal[i])
+						.getValue();
+				double newval[] = new double[t.getVertexCount()];
+				System.arraycopy(oldval, 0, newval, 0, t.baseCount);
+				for (int c = 0; c < t.centerCount; ++c) {
+					double coef = 1.0 / (cs[c + 1] - cs[c]);
+					for (int l = cs[c]; l < cs[c + 1]; ++l)
+						newval[t.baseCount + c] += coef
+								* oldval[t.centerVert[l]];
+				}
+				newParamVal[i] = new VertexParameterValue(newval);
+			} else if (oldParamVal[i] instanceof FaceParameterValue) {
+				double oldval[] = ((FaceParameterValue) oldParamVal[i])
+						.getValue();
+				double newval[] = new double[t.triCount];
+				for (int j = 0; j < newval.length; ++j)
+					newval[j] = oldval[t.triFace[j]];
+				newParamVal[i] = new FaceParameterValue(newval);
+			} else if (oldParamVal[i] instanceof FaceVertexParameterValue) {
+				FaceVertexParameterValue fvpv = (FaceVertexParameterValue) oldParamVal[i];
+				double newval[][] = new double[t.triCount][3];
+				for (int j = 0; j < t.triCount; ++j) {
+					int face = t.triFace[j];
+					for (int k = 0; k < 3; k++) {
+						int corner = t.triCorner[3 * j + k];
+						if (corner >= 0) {
+							newval[j][k] = fvpv.getValue(face, corner);
+							continue;
+						}
+						int c = t.triVert[3 * j + k] - t.baseCount;
+						double coef = 1.0 / (cs[c + 1] - cs[c]);
+						for (int l = cs[c]; l < cs[c + 1]; ++l)
+							newval[j][k] += coef
+									* fvpv.getValue(face, t.centerCorner[l]);
+					}
+				}
+				newParamVal[i] = new FaceVertexParameterValue(newval);
+			} else
+				newParamVal[i] = oldParamVal[i].duplicate();
+		}
+		return newParamVal;
+	}
+
 	/**
 	 * Given a face represented by an array of vertices indexes, this function
 	 * yields the triangulated mesh for the face (ear cutting algorithm). This
@@ -2152,15 +2308,14 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	 *            Array of vertices indexes
 	 * @param face
 	 *            Face index
-	 * @param areaOnly
-	 *            Set this flag to true if you only want to compute face area
+	 * @param t
+	 *            The triangulation new triangles are added to, or null if you
+	 *            only want to compute face area
 	 * @return Face area.
 	 */
-	private double triangulate(int[] vf, int face, boolean areaOnly) {
-		int fe[] = null;
-		if (!areaOnly)
-			fe = getFaceEdges(faces[face]);
+	private double triangulate(int[] vf, int face, Triangulation t) {
 		boolean deleted[] = new boolean[vf.length];
+		int remaining = vf.length;
 		int start = -1;
 		int prev;
 		int pi, pnext, pprev, ppprev;
@@ -2168,10 +2323,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		Vec3 norm = new Vec3();
 		Vec3 v = new Vec3();
 		double area = 0.0;
-		Vec3 tmp;
-		int i1;
-		int i2;
-		int i3;
+		int c1;
 
 		for (int i = 0; i < vf.length; ++i)
 			v.add(vertices[vf[i]].r);
@@ -2196,7 +2348,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		int count = 0;
 		// as ear cutting occurs, deleted (cut) vertices are stored in deleted
 		// array
-		while (count < getDelLength(deleted) && getDelLength(deleted) > 3) {
+		while (count < remaining && remaining > 3) {
 			// first, find a proper starting point with negative dot product
 			// of neighbor segments
 			if (i >= vf.length)
@@ -2240,22 +2392,13 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 					if (i == start)
 						--start;
 				}
-				i1 = vf[getPrev(prev, deleted)];
-				i2 = vf[prev];
-				i3 = vf[i];
-				if (!areaOnly)
-					v1.add(new Integer(i1));
-				if (!areaOnly)
-					v2.add(new Integer(i2));
-				if (!areaOnly)
-					v3.add(new Integer(i3));
-				if (faceInfo != null)
-					faceInfo.add(new Integer(face));
-				tmp = vertices[i1].r.cross(vertices[i2].r);
-				tmp.add(vertices[i2].r.cross(vertices[i3].r));
-				tmp.add(vertices[i3].r.cross(vertices[i1].r));
-				area += tmp.length() / 2;
+				c1 = getPrev(prev, deleted);
+				if (t != null)
+					t.addTriangle(face, vf, c1, prev, i);
+				area += triangleArea(vertices[vf[c1]].r, vertices[vf[prev]].r,
+						vertices[vf[i]].r);
 				deleted[prev] = true;
+				--remaining;
 			}
 		}
 		count = 0;
@@ -2271,21 +2414,12 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 			// simple triangle
 			for (i = 0; i < vf.length; ++i) {
 				if (!deleted[i]) {
-					i1 = vf[prev = getPrev(i, deleted)];
-					i2 = vf[i];
-					i3 = vf[next = getNext(i, deleted)];
-					if (!areaOnly)
-						v1.addElement(new Integer(i1));
-					if (!areaOnly)
-						v2.addElement(new Integer(i2));
-					if (!areaOnly)
-						v3.addElement(new Integer(i3));
-					if (faceInfo != null)
-						faceInfo.add(new Integer(face));
-					tmp = vertices[i1].r.cross(vertices[i2].r);
-					tmp.add(vertices[i2].r.cross(vertices[i3].r));
-					tmp.add(vertices[i3].r.cross(vertices[i1].r));
-					area += tmp.length() / 2;
+					prev = getPrev(i, deleted);
+					next = getNext(i, deleted);
+					if (t != null)
+						t.addTriangle(face, vf, prev, i, next);
+					area += triangleArea(vertices[vf[prev]].r,
+							vertices[vf[i]].r, vertices[vf[next]].r);
 					break;
 				}
 			}
@@ -2302,68 +2436,23 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 					double product = norm.dot(mid1.minus(mid2));
 					if (product >= 0) // convex face
 					{
-						i1 = vf[prev];
-						i2 = vf[i];
-						i3 = vf[next];
-						if (!areaOnly)
-							v1.addElement(new Integer(i1));
-						if (!areaOnly)
-							v2.addElement(new Integer(i2));
-						if (!areaOnly)
-							v3.addElement(new Integer(i3));
-						if (faceInfo != null)
-							faceInfo.add(new Integer(face));
-						tmp = vertices[i1].r.cross(vertices[i2].r);
-						tmp.add(vertices[i2].r.cross(vertices[i3].r));
-						tmp.add(vertices[i3].r.cross(vertices[i1].r));
-						area += tmp.length() / 2;
-						i1 = vf[next];
-						i2 = vf[next2];
-						i3 = vf[prev];
-						if (!areaOnly)
-							v1.addElement(new Integer(i1));
-						if (!areaOnly)
-							v2.addElement(new Integer(i2));
-						if (!areaOnly)
-							v3.addElement(new Integer(i3));
-						if (faceInfo != null)
-							faceInfo.add(new Integer(face));
-						tmp = vertices[i1].r.cross(vertices[i2].r);
-						tmp.add(vertices[i2].r.cross(vertices[i3].r));
-						tmp.add(vertices[i3].r.cross(vertices[i1].r));
-						area += tmp.length() / 2;
+						if (t != null) {
+							t.addTriangle(face, vf, prev, i, next);
+							t.addTriangle(face, vf, next, next2, prev);
+						}
+						area += triangleArea(vertices[vf[prev]].r,
+								vertices[vf[i]].r, vertices[vf[next]].r);
+						area += triangleArea(vertices[vf[next]].r,
+								vertices[vf[next2]].r, vertices[vf[prev]].r);
 					} else {
-						i1 = vf[next2];
-						i2 = vf[prev];
-						i3 = vf[i];
-						if (!areaOnly)
-							v1.addElement(new Integer(i1));
-						if (!areaOnly)
-							v2.addElement(new Integer(i2));
-						if (!areaOnly)
-							v3.addElement(new Integer(i3));
-						if (faceInfo != null)
-							faceInfo.add(new Integer(face));
-						tmp = vertices[i1].r.cross(vertices[i2].r);
-						tmp.add(vertices[i2].r.cross(vertices[i3].r));
-						tmp.add(vertices[i3].r.cross(vertices[i1].r));
-						area += tmp.length() / 2;
-						i1 = vf[i];
-						i2 = vf[next];
-						i3 = vf[next2];
-						if (!areaOnly)
-							v1.addElement(new Integer(i1));
-						if (!areaOnly)
-							v2.addElement(new Integer(i2));
-						if (!areaOnly)
-							v3.addElement(new Integer(i3));
-						if (faceInfo != null)
-							faceInfo.add(new Integer(face));
-						tmp = vertices[i1].r.cross(vertices[i2].r);
-						tmp.add(vertices[i2].r.cross(vertices[i3].r));
-						tmp.add(vertices[i3].r.cross(vertices[i1].r));
-						area += tmp.length() / 2;
-
+						if (t != null) {
+							t.addTriangle(face, vf, next2, prev, i);
+							t.addTriangle(face, vf, i, next, next2);
+						}
+						area += triangleArea(vertices[vf[next2]].r,
+								vertices[vf[prev]].r, vertices[vf[i]].r);
+						area += triangleArea(vertices[vf[i]].r,
+								vertices[vf[next]].r, vertices[vf[next2]].r);
 					}
 					break;
 				}
@@ -2371,47 +2460,34 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		} else if (count > 4) {
 			// more than square
 			v.scale(1.0 / (count * 1.0));
-			if (!areaOnly) {
-				vert.add(v);
-				count = 0;
-				for (i = 0; i < vf.length; ++i)
-					if (!deleted[i])
-						++count;
-				int[] vv = new int[count];
-				double[] coef = new double[count];
-				coef[0] = 1.0 / ((double) count);
-				count = 0;
-				for (i = 0; i < vf.length; ++i)
-					if (!deleted[i]) {
-						vv[count] = vf[i];
-						coef[count++] = coef[0];
-					}
-				if (vertInfo != null)
-					vertInfo.add(new VertexParamInfo(vv, coef));
-			}
+			int center = -1;
+			if (t != null)
+				center = t.addCenter(v, vf, deleted);
 			for (i = 0; i < vf.length; ++i)
 				if (!deleted[i]) {
-					{
-						i1 = vf[getPrev(i, deleted)];
-						i2 = vf[i];
-						if (!areaOnly)
-							v1.addElement(new Integer(i1));
-						if (!areaOnly)
-							v2.addElement(new Integer(i2));
-						if (!areaOnly)
-							v3.addElement(new Integer(vert.size() - 1));
-						if (faceInfo != null)
-							faceInfo.add(new Integer(face));
-						tmp = vertices[i1].r.cross(vertices[i2].r);
-						tmp.add(vertices[i2].r.cross(v));
-						tmp.add(v.cross(vertices[i1].r));
-						area += tmp.length() / 2;
-					}
+					prev = getPrev(i, deleted);
+					if (t != null)
+						t.addCenterTriangle(face, vf, prev, i, center);
+					area += triangleArea(vertices[vf[prev]].r,
+							vertices[vf[i]].r, v);
 				}
 		}
 		return area;
 	}
 
+	/**
+	 * Computes the area of a triangle without allocating any vector
+	 */
+	private static double triangleArea(Vec3 a, Vec3 b, Vec3 c) {
+		double x = a.y * b.z - a.z * b.y + b.y * c.z - b.z * c.y + c.y * a.z
+				- c.z * a.y;
+		double y = a.z * b.x - a.x * b.z + b.z * c.x - b.x * c.z + c.z * a.x
+				- c.x * a.z;
+		double z = a.x * b.y - a.y * b.x + b.x * c.y - b.y * c.x + c.x * a.y
+				- c.y * a.x;
+		return Math.sqrt(x * x + y * y + z * z) / 2;
+	}
+
 	/**
 	 * Says if the projection of pt onto triangle v1, v2, v3 is in triangle or
 	 * not.
@@ -2599,19 +2675,6 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		return next;
 	}
 
-	/**
-	 * Gets number of vertices which haven't been deleted through ear cutting
-	 * 
-	 * @return The number of vertices not yet deleted
-	 */
-	private int getDelLength(boolean[] deleted) {
-		int count = 0;
-		for (int i = 0; i < deleted.length; i++)
-			if (!deleted[i])
-				++count;
-		return count;
-	}
-
 	/**
 	 * Get the list of vertices which define the mesh.
 	 * 
@@ -2645,7 +2708,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	public void setVertexPositions(Vec3 v[]) {
 		for (int i = 0; i < v.length; i++)
 			vertices[i].r = v[i];
-		resetMesh();
+		resetPositions();
 	}
 
 	/**
@@ -2656,73 +2719,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	public Vec3[] getNormals() {
 		if (cachedNormals != null)
 			return cachedNormals;
-
-		Vec3 norm[] = new Vec3[vertices.length];
-		Vec3 faceNormals[] = getFaceNormals();
-		int pred;
-		Vec3 v1;
-		Vec3 v2;
-		Vec3 v3;
-		Vec3 normal;
-		boolean added;
-		double area, angle;
-		for (int i = 0; i < vertices.length; i++) {
-			norm[i] = new Vec3();
-			int[] ve = getVertexEdges(vertices[i]);
-			if (ve.length > 1) {
-				added = false;
-				for (int j = 0; j < ve.length; ++j) {
-					if (edges[ve[j]].face == -1)
-						continue;
-					pred = j - 1;
-					if (pred < 0)
-						pred = ve.length - 1;
-					// if ( ignoreBoundaries && edges[pred].face == -1 )
-					// continue;
-					v1 = vertices[edges[ve[pred]].vertex].r
-							.minus(vertices[i].r);
-					v2 = vertices[edges[ve[j]].vertex].r.minus(vertices[i].r);
-					// v3 = vertices[i].r.cross(
-					// vertices[edges[ve[j]].vertex].r );
-					// v3.add( vertices[edges[ve[j]].vertex].r.cross(
-					// vertices[edges[ve[pred]].vertex].r ) );
-					// v3.add( vertices[edges[ve[pred]].vertex].r.cross(
-					// vertices[i].r ) );
-					// area = v3.length();
-					// System.out.println( "area: " + area);
-					v1.normalize();
-					v2.normalize();
-					angle = Math.acos(v1.dot(v2));
-					// if (edges[ve[j]].face > -1)
-					// normal = faceNormals[edges[ve[j]].face];
-					// else
-					normal = v2.cross(v1);
-					// System.out.println("i : " + normal.length());
-					if (normal.length() > 0.001) {
-
-						normal.normalize();
-						if (v2.cross(v1).dot(normal) < 0)
-							angle = 2 * Math.PI - angle;
-						norm[i].add(normal.times(angle));
-						added = true;
-					}
-				}
-				if (!added) {
-					for (int j = 0; j < ve.length; ++j) {
-						if (edges[ve[j]].face == -1)
-							continue;
-						norm[i].add(faceNormals[edges[ve[j]].face]);
-					}
-				}
-				norm[i].normalize();
-			} else {
-				norm[i] = (vertices[edges[ve[0]].vertex].r
-						.minus(vertices[edges[edges[ve[0]].hedge].vertex].r));
-				norm[i].normalize();
-			}
-			//System.out.println(norm[i]);
-		}
-		return cachedNormals = norm;
+		return cachedNormals = getMeshNormals().getVertexNormals();
 	}
 
 	/**
@@ -2734,89 +2731,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	public Vec3[] getEdgeNormals() {
 		if (cachedEdgeNormals != null)
 			return cachedEdgeNormals;
-
-		Vec3[] normals = getNormals();
-		Vec3[] faceNormals = getFaceNormals();
-		Vec3 norm[] = new Vec3[edges.length];
-		Vec3 v;
-		int vi;
-		int hvi;
-		int pvi;
-		int phvi;
-		int nvi;
-		int nhvi;
-		Vec3 vn;
-		Vec3 hvn;
-		for (int i = 0; i < edges.length / 2; i++) {
-			vi = edges[i].vertex;
-			hvi = edges[edges[i].hedge].vertex;
-			pvi = edges[i].hedge;
-			while (edges[pvi].next != i)
-				pvi = edges[edges[pvi].next].hedge;
-			pvi = edges[edges[pvi].hedge].vertex;
-			phvi = i;
-			while (edges[phvi].next != edges[i].hedge)
-				phvi = edges[edges[phvi].next].hedge;
-			phvi = edges[edges[phvi].hedge].vertex;
-			nvi = edges[edges[i].next].vertex;
-			nhvi = edges[edges[edges[i].hedge].next].vertex;
-			if (edges[i].face != -1) {
-				vn = vertices[vi].r.minus(vertices[hvi].r).cross(
-						vertices[nvi].r.minus(vertices[hvi].r));
-				if (vn.length() > 1e-6)
-					vn.normalize();
-				else
-					vn = faceNormals[edges[i].face];
-			} else
-				vn = new Vec3();
-			if (edges[edges[i].hedge].face != -1) {
-				hvn = vertices[phvi].r.minus(vertices[hvi].r).cross(
-						vertices[vi].r.minus(vertices[hvi].r));
-				if (hvn.length() > 1e-6)
-					hvn.normalize();
-				else
-					hvn = faceNormals[edges[edges[i].hedge].face];
-			} else
-				hvn = new Vec3();
-			v = vn.plus(hvn);
-			if (v.length() < 1e-6)
-				v = normals[vi].plus(normals[hvi]);
-			v.normalize();
-			// if ( ( hvn.dot( v ) >= 0.9999 ) || ( vn.dot( v ) >= 0.9999 )
-			// )
-			// v.scale( 0 );
-			// v.scale( Math.sin( Math.acos( vn.dot( hvn ) ) ) );
-			norm[i] = v;
-
-			if (edges[i].face != -1) {
-				vn = vertices[pvi].r.minus(vertices[vi].r).cross(
-						vertices[hvi].r.minus(vertices[vi].r));
-				if (vn.length() > 1e-6)
-					vn.normalize();
-				else
-					vn = faceNormals[edges[i].face];
-			} else
-				vn = new Vec3();
-			if (edges[edges[i].hedge].face != -1) {
-				hvn = vertices[hvi].r.minus(vertices[vi].r).cross(
-						vertices[nhvi].r.minus(vertices[vi].r));
-				if (hvn.length() > 1e-6)
-					hvn.normalize();
-				else
-					hvn = faceNormals[edges[edges[i].hedge].face];
-			} else
-				hvn = new Vec3();
-			v = vn.plus(hvn);
-			if (v.length() < 1e-6)
-				v = normals[vi].plus(normals[hvi]);
-			v.normalize();
-			// if ( ( hvn.dot( v ) >= 0.9999 ) || ( vn.dot( v ) >= 0.9999 )
-			// )
-			// v.scale( 0 );
-			// v.scale( Math.sin( Math.acos( vn.dot( hvn ) ) ) );
-			norm[edges[i].hedge] = v;
-		}
-		return cachedEdgeNormals = norm;
+		return cachedEdgeNormals = getMeshNormals().getEdgeNormals();
 	}
 
 	public Vec3 getEdgePosition(int edge) {
@@ -2845,29 +2760,35 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	public Vec3[] getFaceNormals() {
 		if (cachedFaceNormals != null)
 			return cachedFaceNormals;
+		return cachedFaceNormals = getMeshNormals().getFaceNormals();
+	}
 
-		Vec3 norm[] = new Vec3[faces.length];
-		int pred;
-		int next;
-		Vec3 v1;
-		Vec3 v2;
-		for (int i = 0; i < faces.length; i++) {
-			int[] vf = getFaceVertices(faces[i]);
-			norm[i] = new Vec3();
-			for (int j = 0; j < vf.length; ++j) {
-				pred = j - 1;
-				if (pred < 0)
-					pred = vf.length - 1;
-				next = j + 1;
-				if (next >= vf.length)
-					next = 0;
-				v1 = vertices[vf[j]].r.minus(vertices[vf[pred]].r);
-				v2 = vertices[vf[next]].r.minus(vertices[vf[j]].r);
-				norm[i].add(v1.cross(v2));
-			}
-			norm[i].normalize();
-		}
-		return cachedFaceNormals = norm;
+	/**
+	 * Returns face, edge and vertex normals stored in flat arrays. When only
+	 * vertices have moved since normals were last computed, normals are
+	 * updated around moved vertices only.
+	 * 
+	 * @return The mesh normals, up to date with vertex positions
+	 */
+	public MeshNormals getMeshNormals() {
+		PackedTopology topology = getPackedTopology();
+		MeshNormals normals = meshNormals;
+		if (normals == null || normals.getTopology() != topology)
+			meshNormals = normals = new MeshNormals(topology);
+		normals.update();
+		return normals;
+	}
+
+	/**
+	 * Returns a packed copy of the mesh topology and vertex positions. The
+	 * returned object is cached until the mesh is reset and must not be modified.
+	 * 
+	 * @return The packed topology
+	 */
+	public PackedTopology getPackedTopology() {
+		if (packedTopology == null || !packedTopology.isBuiltFrom(vertices, edges, faces))
+			packedTopology = new PackedTopology(vertices, edges, faces);
+		return packedTopology;
 	}
 
 	/**
@@ -2939,8 +2860,9 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		Vec3 vert[];
 		int i;
 
-		if (cachedMesh != null)
-			vert = cachedMesh.vert;
+		RenderingMesh mesh = getCachedMesh();
+		if (mesh != null)
+			vert = mesh.vert;
 		else if (cachedWire != null)
 			vert = cachedWire.vert;
 		else {
@@ -3045,39 +2967,15 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		}
 		
 		TriangleMesh mesh;
-		vert = new Vector();
-		v1 = new Vector();
-		v2 = new Vector();
-		v3 = new Vector();
-		vertInfo = new Vector();
-		faceInfo = new Vector();
 		polyedge = null;
 
-		for (int i = 0; i < vertices.length; ++i) {
-			vert.addElement(vertices[i].r);
-			vertInfo.add(new VertexParamInfo(new int[] { i },
-					new double[] { 1.0 }));
-		}
-		for (int i = 0; i < faces.length; ++i) {
-			int[] vf = getFaceVertices(faces[i]);
-			if (vf.length == 3) {
-				v1.addElement(new Integer(vf[0]));
-				v2.addElement(new Integer(vf[1]));
-				v3.addElement(new Integer(vf[2]));
-				if (faceInfo != null)
-					faceInfo.add(new Integer(i));
-			} else if (vf.length > 3) {
-				triangulate(vf, i, false);
-			}
-		}
-		int[][] tfaces = new int[v1.size()][3];
-		Vec3[] v = new Vec3[vert.size()];
-		for (int i = 0; i < v.length; ++i)
-			v[i] = (Vec3) vert.elementAt(i);
-		for (int i = 0; i < v1.size(); ++i) {
-			tfaces[i][0] = ((Integer) v1.elementAt(i)).intValue();
-			tfaces[i][1] = ((Integer) v2.elementAt(i)).intValue();
-			tfaces[i][2] = ((Integer) v3.elementAt(i)).intValue();
+		Triangulation t = triangulateMesh();
+		int[][] tfaces = new int[t.triCount][3];
+		Vec3[] v = t.getVertexPositions(vertices);
+		for (int i = 0; i < tfaces.length; ++i) {
+			tfaces[i][0] = t.triVert[3 * i];
+			tfaces[i][1] = t.triVert[3 * i + 1];
+			tfaces[i][2] = t.triVert[3 * i + 2];
 		}
 		mesh = new TriangleMesh(v, tfaces);
 		mesh.setSmoothingMethod(smoothingMethod);
@@ -3158,80 +3056,10 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		}
 		mesh.copyTextureAndMaterial(this);
 		// Compute the trimesh texture parameters.
-		ParameterValue oldParamVal[] = getParameterValues();
-		if (oldParamVal != null) {
-			ParameterValue newParamVal[] = new ParameterValue[oldParamVal.length];
-			for (int i = 0; i < oldParamVal.length; i++) {
-				if (oldParamVal[i] instanceof VertexParameterValue) {
-					double oldval[] = ((VertexParameterValue) oldParamVal[i])
-							.getValue();
-					double newval[] = new double[vert.size()];
-					for (int j = 0; j < vert.size(); ++j) {
-						int[] vf = ((VertexParamInfo) vertInfo.elementAt(j)).vert;
-						double[] coef = ((VertexParamInfo) vertInfo
-								.elementAt(j)).coef;
-						for (int k = 0; k < vf.length; ++k)
-							newval[j] += coef[k] * oldval[vf[k]];
-					}
-					newParamVal[i] = new VertexParameterValue(newval);
-
-				} else if (oldParamVal[i] instanceof FaceParameterValue) {
-					double oldval[] = ((FaceParameterValue) oldParamVal[i])
-							.getValue();
-					double newval[] = new double[faceInfo.size()];
-					for (int j = 0; j < newval.length; ++j)
-						newval[j] = oldval[((Integer) faceInfo.elementAt(j))
-								.intValue()];
-					newParamVal[i] = new FaceParameterValue(newval);
-				} else if (oldParamVal[i] instanceof FaceVertexParameterValue) {
-					FaceVertexParameterValue fvpv = (FaceVertexParameterValue) oldParamVal[i];
-					double newval[][] = new double[v1.size()][3];
-					for (int j = 0; j < v1.size(); ++j) {
-						for (int k = 0; k < 3; k++) {
-							int vertex = -1;
-							switch (k) {
-							case 0:
-								vertex = ((Integer) v1.elementAt(j)).intValue();
-								break;
-							case 1:
-								vertex = ((Integer) v1.elementAt(j)).intValue();
-								break;
-							case 2:
-								vertex = ((Integer) v1.elementAt(j)).intValue();
-								break;
-							}
-							int pmeFace = ((Integer) faceInfo.elementAt(j))
-									.intValue();
-							int[] fv = getFaceVertices(faces[pmeFace]);
-							int[] vf = ((VertexParamInfo) vertInfo
-									.elementAt(vertex)).vert;
-							double[] coef = ((VertexParamInfo) vertInfo
-									.elementAt(vertex)).coef;
-							for (int l = 0; l < vf.length; ++l) {
-								int vv = -1;
-								for (int m = 0; m < fv.length; ++m) {
-									if (fv[m] == vf[l]) {
-										vv = m;
-										break;
-									}
-								}
-								if (vv == -1) {
-									System.out
-											.println("pb per face per vertex : point doesn't belong to face");
-									vv = 0;
-								}
-								newval[j][k] += coef[l]
-										* fvpv.getValue(pmeFace, vv);
-							}
-
-						}
-					}
-					newParamVal[i] = new FaceVertexParameterValue(newval);
-				} else
-					newParamVal[i] = oldParamVal[i].duplicate();
-			}
+		ParameterValue newParamVal[] = getTriangulationParameterValues(t);
+		if (newParamVal != null)
 			mesh.setParameterValues(newParamVal);
-		}
+		triangulation = t;
 		return mesh;
 	}
 
@@ -3243,12 +3071,11 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	 *         relate to.
 	 */
 	public int[] getTriangleFaceIndex() {
-		if (faceInfo == null || faceInfo.size() == 0)
+		Triangulation t = triangulation;
+		if (t == null || t.triCount == 0)
 			return null;
-		int[] fi = new int[faceInfo.size()];
-		for (int i = 0; i < fi.length; i++) {
-			fi[i] = ((Integer) faceInfo.elementAt(i)).intValue();
-		}
+		int[] fi = new int[t.triCount];
+		System.arraycopy(t.triFace, 0, fi, 0, fi.length);
 		return fi;
 	}
 
@@ -3264,11 +3091,20 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	 *         relative to themselves with a coefficient of 1.0.
 	 */
 	public VertexParamInfo[] getTriangleVertexParamInfo() {
-		if (vertInfo == null || vertInfo.size() == 0)
+		Triangulation t = triangulation;
+		if (t == null || t.getVertexCount() == 0)
 			return null;
-		VertexParamInfo[] vpi = new VertexParamInfo[vertInfo.size()];
-		for (int i = 0; i < vpi.length; i++) {
-			vpi[i] = (VertexParamInfo) vertInfo.get(i);
+		VertexParamInfo[] vpi = new VertexParamInfo[t.getVertexCount()];
+		for (int i = 0; i < t.baseCount; i++)
+			vpi[i] = new VertexParamInfo(new int[] { i }, new double[] { 1.0 });
+		for (int c = 0; c < t.centerCount; c++) {
+			int start = t.centerStart[c];
+			int[] vv = new int[t.centerStart[c + 1] - start];
+			double[] coef = new double[vv.length];
+			System.arraycopy(t.centerVert, start, vv, 0, vv.length);
+			for (int i = 0; i < coef.length; i++)
+				coef[i] = 1.0 / ((double) vv.length);
+			vpi[t.baseCount + c] = new VertexParamInfo(vv, coef);
 		}
 		return vpi;
 	}
@@ -3317,8 +3153,9 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	}
 
 	public void setInteractiveSmoothLevel(int smooth) {
-		cachedMesh = null;
+		clearCachedMesh();
 		cachedWire = null;
+		smoothingCache = null;
 		interactiveSmoothLevel = smooth;
 	}
 
@@ -3330,11 +3167,16 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	 * Resets cached data
 	 */
 	public void resetMesh() {
-		cachedMesh = null;
+		clearCachedMesh();
 		cachedWire = null;
 		cachedNormals = null;
 		cachedEdgeNormals = null;
 		cachedFaceNormals = null;
+		meshNormals = null;
+		packedTopology = null;
+		similarityIndex = null;
+		edgeLoopIndex = null;
+		smoothingCache = null;
 		mirroredMesh = null;
 		if (controlledSmoothing) {
 			double dot;
@@ -3363,24 +3205,119 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		if (seams != null)
 			if (edges.length / 2 != seams.length)
 				seams = null;
-		if (mappingData != null) {
+		if (mappingData != null || mappingSection != null) {
 			if (vertices.length != mappingVerts || edges.length != mappingEdges
 					|| faces.length != mappingFaces) {
 				mappingData = null;
+				mappingSection = null;
+				mappingTextureIDs = null;
 			}
 		}
 	}
 
 	/**
-	 * Deletes vertices from the mesh
-	 * 
-	 * @param v
-	 *            Array of indices of vertices to delete
+	 * Resets cached data after vertices have been moved. Unlike resetMesh(),
+	 * data depending only on the mesh topology is kept, so that the interactive
+	 * smoothed mesh can be updated rather than computed again.
 	 */
-	public void deleteVertices(int[] v) {
-		boolean[] deletedVertices = new boolean[vertices.length];
-		boolean[] deletedEdges = new boolean[edges.length];
-		boolean[] deletedFaces = new boolean[faces.length];
+	private void resetPositions() {
+		SmoothingCache cache = smoothingCache;
+		PackedTopology topology = packedTopology;
+		MeshNormals normals = meshNormals;
+		PolyMesh mirror = mirroredMesh;
+		EdgeLoopIndex loops = edgeLoopIndex;
+		resetMesh();
+		smoothingCache = cache;
+		if (loops != null && loops.isBuiltFrom(edges)) {
+			loops.invalidatePositions();
+			edgeLoopIndex = loops;
+		}
+		if (mirror != null && updateMirroredPositions(mirror))
+			mirroredMesh = mirror;
+		if (topology != null && !controlledSmoothing
+				&& topology.isBuiltFrom(vertices, edges, faces)) {
+			topology.updatePositions();
+			packedTopology = topology;
+			if (normals != null && normals.getTopology() == topology) {
+				normals.invalidatePositions();
+				meshNormals = normals;
+			}
+		}
+	}
+
+	/**
+	 * Creates a mesh without any geometry standing for a state recorded by a
+	 * MeshUndoState. Copying it into another mesh restores that state.
+	 * 
+	 * @param state
+	 *            The recorded state, owned by the token
+	 * @param settings
+	 *            Mesh whose settings the token keeps, or null if the state
+	 *            doesn't restore them
+	 */
+	static PolyMesh createUndoToken(MeshUndoState state, PolyMesh settings) {
+		PolyMesh token = new PolyMesh();
+		token.vertices = new Wvertex[0];
+		token.edges = new Wedge[0];
+		token.faces = new Wface[0];
+		if (settings != null)
+			token.copySettings(settings);
+		token.undoState = state;
+		return token;
+	}
+
+	/**
+	 * Restores the mesh state an undo token stands for
+	 * 
+	 * @param token
+	 *            A token created by MeshUndoState
+	 * @exception IllegalStateException
+	 *                If the state doesn't fit this mesh, for instance vertex
+	 *                positions recorded for another vertex count
+	 */
+	public void restoreUndoState(PolyMesh token) {
+		token.undoState.restore(this, token);
+	}
+
+	/**
+	 * Restores the positions of some vertices, recorded by a MeshUndoState
+	 * 
+	 * @param index
+	 *            Vertex indices
+	 * @param pos
+	 *            x y z for each vertex
+	 */
+	void restoreVertexPositions(int[] index, double[] pos) {
+		for (int i = 0; i < index.length; i++)
+			vertices[index[i]].r = new Vec3(pos[3 * i], pos[3 * i + 1], pos[3 * i + 2]);
+		resetPositions();
+	}
+
+	/**
+	 * Restores a mesh state recorded by a MeshUndoState
+	 * 
+	 * @param token
+	 *            The token holding the mesh settings
+	 */
+	void restoreUndoSnapshot(PolyMesh token, Wvertex[] v, Wedge[] e, Wface[] f, boolean[] s) {
+		vertices = v;
+		edges = e;
+		faces = f;
+		copySettings(token);
+		seams = s;
+		mirroredMesh = null;
+	}
+
+	/**
+	 * Deletes vertices from the mesh
+	 * 
+	 * @param v
+	 *            Array of indices of vertices to delete
+	 */
+	public void deleteVertices(int[] v) {
+		boolean[] deletedVertices = new boolean[vertices.length];
+		boolean[] deletedEdges = new boolean[edges.length];
+		boolean[] deletedFaces = new boolean[faces.length];
 
 		for (int i = 0; i < v.length; ++i) {
 			deletedVertices[v[i]] = true;
@@ -3534,6 +3471,8 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		for (int i = 0; i < newFaces.length; ++i)
 			newFaces[i].edge = edgeTable[newFaces[i].edge];
 		if (mirrorOp) {
+			if (mirrorMapping != null)
+				mirrorMapping.deleteVertices(vertexTable, newVertices.length);
 			if (mirroredVerts == null) {
 				mirroredVerts = vertexTable;
 				mirroredEdges = edgeTable;
@@ -4934,12 +4873,41 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	}
 
 	/**
-	 * Connects selected vertices, creating new faces in the process.
+	 * Connects selected vertices, creating new faces in the process. Seams
+	 * are kept, and the faces split by new edges keep the per face vertex
+	 * texture values of their corners.
 	 * 
 	 * @param connect
 	 *            Array of selected vertices indices
 	 */
 	public void connectVertices(int[] connect) {
+		if (connect.length < 2)
+			return;
+		// all connections are made in a single topology edit, the mesh
+		// arrays are only rebuilt once
+		TopologyEdit edit = new TopologyEdit(this);
+		int[][] vertEdges = new int[connect.length][];
+		for (int i = 0; i < connect.length; ++i)
+			vertEdges[i] = edit.getVertexEdges(connect[i]);
+		while (connectVertices(edit, connect, vertEdges))
+			;
+		if (edit.isModified())
+			edit.commit();
+	}
+
+	/**
+	 * Connects the best pair of selected vertices
+	 * 
+	 * @param edit
+	 *            Topology edit holding the mesh, in which no vertex was added
+	 * @param connect
+	 *            Array of selected vertices indices
+	 * @param vertEdges
+	 *            Edges around each selected vertex, updated when a new edge
+	 *            is added
+	 * @return True if a new edge was added
+	 */
+	private boolean connectVertices(TopologyEdit edit, int[] connect, int[][] vertEdges) {
 		boolean add;
 		boolean edgeShare;
 		int i1;
@@ -4958,24 +4926,18 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		int kk;
 		int ll;
 
-		if (connect.length < 2)
-			return;
-
-		// s1 = null;
-		// s2 = null;
-		// s3 = null;
 		for (int i = 1; i < connect.length; ++i) {
 			for (int j = 0; j < i; ++j) {
 				i1 = connect[i];
 				i2 = connect[j];
-				e1 = getVertexEdges(vertices[i1]);
-				e2 = getVertexEdges(vertices[i2]);
+				e1 = vertEdges[i];
+				e2 = vertEdges[j];
 				add = false;
 				edgeShare = false;
 				// first check: i1 and i2 should border the same face and not be
 				// contiguous
 				for (int k = 0; k < e1.length; ++k) {
-					if (edges[e1[k]].vertex == i2) {
+					if (edit.getEdgeVertex(e1[k]) == i2) {
 						edgeShare = true;
 						break;
 					}
@@ -4984,9 +4946,9 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 					continue;
 				for (int k = 0; k < e1.length; ++k) {
 					for (int l = 0; l < e2.length; ++l) {
-						if (edges[e1[k]].face == edges[e2[l]].face)
-							if (edges[e1[k]].face != -1) {
-								face = edges[e1[k]].face;
+						if (edit.getEdgeFace(e1[k]) == edit.getEdgeFace(e2[l]))
+							if (edit.getEdgeFace(e1[k]) != -1) {
+								face = edit.getEdgeFace(e1[k]);
 								add = true;
 							}
 					}
@@ -5000,7 +4962,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 				// + face );
 
 				// area calculation : no null area face permitted
-				int[] vf = getFaceVertices(faces[face]);
+				int[] vf = edit.getFaceVertices(face);
 				if (vf.length == 4) {
 					ll = 0;
 					for (int k = 0; k < vf.length; ++k)
@@ -5064,8 +5026,8 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 					if (ll > 2)
 						continue;
 				}
-				area1 = triangulate(vf1, 0, true);
-				area2 = triangulate(vf2, 0, true);
+				area1 = triangulate(vf1, 0, null);
+				area2 = triangulate(vf2, 0, null);
 				// System.out.println( "area: " + area1 + " " + area2 );
 				if ((area1 < 1e-10) || (area2 < 1e-10))
 					continue;
@@ -5084,105 +5046,12 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 			}
 		}
 		if (i1min < 0)
-			return;
-		int e1prev = 0;
-		int e1next = 0;
-		int e2next = 0;
-		int e2prev = 0;
-		e1 = getVertexEdges(vertices[i1min]);
-		for (int i = 0; i < e1.length; ++i) {
-			if (edges[e1[i]].face == faceMin)
-				e1next = e1[i];
-			if (edges[edges[e1[i]].hedge].face == faceMin)
-				e1prev = edges[e1[i]].hedge;
-		}
-		e2 = getVertexEdges(vertices[i2min]);
-		for (int i = 0; i < e2.length; ++i) {
-			if (edges[e2[i]].face == faceMin)
-				e2next = e2[i];
-			if (edges[edges[e2[i]].hedge].face == faceMin)
-				e2prev = edges[e2[i]].hedge;
-		}
-		Wedge[] newEdges = new Wedge[edges.length + 2];
-		int newEdge = edges.length / 2;
-		if (e1prev >= edges.length / 2)
-			e1prev += newEdges.length / 2 - edges.length / 2;
-		if (e2prev >= edges.length / 2)
-			e2prev += newEdges.length / 2 - edges.length / 2;
-		if (e1next >= edges.length / 2)
-			e1next += newEdges.length / 2 - edges.length / 2;
-		if (e2next >= edges.length / 2)
-			e2next += newEdges.length / 2 - edges.length / 2;
-		for (int i = 0; i < edges.length / 2; ++i) {
-			newEdges[i] = new Wedge(edges[i]);
-			newEdges[i].hedge = edges[i].hedge + newEdges.length / 2
-					- edges.length / 2;
-			if (newEdges[i].next >= edges.length / 2)
-				newEdges[i].next += newEdges.length / 2 - edges.length / 2;
-			newEdges[newEdges[i].hedge] = new Wedge(edges[edges[i].hedge]);
-			if (newEdges[newEdges[i].hedge].next >= edges.length / 2)
-				newEdges[newEdges[i].hedge].next += newEdges.length / 2
-						- edges.length / 2;
-		}
-		newEdges[newEdge] = new Wedge(i1min, newEdges.length - 1, faceMin,
-				e1next);
-		newEdges[newEdges.length - 1] = new Wedge(i2min, newEdge, faceMin,
-				e2next);
-		newEdges[newEdge].smoothness = 1.0f;
-		newEdges[newEdges.length - 1].smoothness = 1.0f;
-		newEdges[e2prev].next = newEdge;
-		newEdges[e1prev].next = newEdges.length - 1;
-		int newFace = faces.length;
-		Wface[] newFaces = new Wface[newFace + 1];
-		for (int i = 0; i < faces.length; ++i) {
-			newFaces[i] = faces[i];
-			if (newFaces[i].edge >= edges.length / 2)
-				newFaces[i].edge += newEdges.length / 2 - edges.length / 2;
-		}
-		changeFace(newEdges, newEdge, newFace);
-		newFaces[newFace] = new Wface(newEdge);
-		// newFaces[newFace].edgeSmoothness = faces[faceMin].edgeSmoothness;
-		// newFaces[newFace].centerSmoothness = faces[faceMin].centerSmoothness;
-		// newFaces[newFace].convex = faces[faceMin].convex;
-		for (int i = 0; i < vertices.length; ++i)
-			if (vertices[i].edge >= edges.length / 2)
-				vertices[i].edge += newEdges.length / 2 - edges.length / 2;
-		// Update the texture parameters.
-		ParameterValue oldParamVal[] = getParameterValues();
-		if (oldParamVal != null) {
-			ParameterValue newParamVal[] = new ParameterValue[oldParamVal.length];
-			for (int i = 0; i < oldParamVal.length; i++) {
-				if (oldParamVal[i] instanceof FaceParameterValue) {
-					double oldval[] = ((FaceParameterValue) oldParamVal[i])
-							.getValue();
-					double newval[] = new double[newFaces.length];
-					for (int j = 0; j < oldval.length; j++)
-						newval[j] = oldval[j];
-					newval[faces.length] = newval[faceMin];
-					newParamVal[i] = new FaceParameterValue(newval);
-				} else if (oldParamVal[i] instanceof FaceVertexParameterValue) {
-					FaceVertexParameterValue fvpv = (FaceVertexParameterValue) oldParamVal[i];
-					double newval[][] = new double[newFaces.length][];
-					for (int j = 0; j < newFaces.length; ++j) {
-						int[] fv = getFaceVertices(j, newEdges, newFaces);
-						double val[] = new double[fv.length];
-						for (int l = 0; l < fv.length; l++) {
-							val[l] = fvpv.getAverageValue();
-						}
-						newval[j] = val;
-					}
-					newParamVal[i] = new FaceVertexParameterValue(newval);
-				} else
-					newParamVal[i] = oldParamVal[i].duplicate();
-			}
-			setParameterValues(newParamVal);
-		}
-		faces = newFaces;
-		edges = newEdges;
-		// connect any other vertices left selected (recursion)
-		connectVertices(connect);
-		resetMesh();
-
+			return false;
+		edit.splitFace(faceMin, i1min, i2min);
+		for (int i = 0; i < connect.length; ++i)
+			if (connect[i] == i1min || connect[i] == i2min)
+				vertEdges[i] = edit.getVertexEdges(connect[i]);
+		return true;
 	}
 
 	/**
@@ -5296,6 +5165,9 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 			boolean[] newMirrorSel = mirroredMesh.findEdgeLoops(mirrorSel);
 			newSel = getSelectionFromMirror(mirroredMesh, newMirrorSel);
 		} else {
+			boolean[] sel = getEdgeLoopIndex().findEdgeLoops(selection);
+			if (sel != null)
+				return sel;
 			for (int i = 0; i < selection.length; i++)
 
 				if (selection[i]) {
@@ -5381,33 +5253,6 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		return mirrorSel;
 	}
 
-	/**
-	 * Select an edge strip from a single edge.
-	 * 
-	 * @param startEdge
-	 *            the index of the edge from which to find an edge strip
-	 * @return a selection containing all the edges in the strip, or null if no
-	 *         strip could be found
-	 */
-
-	private boolean[] findSingleEdgeStrip(int startEdge, int every) {
-		boolean[] sel = new boolean[edges.length];
-		int next = edges[edges[edges[startEdge].next].next].hedge;
-		sel[next] = true;
-		int count = 1;
-		while (next != startEdge && count < edges.length / 2) {
-			next = edges[edges[edges[next].next].next].hedge;
-			if (count % every == 0) {
-				sel[next] = true;
-			}
-			++count;
-		}
-		if (count < edges.length / 2)
-			return sel;
-		else
-			return null;
-	}
-
 	/**
 	 * Select an edge strip from each edge that is currently selected.
 	 * 
@@ -5424,20 +5269,21 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 			boolean[] mirrorSel = getMirroredSelection(mirroredMesh, selection);
 			boolean[] newMirrorSel = mirroredMesh.findEdgeStrips(mirrorSel, every);
 			newSel = getSelectionFromMirror(mirroredMesh, newMirrorSel);
-		} else {
-			for (int i = 0; i < selection.length; i++)
-				if (selection[i]) {
-					boolean loop[] = findSingleEdgeStrip(i, every);
-					if (loop != null)
-						for (int j = 0; j < loop.length / 2; j++) {
-							newSel[j] |= loop[j];
-							newSel[j] |= loop[edges[j].hedge];
-						}
-				}
-		}
+		} else
+			newSel = getEdgeLoopIndex().findEdgeStrips(selection, every);
 		return newSel;
 	}
 
+	/**
+	 * Returns the edge loops and rings of the mesh. Rings are kept until the
+	 * mesh topology changes, loops until vertices move.
+	 */
+	public EdgeLoopIndex getEdgeLoopIndex() {
+		if (edgeLoopIndex == null || !edgeLoopIndex.isBuiltFrom(edges))
+			edgeLoopIndex = new EdgeLoopIndex(this);
+		return edgeLoopIndex;
+	}
+
 	/**
 	 * Computes a penalty function depending on the discrepancy between a
 	 * perfect regular polygon and the specified polygon.
@@ -5518,11 +5364,9 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	 */
 	public boolean isClosed() {
 
-		if (mirrorState != NO_MIRROR) {
-			getMirroredMesh();
-			return mirroredMesh.isClosed();
-		}
-		if (cachedMesh != null)
+		if (mirrorState != NO_MIRROR)
+			return getMirroredMesh().isClosed();
+		if (getCachedMesh() != null)
 			return closed;
 		else {
 			for (int i = 0; i < edges.length; ++i)
@@ -5563,11 +5407,15 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 			InvalidObjectException {
 
 		short version = in.readShort();
-		if (version < 0 || version > 10)
+		if (version < 0 || version > FILE_VERSION)
 			throw new InvalidObjectException("");
 		if (version > 0)
 			mirrorState = in.readShort();
 		smoothingMethod = in.readInt();
+		if (version > 10) {
+			readPackedData(in, scene);
+			return;
+		}
 		vertices = new Wvertex[in.readInt()];
 		boolean hasNormal;
 		for (int i = 0; i < vertices.length; i++) {
@@ -5650,38 +5498,603 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	}
 
 	/**
-	 * Smooths the whole mesh according to Catmull-Clark or Biermann-Levin-Zorin
-	 * algorithm. Creasing according to Pixar/Blender algorithm. This method returns
-	 * a quad mesh smoothed to the specified tolerance, unless the tolerance is set to -1
-	 * in which case the polymesh is smoothed once.
+	 * Reads version 11 data, which stores the mesh geometry as a single block
+	 * of arrays, followed by mesh settings and optional sections. Seams are
+	 * read at once, UV mapping data is only read when asked for.
+	 */
+	private void readPackedData(DataInputStream in, Scene scene) throws IOException,
+			InvalidObjectException {
+		byte compression = in.readByte();
+		if (compression != NO_COMPRESSION && compression != DEFLATE_COMPRESSION && compression != GEOMETRY_FILE)
+			throw new InvalidObjectException("");
+		int vertexCount = in.readInt();
+		int edgeCount = in.readInt();
+		int faceCount = in.readInt();
+		if (vertexCount < 0 || edgeCount < 0 || faceCount < 0)
+			throw new InvalidObjectException("");
+		boolean placeholder = false;
+		if (compression == GEOMETRY_FILE) {
+			geometryFileId = in.readUTF();
+			String name = in.readUTF();
+			try {
+				readGeometryFile(scene, name, vertexCount, edgeCount, faceCount);
+			} catch (IOException ex) {
+				//the rest of the scene can still be loaded
+				System.out.println("PolyMesh : " + ex.getMessage() + ", a cube stands for the mesh");
+				setPlaceholderGeometry();
+				geometryFileId = null; //a new file will be written, this one is left as is
+				placeholder = true;
+			}
+		} else {
+			BlockReader reader = new BlockReader(in, true, compression == DEFLATE_COMPRESSION);
+			readPackedGeometry(reader, vertexCount, edgeCount, faceCount);
+			reader.finish();
+		}
+		controlledSmoothing = in.readBoolean();
+		minAngle = in.readDouble();
+		maxAngle = in.readDouble();
+		minSmoothness = in.readFloat();
+		maxSmoothness = in.readFloat();
+		interactiveSmoothLevel = in.readInt();
+		useCustomColors = in.readBoolean();
+		vertColor = new Color(in.readInt());
+		selectedVertColor = new Color(in.readInt());
+		edgeColor = new Color(in.readInt());
+		selectedEdgeColor = new Color(in.readInt());
+		seamColor = new Color(in.readInt());
+		selectedSeamColor = new Color(in.readInt());
+		meshColor = new Color(in.readInt());
+		selectedFaceColor = new Color(in.readInt());
+		meshRGBColor = ColorToRGB(meshColor);
+		selectedFaceRGBColor = ColorToRGB(selectedFaceColor);
+		handleSize = in.readInt();
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			short section = in.readShort();
+			boolean compressed = in.readBoolean();
+			byte[] data = new byte[in.readInt()];
+			in.readFully(data);
+			if (placeholder)
+				continue; //sections describe the missing geometry
+			if (section == SEAMS_SECTION) {
+				if (compressed)
+					data = inflate(data, (edges.length / 2 + 7) / 8);
+				seams = new boolean[edges.length / 2];
+				for (int j = 0; j < seams.length; j++)
+					seams[j] = (data[j >> 3] & (1 << (j & 7))) != 0;
+			} else if (section == MAPPING_SECTION) {
+				mappingSection = data;
+				mappingSectionCompressed = compressed;
+				mappingTextureIDs = UVMappingData.getTextureIDs(scene);
+				mappingVerts = vertices.length;
+				mappingEdges = edges.length;
+				mappingFaces = faces.length;
+			}
+			//unknown sections are skipped
+		}
+	}
+
+	/**
+	 * Reads the mesh geometry from a cache file next to the scene file
 	 * 
+	 * @exception IOException
+	 *                If the file is missing, can't be read or does not hold
+	 *                the geometry the scene file expects
 	 */
-	public QuadMesh smoothWholeMesh(double tol, boolean calcProjectedEdges, int maxNs, boolean onePass) {
-		if (mirrorState == NO_MIRROR && !onePass) {
-			//first, check if this is a quad mesh
-			boolean quad = true;
-			for (int i = 0; i < faces.length; i++) {
-				if (getFaceVertCount(faces[i]) != 4) {
-					quad = false;
+	private void readGeometryFile(Scene scene, String name, int vertexCount, int edgeCount, int faceCount)
+			throws IOException {
+		if (scene == null || scene.getDirectory() == null)
+			throw new FileNotFoundException("geometry file can't be located : " + name);
+		File f = new File(scene.getDirectory(), name);
+		if (!f.isFile())
+			throw new FileNotFoundException("geometry file is missing : " + f);
+		PolyMeshGeometryFile file = PolyMeshGeometryFile.open(f);
+		if (file.getVertexCount() != vertexCount || file.getEdgeCount() != edgeCount
+				|| file.getFaceCount() != faceCount)
+			throw new InvalidObjectException("geometry file does not match the scene : " + f);
+		file.readGeometry(this);
+	}
+
+	/**
+	 * Replaces the mesh geometry by a unit cube, used when the geometry can't
+	 * be read. Texture parameters get their default values.
+	 */
+	private void setPlaceholderGeometry() {
+		PolyMesh cube = new PolyMesh(0, 1, 1, 1.0, 1.0, 1.0);
+		vertices = new Wvertex[cube.vertices.length];
+		for (int i = 0; i < vertices.length; i++)
+			vertices[i] = new Wvertex(cube.vertices[i]);
+		edges = new Wedge[cube.edges.length];
+		for (int i = 0; i < edges.length; i++)
+			edges[i] = new Wedge(cube.edges[i]);
+		faces = new Wface[cube.faces.length];
+		for (int i = 0; i < faces.length; i++)
+			faces[i] = new Wface(cube.faces[i]);
+		TextureParameter param[] = getParameters();
+		ParameterValue oldParamVal[] = getParameterValues();
+		if (oldParamVal == null)
+			return;
+		ParameterValue newParamVal[] = new ParameterValue[oldParamVal.length];
+		for (int k = 0; k < oldParamVal.length; k++) {
+			if (oldParamVal[k] instanceof VertexParameterValue) {
+				double newval[] = new double[vertices.length];
+				Arrays.fill(newval, param[k].defaultVal);
+				newParamVal[k] = new VertexParameterValue(newval);
+			} else if (oldParamVal[k] instanceof FaceParameterValue) {
+				double newval[] = new double[faces.length];
+				Arrays.fill(newval, param[k].defaultVal);
+				newParamVal[k] = new FaceParameterValue(newval);
+			} else if (oldParamVal[k] instanceof FaceVertexParameterValue) {
+				double newval[][] = new double[faces.length][4];
+				for (int j = 0; j < faces.length; j++)
+					Arrays.fill(newval[j], param[k].defaultVal);
+				newParamVal[k] = new FaceVertexParameterValue(newval);
+			} else
+				newParamVal[k] = oldParamVal[k].duplicate();
+		}
+		setParameterValues(newParamVal);
+	}
+
+	/**
+	 * Returns the size in bytes of the mesh geometry written by
+	 * writePackedGeometry(), which may exceed the int range for huge meshes
+	 */
+	static long getPackedGeometrySize(int vertexCount, int edgeCount, int faceCount) {
+		return 42L * vertexCount + 20L * edgeCount + 4L * faceCount;
+	}
+
+	/**
+	 * Writes the mesh geometry as arrays, one per field
+	 */
+	void writePackedGeometry(BlockWriter writer) throws IOException {
+		for (int i = 0; i < vertices.length; i++) {
+			writer.putDouble(vertices[i].r.x);
+			writer.putDouble(vertices[i].r.y);
+			writer.putDouble(vertices[i].r.z);
+		}
+		for (int i = 0; i < vertices.length; i++)
+			writer.putInt(vertices[i].edge);
+		for (int i = 0; i < vertices.length; i++)
+			writer.putInt(vertices[i].ikJoint);
+		for (int i = 0; i < vertices.length; i++)
+			writer.putDouble(vertices[i].ikWeight);
+		for (int i = 0; i < vertices.length; i++)
+			writer.putShort(vertices[i].type);
+		for (int i = 0; i < edges.length; i++) {
+			writer.putInt(edges[i].vertex);
+			writer.putInt(edges[i].hedge);
+			writer.putInt(edges[i].face);
+			writer.putInt(edges[i].next);
+		}
+		for (int i = 0; i < edges.length; i++)
+			writer.putFloat(edges[i].smoothness);
+		for (int i = 0; i < faces.length; i++)
+			writer.putInt(faces[i].edge);
+	}
+
+	/**
+	 * Reads mesh geometry written by writePackedGeometry()
+	 */
+	void readPackedGeometry(BlockReader reader, int vertexCount, int edgeCount, int faceCount)
+			throws IOException {
+		vertices = new Wvertex[vertexCount];
+		edges = new Wedge[edgeCount];
+		faces = new Wface[faceCount];
+		for (int i = 0; i < vertices.length; i++)
+			vertices[i] = new Wvertex(new Vec3(reader.getDouble(), reader.getDouble(), reader.getDouble()), -1);
+		for (int i = 0; i < vertices.length; i++)
+			vertices[i].edge = reader.getInt();
+		for (int i = 0; i < vertices.length; i++)
+			vertices[i].ikJoint = reader.getInt();
+		for (int i = 0; i < vertices.length; i++)
+			vertices[i].ikWeight = reader.getDouble();
+		for (int i = 0; i < vertices.length; i++)
+			vertices[i].type = reader.getShort();
+		for (int i = 0; i < edges.length; i++)
+			edges[i] = new Wedge(reader.getInt(), reader.getInt(), reader.getInt(), reader.getInt());
+		for (int i = 0; i < edges.length; i++)
+			edges[i].smoothness = reader.getFloat();
+		for (int i = 0; i < faces.length; i++)
+			faces[i] = new Wface(reader.getInt());
+	}
+
+	/**
+	 * Writes the mesh geometry to a cache file next to the scene file, if the
+	 * mesh is large enough according to the "geometryFileVertices" preference
+	 * 
+	 * A file this mesh wrote when the scene was last saved under the same name
+	 * is deleted if the geometry now goes to the scene file, since the scene
+	 * file being written replaces the only reference to it. Files written for
+	 * a scene saved under another name or in another directory are left to
+	 * that scene.
+	 * 
+	 * @return The cache file, or null if the geometry must be written to the
+	 *         scene file
+	 */
+	private File writeGeometryFile(Scene scene) {
+		if (scene == null || scene.getDirectory() == null || scene.getName() == null)
+			return null;
+		File file = null;
+		if (geometryFileId != null)
+			file = new File(scene.getDirectory(), scene.getName() + "." + geometryFileId + ".pmgc");
+		int threshold = getGeometryFileVertices();
+		if (threshold <= 0 || vertices.length < threshold) {
+			deleteGeometryFile(file);
+			return null;
+		}
+		if (file == null) {
+			geometryFileId = UUID.randomUUID().toString();
+			file = new File(scene.getDirectory(), scene.getName() + "." + geometryFileId + ".pmgc");
+		}
+		try {
+			PolyMeshGeometryFile.write(this, file);
+		} catch (IOException ex) {
+			System.out.println("PolyMesh : could not write " + file + ", geometry kept in the scene file");
+			ex.printStackTrace();
+			deleteGeometryFile(file);
+			return null;
+		}
+		return file;
+	}
+
+	private static void deleteGeometryFile(File file) {
+		if (file != null && file.exists() && !file.delete())
+			System.out.println("PolyMesh : could not delete unused geometry file " + file);
+	}
+
+	private static byte[] inflate(byte[] data, int length) throws IOException {
+		Inflater inflater = new Inflater();
+		inflater.setInput(data);
+		byte[] result = new byte[length];
+		try {
+			int n = 0;
+			while (n < length && !inflater.finished()) {
+				int k = inflater.inflate(result, n, length - n);
+				if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
 					break;
-				}
+				n += k;
 			}
-			quad = false;
-			if (quad) {
-				//System.out.println("quad mesh direct smoothing");
-				QuadMesh qmesh = getQuadMesh();
-				//qmesh.dumpMesh();
-				//long time = new Date().getTime();
-				qmesh.smoothMesh(tol, calcProjectedEdges, maxNs);
-				projectedEdges = qmesh.getProjectedEdges();
-				//System.out.println("only quad smoothing : " + String.valueOf((new Date().getTime() - time)*1.0/1000.0));
-				return qmesh;
+			if (n != length)
+				throw new InvalidObjectException("Truncated PolyMesh data");
+		} catch (DataFormatException ex) {
+			throw new InvalidObjectException(ex.getMessage());
+		} finally {
+			inflater.end();
+		}
+		return result;
+	}
+
+	/**
+	 * Writes a block of mesh data through a fixed size buffer, which is drained
+	 * to the stream whenever it is full, so that the whole block is never held
+	 * in memory. A framed block is written as chunks, each one its length
+	 * followed by its bytes, possibly deflated, and a zero length ends the
+	 * block. Otherwise the bytes are written as they are.
+	 */
+	static class BlockWriter {
+		private final static int BUFFER_SIZE = 65536;
+
+		private DataOutputStream out;
+
+		private boolean framed;
+
+		private ByteBuffer buffer;
+
+		private Deflater deflater;
+
+		private byte[] deflated;
+
+		/**
+		 * Creates a block writer
+		 * 
+		 * @param out
+		 *            The output stream
+		 * @param framed
+		 *            True to write the block as chunks, which can be
+		 *            compressed
+		 * @param compressed
+		 *            True to deflate the block
+		 */
+		BlockWriter(DataOutputStream out, boolean framed, boolean compressed) {
+			this.out = out;
+			this.framed = framed;
+			buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			if (framed && compressed) {
+				deflater = new Deflater(Deflater.BEST_SPEED);
+				deflated = new byte[BUFFER_SIZE];
+			}
+		}
+
+		void putDouble(double value) throws IOException {
+			if (buffer.remaining() < 8)
+				drain();
+			buffer.putDouble(value);
+		}
+
+		void putFloat(float value) throws IOException {
+			if (buffer.remaining() < 4)
+				drain();
+			buffer.putFloat(value);
+		}
+
+		void putInt(int value) throws IOException {
+			if (buffer.remaining() < 4)
+				drain();
+			buffer.putInt(value);
+		}
+
+		void putShort(short value) throws IOException {
+			if (buffer.remaining() < 2)
+				drain();
+			buffer.putShort(value);
+		}
+
+		/**
+		 * Writes what is left in the buffer and ends the block. The stream
+		 * is not closed.
+		 */
+		void finish() throws IOException {
+			drain();
+			if (deflater != null) {
+				deflater.finish();
+				while (!deflater.finished())
+					writeDeflated();
+				deflater.end();
+			}
+			if (framed)
+				out.writeInt(0);
+		}
+
+		private void drain() throws IOException {
+			int n = buffer.position();
+			if (deflater != null) {
+				deflater.setInput(buffer.array(), 0, n);
+				while (!deflater.needsInput())
+					writeDeflated();
+			} else if (n > 0) {
+				if (framed)
+					out.writeInt(n);
+				out.write(buffer.array(), 0, n);
+			}
+			buffer.clear();
+		}
+
+		private void writeDeflated() throws IOException {
+			int n = deflater.deflate(deflated);
+			if (n > 0) {
+				out.writeInt(n);
+				out.write(deflated, 0, n);
+			}
+		}
+	}
+
+	/**
+	 * Reads a block of mesh data written by a BlockWriter, through a fixed
+	 * size buffer refilled from the stream, or from a buffer which holds the
+	 * whole block such as a mapped file.
+	 */
+	static class BlockReader {
+		private final static int BUFFER_SIZE = 65536;
+
+		private DataInputStream in;
+
+		private boolean framed;
+
+		private ByteBuffer buffer;
+
+		private int chunkLeft;
+
+		private boolean ended;
+
+		private Inflater inflater;
+
+		private byte[] deflated;
+
+		/**
+		 * Creates a reader for a block held in a buffer, starting at the
+		 * buffer current position
+		 */
+		BlockReader(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		/**
+		 * Creates a block reader
+		 * 
+		 * @param in
+		 *            The input stream
+		 * @param framed
+		 *            True if the block was written as chunks
+		 * @param compressed
+		 *            True if the block is deflated
+		 */
+		BlockReader(DataInputStream in, boolean framed, boolean compressed) {
+			this.in = in;
+			this.framed = framed;
+			buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			buffer.limit(0);
+			if (framed && compressed) {
+				inflater = new Inflater();
+				deflated = new byte[BUFFER_SIZE];
+			}
+		}
+
+		double getDouble() throws IOException {
+			if (buffer.remaining() < 8)
+				fill(8);
+			return buffer.getDouble();
+		}
+
+		float getFloat() throws IOException {
+			if (buffer.remaining() < 4)
+				fill(4);
+			return buffer.getFloat();
+		}
+
+		int getInt() throws IOException {
+			if (buffer.remaining() < 4)
+				fill(4);
+			return buffer.getInt();
+		}
+
+		short getShort() throws IOException {
+			if (buffer.remaining() < 2)
+				fill(2);
+			return buffer.getShort();
+		}
+
+		/**
+		 * Skips what is left of a framed block, so that the stream is
+		 * positioned after it. The stream is not closed.
+		 */
+		void finish() throws IOException {
+			if (inflater != null)
+				inflater.end();
+			if (!framed)
+				return;
+			do
+				while (chunkLeft > 0)
+					chunkLeft -= in.skipBytes(chunkLeft);
+			while (nextChunk());
+		}
+
+		/**
+		 * Makes at least n bytes available in the buffer
+		 */
+		private void fill(int n) throws IOException {
+			if (in == null)
+				throw new InvalidObjectException("Truncated PolyMesh data");
+			buffer.compact();
+			while (buffer.position() < n) {
+				int k = read(buffer.array(), buffer.position(), buffer.capacity() - buffer.position());
+				if (k < 0)
+					throw new InvalidObjectException("Truncated PolyMesh data");
+				buffer.position(buffer.position() + k);
+			}
+			buffer.flip();
+		}
+
+		/**
+		 * Reads block bytes, returns -1 at the end of the block
+		 */
+		private int read(byte[] b, int off, int len) throws IOException {
+			if (!framed)
+				return in.read(b, off, len);
+			if (inflater == null) {
+				if (chunkLeft == 0 && !nextChunk())
+					return -1;
+				int k = in.read(b, off, Math.min(len, chunkLeft));
+				if (k > 0)
+					chunkLeft -= k;
+				return k;
+			}
+			try {
+				int k;
+				while ((k = inflater.inflate(b, off, len)) == 0) {
+					if (inflater.finished() || inflater.needsDictionary() || !nextChunk())
+						return -1;
+					if (deflated.length < chunkLeft)
+						deflated = new byte[chunkLeft];
+					in.readFully(deflated, 0, chunkLeft);
+					inflater.setInput(deflated, 0, chunkLeft);
+					chunkLeft = 0;
+				}
+				return k;
+			} catch (DataFormatException ex) {
+				throw new InvalidObjectException(ex.getMessage());
+			}
+		}
+
+		/**
+		 * Reads the length of the next chunk, returns false at the end of the
+		 * block
+		 */
+		private boolean nextChunk() throws IOException {
+			if (ended)
+				return false;
+			chunkLeft = in.readInt();
+			if (chunkLeft < 0)
+				throw new InvalidObjectException("");
+			ended = chunkLeft == 0;
+			return !ended;
+		}
+	}
+
+	/**
+	 * Returns true if meshes are written to files in compressed form. Files
+	 * are smaller but take longer to read and write.
+	 */
+	public static boolean isFileCompressionEnabled() {
+		return preferences.getBoolean("fileCompression", false);
+	}
+
+	/**
+	 * Sets whether meshes are written to files in compressed form.
+	 */
+	public static void setFileCompressionEnabled(boolean compression) {
+		preferences.putBoolean("fileCompression", compression);
+	}
+
+	/**
+	 * Returns the vertex count from which mesh geometry is written to a
+	 * PolyMeshGeometryFile next to the scene file, 0 if it never is.
+	 */
+	public static int getGeometryFileVertices() {
+		return preferences.getInt("geometryFileVertices", 0);
+	}
+
+	/**
+	 * Sets the vertex count from which mesh geometry is written to a
+	 * PolyMeshGeometryFile next to the scene file, 0 if it never is.
+	 */
+	public static void setGeometryFileVertices(int count) {
+		preferences.putInt("geometryFileVertices", count);
+	}
+
+	/**
+	 * Smooths the whole mesh according to Catmull-Clark or Biermann-Levin-Zorin
+	 * algorithm. Creasing according to Pixar/Blender algorithm. This method returns
+	 * a quad mesh smoothed to the specified tolerance, unless the tolerance is set to -1
+	 * in which case the polymesh is smoothed once.
+	 * 
+	 */
+	public QuadMesh smoothWholeMesh(double tol, boolean calcProjectedEdges, int maxNs, boolean onePass) {
+		return smoothWholeMesh(tol, calcProjectedEdges, maxNs, onePass, null);
+	}
+
+	/**
+	 * Same as above. If cache is not null, it is filled with what is needed to
+	 * update the smoothed mesh when vertices are moved.
+	 */
+	private QuadMesh smoothWholeMesh(double tol, boolean calcProjectedEdges, int maxNs, boolean onePass,
+			SmoothingCache cache) {
+		if (mirrorState == NO_MIRROR && !onePass) {
+			//first, check if this is a quad mesh
+			boolean quad = true;
+			for (int i = 0; i < faces.length; i++) {
+				if (getFaceVertCount(faces[i]) != 4) {
+					quad = false;
+					break;
+				}
+			}
+			quad = false;
+			if (quad) {
+				//System.out.println("quad mesh direct smoothing");
+				QuadMesh qmesh = getQuadMesh();
+				//qmesh.dumpMesh();
+				//long time = new Date().getTime();
+				qmesh.setParallelSmoothing(!calcProjectedEdges);
+				qmesh.smoothMesh(tol, calcProjectedEdges, maxNs);
+				if (calcProjectedEdges)
+					projectedEdges = qmesh.getProjectedEdges();
+				//System.out.println("only quad smoothing : " + String.valueOf((new Date().getTime() - time)*1.0/1000.0));
+				return qmesh;
 			}
 		}
 		if (!onePass) {
 			//long time = new Date().getTime();
 			PolyMesh smoothedMesh = (PolyMesh)this.duplicate();
-			smoothedMesh.smoothWholeMesh(tol, calcProjectedEdges, maxNs, true);
+			smoothedMesh.smoothWholeMesh(tol, calcProjectedEdges, maxNs, true, cache);
 			int[] pe = null;
 			if (calcProjectedEdges) {
 				int ne = smoothedMesh.getEdges().length/2;
@@ -5708,17 +6121,25 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 			//System.out.println("initial poly to quad smoothing : " + String.valueOf((new Date().getTime() - time)*1.0/1000.0));
 			//time = new Date().getTime();
 			if (maxNs > 1) {
+				//rendering meshes are smoothed using all processors,
+				//levels too small to benefit from it are still smoothed serially
+				qmesh.setParallelSmoothing(!calcProjectedEdges);
+				qmesh.setRecordLevels(cache != null);
 				qmesh.smoothMesh(tol, calcProjectedEdges, 1, pe, maxNs);
 			} else  {
 				qmesh.setProjectedEdges(pe);
 			}
-			projectedEdges = qmesh.getProjectedEdges();
+			//rendering meshes do not track edges and must not overwrite
+			//the projected edges of the interactive mesh
+			if (calcProjectedEdges)
+				projectedEdges = qmesh.getProjectedEdges();
+			if (cache != null) {
+				cache.qmesh = qmesh;
+			}
 			//System.out.println("quad smoothing : " + String.valueOf((new Date().getTime() - time)*1.0/1000.0));
 			return qmesh;
 		}
-		int ns = 0;
 		int originalVert = vertices.length;
-		Vec3[] normals = getNormals();
 		int[] newProjectedEdges = null;
 		if (calcProjectedEdges) {
 			if (projectedEdges == null || projectedEdges.length != edges.length / 2) {
@@ -5779,6 +6200,9 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 			}
 		}
 		int addedVert = vertices.length;
+		if (cache != null) {
+			cache.setDividedMesh(this, facePos, originalVert);
+		}
 		// build a table for selected faces and new vertices
 		Wvertex[] newVert = new Wvertex[vertices.length + faceNum];
 		// compute new vertices at the center of selected faces
@@ -5813,11 +6237,9 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		}
 
 		Wface[] newFaces = new Wface[count + faces.length - faceNum];
-	    boolean[] movedVert = null;
 	    subdivideFaces = null;
 		if (tol > 0 ) {
 			subdivideFaces = new boolean[newFaces.length];
-			movedVert = new boolean[newVert.length];
 		}	    
 		// Face table will help keep track which is which at texture parameter
 		// computation time
@@ -5838,240 +6260,13 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 			if (newVert[i].edge >= edges.length / 2)
 				newVert[i].edge += newEdges.length / 2 - edges.length / 2;
 
-		int face1;
-		int face2;
-		Vec3 pt1;
-		Vec3 pt2;
-		double smoothness, dist;
-		// location of old vertices
 		int n;
-		Vec3 pos, oldPos;
-		int v1;
-		int v2;
-		int sharp;
-		double weight;
-		double maxHard;
-		int[] hardEdge = new int[2];
-		int[] sharpEdge = new int[2];
-		double[] smoothEdgeValue = new double[10];
-		sharpEdge[1] = sharpEdge[0] = -1;
-		smoothEdgeValue[1] = smoothEdgeValue[0] = 1;
-		int hardnum;
-		Vec3 sharpPt;
-		// BLZ algorithm
-		for (int i = 0; i < originalVert; ++i) {
-			// adjacent polygons
-			int ve[] = getVertexEdges(vertices[i]);
-			if (ve.length > smoothEdgeValue.length) {
-				smoothEdgeValue = new double[ve.length];
-			}
-			hardnum = 0;
-			n = ve.length;
-			sharp = 0;
-			weight = 0;
-			oldPos = newVert[i].r;
-			pos = new Vec3();
-			count = 0;
-			maxHard = 0.0;
-			for (int j = 0; j < ve.length; ++j) {
-				smoothEdgeValue[j] = 0.0;
-				face1 = edges[ve[j]].face;
-				face2 = edges[edges[ve[j]].hedge].face;
-				if (face1 != -1) {
-					pos.add(facePos[face1]);
-					pos
-					.subtract(vertices[edges[edges[ve[j]].next].vertex].r
-							.times(1.0 / 4.0));
-					pos
-					.subtract(vertices[edges[edges[edges[getPreviousEdge(ve[j])].hedge].next].vertex].r
-							.times(1.0 / 4.0));
-					pos.subtract(vertices[i].r.times(1.0 / 4.0));
-					++count;
-				}
-				pos.add(vertices[edges[edges[ve[j]].next].vertex].r
-						.times(3.0 / 2.0));
-				if (mirrorState == NO_MIRROR)
-					smoothness = edges[ve[j]].smoothness;
-				else
-					smoothness = edgeSmoothness[ve[j]];
-				if (face1 != -1 && face2 != -1)
-					smoothness = (1.0 - smoothness) * QuadMesh.MAX_SMOOTHNESS;
-				else
-					smoothness = QuadMesh.MAX_SMOOTHNESS; // boundary edges are treated as
-				// hard edges.
-				if (ns + 1 <= smoothness) {
-					if (sharp < 2)
-					{	sharpEdge[sharp] = ve[j];
-					}
-					++sharp;
-				} else if (ns < smoothness) {
-					weight += smoothness - ns;
-					smoothEdgeValue[j] = smoothness - ns;
-					if (smoothEdgeValue[j] > maxHard) {
-						maxHard = smoothEdgeValue[j];
-					}
-					if (hardnum < 2)
-						hardEdge[hardnum] = ve[j];
-					++hardnum;
-				}
-
-			}
-			pos.scale(1.0 / ((double) count * count));
-			pos.add(vertices[i].r.times(1.0 - 3.0 / (2.0 * count) - 1.0
-					/ (4.0 * count)));
-			if (vertices[i].type != Wvertex.CORNER ) {
-				switch (sharp) {
-				case 0:
-					if (hardnum <= 1) {
-						newVert[i].r = pos;
-					}
-					else if (hardnum == 2) {
-						weight /= 2;
-						sharpPt = new Vec3(newVert[i].r.times(0.75));
-						sharpPt
-						.add(vertices[edges[edges[hardEdge[0]].next].vertex].r
-								.times(0.125));
-						sharpPt
-						.add(vertices[edges[edges[hardEdge[1]].next].vertex].r
-								.times(0.125));
-						newVert[i].r = pos.times(1 - weight).plus(
-								sharpPt.times(weight));
-					} else {
-						weight /= hardnum;
-						newVert[i].r = pos.times(1 - weight).plus(
-								newVert[i].r.times(weight));
-					}
-					break;
-				case 1:
-					if (hardnum == 0) {
-						newVert[i].r = pos;
-					}
-					else if (hardnum == 1) {
-						newVert[i].r = pos.times(1 - maxHard).plus(
-								newVert[i].r.times(maxHard));
-					} else {
-						weight /= hardnum;
-						newVert[i].r = pos.times(1 - weight).plus(
-								newVert[i].r.times(weight));
-					}
-					break;
-				case 2:
-					sharpPt = new Vec3(newVert[i].r.times(0.75));
-					sharpPt.add(vertices[edges[edges[sharpEdge[0]].next].vertex].r
-							.times(0.125));
-					sharpPt.add(vertices[edges[edges[sharpEdge[1]].next].vertex].r
-							.times(0.125));
-					//System.out.println(newVert[i].r + " " + edges[edges[sharpEdge[0]].next].vertex);
-					//System.out.println(sharpPt + " " + edges[edges[sharpEdge[1]].next].vertex);
-					if (hardnum == 0) {
-						newVert[i].r = sharpPt;
-					}
-					else {
-						weight /= hardnum;
-						newVert[i].r = sharpPt.times(1 - weight).plus(
-								newVert[i].r.times(weight));
-					}
-					break;
-				default:
-					//new vertex is marked as corner
-					//newVert[i].type = Wvertex.CORNER;
-					newVert[i].r = new Vec3(vertices[i].r);
-					break;
-				}
-				if (tol > 0 ) {
-					//dist = Math.abs(newVert[i].r.minus(oldPos).dot(normals[i]));
-					dist = newVert[i].r.distance(oldPos);
-					if (dist > tol) {
-						movedVert[i] = true;
-					}
-				}				
-			}
-		}
-
+		// location of old vertices
+		for (int i = 0; i < originalVert; ++i)
+			newVert[i].r = smoothOriginalVertex(i, newVert[i].r, facePos, edgeSmoothness);
 		// location of the new midpoints
-		int v3, v4, v5, v6;
-		Vec3 v1r, v2r, v3r, v4r, v5r, v6r;
-		int e1, e2, e1h, e2h;
-		double gamma;
-		for (int i = originalVert; i < addedVert; ++i) {
-			oldPos = newVert[i].r;
-			e1 = vertices[i].edge;
-			e1h = edges[e1].hedge;
-			e2 = edges[e1h].next;
-			e2h = edges[e2].hedge;
-			v1 = edges[e1].vertex;
-			v2 = edges[e2].vertex;
-			v3 = edges[edges[e1].next].vertex;
-			v4 = edges[edges[getPreviousEdge(e1h)].hedge].vertex;
-			v5 = edges[edges[getPreviousEdge(e2h)].hedge].vertex;
-			v6 = edges[edges[e2].next].vertex;
-			v1r = vertices[v1].r;
-			v2r = vertices[v2].r;
-			v3r = vertices[v3].r.minus(v1r).times(2).plus(v1r);
-			v4r = vertices[v4].r.minus(v1r).times(2).plus(v1r);
-			v5r = vertices[v5].r.minus(v2r).times(2).plus(v2r);
-			v6r = vertices[v6].r.minus(v2r).times(2).plus(v2r);
-			if (mirrorState == NO_MIRROR)
-				smoothness = edges[e1].smoothness;
-			else
-				smoothness = edgeSmoothness[e1];
-			smoothness = (1.0 - smoothness) * QuadMesh.MAX_SMOOTHNESS;
-			face1 = edges[e1].face;
-			face2 = edges[e2].face;
-			// System.out.println( i + " " + face1 + " " + face2 );
-			pt = null;
-			if (face1 == -1 || face2 == -1)
-				continue;
-			gamma = 3.0 / 8.0;
-			if (vertices[v1].type == Wvertex.CREASE) {
-				int k = getVertexEdges(vertices[v1]).length;
-				gamma = 3.0 / 8.0 - Math.cos(Math.PI / (double) k) / 4.0;
-				// System.out.println( gamma + " :1");
-			}
-			if (vertices[v2].type == Wvertex.CREASE) {
-				int k = getVertexEdges(vertices[v2]).length;
-				gamma = 3.0 / 8.0 + Math.cos(Math.PI / (double) k) / 4.0;
-				// System.out.println( gamma + " :2");
-			}
-			if (ns + 1 <= smoothness) {
-				// hard edge
-				//do nothing
-			} else if (ns < smoothness) {
-				// in between position
-				pt = new Vec3(v1r);
-				pt.scale(3.0 / 4.0 - gamma);
-				pt.add(v2r.times(gamma));
-				pt2 = new Vec3(v3r);
-				pt2.add(v4r);
-				pt2.add(v5r);
-				pt2.add(v6r);
-				pt2.scale(1.0 / 16.0);
-				pt.add(pt2);
-				pt2 = newVert[i].r;
-				newVert[i].r = pt2.times(smoothness - ns).plus(
-						pt.times(1 - (smoothness - ns)));
-			} else {
-				pt = new Vec3(v1r);
-				pt.scale(3.0 / 4.0 - gamma);
-				pt.add(v2r.times(gamma));
-				pt2 = new Vec3(v3r);
-				pt2.add(v4r);
-				pt2.add(v5r);
-				pt2.add(v6r);
-				pt2.scale(1.0 / 16.0);
-				pt.add(pt2);
-				newVert[i].r = pt;
-			}
-			if (tol > 0 && !onePass) {
-				v1r = normals[v1].plus(normals[v2]);
-				v1r.normalize();
-				dist = Math.abs(newVert[i].r.minus(oldPos).dot(v1r));
-				//dist = newVert[i].r.distance(oldPos);
-				if (dist > tol) {
-					movedVert[i] = true;
-				}
-			}			
-		}
+		for (int i = originalVert; i < addedVert; ++i)
+			newVert[i].r = smoothMidpoint(i, newVert[i].r, edgeSmoothness);
 
 		// new edges
 		count = edges.length / 2;
@@ -6276,6 +6471,238 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		return null;
 	}
 	
+	/**
+	 * Computes the new location of an original vertex during the first step of
+	 * smoothWholeMesh(), once edges have been divided (BLZ algorithm).
+	 * 
+	 * @param i
+	 *            The vertex index
+	 * @param oldPos
+	 *            The vertex location before smoothing
+	 * @param facePos
+	 *            Face centers
+	 * @param edgeSmoothness
+	 *            Edge smoothness values when the mesh is mirrored
+	 * @return The new vertex location
+	 */
+	private Vec3 smoothOriginalVertex(int i, Vec3 oldPos, Vec3[] facePos, float[] edgeSmoothness) {
+		int ns = 0;
+		int face1, face2, n, count, sharp, hardnum;
+		double smoothness, weight, maxHard;
+		int[] hardEdge = new int[2];
+		int[] sharpEdge = new int[2];
+		double[] smoothEdgeValue = new double[10];
+		Vec3 pos, sharpPt;
+		Vec3 newPos = oldPos;
+		// adjacent polygons
+		int ve[] = getVertexEdges(vertices[i]);
+		if (ve.length > smoothEdgeValue.length) {
+			smoothEdgeValue = new double[ve.length];
+		}
+		hardnum = 0;
+		n = ve.length;
+		sharp = 0;
+		weight = 0;
+		pos = new Vec3();
+		count = 0;
+		maxHard = 0.0;
+		for (int j = 0; j < ve.length; ++j) {
+			smoothEdgeValue[j] = 0.0;
+			face1 = edges[ve[j]].face;
+			face2 = edges[edges[ve[j]].hedge].face;
+			if (face1 != -1) {
+				pos.add(facePos[face1]);
+				pos
+				.subtract(vertices[edges[edges[ve[j]].next].vertex].r
+						.times(1.0 / 4.0));
+				pos
+				.subtract(vertices[edges[edges[edges[getPreviousEdge(ve[j])].hedge].next].vertex].r
+						.times(1.0 / 4.0));
+				pos.subtract(vertices[i].r.times(1.0 / 4.0));
+				++count;
+			}
+			pos.add(vertices[edges[edges[ve[j]].next].vertex].r
+					.times(3.0 / 2.0));
+			if (mirrorState == NO_MIRROR)
+				smoothness = edges[ve[j]].smoothness;
+			else
+				smoothness = edgeSmoothness[ve[j]];
+			if (face1 != -1 && face2 != -1)
+				smoothness = (1.0 - smoothness) * QuadMesh.MAX_SMOOTHNESS;
+			else
+				smoothness = QuadMesh.MAX_SMOOTHNESS; // boundary edges are treated as
+			// hard edges.
+			if (ns + 1 <= smoothness) {
+				if (sharp < 2)
+				{	sharpEdge[sharp] = ve[j];
+				}
+				++sharp;
+			} else if (ns < smoothness) {
+				weight += smoothness - ns;
+				smoothEdgeValue[j] = smoothness - ns;
+				if (smoothEdgeValue[j] > maxHard) {
+					maxHard = smoothEdgeValue[j];
+				}
+				if (hardnum < 2)
+					hardEdge[hardnum] = ve[j];
+				++hardnum;
+			}
+
+		}
+		pos.scale(1.0 / ((double) count * count));
+		pos.add(vertices[i].r.times(1.0 - 3.0 / (2.0 * count) - 1.0
+				/ (4.0 * count)));
+		if (vertices[i].type != Wvertex.CORNER ) {
+			switch (sharp) {
+			case 0:
+				if (hardnum <= 1) {
+					newPos = pos;
+				}
+				else if (hardnum == 2) {
+					weight /= 2;
+					sharpPt = new Vec3(newPos.times(0.75));
+					sharpPt
+					.add(vertices[edges[edges[hardEdge[0]].next].vertex].r
+							.times(0.125));
+					sharpPt
+					.add(vertices[edges[edges[hardEdge[1]].next].vertex].r
+							.times(0.125));
+					newPos = pos.times(1 - weight).plus(
+							sharpPt.times(weight));
+				} else {
+					weight /= hardnum;
+					newPos = pos.times(1 - weight).plus(
+							newPos.times(weight));
+				}
+				break;
+			case 1:
+				if (hardnum == 0) {
+					newPos = pos;
+				}
+				else if (hardnum == 1) {
+					newPos = pos.times(1 - maxHard).plus(
+							newPos.times(maxHard));
+				} else {
+					weight /= hardnum;
+					newPos = pos.times(1 - weight).plus(
+							newPos.times(weight));
+				}
+				break;
+			case 2:
+				sharpPt = new Vec3(newPos.times(0.75));
+				sharpPt.add(vertices[edges[edges[sharpEdge[0]].next].vertex].r
+						.times(0.125));
+				sharpPt.add(vertices[edges[edges[sharpEdge[1]].next].vertex].r
+						.times(0.125));
+				//System.out.println(newPos + " " + edges[edges[sharpEdge[0]].next].vertex);
+				//System.out.println(sharpPt + " " + edges[edges[sharpEdge[1]].next].vertex);
+				if (hardnum == 0) {
+					newPos = sharpPt;
+				}
+				else {
+					weight /= hardnum;
+					newPos = sharpPt.times(1 - weight).plus(
+							newPos.times(weight));
+				}
+				break;
+			default:
+				//new vertex is marked as corner
+				//newVert[i].type = Wvertex.CORNER;
+				newPos = new Vec3(vertices[i].r);
+				break;
+			}
+		}
+		return newPos;
+	}
+
+	/**
+	 * Computes the new location of a mid edge vertex during the first step of
+	 * smoothWholeMesh(), once edges have been divided.
+	 * 
+	 * @param i
+	 *            The mid edge vertex index
+	 * @param oldPos
+	 *            The vertex location before smoothing
+	 * @param edgeSmoothness
+	 *            Edge smoothness values when the mesh is mirrored
+	 * @return The new vertex location
+	 */
+	private Vec3 smoothMidpoint(int i, Vec3 oldPos, float[] edgeSmoothness) {
+		int ns = 0;
+		int face1, face2, v1, v2, v3, v4, v5, v6, e1, e2, e1h, e2h;
+		Vec3 v1r, v2r, v3r, v4r, v5r, v6r, pt, pt2;
+		double smoothness, gamma;
+		Vec3 newPos = oldPos;
+		e1 = vertices[i].edge;
+		e1h = edges[e1].hedge;
+		e2 = edges[e1h].next;
+		e2h = edges[e2].hedge;
+		v1 = edges[e1].vertex;
+		v2 = edges[e2].vertex;
+		v3 = edges[edges[e1].next].vertex;
+		v4 = edges[edges[getPreviousEdge(e1h)].hedge].vertex;
+		v5 = edges[edges[getPreviousEdge(e2h)].hedge].vertex;
+		v6 = edges[edges[e2].next].vertex;
+		v1r = vertices[v1].r;
+		v2r = vertices[v2].r;
+		v3r = vertices[v3].r.minus(v1r).times(2).plus(v1r);
+		v4r = vertices[v4].r.minus(v1r).times(2).plus(v1r);
+		v5r = vertices[v5].r.minus(v2r).times(2).plus(v2r);
+		v6r = vertices[v6].r.minus(v2r).times(2).plus(v2r);
+		if (mirrorState == NO_MIRROR)
+			smoothness = edges[e1].smoothness;
+		else
+			smoothness = edgeSmoothness[e1];
+		smoothness = (1.0 - smoothness) * QuadMesh.MAX_SMOOTHNESS;
+		face1 = edges[e1].face;
+		face2 = edges[e2].face;
+		// System.out.println( i + " " + face1 + " " + face2 );
+		pt = null;
+		if (face1 == -1 || face2 == -1)
+			return oldPos;
+		gamma = 3.0 / 8.0;
+		if (vertices[v1].type == Wvertex.CREASE) {
+			int k = getVertexEdges(vertices[v1]).length;
+			gamma = 3.0 / 8.0 - Math.cos(Math.PI / (double) k) / 4.0;
+			// System.out.println( gamma + " :1");
+		}
+		if (vertices[v2].type == Wvertex.CREASE) {
+			int k = getVertexEdges(vertices[v2]).length;
+			gamma = 3.0 / 8.0 + Math.cos(Math.PI / (double) k) / 4.0;
+			// System.out.println( gamma + " :2");
+		}
+		if (ns + 1 <= smoothness) {
+			// hard edge
+			//do nothing
+		} else if (ns < smoothness) {
+			// in between position
+			pt = new Vec3(v1r);
+			pt.scale(3.0 / 4.0 - gamma);
+			pt.add(v2r.times(gamma));
+			pt2 = new Vec3(v3r);
+			pt2.add(v4r);
+			pt2.add(v5r);
+			pt2.add(v6r);
+			pt2.scale(1.0 / 16.0);
+			pt.add(pt2);
+			pt2 = newPos;
+			newPos = pt2.times(smoothness - ns).plus(
+					pt.times(1 - (smoothness - ns)));
+		} else {
+			pt = new Vec3(v1r);
+			pt.scale(3.0 / 4.0 - gamma);
+			pt.add(v2r.times(gamma));
+			pt2 = new Vec3(v3r);
+			pt2.add(v4r);
+			pt2.add(v5r);
+			pt2.add(v6r);
+			pt2.scale(1.0 / 16.0);
+			pt.add(pt2);
+			newPos = pt;
+		}
+		return newPos;
+	}
+	
 	private QuadMesh getQuadMesh() {
 		QuadVertex[] qverts = new QuadVertex[vertices.length];
 		QuadEdge[] qedges = new QuadEdge[edges.length/2];
@@ -6680,7 +7107,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 					vertices[i].r.add(new Vec3(0, 0, amount));
 			break;
 		}
-		resetMesh();
+		resetPositions();
 	}
 
 	/**
@@ -6747,7 +7174,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 			}
 			break;
 		}
-		resetMesh();
+		resetPositions();
 	}
 
 	/**
@@ -6797,7 +7224,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 			}
 			break;
 		}
-		resetMesh();
+		resetPositions();
 	}
 
 	/**
@@ -10670,7 +11097,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	 * 
 	 * @return The mirroredMesh value
 	 */
-	public PolyMesh getMirroredMesh() {
+	public synchronized PolyMesh getMirroredMesh() {
 		if (mirroredMesh != null) {
 			// System.out.println( "non null mirrored mesh : " +
 			// invMirroredVerts );
@@ -10681,7 +11108,11 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		PolyMesh mesh = (PolyMesh) this.duplicate();
 		//dumpMesh();
 		mesh.setMirrorState(state);
+		MirrorMapping mapping = new MirrorMapping(this, state);
+		mesh.mirrorMapping = mapping;
 		mesh.mirrorMesh();
+		mesh.mirrorMapping = null;
+		mirrorMapping = mapping;
 		mirroredVerts = mesh.mirroredVerts;
 		mirroredEdges = mesh.mirroredEdges;
 		mirroredFaces = mesh.mirroredFaces;
@@ -10694,36 +11125,163 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	}
 
 	/**
-	 * Mirrors the mesh as specified by the mirror state attribute
+	 * Writes vertex positions through to the mirrored mesh after vertices have
+	 * been moved, instead of building it again. This is possible unless a
+	 * vertex has moved onto or off a mirror plane, which changes the mirrored
+	 * mesh topology. Vertices get new Vec3 objects, since the previous ones may
+	 * still be shared by meshes the mirrored mesh has handed out.
+	 * 
+	 * @return true if the mirrored mesh has been updated
 	 */
-	public void mirrorMesh() {
-		if (mirrorState == NO_MIRROR)
-			return;
-		// first step: delete faces that have all of their vertices on the
-		// plane.
-		boolean changed = false;
-		boolean[] sel = new boolean[faces.length];
-		int n;
-		for (int i = 0; i < faces.length; ++i) {
-			int[] fv = getFaceVertices(faces[i]);
-			boolean del = true;
-			for (int j = 0; j < fv.length; ++j) {
-				if ((mirrorState & MIRROR_ON_XY) != 0) {
-					if (Math.abs(vertices[fv[j]].r.z) > 1e-6)
-						del = false;
-				} else if ((mirrorState & MIRROR_ON_YZ) != 0) {
-					if (Math.abs(vertices[fv[j]].r.x) > 1e-6)
-						del = false;
-				} else if ((mirrorState & MIRROR_ON_XZ) != 0) {
-					if (Math.abs(vertices[fv[j]].r.y) > 1e-6)
-						del = false;
-				}
-			}
-			sel[i] = del;
-			changed |= del;
-		}
-		if (!changed) {
-			if ((mirrorState & MIRROR_ON_XY) != 0)
+	private boolean updateMirroredPositions(PolyMesh mirror) {
+		MirrorMapping mapping = mirrorMapping;
+		if (mapping == null || !mapping.isValidFor(this)
+				|| mirror.vertices.length != mapping.source.length)
+			return false;
+		Wvertex[] mv = mirror.vertices;
+		for (int i = 0; i < mv.length; i++) {
+			Vec3 r = vertices[mapping.source[i]].r;
+			int flip = mapping.flip[i];
+			mv[i].r = new Vec3((flip & MirrorMapping.FLIP_X) != 0 ? -r.x : r.x,
+					(flip & MirrorMapping.FLIP_Y) != 0 ? -r.y : r.y,
+					(flip & MirrorMapping.FLIP_Z) != 0 ? -r.z : r.z);
+		}
+		mirror.resetPositions();
+		return true;
+	}
+
+	/**
+	 * Relates each vertex of a mirrored mesh to the vertex it was copied from,
+	 * and to the mirror planes it has been reflected through.
+	 */
+	private static class MirrorMapping {
+		static final byte FLIP_X = 1;
+
+		static final byte FLIP_Y = 2;
+
+		static final byte FLIP_Z = 4;
+
+		int[] source;
+
+		byte[] flip;
+
+		private Wvertex[] vertices; //mesh arrays the mirror was built from
+
+		private Wedge[] edges;
+
+		private Wface[] faces;
+
+		private short state;
+
+		private byte[] planes;
+
+		MirrorMapping(PolyMesh mesh, short state) {
+			vertices = mesh.vertices;
+			edges = mesh.edges;
+			faces = mesh.faces;
+			this.state = state;
+			planes = getPlanes(vertices, state);
+			source = new int[vertices.length];
+			for (int i = 0; i < source.length; i++)
+				source[i] = i;
+			flip = new byte[vertices.length];
+		}
+
+		/**
+		 * Tells for each vertex the mirror planes it lies on, which decides
+		 * what mirrorMesh() does
+		 */
+		private static byte[] getPlanes(Wvertex[] vertices, short state) {
+			byte[] planes = new byte[vertices.length];
+			for (int i = 0; i < vertices.length; i++) {
+				Vec3 r = vertices[i].r;
+				if ((state & MIRROR_ON_YZ) != 0 && !(Math.abs(r.x) > 1e-6))
+					planes[i] |= FLIP_X;
+				if ((state & MIRROR_ON_XZ) != 0 && !(Math.abs(r.y) > 1e-6))
+					planes[i] |= FLIP_Y;
+				if ((state & MIRROR_ON_XY) != 0 && !(Math.abs(r.z) > 1e-6))
+					planes[i] |= FLIP_Z;
+			}
+			return planes;
+		}
+
+		boolean isValidFor(PolyMesh mesh) {
+			return mesh.vertices == vertices && mesh.edges == edges
+					&& mesh.faces == faces && mesh.mirrorState == state
+					&& Arrays.equals(planes, getPlanes(vertices, state));
+		}
+
+		/**
+		 * Updates the mapping after vertices have been deleted
+		 */
+		void deleteVertices(int[] vertexTable, int count) {
+			int[] newSource = new int[count];
+			byte[] newFlip = new byte[count];
+			for (int i = 0; i < vertexTable.length; i++)
+				if (vertexTable[i] != -1) {
+					newSource[vertexTable[i]] = source[i];
+					newFlip[vertexTable[i]] = flip[i];
+				}
+			source = newSource;
+			flip = newFlip;
+		}
+
+		/**
+		 * Updates the mapping after the mesh has been mirrored through the
+		 * first plane of the given mirror state
+		 */
+		void mirrorVertices(int[] from, boolean[] copy, short mirrorState) {
+			byte plane = 0;
+			if ((mirrorState & MIRROR_ON_XY) != 0)
+				plane = FLIP_Z;
+			else if ((mirrorState & MIRROR_ON_YZ) != 0)
+				plane = FLIP_X;
+			else if ((mirrorState & MIRROR_ON_XZ) != 0)
+				plane = FLIP_Y;
+			int[] newSource = new int[from.length];
+			byte[] newFlip = new byte[from.length];
+			for (int i = 0; i < from.length; i++) {
+				newSource[i] = source[from[i]];
+				newFlip[i] = flip[from[i]];
+				if (copy[i])
+					newFlip[i] ^= plane;
+			}
+			source = newSource;
+			flip = newFlip;
+		}
+	}
+
+	/**
+	 * Mirrors the mesh as specified by the mirror state attribute
+	 */
+	public void mirrorMesh() {
+		if (mirrorState == NO_MIRROR)
+			return;
+		// first step: delete faces that have all of their vertices on the
+		// plane.
+		boolean changed = false;
+		boolean[] sel = new boolean[faces.length];
+		int n;
+		for (int i = 0; i < faces.length; ++i) {
+			int[] fv = getFaceVertices(faces[i]);
+			boolean del = true;
+			for (int j = 0; j < fv.length; ++j) {
+				if ((mirrorState & MIRROR_ON_XY) != 0) {
+					if (Math.abs(vertices[fv[j]].r.z) > 1e-6)
+						del = false;
+				} else if ((mirrorState & MIRROR_ON_YZ) != 0) {
+					if (Math.abs(vertices[fv[j]].r.x) > 1e-6)
+						del = false;
+				} else if ((mirrorState & MIRROR_ON_XZ) != 0) {
+					if (Math.abs(vertices[fv[j]].r.y) > 1e-6)
+						del = false;
+				}
+			}
+			sel[i] = del;
+			changed |= del;
+		}
+		if (!changed) {
+			if ((mirrorState & MIRROR_ON_XY) != 0)
 				mirrorState -= MIRROR_ON_XY;
 			else if ((mirrorState & MIRROR_ON_YZ) != 0)
 				mirrorState -= MIRROR_ON_YZ;
@@ -10876,15 +11434,19 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 			int[] parmVertTable = new int[nv.length];
 			int[] vertTable = new int[newVertices.length];
 			int[] edgeTable = new int[newEdges.length];
+			boolean[] copy = new boolean[nv.length];
 			index = 0;
 			for (int i = 0; i < newVertices.length; ++i) {
 				vertTable[i] = -1;
 				if (newVertices[i].edge != -1) {
 					nv[index] = newVertices[i];
 					parmVertTable[index] = mirrorVertTable[i];
+					copy[index] = i >= vertices.length;
 					vertTable[i] = index++;
 				}
 			}
+			if (mirrorMapping != null)
+				mirrorMapping.mirrorVertices(parmVertTable, copy, mirrorState);
 			index = 0;
 			for (int i = 0; i < newEdges.length; ++i) {
 				edgeTable[i] = -1;
@@ -11315,7 +11877,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 			}
 			setParameterValues(newParamVal);
 		}
-		checkMesh();
+		validateMesh();
 		resetMesh();
 		return sel;
 	}
@@ -11345,135 +11907,8 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 			double strictTol) {
 		if (!(normal || strict || loose))
 			return selected;
-		boolean newSel[] = new boolean[selected.length];
-		Vec3[] faceNormals = getFaceNormals();
-		double normalCrit = 1 - normalTol;
-		int[] fie = null;
-		double[] fia = null;
-		double[] fil = null;
-		int[] fe;
-		double diff;
-		Vec3 v1, v2;
-		int next, pred, current;
-		boolean sel;
-
-		for (int i = 0; i < selected.length; i++) {
-			if (loose || strict) {
-				fie = getFaceVertices(faces[i]);
-				fia = new double[fie.length];
-				fil = new double[fie.length];
-				for (int j = 0; j < fie.length; j++) {
-					pred = j - 1;
-					next = j + 1;
-					if (pred < 0)
-						pred = fie.length - 1;
-					if (next == fie.length)
-						next = 0;
-					v1 = vertices[fie[pred]].r.minus(vertices[fie[j]].r);
-					fil[j] = v1.length();
-					v2 = vertices[fie[next]].r.minus(vertices[fie[j]].r);
-					v1.normalize();
-					v2.normalize();
-					fia[j] = Math.acos(v1.dot(v2));
-					if (Math.abs(fia[j]) < 0.001)
-						fia[j] = 0.001;
-				}
-			}
-			for (int j = 0; j < selected.length; j++)
-				if (selected[i]) {
-					newSel[j] = true;
-					if (i == j)
-						continue;
-					newSel[j] = true;
-					if (normal
-							&& (faceNormals[i].dot(faceNormals[j]) < normalCrit))
-						newSel[j] = false;
-					if (loose) {
-						fe = getFaceVertices(faces[j]);
-						if (fe.length == fie.length) {
-							sel = false;
-							for (int offset = 0; offset < fe.length; offset++) {
-								diff = 0;
-								for (int k = 0; k < fe.length; k++) {
-									current = offset + k;
-									if (current < 0)
-										current = fe.length - 1;
-									if (current >= fe.length)
-										current -= fe.length;
-									pred = current - 1;
-									next = current + 1;
-									if (pred < 0)
-										pred = fe.length - 1;
-									if (next == fe.length)
-										next = 0;
-									v1 = vertices[fe[pred]].r
-											.minus(vertices[fe[current]].r);
-									v2 = vertices[fe[next]].r
-											.minus(vertices[fe[current]].r);
-									v1.normalize();
-									v2.normalize();
-									diff += Math.pow(
-											(Math.acos(v1.dot(v2)) - fia[k])
-													/ fia[k], 2);
-
-								}
-								diff = Math.sqrt(diff) / fe.length;
-								if (diff < looseTol) {
-									sel = true;
-									break;
-								}
-							}
-							if (!sel)
-								newSel[j] = false;
-						} else
-							newSel[j] = false;
-					}
-					if (strict) {
-						diff = 0;
-						fe = getFaceVertices(faces[j]);
-						if (fe.length == fie.length) {
-							sel = false;
-							for (int offset = 0; offset < fe.length; offset++) {
-								diff = 0;
-								for (int k = 0; k < fe.length; k++) {
-									current = offset + k;
-									if (current >= fe.length)
-										current -= fe.length;
-									pred = current - 1;
-									next = current + 1;
-									if (pred < 0)
-										pred = fe.length - 1;
-									if (next == fe.length)
-										next = 0;
-									v1 = vertices[fe[pred]].r
-											.minus(vertices[fe[current]].r);
-									diff += Math.pow((v1.length() - fil[k])
-											/ fil[k], 2);
-									// v2 =
-									// vertices[fe[next]].r.minus(vertices[fe[current]].r);
-									// v1.normalize();
-									// v2.normalize();
-									// diff +=
-									// Math.pow((Math.acos(v1.dot(v2)) -
-									// fia[k])/fia[k], 2);
-								}
-								diff = Math.sqrt(diff) / fe.length;
-								if (diff < strictTol) {
-									sel = true;
-									break;
-								}
-							}
-							if (!sel)
-								newSel[j] = false;
-						} else
-							newSel[j] = false;
-					}
-					if (!normal && !strict && !loose)
-						newSel[i] = false;
-				}
-		}
-
-		return newSel;
+		return getSimilarityIndex().findSimilarFaces(selected, normal,
+				normalTol, loose, looseTol, strict, strictTol);
 	}
 
 	/**
@@ -11486,24 +11921,18 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	 * @return New edge selection
 	 */
 	public boolean[] findSimilarEdges(boolean[] selected, double tol) {
-		boolean newSel[] = new boolean[selected.length];
-		double length, diff;
+		return getSimilarityIndex().findSimilarEdges(selected, tol);
+	}
 
-		for (int i = 0; i < selected.length; i++) {
-			if (selected[i]) {
-				length = vertices[edges[i].vertex].r
-						.distance(vertices[edges[edges[i].hedge].vertex].r);
-				for (int j = 0; j < selected.length; j++) {
-					diff = length
-							- vertices[edges[j].vertex].r
-									.distance(vertices[edges[edges[j].hedge].vertex].r);
-					if (Math.abs(diff) <= tol)
-						newSel[j] = true;
-				}
-				newSel[i] = true;
-			}
-		}
-		return newSel;
+	/**
+	 * Returns face and edge descriptors used to find similar faces or edges.
+	 * The index is kept until the mesh changes, so that tolerances can be
+	 * tuned interactively.
+	 */
+	public SimilarityIndex getSimilarityIndex() {
+		if (similarityIndex == null)
+			similarityIndex = new SimilarityIndex(this);
+		return similarityIndex;
 	}
 
 	/**
@@ -11990,8 +12419,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 							.getValue();
 					double newval[] = new double[faces.length];
 					for (int j = 0; j < faces.length - 1; ++j)
-						newval[j] = oldval[((Integer) faceInfo.elementAt(j))
-								.intValue()];
+						newval[j] = oldval[j];
 					newval[faces.length - 1] = param[k].defaultVal;
 					newParamVal[k] = new FaceParameterValue(newval);
 				} else if (oldParamVal[k] instanceof FaceVertexParameterValue) {
@@ -12201,175 +12629,25 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 	 * @return Mesh diagnostic
 	 */
 	public String checkMesh() {
+		return validateMesh().toString();
+	}
 
-		boolean repairTwoEdgeFaces = false;
-		String s = "";
-
-		s += "Mesh consisting of:\n";
-		s += vertices.length + " vertices, " + edges.length / 2 + " edges, "
-				+ faces.length + " faces.\n\n";
-		s += "Checking Vertices...\n";
-		for (int i = 0; i < vertices.length; ++i) {
-			if (vertices[i].edge >= edges.length) {
-				vertices[i].edge = 0;
-				s += "vertex " + i + " : edge reference too high\n";
-			} else if (vertices[i].edge < 0) {
-				vertices[i].edge = 0;
-				s += "vertex " + i + " : negative edge reference\n";
-			}
-		}
-		for (int i = 0; i < vertices.length; ++i) {
-			if (edges[vertices[i].edge].hedge >= 0
-					&& edges[vertices[i].edge].hedge < edges.length
-					&& edges[edges[vertices[i].edge].hedge].vertex != i) {
-				s += "Wrong edge reference for vertex " + i + ".\n";
-				boolean corrected = false;
-				for (int j = 0; j < edges.length; ++j) {
-					if (edges[edges[j].hedge].vertex == i) {
-						vertices[i].edge = j;
-						corrected = true;
-						break;
-					}
-				}
-				if (corrected)
-					s += "Corrected.\n";
-				else
-					s += "No edge leaving this vertex. No correction possible.\n";
-			}
-		}
-		int counter;
-		int ed;
-		for (int i = 0; i < vertices.length; ++i) {
-			ed = vertices[i].edge;
-			counter = 0;
-			while (edges[edges[ed].hedge].next != vertices[i].edge
-					&& counter < edges.length) {
-				ed = edges[edges[ed].hedge].next;
-				counter++;
-			}
-			if (counter == edges.length)
-				s += "Problem infinite edge references on vertex: " + i + ".\n";
-		}
-		s += "Done checking vertices.\n\n";
-		s += "Checking Edges...\n";
-		boolean validHedge = true;
-		boolean validVertex = true;
-		for (int i = 0; i < edges.length; ++i) {
-			if (edges[i].hedge >= edges.length)
-				validHedge = false;
-			if (edges[i].vertex >= vertices.length)
-				validVertex = false;
-			if (edges[i].face >= faces.length)
-				edges[i].face = -2;
-			if (edges[i].vertex == edges[edges[i].hedge].vertex) {
-				s += "Null length edge found\n";
-			}
-			if (edges[i].next == i) {
-				s += "Single edge loop found\n";
-				edges[i].next = 0;
-			} else if (edges[edges[i].next].next == i) {
-				repairTwoEdgeFaces = true;
-				System.out.println("pb 2 edge: " + edges[i].face + " "
-						+ edges[edges[i].next].face);
-				System.out.println(faces[edges[i].face].edge + " / " + i
-						+ " / " + edges[i].next);
-			}
-		}
-		if (!validHedge)
-			s += "Half edge reference(s) out of range. No correction possible.\n";
-		if (!validVertex)
-			s += "Vertex reference(s) out of range. No correction possible.\n";
-		if (repairTwoEdgeFaces)
-			s += "Two edge faces/boundaries found.\n";
-		if (validHedge & validVertex) {
-			for (int i = 0; i < edges.length; ++i) {
-				if (edges[i].hedge < edges.length / 2 && i < edges.length / 2)
-					s += "Wrong position in array for edges " + i + " and "
-							+ edges[i].hedge + ".\n";
-				if (edges[i].hedge >= edges.length / 2 && i >= edges.length / 2)
-					s += "Wrong position in array for edges " + i + " and "
-							+ edges[i].hedge + ".\n";
-				if (edges[i].face == -1 && edges[edges[i].hedge].face == -1)
-					s += "Edges " + i + " and other half-edge" + edges[i].hedge
-							+ " both boundary edges.\n";
-				if (edges[i].next >= edges.length) {
-					edges[i].next = 0;
-					s += "edge " + i + " : next edge reference too high\n";
-				} else if (edges[i].next < 0) {
-					edges[i].next = 0;
-					s += "edge " + i + " : negative next edge reference\n";
-				}
-				if (edges[i].face >= faces.length) {
-					edges[i].face = -1;
-					s += "edge " + i + " : face reference too high\n";
-				}
-			}
-		}
-		s += "Done checking edges.\n\n";
-		s += "Checking Faces...\n";
-		for (int i = 0; i < faces.length; ++i)
-			if (faces[i].edge >= edges.length) {
-				faces[i].edge = 0;
-				s += "face " + i + " : edge reference too high\n";
-			} else if (faces[i].edge < 0) {
-				faces[i].edge = 0;
-				s += "face " + i + " : negative edge reference\n";
-			}
-		for (int i = 0; i < faces.length; ++i) {
-			if (edges[faces[i].edge].face != i) {
-				s += "Wrong edge reference for face " + i + ".\n";
-				boolean corrected = false;
-				ed = faces[i].edge;
-				int index = 0;
-				while (edges[ed].next != faces[i].edge && index < edges.length) {
-					if (edges[ed].face == i)
-						corrected = true;
-					ed = edges[ed].next;
-					++index;
-				}
-				if (index >= edges.length)
-					s += "Unclosed face. No correction possible.\n";
-				else if (corrected) {
-					changeFace(edges, faces[i].edge, i);
-					s += "Corrected.\n";
-				} else {
-					for (int j = 0; j < edges.length; ++j) {
-						if (edges[j].face == i) {
-							faces[i].edge = j;
-							changeFace(edges, j, i);
-							corrected = true;
-							break;
-						}
-					}
-					if (corrected)
-						s += "Corrected.\n";
-					else
-						s += "No edge sharing this face. No correction possible.\n";
-				}
-			} else {
-				ed = faces[i].edge;
-				int index = 0;
-				while (edges[ed].next != faces[i].edge && index < edges.length) {
-					if (edges[ed].face != i) {
-						s += "Wrong edge face reference for edge " + ed
-								+ " (face " + i + "). Corrected.\n";
-						edges[ed].face = i;
-					}
-					ed = edges[ed].next;
-					++index;
-				}
-				if (index >= edges.length)
-					s += "Unclosed face. No correction possible.\n";
-			}
-
-		}
-		s += "Done checking faces.\n\n";
-		if (repairTwoEdgeFaces) {
-			s += "Repairing two edge faces/boundaries...\n";
+	/**
+	 * Checks a mesh for validity and repairs what can be repaired. Two edge
+	 * faces and boundaries are removed once all other checks are done.
+	 * 
+	 * @return The report of problems found
+	 */
+	public MeshCheckReport validateMesh() {
+		MeshCheckReport report = new MeshChecker(vertices, edges, faces).check();
+		if (report.getCount(MeshCheckReport.EDGE_TWO_EDGE_LOOP) > 0) {
+			report.addRepair("Repairing two edge faces/boundaries...");
 			removeTwoEdgeBoundaries();
 			removeTwoEdgedFaces(null);
 		}
-		return s;
+		if (report.getProblemCount() > 0)
+			resetMesh();
+		return report;
 	}
 
 	/**
@@ -12398,7 +12676,8 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
 	public void setTexture(Texture tex, TextureMapping mapping) {
 		super.setTexture(tex, mapping);
-		cachedMesh = null;
+		clearCachedMesh();
+		smoothingCache = null;
 		mirroredMesh = null;
 	}
 
@@ -12411,7 +12690,8 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
 	public void setParameterValues(ParameterValue val[]) {
 		super.setParameterValues(val);
-		cachedMesh = null;
+		clearCachedMesh();
+		smoothingCache = null;
 		mirroredMesh = null;
 	}
 
@@ -12426,7 +12706,8 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 
 	public void setParameterValue(TextureParameter param, ParameterValue val) {
 		super.setParameterValue(param, val);
-		cachedMesh = null;
+		clearCachedMesh();
+		smoothingCache = null;
 		mirroredMesh = null;
 	}
 
@@ -12573,37 +12854,26 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		if (theScene != null)
 			super.writeToFile(out, theScene);
 
-		out.writeShort(10);
+		boolean compressed = isFileCompressionEnabled();
+		File geometryFile = writeGeometryFile(theScene);
+		out.writeShort(FILE_VERSION);
 		out.writeShort(mirrorState);
 		out.writeInt(smoothingMethod);
+		if (geometryFile != null)
+			out.writeByte(GEOMETRY_FILE);
+		else
+			out.writeByte(compressed ? DEFLATE_COMPRESSION : NO_COMPRESSION);
 		out.writeInt(vertices.length);
-		for (int i = 0; i < vertices.length; i++) {
-			vertices[i].r.writeToFile(out);
-			out.writeInt(vertices[i].edge);
-			// out.writeFloat( vertices[i].smoothness );
-			out.writeInt(vertices[i].ikJoint);
-			out.writeDouble(vertices[i].ikWeight);
-			out.writeShort(vertices[i].type);
-//			if (vertices[i].normal != null) {
-//				out.writeBoolean(true);
-//				vertices[i].normal.writeToFile(out);
-//			} else
-//				out.writeBoolean(false);
-		}
 		out.writeInt(edges.length);
-		for (int i = 0; i < edges.length; i++) {
-			out.writeInt(edges[i].vertex);
-			out.writeInt(edges[i].hedge);
-			out.writeInt(edges[i].face);
-			out.writeInt(edges[i].next);
-			out.writeFloat(edges[i].smoothness);
-		}
 		out.writeInt(faces.length);
-		for (int i = 0; i < faces.length; i++) {
-			out.writeInt(faces[i].edge);
-			// out.writeFloat( 1.0f );
-			// out.writeFloat( faces[i].centerSmoothness );
-			// out.writeBoolean( faces[i].convex );
+		if (geometryFile != null) {
+			out.writeUTF(geometryFileId);
+			out.writeUTF(geometryFile.getName());
+		} else {
+			//geometry is written as arrays, one per field, in bounded chunks
+			BlockWriter writer = new BlockWriter(out, true, compressed);
+			writePackedGeometry(writer);
+			writer.finish();
 		}
 		out.writeBoolean(controlledSmoothing);
 		out.writeDouble(minAngle);
@@ -12611,47 +12881,47 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		out.writeFloat(minSmoothness);
 		out.writeFloat(maxSmoothness);
 		out.writeInt(interactiveSmoothLevel);
-		out.writeInt(0); //former renderingSmoothLevel
-		if (seams == null) {
-			out.writeBoolean(false);
-		} else {
-			out.writeBoolean(true);
-			for (int i = 0; i < seams.length; i++) {
-				out.writeBoolean(seams[i]);
-			}
-		}
-		if (mappingData != null) {
-			out.writeBoolean(true);
-			mappingData.writeToFile(out, theScene);
-		} else {
-			out.writeBoolean(false);
-		}
 		out.writeBoolean(useCustomColors);
-		out.writeInt(vertColor.getRed());
-		out.writeInt(vertColor.getGreen());
-		out.writeInt(vertColor.getBlue());
-		out.writeInt(selectedVertColor.getRed());
-		out.writeInt(selectedVertColor.getGreen());
-		out.writeInt(selectedVertColor.getBlue());
-		out.writeInt(edgeColor.getRed());
-		out.writeInt(edgeColor.getGreen());
-		out.writeInt(edgeColor.getBlue());
-		out.writeInt(selectedEdgeColor.getRed());
-		out.writeInt(selectedEdgeColor.getGreen());
-		out.writeInt(selectedEdgeColor.getBlue());
-		out.writeInt(seamColor.getRed());
-		out.writeInt(seamColor.getGreen());
-		out.writeInt(seamColor.getBlue());
-		out.writeInt(selectedSeamColor.getRed());
-		out.writeInt(selectedSeamColor.getGreen());
-		out.writeInt(selectedSeamColor.getBlue());
-		out.writeInt(meshColor.getRed());
-		out.writeInt(meshColor.getGreen());
-		out.writeInt(meshColor.getBlue());
-		out.writeInt(selectedFaceColor.getRed());
-		out.writeInt(selectedFaceColor.getGreen());
-		out.writeInt(selectedFaceColor.getBlue());
+		out.writeInt(vertColor.getRGB());
+		out.writeInt(selectedVertColor.getRGB());
+		out.writeInt(edgeColor.getRGB());
+		out.writeInt(selectedEdgeColor.getRGB());
+		out.writeInt(seamColor.getRGB());
+		out.writeInt(selectedSeamColor.getRGB());
+		out.writeInt(meshColor.getRGB());
+		out.writeInt(selectedFaceColor.getRGB());
 		out.writeInt(handleSize);
+		//optional sections : id, compression flag, stored length, data
+		UVMappingData data = getMappingData();
+		out.writeInt((seams != null ? 1 : 0) + (data != null ? 1 : 0));
+		if (seams != null) {
+			byte[] bits = new byte[(seams.length + 7) / 8];
+			for (int i = 0; i < seams.length; i++)
+				if (seams[i])
+					bits[i >> 3] |= 1 << (i & 7);
+			out.writeShort(SEAMS_SECTION);
+			out.writeBoolean(false);
+			out.writeInt(bits.length);
+			out.write(bits);
+		}
+		if (data != null) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DeflaterOutputStream deflater = null;
+			DataOutputStream sectionOut;
+			if (compressed) {
+				deflater = new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED));
+				sectionOut = new DataOutputStream(deflater);
+			} else
+				sectionOut = new DataOutputStream(bytes);
+			data.writeToFile(sectionOut, theScene);
+			sectionOut.flush();
+			if (deflater != null)
+				deflater.finish();
+			out.writeShort(MAPPING_SECTION);
+			out.writeBoolean(compressed);
+			out.writeInt(bytes.size());
+			bytes.writeTo(out);
+		}
 		if (theScene != null)
 			skeleton.writeToStream(out);
 	}
@@ -12701,6 +12971,7 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		 */
 		skeleton.copy(key.skeleton);
 		resetMesh();
+		posed = true;
 	}
 
 	/**
@@ -13362,6 +13633,509 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		}
 	}
 
+	/**
+	 * The interactive rendering mesh together with the rendering mesh being
+	 * built, both replaced at once so that a job can only publish its mesh if
+	 * it is still the current one
+	 */
+	private static class RenderingState {
+		static final RenderingState EMPTY = new RenderingState(null, null);
+
+		final RenderingJob job;
+
+		final RenderingMesh mesh;
+
+		RenderingState(RenderingJob job, RenderingMesh mesh) {
+			this.job = job;
+			this.mesh = mesh;
+		}
+	}
+
+	/**
+	 * A rendering mesh being built by getRenderingMesh(). Threads asking for
+	 * the same mesh while it is being built wait for this job rather than
+	 * building it again. When done, the mesh is published as the interactive
+	 * mesh if the job has not been cancelled by clearCachedMesh() or replaced
+	 * by another job meanwhile.
+	 */
+	private class RenderingJob extends FutureTask<RenderingMesh> {
+		private double tol;
+
+		private boolean interactive;
+
+		private ObjectInfo info;
+
+		private boolean publish;
+
+		RenderingJob(final double tol, final boolean interactive, final ObjectInfo info) {
+			super(new Callable<RenderingMesh>() {
+				public RenderingMesh call() {
+					return buildRenderingMesh(tol, interactive, info);
+				}
+			});
+			this.tol = tol;
+			this.interactive = interactive;
+			this.info = info;
+			publish = interactive
+					|| (mirrorState == NO_MIRROR && smoothingMethod == Mesh.APPROXIMATING);
+		}
+
+		/**
+		 * Returns true if both jobs build the same rendering mesh
+		 */
+		boolean isSameAs(RenderingJob job) {
+			return tol == job.tol && interactive == job.interactive
+					&& info == job.info;
+		}
+
+		protected void done() {
+			RenderingMesh mesh = null;
+			if (publish && !isCancelled()) {
+				try {
+					mesh = get();
+				} catch (Exception ex) {
+					mesh = null;
+				}
+			}
+			//the mesh may have been reset while this job was running, in which
+			//case the state no longer refers to this job
+			RenderingState state;
+			do {
+				state = renderingState.get();
+				if (state.job != this)
+					return;
+			} while (!renderingState.compareAndSet(state,
+					new RenderingState(null, mesh != null ? mesh : state.mesh)));
+		}
+
+		/**
+		 * Waits for the rendering mesh
+		 * 
+		 * @param copy
+		 *            True if the caller did not build the mesh. Rendering
+		 *            meshes are then copied for each caller, except for
+		 *            interactive rendering.
+		 */
+		RenderingMesh waitForMesh(boolean copy) {
+			RenderingMesh mesh = null;
+			boolean interrupted = false;
+			while (true) {
+				try {
+					mesh = get();
+					break;
+				} catch (InterruptedException ex) {
+					interrupted = true;
+				} catch (ExecutionException ex) {
+					Throwable cause = ex.getCause();
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					if (cause instanceof Error)
+						throw (Error) cause;
+					throw new RuntimeException(cause);
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			if (!copy || interactive || mesh == null)
+				return mesh;
+			Vec3[] vert = new Vec3[mesh.vert.length];
+			Vec3[] norm = new Vec3[mesh.norm.length];
+			System.arraycopy(mesh.vert, 0, vert, 0, vert.length);
+			System.arraycopy(mesh.norm, 0, norm, 0, norm.length);
+			RenderingTriangle[] tri = new RenderingTriangle[mesh.triangle.length];
+			for (int i = 0; i < tri.length; i++) {
+				RenderingTriangle t = mesh.triangle[i];
+				tri[i] = mesh.mapping.mapTriangle(t.v1, t.v2, t.v3, t.n1, t.n2, t.n3, vert);
+			}
+			RenderingMesh rend = new RenderingMesh(vert, norm, tri, mesh.mapping, mesh.matMapping);
+			if (mesh.param != null) {
+				ParameterValue[] param = new ParameterValue[mesh.param.length];
+				System.arraycopy(mesh.param, 0, param, 0, param.length);
+				rend.setParameters(param);
+			}
+			return rend;
+		}
+	}
+
+	/**
+	 * Keeps what is needed to update the interactive smoothed mesh when only
+	 * vertex positions change: the mesh as it is during the first smoothing step,
+	 * once edges have been divided, and the quad mesh with its recorded smoothing
+	 * levels. Only the smoothed vertices which depend on moved vertices are then
+	 * computed again. The cache is valid as long as the topology, smoothness
+	 * values and smoothing settings of the mesh do not change.
+	 */
+	private class SmoothingCache {
+		QuadMesh qmesh;
+		private PolyMesh dividedMesh;
+		private Wvertex[] dividedVertices;
+		private Wedge[] dividedEdges;
+		private Wface[] dividedFaces;
+		private Vec3[] facePos;
+		private int originalVert;
+		private double tol;
+		private int level;
+		private Wvertex[] meshVertices;
+		private Wedge[] meshEdges;
+		private Wface[] meshFaces;
+		private float[] smoothness;
+		private short[] types;
+
+		SmoothingCache(double tol, int level) {
+			this.tol = tol;
+			this.level = level;
+			meshVertices = vertices;
+			meshEdges = edges;
+			meshFaces = faces;
+			smoothness = new float[edges.length];
+			for (int i = 0; i < edges.length; i++)
+				smoothness[i] = edges[i].smoothness;
+			types = new short[vertices.length];
+			for (int i = 0; i < vertices.length; i++)
+				types[i] = vertices[i].type;
+		}
+
+		/**
+		 * Called by smoothWholeMesh() once the edges of the smoothed mesh have
+		 * been divided
+		 */
+		void setDividedMesh(PolyMesh mesh, Vec3[] facePos, int originalVert) {
+			dividedMesh = mesh;
+			dividedVertices = mesh.vertices;
+			dividedEdges = mesh.edges;
+			dividedFaces = mesh.faces;
+			this.facePos = facePos;
+			this.originalVert = originalVert;
+		}
+
+		/**
+		 * Returns true if the smoothed mesh can be updated for the given tolerance
+		 * and smoothing level
+		 */
+		boolean isValid(double tol, int level) {
+			if (qmesh == null || dividedMesh == null || tol != this.tol
+					|| level != this.level || mirrorState != NO_MIRROR
+					|| smoothingMethod != Mesh.APPROXIMATING)
+				return false;
+			if (vertices != meshVertices || edges != meshEdges || faces != meshFaces)
+				return false;
+			for (int i = 0; i < edges.length; i++)
+				if (edges[i].smoothness != smoothness[i])
+					return false;
+			for (int i = 0; i < vertices.length; i++)
+				if (vertices[i].type != types[i])
+					return false;
+			return true;
+		}
+
+		/**
+		 * Updates the smoothed mesh according to the current vertex positions
+		 */
+		void update() {
+			Wvertex[] divVert = dividedVertices;
+			boolean[] moved = new boolean[originalVert];
+			boolean anyMoved = false;
+			Vec3 r;
+			for (int i = 0; i < originalVert; i++) {
+				r = vertices[i].r;
+				if (r.x != divVert[i].r.x || r.y != divVert[i].r.y || r.z != divVert[i].r.z) {
+					divVert[i].r = new Vec3(r);
+					moved[i] = anyMoved = true;
+				}
+			}
+			if (!anyMoved)
+				return;
+			// faces around moved vertices
+			boolean[] dirtyFace = new boolean[faces.length];
+			int[] ve;
+			int f;
+			for (int i = 0; i < originalVert; i++) {
+				if (!moved[i])
+					continue;
+				ve = getVertexEdges(vertices[i]);
+				for (int j = 0; j < ve.length; j++) {
+					f = edges[ve[j]].face;
+					if (f != -1)
+						dirtyFace[f] = true;
+					f = edges[edges[ve[j]].hedge].face;
+					if (f != -1)
+						dirtyFace[f] = true;
+				}
+			}
+			// face centers, vertices and edges of these faces must be computed again
+			int count = divVert.length + faces.length;
+			Vec3[] pos = new Vec3[count];
+			boolean[] changed = new boolean[count];
+			boolean[] dirtyEdge = new boolean[edges.length / 2];
+			int[] vf, fe;
+			Vec3 pt;
+			for (int i = 0; i < faces.length; i++) {
+				if (!dirtyFace[i])
+					continue;
+				vf = getFaceVertices(faces[i]);
+				pt = new Vec3();
+				for (int j = 0; j < vf.length; ++j) {
+					pt.add(vertices[vf[j]].r);
+					changed[vf[j]] = true;
+				}
+				pt.scale(1.0 / vf.length);
+				facePos[i] = pt;
+				pos[divVert.length + i] = pt;
+				changed[divVert.length + i] = true;
+				fe = getFaceEdges(faces[i]);
+				for (int j = 0; j < fe.length; j++)
+					dirtyEdge[fe[j] < edges.length / 2 ? fe[j] : edges[fe[j]].hedge] = true;
+			}
+			// mid edge vertices before smoothing, see divideAllEdgesByTwo()
+			int to, from;
+			Vec3 delta;
+			for (int i = 0; i < dirtyEdge.length; i++) {
+				if (!dirtyEdge[i])
+					continue;
+				to = edges[i].vertex;
+				from = edges[edges[i].hedge].vertex;
+				if (moved[to] || moved[from]) {
+					delta = vertices[to].r.minus(vertices[from].r);
+					delta.scale(0.5);
+					divVert[originalVert + i].r = vertices[from].r.plus(delta);
+				}
+			}
+			PolyMesh mesh = dividedMesh;
+			mesh.vertices = divVert;
+			mesh.edges = dividedEdges;
+			mesh.faces = dividedFaces;
+			for (int i = 0; i < originalVert; i++)
+				if (changed[i])
+					pos[i] = mesh.smoothOriginalVertex(i, new Vec3(divVert[i].r), facePos, null);
+			for (int i = 0; i < dirtyEdge.length; i++) {
+				if (dirtyEdge[i]) {
+					pos[originalVert + i] = mesh.smoothMidpoint(originalVert + i,
+							new Vec3(divVert[originalVert + i].r), null);
+					changed[originalVert + i] = true;
+				}
+			}
+			qmesh.updatePositions(pos, changed);
+		}
+
+		/**
+		 * Returns stencils computing the smoothed mesh vertices from the mesh
+		 * vertices. The first step computes the vertices of the quad mesh the
+		 * divided mesh is turned into, the following ones are the quad mesh
+		 * smoothing levels (see QuadMesh.addStencils()). Weights are found as
+		 * in QuadMesh: mesh vertex j is set to (1, 0, 0) and all other vertices
+		 * to the origin, then the vertices of faces around vertex j are smoothed.
+		 */
+		SubdivisionStencils getStencils() {
+			Wvertex[] divVert = dividedVertices;
+			Vec3[] divPos = new Vec3[divVert.length];
+			Vec3[] oldFacePos = new Vec3[facePos.length];
+			for (int i = 0; i < divVert.length; i++) {
+				divPos[i] = divVert[i].r;
+				divVert[i].r = new Vec3();
+			}
+			for (int i = 0; i < facePos.length; i++) {
+				oldFacePos[i] = facePos[i];
+				facePos[i] = new Vec3();
+			}
+			PolyMesh mesh = dividedMesh;
+			mesh.vertices = divVert;
+			mesh.edges = dividedEdges;
+			mesh.faces = dividedFaces;
+			int count = divVert.length + faces.length;
+			SubdivisionStencils.StepBuilder step = new SubdivisionStencils.StepBuilder(count);
+			int[] computed = new int[count];
+			int[] newVerts = new int[count];
+			Vec3[] pos = new Vec3[count];
+			int[] dirtyFaces = new int[faces.length];
+			int[] ve, vf, fe;
+			int e, f, v, to, from, nfaces, nverts;
+			Vec3 delta, pt;
+			for (int j = 0; j < originalVert; j++) {
+				divVert[j].r = new Vec3(1, 0, 0);
+				ve = getVertexEdges(vertices[j]);
+				// mid edge vertices before smoothing, see divideAllEdgesByTwo()
+				for (int k = 0; k < ve.length; k++) {
+					e = (ve[k] < edges.length / 2 ? ve[k] : edges[ve[k]].hedge);
+					to = edges[e].vertex;
+					from = edges[edges[e].hedge].vertex;
+					delta = divVert[to].r.minus(divVert[from].r);
+					delta.scale(0.5);
+					divVert[originalVert + e].r = divVert[from].r.plus(delta);
+				}
+				// faces around vertex j
+				nfaces = 0;
+				for (int k = 0; k < 2 * ve.length; k++) {
+					f = (k < ve.length ? edges[ve[k]].face : edges[edges[ve[k - ve.length]].hedge].face);
+					if (f == -1 || computed[divVert.length + f] == j + 1)
+						continue;
+					computed[divVert.length + f] = j + 1;
+					dirtyFaces[nfaces++] = f;
+					vf = getFaceVertices(faces[f]);
+					pt = new Vec3();
+					for (int l = 0; l < vf.length; l++)
+						pt.add(divVert[vf[l]].r);
+					pt.scale(1.0 / vf.length);
+					facePos[f] = pt;
+				}
+				// vertices of these faces
+				nverts = 0;
+				for (int k = 0; k < nfaces; k++) {
+					f = dirtyFaces[k];
+					newVerts[nverts++] = divVert.length + f;
+					pos[divVert.length + f] = facePos[f];
+					vf = getFaceVertices(faces[f]);
+					for (int l = 0; l < vf.length; l++) {
+						v = vf[l];
+						if (computed[v] == j + 1)
+							continue;
+						computed[v] = j + 1;
+						newVerts[nverts++] = v;
+						pos[v] = mesh.smoothOriginalVertex(v, new Vec3(divVert[v].r), facePos, null);
+					}
+					fe = getFaceEdges(faces[f]);
+					for (int l = 0; l < fe.length; l++) {
+						v = originalVert + (fe[l] < edges.length / 2 ? fe[l] : edges[fe[l]].hedge);
+						if (computed[v] == j + 1)
+							continue;
+						computed[v] = j + 1;
+						newVerts[nverts++] = v;
+						pos[v] = mesh.smoothMidpoint(v, new Vec3(divVert[v].r), null);
+					}
+				}
+				for (int k = 0; k < nverts; k++) {
+					v = newVerts[k];
+					if (pos[v].x != 0.0)
+						step.add(v, j, pos[v].x);
+				}
+				divVert[j].r = new Vec3();
+				for (int k = 0; k < ve.length; k++) {
+					e = (ve[k] < edges.length / 2 ? ve[k] : edges[ve[k]].hedge);
+					divVert[originalVert + e].r = new Vec3();
+				}
+				for (int k = 0; k < nfaces; k++)
+					facePos[dirtyFaces[k]] = new Vec3();
+			}
+			for (int i = 0; i < divVert.length; i++)
+				divVert[i].r = divPos[i];
+			for (int i = 0; i < facePos.length; i++)
+				facePos[i] = oldFacePos[i];
+			SubdivisionStencils stencils = new SubdivisionStencils(originalVert);
+			stencils.addStep(step);
+			qmesh.addStencils(stencils);
+			return stencils;
+		}
+	}
+
+	/**
+	 * The subdivision of a posed mesh recorded as stencils. It is shared by a
+	 * mesh and its copies (see duplicate()), so that the posed copies made for
+	 * each animation frame are smoothed by evaluating the stencils instead of
+	 * subdividing the mesh again. Stencils are recorded again whenever a posed
+	 * copy differs from the mesh they were recorded from by anything else than
+	 * vertex positions, or when its vertices would be subdivided differently
+	 * (see QuadMesh.hasSameSubdivision()). The result is therefore the mesh
+	 * smoothWholeMesh() returns for that pose.
+	 */
+	private static class PoseStencils {
+		private Recording recording;
+
+		/**
+		 * Returns the smoothed mesh for the given posed mesh
+		 */
+		QuadMesh getSmoothedMesh(PolyMesh mesh, double tol) {
+			Recording r;
+			synchronized (this) {
+				r = recording;
+			}
+			if (r != null && r.isValid(mesh, tol)) {
+				QuadMesh qmesh = r.getSmoothedMesh(mesh);
+				if (qmesh != null)
+					return qmesh;
+			}
+			r = new Recording(mesh, tol);
+			synchronized (this) {
+				recording = r;
+			}
+			return r.createMesh(mesh, null);
+		}
+
+		/**
+		 * The stencils and subdivision pattern recorded for one posed mesh. The
+		 * recorded quad mesh keeps its smoothing levels so that the subdivision
+		 * pattern of other poses can be checked, and is never handed out.
+		 */
+		private static class Recording {
+			private SubdivisionStencils stencils;
+			private QuadMesh subdivision;
+			private double tol;
+			private PackedTopology topology;
+			private ParameterValue[] paramValue;
+
+			Recording(PolyMesh mesh, double tol) {
+				SmoothingCache cache = mesh.new SmoothingCache(tol, Integer.MAX_VALUE);
+				subdivision = mesh.smoothWholeMesh(tol, false, Integer.MAX_VALUE, false, cache);
+				stencils = cache.getStencils();
+				this.tol = tol;
+				topology = mesh.getPackedTopology();
+				ParameterValue[] oldParamVal = mesh.getParameterValues();
+				if (oldParamVal != null) {
+					paramValue = new ParameterValue[oldParamVal.length];
+					for (int i = 0; i < paramValue.length; i++)
+						paramValue[i] = oldParamVal[i].duplicate();
+				}
+			}
+
+			boolean isValid(PolyMesh mesh, double tol) {
+				if (tol != this.tol || !topology.hasSameTopology(mesh.getPackedTopology()))
+					return false;
+				ParameterValue[] val = mesh.getParameterValues();
+				if (val == null || paramValue == null)
+					return val == paramValue;
+				if (val.length != paramValue.length)
+					return false;
+				for (int i = 0; i < val.length; i++)
+					if (!val[i].equals(paramValue[i]))
+						return false;
+				return true;
+			}
+
+			/**
+			 * Returns the smoothed mesh for the given posed mesh, or null if its
+			 * vertices would be subdivided differently
+			 */
+			QuadMesh getSmoothedMesh(PolyMesh mesh) {
+				Vec3[] control = new Vec3[mesh.vertices.length];
+				for (int i = 0; i < control.length; i++)
+					control[i] = mesh.vertices[i].r;
+				double[][] steps = stencils.evaluateSteps(control);
+				//the first step computes the vertices of the first quad mesh level
+				double[][] levelPos = new double[steps.length - 1][];
+				System.arraycopy(steps, 1, levelPos, 0, levelPos.length);
+				if (!subdivision.hasSameSubdivision(levelPos, tol))
+					return null;
+				return createMesh(mesh, steps[steps.length - 1]);
+			}
+
+			/**
+			 * Returns a copy of the recorded smoothed mesh with the given vertex
+			 * positions, or the recorded ones if pos is null
+			 */
+			QuadMesh createMesh(PolyMesh mesh, double[] pos) {
+				QuadVertex[] smoothedVertices = (QuadVertex[]) subdivision.getVertices();
+				QuadVertex[] qverts = new QuadVertex[smoothedVertices.length];
+				for (int i = 0; i < qverts.length; i++) {
+					qverts[i] = new QuadVertex(smoothedVertices[i]);
+					if (pos != null)
+						qverts[i].r = new Vec3(pos[3 * i], pos[3 * i + 1], pos[3 * i + 2]);
+				}
+				QuadMesh qmesh = new QuadMesh(qverts, subdivision.getEdges(), subdivision.getFaces());
+				qmesh.copyTextureAndMaterial(mesh);
+				qmesh.setParameterValues(subdivision.getParameterValues());
+				return qmesh;
+			}
+		}
+	}
+
 	/**
 	 * New vertex computation : vertices involved and coefficients
 	 * 
@@ -13393,19 +14167,197 @@ public class PolyMesh extends Object3D implements Mesh, FacetedMesh {
 		}
 	}
 
+	/**
+	 * Triangles computed by triangulate(), stored in growable primitive arrays.
+	 * Vertices below baseCount are mesh vertices, vertices added at the center
+	 * of faces with more than four vertices are numbered from baseCount. Each
+	 * triangle corner records the position of its vertex in the face vertex
+	 * list so that per face per vertex parameters can be read without scanning
+	 * faces again. Each conversion uses its own Triangulation, so several
+	 * threads may triangulate the same mesh at the same time.
+	 */
+	private static class Triangulation {
+		/** Number of mesh vertices */
+		int baseCount;
+
+		/** Triangle t has vertices triVert[3*t] to triVert[3*t+2] */
+		int[] triVert;
+
+		/** Position of each triangle vertex in the face vertex list, -1 for centers */
+		int[] triCorner;
+
+		/** Face each triangle belongs to */
+		int[] triFace;
+
+		int triCount;
+
+		/** Positions of the vertices added at face centers */
+		Vec3[] center;
+
+		/** Center c is the average of centerVert[centerStart[c]] to centerVert[centerStart[c+1] - 1] */
+		int[] centerStart;
+
+		int[] centerVert;
+
+		/** Position of each averaged vertex in the face vertex list */
+		int[] centerCorner;
+
+		int centerCount;
+
+		/**
+		 * @param baseCount
+		 *            The number of mesh vertices
+		 * @param faceCount
+		 *            The number of mesh faces, used to size the buffers
+		 */
+		Triangulation(int baseCount, int faceCount) {
+			this.baseCount = baseCount;
+			triVert = new int[6 * faceCount + 6];
+			triCorner = new int[triVert.length];
+			triFace = new int[triVert.length / 3];
+			center = new Vec3[8];
+			centerStart = new int[center.length + 1];
+			centerVert = new int[64];
+			centerCorner = new int[centerVert.length];
+		}
+
+		int getVertexCount() {
+			return baseCount + centerCount;
+		}
+
+		/**
+		 * Returns mesh vertex positions followed by center positions
+		 */
+		Vec3[] getVertexPositions(Wvertex[] vertices) {
+			Vec3[] v = new Vec3[getVertexCount()];
+			for (int i = 0; i < baseCount; ++i)
+				v[i] = vertices[i].r;
+			System.arraycopy(center, 0, v, baseCount, centerCount);
+			return v;
+		}
+
+		/**
+		 * Adds a triangle which corners are given as positions in the face
+		 * vertex list vf
+		 */
+		void addTriangle(int face, int[] vf, int c1, int c2, int c3) {
+			int k = 3 * triCount;
+			ensureTriangleCapacity();
+			triVert[k] = vf[c1];
+			triVert[k + 1] = vf[c2];
+			triVert[k + 2] = vf[c3];
+			triCorner[k] = c1;
+			triCorner[k + 1] = c2;
+			triCorner[k + 2] = c3;
+			triFace[triCount++] = face;
+		}
+
+		/**
+		 * Adds a triangle made of two face vertices and a center vertex
+		 */
+		void addCenterTriangle(int face, int[] vf, int c1, int c2, int vert) {
+			int k = 3 * triCount;
+			ensureTriangleCapacity();
+			triVert[k] = vf[c1];
+			triVert[k + 1] = vf[c2];
+			triVert[k + 2] = vert;
+			triCorner[k] = c1;
+			triCorner[k + 1] = c2;
+			triCorner[k + 2] = -1;
+			triFace[triCount++] = face;
+		}
+
+		/**
+		 * Adds a vertex at the center of the face vertices not yet deleted
+		 * 
+		 * @return The index of the new vertex
+		 */
+		int addCenter(Vec3 pos, int[] vf, boolean[] deleted) {
+			if (centerCount == center.length) {
+				Vec3[] newCenter = new Vec3[2 * centerCount];
+				int[] newStart = new int[newCenter.length + 1];
+				System.arraycopy(center, 0, newCenter, 0, centerCount);
+				System.arraycopy(centerStart, 0, newStart, 0, centerCount + 1);
+				center = newCenter;
+				centerStart = newStart;
+			}
+			int k = centerStart[centerCount];
+			if (k + vf.length > centerVert.length) {
+				int[] newVert = new int[2 * (k + vf.length)];
+				int[] newCorner = new int[newVert.length];
+				System.arraycopy(centerVert, 0, newVert, 0, k);
+				System.arraycopy(centerCorner, 0, newCorner, 0, k);
+				centerVert = newVert;
+				centerCorner = newCorner;
+			}
+			for (int i = 0; i < vf.length; ++i)
+				if (!deleted[i]) {
+					centerVert[k] = vf[i];
+					centerCorner[k++] = i;
+				}
+			center[centerCount++] = pos;
+			centerStart[centerCount] = k;
+			return baseCount + centerCount - 1;
+		}
+
+		/**
+		 * Removes triangles but keeps center vertices
+		 */
+		void clearTriangles() {
+			triCount = 0;
+		}
+
+		private void ensureTriangleCapacity() {
+			if (triCount < triFace.length)
+				return;
+			int[] newVert = new int[6 * triCount];
+			int[] newCorner = new int[newVert.length];
+			int[] newFace = new int[2 * triCount];
+			System.arraycopy(triVert, 0, newVert, 0, 3 * triCount);
+			System.arraycopy(triCorner, 0, newCorner, 0, 3 * triCount);
+			System.arraycopy(triFace, 0, newFace, 0, triCount);
+			triVert = newVert;
+			triCorner = newCorner;
+			triFace = newFace;
+		}
+	}
+
 	/**
 	 * @return the mappingData
 	 */
 	public UVMappingData getMappingData() {
+		if (mappingSection != null)
+			readMappingSection();
 		return mappingData;
 	}
 
+	/**
+	 * Reads UV mapping data left unread when the mesh was loaded
+	 */
+	private void readMappingSection() {
+		byte[] data = mappingSection;
+		mappingSection = null;
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+			if (mappingSectionCompressed)
+				in = new DataInputStream(new InflaterInputStream(in));
+			mappingData = new UVMappingData(in, mappingTextureIDs);
+		} catch (IOException ex) {
+			System.out.println("PolyMesh : could not read UV mapping data");
+			ex.printStackTrace();
+			mappingData = null;
+		}
+		mappingTextureIDs = null;
+	}
+
 	/**
 	 * @param mappingData
 	 *            the mappingData to set
 	 */
 	public void setMappingData(UVMappingData mappingData) {
 		this.mappingData = mappingData;
+		mappingSection = null;
+		mappingTextureIDs = null;
 		mappingVerts = vertices.length;
 		mappingEdges = edges.length;
 		mappingFaces = faces.length;
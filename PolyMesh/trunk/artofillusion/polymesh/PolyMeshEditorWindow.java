@@ -273,6 +273,14 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 
 	private int selectionDistance[], maxDistance, selectMode;
 
+	private int selectionOrder[]; //vertices by increasing selection distance
+
+	private double tensionWeight[], weightTension; //see adjustDeltas()
+
+	private VertexAdjacency adjacency;
+
+	private PackedTopology adjacencyTopology; //topology adjacency was built from
+
 	private int projectedEdge[];
 
 	private boolean selected[];
@@ -1317,7 +1325,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 			mesh.deleteFaces(indices);
 		}
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 		objectChanged();
 		updateImage();
 
@@ -1604,42 +1613,37 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 
 	public void adjustDeltas(Vec3 delta[]) {
 		int dist[] = getSelectionDistance();
-		int count[] = new int[delta.length];
-		PolyMesh theMesh = (PolyMesh) objInfo.object;
-		PolyMesh.Wedge edge[] = theMesh.getEdges();
+		int order[] = selectionOrder;
+		VertexAdjacency adj = getVertexAdjacency();
 		int maxDistance = getTensionDistance();
 		double tension = getMeshTension();
-		double scale[] = new double[maxDistance + 1];
 
 		for (int i = 0; i < delta.length; i++)
 			if (dist[i] != 0)
 				delta[i].set(0.0, 0.0, 0.0);
-		for (int i = 0; i < maxDistance; i++) {
-			for (int j = 0; j < count.length; j++)
-				count[j] = 0;
-			for (int j = 0; j < edge.length; j++) {
-				if (dist[edge[j].vertex] == i
-						&& dist[edge[edge[j].hedge].vertex] == i + 1) {
-					count[edge[edge[j].hedge].vertex]++;
-					delta[edge[edge[j].hedge].vertex]
-							.add(delta[edge[j].vertex]);
-				} else if (dist[edge[edge[j].hedge].vertex] == i
-						&& dist[edge[j].vertex] == i + 1) {
-					count[edge[j].vertex]++;
-					delta[edge[j].vertex]
-							.add(delta[edge[edge[j].hedge].vertex]);
+		// each vertex gets the average move of its neighbours one step
+		// closer to the selection
+		for (int k = 0; k < order.length; k++) {
+			int v = order[k];
+			int d = dist[v];
+			if (d == 0)
+				continue;
+			int count = 0;
+			for (int j = adj.start[v]; j < adj.start[v + 1]; j++)
+				if (dist[adj.neighbor[j]] == d - 1) {
+					count++;
+					delta[v].add(delta[adj.neighbor[j]]);
 				}
-			}
-			for (int j = 0; j < count.length; j++)
-				if (count[j] > 1)
-					delta[j].scale(1.0 / count[j]);
+			if (count > 1)
+				delta[v].scale(1.0 / count);
+		}
+		if (tensionWeight == null || weightTension != tension) {
+			tensionWeight = VertexAdjacency.getTensionWeights(dist, maxDistance, tension);
+			weightTension = tension;
 		}
-		for (int i = 0; i < scale.length; i++)
-			scale[i] = Math.pow((maxDistance - i + 1.0) / (maxDistance + 1.0),
-					tension);
 		for (int i = 0; i < delta.length; i++)
 			if (dist[i] > 0)
-				delta[i].scale(scale[dist[i]]);
+				delta[i].scale(tensionWeight[i]);
 	}
 
 	/**
@@ -2076,7 +2080,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 			int[] indices = getIndicesFromSelection(selected);
 			theMesh.connectVertices(indices);
 			setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-					new Object[] { theMesh, prevMesh }));
+					new Object[] { theMesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 			objectChanged();
 			updateImage();
 
@@ -2135,7 +2140,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 				sel = mesh.divideEdges(selected, num);
 		}
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 		objectChanged();
 		if (sel != null) {
 			modes.selectTool(pointTool);
@@ -2156,7 +2162,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 	private void smoothingChanged(CommandEvent ev) {
 		PolyMesh mesh = (PolyMesh) objInfo.object;
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, mesh.duplicate() }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(mesh) }));
 		Object source = ev.getWidget();
 		for (int i = 0; i < smoothItem.length; i++)
 			smoothItem[i].setState(false);
@@ -2203,7 +2210,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		mesh.smoothWholeMesh(-1, false, 1, true);
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 		objectChanged();
 		updateImage();
 
@@ -2220,7 +2228,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 			selected[i] = true;
 		mesh.smooth(selected, true);
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 		objectChanged();
 		updateImage();
 
@@ -2234,7 +2243,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		mesh.smooth(selected, false);
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 		objectChanged();
 		updateImage();
 
@@ -2248,7 +2258,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		mesh.smooth(selected, true);
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 		objectChanged();
 		updateImage();
 
@@ -3221,7 +3232,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		processor.stopProcessing();
 		if (dlg.clickedOk())
 			setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-					new Object[] { theMesh, prevMesh }));
+					new Object[] { theMesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 		else {
 			theMesh.copyObject(prevMesh);
 			objectChanged();
@@ -3309,17 +3321,30 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 
 		// Now extend this outward up to maxDistance.
 
-		for (i = 0; i < maxDistance; i++)
-			for (j = 0; j < e.length / 2; j++) {
-				if (dist[e[j].vertex] == -1 && dist[e[e[j].hedge].vertex] == i)
-					dist[e[j].vertex] = i + 1;
-				else if (dist[e[e[j].hedge].vertex] == -1
-						&& dist[e[j].vertex] == i)
-					dist[e[e[j].hedge].vertex] = i + 1;
-			}
+		selectionOrder = getVertexAdjacency().findDistances(dist, maxDistance);
+		tensionWeight = null;
 		selectionDistance = dist;
 	}
 
+	/**
+	 * Returns the vertex adjacency of the edited mesh, which is kept until
+	 * the mesh topology changes.
+	 */
+	private VertexAdjacency getVertexAdjacency() {
+		PackedTopology topology = ((PolyMesh) objInfo.object).getPackedTopology();
+		if (adjacency == null || adjacencyTopology != topology) {
+			int[] v2 = new int[topology.edgeVertex.length];
+			for (int i = 0; i < v2.length; i++)
+				v2[i] = topology.edgeVertex[topology.edgeHedge[i]];
+			// all half edges, so that adjustDeltas() averages moves in the
+			// same order as when it went through mesh edges
+			adjacency = new VertexAdjacency(topology.vertexEdge.length,
+					topology.edgeVertex, v2);
+			adjacencyTopology = topology;
+		}
+		return adjacency;
+	}
+
 	/**
 	 * Determine whether we are in tolerant selection mode.
 	 * 
@@ -3920,7 +3945,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		updateMenus();
 		setSelection(newFaceSel);
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 	}
 
 	/**
@@ -3950,7 +3976,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 			newFaceSel[i] = true;
 		setSelection(newFaceSel);
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 	}
 
 	/**
@@ -4016,7 +4043,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		mesh.collapseFaces(selected);
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 		objectChanged();
 		updateImage();
 	}
@@ -4035,7 +4063,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		mesh.collapseEdges(selected);
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 		objectChanged();
 		updateImage();
 	}
@@ -4061,7 +4090,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		mesh.collapseVertices(selected);
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 		objectChanged();
 		updateImage();
 	}
@@ -4087,7 +4117,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		mesh.facetVertices(selected);
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 		objectChanged();
 		updateImage();
 	}
@@ -4100,7 +4131,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		boolean[] sel = mesh.mergeEdges(selected);
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 		objectChanged();
 		setSelection(sel);
 		updateImage();
@@ -4114,7 +4146,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		boolean[] sel = mesh.mergeFaces(selected);
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 		objectChanged();
 		setSelection(sel);
 		updateImage();
@@ -4128,7 +4161,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		PolyMesh prevMesh = (PolyMesh) mesh.duplicate();
 		boolean[] sel = mesh.triangulateFaces(selected);
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 		objectChanged();
 		setSelection(sel);
 		updateImage();
@@ -4292,7 +4326,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		objectChanged();
 		updateMenus();
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 	}
 
 	/**
@@ -4306,7 +4341,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		updateMenus();
 		updateImage();
 		setUndoRecord(new UndoRecord(this, false, UndoRecord.COPY_OBJECT,
-				new Object[] { mesh, prevMesh }));
+				new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 	}
 
 	/**
@@ -5536,7 +5572,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		private void doOK() {
 			doApplyVF();
 			setUndoRecord(new UndoRecord(PolyMeshEditorWindow.this, false,
-					UndoRecord.COPY_OBJECT, new Object[] { mesh, prevMesh }));
+					UndoRecord.COPY_OBJECT, new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 			dispose();
 		}
 	}
@@ -5629,7 +5666,8 @@ public class PolyMeshEditorWindow extends MeshEditorWindow implements
 		private void doOK() {
 			PolyMesh mesh = (PolyMesh) objInfo.object;
 			setUndoRecord(new UndoRecord(PolyMeshEditorWindow.this, false,
-					UndoRecord.COPY_OBJECT, new Object[] { mesh, prevMesh }));
+					UndoRecord.COPY_OBJECT, new Object[] { mesh,
+						MeshUndoState.recordSnapshot(prevMesh) }));
 			dispose();
 		}
 	}
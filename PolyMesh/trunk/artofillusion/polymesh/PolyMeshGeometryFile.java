@@ -0,0 +1,191 @@
+/*
+ *  Copyright (C) 2026 by the PolyMesh plugin contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package artofillusion.polymesh;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A PolyMesh geometry cache file, kept next to a large scene file. When the
+ * "geometryFileVertices" preference is set, meshes with at least that many
+ * vertices write their vertices, edges and faces to such a file when the
+ * scene is saved, and the scene file only refers to it. The file holds the
+ * arrays in the same layout as the geometry block of PolyMesh files, and is
+ * memory mapped when read : several processes loading the same scene share
+ * the system page cache. The mesh still builds its own vertex, edge and face
+ * objects from the mapped data, so mapping saves copying the file through
+ * stream buffers, not the cost of building the mesh.
+ *
+ * If the file is missing or damaged when the scene is loaded, PolyMesh prints
+ * a message and loads a cube in place of the mesh instead of failing.
+ *
+ * If the file can't be mapped, for instance because it is larger than 2 GB,
+ * it is streamed through a bounded buffer instead. This only makes loading
+ * slower, isMapped() tells which happened.
+ *
+ * @author PolyMesh plugin contributors
+ */
+public class PolyMeshGeometryFile {
+
+	private final static int MAGIC = 0x504d4743; //"PMGC"
+
+	private final static short VERSION = 1;
+
+	private final static int HEADER_SIZE = 24;
+
+	private File file;
+
+	private ByteBuffer buffer;
+
+	private int vertexCount, edgeCount, faceCount;
+
+	private PolyMeshGeometryFile(File file, ByteBuffer header, long size) throws IOException {
+		this.file = file;
+		if (size < HEADER_SIZE || header.getInt(0) != MAGIC)
+			throw new InvalidObjectException("Not a PolyMesh geometry file : " + file);
+		if (header.getShort(4) != VERSION)
+			throw new InvalidObjectException("Unknown PolyMesh geometry file version : " + file);
+		vertexCount = header.getInt(12);
+		edgeCount = header.getInt(16);
+		faceCount = header.getInt(20);
+		if (vertexCount < 0 || edgeCount < 0 || faceCount < 0
+				|| HEADER_SIZE + PolyMesh.getPackedGeometrySize(vertexCount, edgeCount, faceCount) > size)
+			throw new InvalidObjectException("Truncated PolyMesh geometry file : " + file);
+	}
+
+	/**
+	 * Opens a geometry file for reading
+	 *
+	 * @param file
+	 *            The file
+	 * @exception IOException
+	 *                If the file can't be read or is not a geometry file
+	 */
+	public static PolyMeshGeometryFile open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size <= Integer.MAX_VALUE) {
+				try {
+					MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+					PolyMeshGeometryFile geometry = new PolyMeshGeometryFile(file, map, size);
+					geometry.buffer = map;
+					return geometry;
+				} catch (IOException ex) {
+					if (ex instanceof InvalidObjectException)
+						throw ex;
+					System.out.println("PolyMeshGeometryFile : could not map " + file + ", streaming it");
+				} catch (UnsupportedOperationException ex) {
+					System.out.println("PolyMeshGeometryFile : could not map " + file + ", streaming it");
+				}
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining())
+				if (channel.read(header, header.position()) < 0)
+					break;
+			return new PolyMeshGeometryFile(file, header, size);
+		} finally {
+			raf.close(); //a mapping stays valid once the channel is closed
+		}
+	}
+
+	/**
+	 * Writes the geometry of a mesh to a file, replacing its previous content.
+	 * The geometry is written to a temporary file first, so that processes
+	 * which have the former file mapped are not disturbed.
+	 *
+	 * @param mesh
+	 *            The mesh
+	 * @param file
+	 *            The file
+	 * @exception IOException
+	 *                I/O exception
+	 */
+	public static void write(PolyMesh mesh, File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		boolean written = false;
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeShort(mesh.getMirrorState());
+			out.writeInt(mesh.getSmoothingMethod());
+			out.writeInt(mesh.getVertices().length);
+			out.writeInt(mesh.getEdges().length);
+			out.writeInt(mesh.getFaces().length);
+			PolyMesh.BlockWriter writer = new PolyMesh.BlockWriter(out, false, false);
+			mesh.writePackedGeometry(writer);
+			writer.finish();
+			written = true;
+		} finally {
+			out.close();
+			if (!written)
+				temp.delete();
+		}
+		if (!temp.renameTo(file)) {
+			file.delete();
+			if (!temp.renameTo(file)) {
+				temp.delete();
+				throw new IOException("Could not replace PolyMesh geometry file : " + file);
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the file is memory mapped, false if it is streamed
+	 */
+	public boolean isMapped() {
+		return buffer != null;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	public int getFaceCount() {
+		return faceCount;
+	}
+
+	/**
+	 * Reads the file geometry into a mesh, replacing its vertices, edges and
+	 * faces
+	 */
+	void readGeometry(PolyMesh mesh) throws IOException {
+		if (buffer != null) {
+			ByteBuffer b = buffer.duplicate();
+			b.position(HEADER_SIZE);
+			mesh.readPackedGeometry(new PolyMesh.BlockReader(b), vertexCount, edgeCount, faceCount);
+			return;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			in.readFully(new byte[HEADER_SIZE]);
+			mesh.readPackedGeometry(new PolyMesh.BlockReader(in, false, false), vertexCount, edgeCount, faceCount);
+		} finally {
+			in.close();
+		}
+	}
+}
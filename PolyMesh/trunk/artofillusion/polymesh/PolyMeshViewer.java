@@ -76,6 +76,10 @@ public class PolyMeshViewer extends MeshViewer {
 	
 	private Manipulator[] manipulatorArray;
 
+	private ScreenBoundsTree vertexTree, edgeTree, faceTree, projectedEdgeTree; //see findClickTarget()
+
+	private Object edgeTreeSource, faceTreeSource, projectedEdgeTreeSource; //arrays the trees were built from
+
 	/**
 	 * Constructor for the PolyMeshViewer object
 	 * 
@@ -153,6 +157,8 @@ public class PolyMeshViewer extends MeshViewer {
 		int length = v.length;
 		if (mirror)
 			length = invVertTable.length;
+		Point[] oldScreenVert = screenVert;
+		boolean moved = (oldScreenVert == null || oldScreenVert.length != length);
 		screenVert = new Point[length];
 		screenZ = new double[length];
 		if (visible.length != length)
@@ -177,6 +183,8 @@ public class PolyMeshViewer extends MeshViewer {
 			Vec3 pos = sv[i].r;
 			p[i] = theCamera.getObjectToScreen().timesXY(pos);
 			screenVert[i] = new Point((int) p[i].x, (int) p[i].y);
+			if (!moved && !screenVert[i].equals(oldScreenVert[i]))
+				moved = true;
 			screenZ[i] = theCamera.getObjectToView().timesZ(pos);
 //			if (screenVertNormals != null && sv[i].normal != null) {
 //				pos = sv[i].r.plus(sv[i].normal.times(0.5));
@@ -190,6 +198,8 @@ public class PolyMeshViewer extends MeshViewer {
 				visible[i] = (!hideVert[i] && screenZ[i] > clipDist);
 
 		}
+		if (moved)
+			clearPickTrees();
 
 		// Now draw the object.
 		drawSurface();
@@ -1055,17 +1065,23 @@ public class PolyMeshViewer extends MeshViewer {
 		// it intersects.
 		if (selectBounds != null) {
 			boolean newsel = !e.isControlDown();
+			// only elements overlapping the selection bounds need to be tested
+			boolean[] inBounds;
 			if (controller.getSelectionMode() == MeshEditController.POINT_MODE) {
+				ScreenBoundsTree tree = getVertexTree();
+				inBounds = tree.getResultMask(tree.query(selectBounds), screenVert.length);
 				for (i = 0; i < selected.length; i++) {
 					if (mirror)
 						ref = vertTable[i];
 					else
 						ref = i;
-					if (ref != -1 && !hideVert[i]
+					if (ref != -1 && inBounds[ref] && !hideVert[i]
 							&& selectionRegionContains(screenVert[ref]) && isVertexVisible(ref))
 						selected[i] = newsel;
 				}
 			} else if (controller.getSelectionMode() == MeshEditController.EDGE_MODE) {
+				ScreenBoundsTree tree = getEdgeTree(ed);
+				inBounds = tree.getResultMask(tree.query(selectBounds), ed.length / 2);
 				if (tolerant) {
 					for (i = 0; i < selected.length; i++) {
 						if (mirror)
@@ -1073,6 +1089,7 @@ public class PolyMeshViewer extends MeshViewer {
 						else
 							ref = i;
 						if (ref != -1
+								&& inBounds[ref < ed.length / 2 ? ref : ed[ref].hedge]
 								&& selectionRegionIntersects(
 										screenVert[ed[ref].vertex],
 										screenVert[ed[ed[ref].hedge].vertex])
@@ -1086,6 +1103,7 @@ public class PolyMeshViewer extends MeshViewer {
 						else
 							ref = i;
 						if (ref != -1
+								&& inBounds[ref < ed.length / 2 ? ref : ed[ref].hedge]
 								&& selectionRegionContains(screenVert[ed[ref].vertex])
 								&& selectionRegionContains(screenVert[ed[ed[ref].hedge].vertex])
 								&& isEdgeVisible(ref))
@@ -1093,7 +1111,8 @@ public class PolyMeshViewer extends MeshViewer {
 					}
 				}
 			} else {
-
+				ScreenBoundsTree tree = getFaceTree(viewMesh);
+				inBounds = tree.getResultMask(tree.query(selectBounds), fc.length);
 				if (tolerant) {
 					for (i = 0; i < trueFaces.length; i++)
 						if (hideFace == null || !hideFace[i]) {
@@ -1101,7 +1120,7 @@ public class PolyMeshViewer extends MeshViewer {
 								ref = faceTable[i];
 							else
 								ref = i;
-							if (ref < 0)
+							if (ref < 0 || !inBounds[ref])
 								continue;
 							int[] vf = viewMesh.getFaceVertices(fc[ref]);
 							boolean contains = false;
@@ -1120,7 +1139,7 @@ public class PolyMeshViewer extends MeshViewer {
 								ref = faceTable[i];
 							else
 								ref = i;
-							if (ref < 0)
+							if (ref < 0 || !inBounds[ref])
 								continue;
 							int[] vf = viewMesh.getFaceVertices(fc[ref]);
 							boolean contains = true;
@@ -1253,8 +1272,16 @@ public class PolyMeshViewer extends MeshViewer {
 		boolean selected[] = controller.getSelection();
 		boolean hideFace[] = (controller instanceof PolyMeshEditorWindow ? ((PolyMeshEditorWindow) controller).hideFace
 				: new boolean[trueFaces.length]);
+		// candidates near the click, in increasing index order
+		ScreenBoundsTree tree;
+		int[] candidate;
+		int count;
 		if (controller.getSelectionMode() == MeshEditController.POINT_MODE) {
-			for (i = 0; i < screenVert.length; i++) {
+			tree = getVertexTree();
+			count = tree.query(pos.x, pos.y, handleSize / 2 + loose);
+			candidate = tree.getResult();
+			for (int c = 0; c < count; c++) {
+				i = candidate[c];
 				if (mirror)
 					ref = invVertTable[i];
 				else
@@ -1295,7 +1322,16 @@ public class PolyMeshViewer extends MeshViewer {
 			if (projectedEdge != null)
 				loop = submesh.getEdges().length / 2;
 			int vv1, vv2;// orv1, orv2;
-			for (i = 0; i < loop; i++) {
+			if (projectedEdge != null)
+				tree = getProjectedEdgeTree(sed, vt);
+			else
+				tree = getEdgeTree(ed);
+			count = tree.query(pos.x, pos.y, handleSize / 2 + loose);
+			candidate = tree.getResult();
+			for (int c = 0; c < count; c++) {
+				i = candidate[c];
+				if (i >= loop)
+					break;
 				int orig;
 				vv1 = vv2 = 0;
 				if (projectedEdge == null) {
@@ -1405,7 +1441,13 @@ public class PolyMeshViewer extends MeshViewer {
 				loop = invFaceTable.length;
 			else
 				loop = trueFaces.length;
-			for (i = 0; i < loop; i++) {
+			tree = getFaceTree(viewMesh);
+			count = tree.query(pos.x, pos.y, 0);
+			candidate = tree.getResult();
+			for (int c = 0; c < count; c++) {
+				i = candidate[c];
+				if (i >= loop)
+					break;
 				if (mirror)
 					ref = invFaceTable[i];
 				else
@@ -1449,6 +1491,100 @@ public class PolyMeshViewer extends MeshViewer {
 		return which;
 	}
 
+	/**
+	 * Drops the trees used to find clicked elements, once vertices have moved
+	 * on screen
+	 */
+	private void clearPickTrees() {
+		vertexTree = edgeTree = faceTree = projectedEdgeTree = null;
+		edgeTreeSource = faceTreeSource = projectedEdgeTreeSource = null;
+	}
+
+	/**
+	 * Returns a tree of vertex screen positions
+	 */
+	private ScreenBoundsTree getVertexTree() {
+		if (vertexTree == null) {
+			int[] x = new int[screenVert.length];
+			int[] y = new int[screenVert.length];
+			for (int i = 0; i < screenVert.length; i++) {
+				x[i] = screenVert[i].x;
+				y[i] = screenVert[i].y;
+			}
+			vertexTree = new ScreenBoundsTree(x, y, x, y);
+		}
+		return vertexTree;
+	}
+
+	/**
+	 * Returns a tree of edge screen bounds, for edges of the displayed mesh
+	 */
+	private ScreenBoundsTree getEdgeTree(Wedge[] ed) {
+		if (edgeTree == null || edgeTreeSource != ed) {
+			int n = ed.length / 2;
+			int[] x0 = new int[n], y0 = new int[n], x1 = new int[n], y1 = new int[n];
+			for (int i = 0; i < n; i++)
+				setBounds(i, screenVert[ed[i].vertex], screenVert[ed[ed[i].hedge].vertex], x0, y0, x1, y1);
+			edgeTree = new ScreenBoundsTree(x0, y0, x1, y1);
+			edgeTreeSource = ed;
+		}
+		return edgeTree;
+	}
+
+	/**
+	 * Returns a tree of edge screen bounds, for edges of the subdivided mesh
+	 * when edges are projected onto the smoothed surface
+	 */
+	private ScreenBoundsTree getProjectedEdgeTree(QuadEdge[] sed, MeshVertex[] vt) {
+		if (projectedEdgeTree == null || projectedEdgeTreeSource != sed) {
+			int n = sed.length / 2;
+			Point[] screen = new Point[vt.length];
+			for (int i = 0; i < vt.length; i++) {
+				Vec2 p = theCamera.getObjectToScreen().timesXY(vt[i].r);
+				screen[i] = new Point((int) p.x, (int) p.y);
+			}
+			int[] x0 = new int[n], y0 = new int[n], x1 = new int[n], y1 = new int[n];
+			for (int i = 0; i < n; i++)
+				setBounds(i, screen[sed[i].v1], screen[sed[i].v2], x0, y0, x1, y1);
+			projectedEdgeTree = new ScreenBoundsTree(x0, y0, x1, y1);
+			projectedEdgeTreeSource = sed;
+		}
+		return projectedEdgeTree;
+	}
+
+	private static void setBounds(int i, Point v1, Point v2, int[] x0, int[] y0, int[] x1, int[] y1) {
+		x0[i] = Math.min(v1.x, v2.x);
+		y0[i] = Math.min(v1.y, v2.y);
+		x1[i] = Math.max(v1.x, v2.x);
+		y1[i] = Math.max(v1.y, v2.y);
+	}
+
+	/**
+	 * Returns a tree of face screen bounds, for faces of the displayed mesh
+	 */
+	private ScreenBoundsTree getFaceTree(PolyMesh viewMesh) {
+		Wface[] fc = viewMesh.getFaces();
+		if (faceTree == null || faceTreeSource != fc) {
+			int n = fc.length;
+			int[] x0 = new int[n], y0 = new int[n], x1 = new int[n], y1 = new int[n];
+			for (int i = 0; i < n; i++) {
+				int[] vf = viewMesh.getFaceVertices(fc[i]);
+				x0[i] = y0[i] = Integer.MAX_VALUE;
+				x1[i] = y1[i] = Integer.MIN_VALUE;
+				for (int j = 0; j < vf.length; j++) {
+					Point v = screenVert[vf[j]];
+					x0[i] = Math.min(x0[i], v.x);
+					y0[i] = Math.min(y0[i], v.y);
+					x1[i] = Math.max(x1[i], v.x);
+					y1[i] = Math.max(y1[i], v.y);
+				}
+			}
+			faceTree = new ScreenBoundsTree(x0, y0, x1, y1);
+			faceTreeSource = fc;
+		}
+		return faceTree;
+	}
+
 	public void moveToGrid(WidgetMouseEvent e) {
 		Point pos = e.getPoint();
 		Vec3 v;
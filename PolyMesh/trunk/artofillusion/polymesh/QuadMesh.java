@@ -13,9 +13,9 @@ package artofillusion.polymesh;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Stack;
-import java.util.Vector;
 
 import buoy.widget.RowContainer;
 import artofillusion.MeshViewer;
@@ -42,6 +42,7 @@ import artofillusion.texture.ParameterValue;
 import artofillusion.texture.TextureMapping;
 import artofillusion.texture.VertexParameterValue;
 import artofillusion.ui.MeshEditController;
+import artofillusion.util.ThreadManager;
 
 /**
  * A QuadMesh is a mesh exclusively made up of quads. This mesh is not meant to be edited by users but
@@ -278,6 +279,17 @@ public class QuadMesh extends Object3D implements FacetedMesh {
 	
 	public final static int MAX_SMOOTHNESS = 11;
 	
+	/** Minimum number of vertices or edges for a smoothing level to be processed in parallel */
+	public final static int PARALLEL_THRESHOLD = 2048;
+	
+	private boolean parallelSmoothing;
+	
+	private ThreadManager threads; //only set while smoothing in parallel
+	
+	private boolean recordLevels;
+	
+	private ArrayList<SmoothingLevel> levels; //levels recorded by the last smoothMesh() call
+	
 	long t1, t2, t3, t4, t5, t6, t7;
 	
 //	static {
@@ -475,76 +487,159 @@ public class QuadMesh extends Object3D implements FacetedMesh {
 	}
 
 	/** Get an array of normal vectors.  This calculates a single normal for each vertex,
-	 ignoring smoothness values. */
+	 ignoring smoothness values. Corner normals are computed face by face into a flat
+	 array, in parallel while smoothing in parallel, then summed in face order so
+	 that the result does not depend on the number of threads. */
 
 	public Vec3[] getNormals() {
-		Vec3 faceNorm, norm[] = new Vec3[vertices.length];
-		double length, dot;
-		// Calculate a normal for each face, and average the face normals for each vertex.
+		double[] sum = getNormalSums();
+		Vec3[] norm = new Vec3[vertices.length];
+		for (int i = 0; i < norm.length; i++) {
+			norm[i] = new Vec3(sum[3 * i], sum[3 * i + 1], sum[3 * i + 2]);
+			norm[i].normalize();
+		}
+		return norm;
+	}
 
-		for (int i = 0; i < norm.length; i++)
-			norm[i] = new Vec3();
+	/**
+	 * Returns the sums of the corner normals around each vertex, x y z for
+	 * each vertex. Vertex normals are these sums normalized.
+	 */
+	private double[] getNormalSums() {
+		double[] corner = new double[12 * faces.length];
+		if (threads != null && faces.length >= PARALLEL_THRESHOLD) {
+			threads.setNumIndices(faces.length);
+			threads.setTask(new FaceNormalsTask(corner));
+			threads.run();
+		} else {
+			for (int i = 0; i < faces.length; i++)
+				computeCornerNormals(i, corner);
+		}
+		double[] sum = new double[3 * vertices.length];
+		int v, c;
 		for (int i = 0; i < faces.length; i++) {
-			Vec3 edge1 = vertices[faces[i].v2].r.minus(vertices[faces[i].v1].r);
-			Vec3 edge2 = vertices[faces[i].v3].r.minus(vertices[faces[i].v2].r);
-			Vec3 edge3 = vertices[faces[i].v4].r.minus(vertices[faces[i].v3].r);
-			Vec3 edge4 = vertices[faces[i].v1].r.minus(vertices[faces[i].v4].r);
-			edge1.normalize();
-			edge2.normalize();
-			edge3.normalize();
-			edge4.normalize();
-			faceNorm = edge1.cross(edge4);
-			length = faceNorm.length();
-			if (length != 0.0) {
-				faceNorm.scale(-1.0 / length);
-				dot = -edge1.dot(edge4);
-				if (dot < -1.0) {
-					dot = -1.0;
-				} else if (dot > 1.0) {
-					dot = 1.0;
-				}
-				norm[faces[i].v1].add(faceNorm.times(Math.acos(dot)));
-			}
-			faceNorm = edge2.cross(edge1);
-			length = faceNorm.length();
-			if (length != 0.0) {
-				faceNorm.scale(-1.0 / length);
-				dot = -edge2.dot(edge1);
-				if (dot < -1.0) {
-					dot = -1.0;
-				} else if (dot > 1.0) {
-					dot = 1.0;
-				}
-				norm[faces[i].v2].add(faceNorm.times(Math.acos(dot)));
-			}
-			faceNorm = edge3.cross(edge2);
-			length = faceNorm.length();
-			if (length != 0.0) {
-				faceNorm.scale(-1.0 / length);
-				dot = -edge3.dot(edge2);
-				if (dot < -1.0) {
-					dot = -1.0;
-				} else if (dot > 1.0) {
-					dot = 1.0;
-				}
-				norm[faces[i].v3].add(faceNorm.times(Math.acos(dot)));
-			}
-			faceNorm = edge4.cross(edge3);
-			length = faceNorm.length();
-			if (length != 0.0) {
-				faceNorm.scale(-1.0 / length);
-				dot = -edge4.dot(edge3);
-				if (dot < -1.0) {
-					dot = -1.0;
-				} else if (dot > 1.0) {
-					dot = 1.0;
-				}
-				norm[faces[i].v4].add(faceNorm.times(Math.acos(dot)));
+			c = 12 * i;
+			v = 3 * faces[i].v1;
+			sum[v] += corner[c];
+			sum[v + 1] += corner[c + 1];
+			sum[v + 2] += corner[c + 2];
+			v = 3 * faces[i].v2;
+			sum[v] += corner[c + 3];
+			sum[v + 1] += corner[c + 4];
+			sum[v + 2] += corner[c + 5];
+			v = 3 * faces[i].v3;
+			sum[v] += corner[c + 6];
+			sum[v + 1] += corner[c + 7];
+			sum[v + 2] += corner[c + 8];
+			v = 3 * faces[i].v4;
+			sum[v] += corner[c + 9];
+			sum[v + 1] += corner[c + 10];
+			sum[v + 2] += corner[c + 11];
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the mesh as packed triangles, two per quad, with smooth vertex
+	 * normals. Unlike getRenderingMesh(), no object is created per vertex or
+	 * face.
+	 * 
+	 * @return The packed geometry
+	 */
+	public PackedGeometry getPackedGeometry() {
+		double[] position = new double[3 * vertices.length];
+		for (int i = 0; i < vertices.length; i++) {
+			Vec3 r = vertices[i].r;
+			position[3 * i] = r.x;
+			position[3 * i + 1] = r.y;
+			position[3 * i + 2] = r.z;
+		}
+		double[] normal = getNormalSums();
+		double x, y, z, length;
+		for (int i = 0; i < vertices.length; i++) {
+			x = normal[3 * i];
+			y = normal[3 * i + 1];
+			z = normal[3 * i + 2];
+			length = Math.sqrt(x * x + y * y + z * z);
+			if (length > 0.0) {
+				normal[3 * i] = x / length;
+				normal[3 * i + 1] = y / length;
+				normal[3 * i + 2] = z / length;
 			}
 		}
-		for (int i = 0; i < norm.length; i++)
-			norm[i].normalize();
-		return norm;
+		int[] tri = new int[6 * faces.length];
+		for (int i = 0; i < faces.length; i++) {
+			tri[6 * i] = faces[i].v1;
+			tri[6 * i + 1] = faces[i].v2;
+			tri[6 * i + 2] = faces[i].v3;
+			tri[6 * i + 3] = faces[i].v1;
+			tri[6 * i + 4] = faces[i].v3;
+			tri[6 * i + 5] = faces[i].v4;
+		}
+		return new PackedGeometry(position, normal, tri, 2 * faces.length, true, getParameterValues());
+	}
+
+	/**
+	 * Computes the angle weighted normals of the four corners of a face,
+	 * x y z for v1, v2, v3 and v4 at 12 * face in corner array.
+	 */
+	private void computeCornerNormals(int face, double[] corner) {
+		QuadFace f = faces[face];
+		Vec3 r1 = vertices[f.v1].r;
+		Vec3 r2 = vertices[f.v2].r;
+		Vec3 r3 = vertices[f.v3].r;
+		Vec3 r4 = vertices[f.v4].r;
+		// normalized edges
+		double[] e = new double[12];
+		setEdge(e, 0, r1, r2);
+		setEdge(e, 3, r2, r3);
+		setEdge(e, 6, r3, r4);
+		setEdge(e, 9, r4, r1);
+		setCornerNormal(e, 0, 9, corner, 12 * face);
+		setCornerNormal(e, 3, 0, corner, 12 * face + 3);
+		setCornerNormal(e, 6, 3, corner, 12 * face + 6);
+		setCornerNormal(e, 9, 6, corner, 12 * face + 9);
+	}
+
+	private static void setEdge(double[] e, int i, Vec3 from, Vec3 to) {
+		double x = to.x - from.x;
+		double y = to.y - from.y;
+		double z = to.z - from.z;
+		double length = Math.sqrt(x * x + y * y + z * z);
+		if (length > 0.0) {
+			x /= length;
+			y /= length;
+			z /= length;
+		}
+		e[i] = x;
+		e[i + 1] = y;
+		e[i + 2] = z;
+	}
+
+	/**
+	 * Normal of the corner between incoming edge b and outgoing edge a,
+	 * (b x a) normalized and weighted by the corner angle.
+	 */
+	private static void setCornerNormal(double[] e, int a, int b, double[] corner, int c) {
+		double x = e[a + 1] * e[b + 2] - e[a + 2] * e[b + 1];
+		double y = e[a + 2] * e[b] - e[a] * e[b + 2];
+		double z = e[a] * e[b + 1] - e[a + 1] * e[b];
+		double length = Math.sqrt(x * x + y * y + z * z);
+		if (length == 0.0) {
+			corner[c] = corner[c + 1] = corner[c + 2] = 0.0;
+			return;
+		}
+		double scale = -1.0 / length;
+		double dot = -(e[a] * e[b] + e[a + 1] * e[b + 1] + e[a + 2] * e[b + 2]);
+		if (dot < -1.0) {
+			dot = -1.0;
+		} else if (dot > 1.0) {
+			dot = 1.0;
+		}
+		double angle = Math.acos(dot);
+		corner[c] = x * scale * angle;
+		corner[c + 1] = y * scale * angle;
+		corner[c + 2] = z * scale * angle;
 	}
 
 	public Vec3[] getVertexPositions() {
@@ -637,7 +732,114 @@ public class QuadMesh extends Object3D implements FacetedMesh {
 			ns = 0;
 		}
 		t1 = t2 = t3 = t4 = t5 = t6 = t7 = 0;
-		smoothMesh(tol, calcProjectedEdges, ns, maxNs);
+		levels = (recordLevels ? new ArrayList<SmoothingLevel>() : null);
+		if (parallelSmoothing) {
+			threads = new ThreadManager();
+		}
+		try {
+			smoothMesh(tol, calcProjectedEdges, ns, maxNs);
+		} finally {
+			if (threads != null) {
+				threads.finish();
+				threads = null;
+			}
+		}
+	}
+	
+	/**
+	 * Sets whether smoothMesh() should spread the computation of new vertex
+	 * locations over all available processors. Levels having less than
+	 * PARALLEL_THRESHOLD vertices or edges are always processed serially.
+	 * The resulting mesh is identical in both cases.
+	 * 
+	 * @param parallel True if smoothing should be done in parallel
+	 */
+	public void setParallelSmoothing(boolean parallel) {
+		parallelSmoothing = parallel;
+	}
+	
+	public boolean isParallelSmoothing() {
+		return parallelSmoothing;
+	}
+	
+	/**
+	 * Sets whether smoothMesh() should keep each smoothing level so that
+	 * updatePositions() can be called afterwards. This costs memory and
+	 * should only be used for meshes which are edited interactively.
+	 * 
+	 * @param record True if smoothing levels should be recorded
+	 */
+	public void setRecordLevels(boolean record) {
+		recordLevels = record;
+		if (!record) {
+			levels = null;
+		}
+	}
+	
+	/**
+	 * Moves the vertices of the unsmoothed mesh and updates the smoothed mesh.
+	 * Only the vertices which depend on moved vertices are computed again, the
+	 * subdivision pattern found by the last smoothMesh() call is kept as it is.
+	 * If the mesh has been smoothed, levels must have been recorded (see setRecordLevels()).
+	 * 
+	 * @param positions New locations of the unsmoothed mesh vertices
+	 * @param moved Flags the vertices which have moved
+	 */
+	public void updatePositions(Vec3[] positions, boolean[] moved) {
+		QuadVertex[] base = (levels == null || levels.size() == 0 ? vertices : levels.get(0).mesh.vertices);
+		for (int i = 0; i < base.length; i++) {
+			if (moved[i]) {
+				base[i].r = new Vec3(positions[i]);
+			}
+		}
+		if (levels != null) {
+			boolean[] dirty = moved;
+			for (int i = 0; i < levels.size(); i++) {
+				QuadVertex[] nverts = (i < levels.size() - 1 ? levels.get(i + 1).mesh.vertices : vertices);
+				dirty = levels.get(i).update(nverts, dirty);
+			}
+		}
+		resetMesh();
+	}
+	
+	/**
+	 * Returns true if smoothMesh() would have subdivided the mesh the same way
+	 * if the vertices of each smoothing level had been at the given positions.
+	 * Levels must have been recorded by the last smoothMesh() call (see
+	 * setRecordLevels()). The mesh is left unchanged.
+	 * 
+	 * @param pos x, y and z of the vertices of each level, then of the smoothed
+	 * mesh vertices (see SubdivisionStencils.evaluateSteps())
+	 * @param tol The tolerance smoothMesh() was called with
+	 */
+	public boolean hasSameSubdivision(double[][] pos, double tol) {
+		if (levels == null || pos.length != levels.size() + 1) {
+			return false;
+		}
+		for (int i = 0; i < levels.size(); i++) {
+			QuadVertex[] nverts = (i < levels.size() - 1 ? levels.get(i + 1).mesh.vertices : vertices);
+			if (!levels.get(i).hasSameRefinement(nverts, pos[i], pos[i + 1], tol)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Adds one step per recorded smoothing level to the given stencils. Levels
+	 * must have been recorded by the last smoothMesh() call (see setRecordLevels()).
+	 * Vertex positions are left unchanged.
+	 * 
+	 * @param stencils Stencils which last step computes the vertices of the unsmoothed mesh
+	 */
+	public void addStencils(SubdivisionStencils stencils) {
+		if (levels == null) {
+			return;
+		}
+		for (int i = 0; i < levels.size(); i++) {
+			QuadVertex[] nverts = (i < levels.size() - 1 ? levels.get(i + 1).mesh.vertices : vertices);
+			levels.get(i).addStencilStep(nverts, stencils);
+		}
 	}
 	
 	private void smoothMesh(double tol, boolean calcProjectedEdges, int ns, int maxNs) {
@@ -779,6 +981,10 @@ public class QuadMesh extends Object3D implements FacetedMesh {
 				moveVerts[vertices.length + edgeTable[faces[i].e4]] = true;
 			}
 		}
+		if (levels != null) {
+			levels.add(new SmoothingLevel(new QuadMesh(vertices, edges, faces), edgeTable,
+					edgeCount, (boolean[]) moveVerts.clone(), ns));
+		}
 		int[] npe = null;
 		if (calcProjectedEdges) {
 			npe = new int[nedges.length];
@@ -1129,229 +1335,32 @@ public class QuadMesh extends Object3D implements FacetedMesh {
 //		time2 = System.currentTimeMillis();
 //		t4 += time2 - time1;
 //		time1 = System.currentTimeMillis();
-		double dist = 0;
 		// BLZ algorithm
-		//variables that describe how many hard edges there
-		//are around a vertex. This will decide how old vertices
-		//are moved
-		int sharp;
-		double weight;
-		int numEdges;
-		int[] hardEdge = new int[2];
-		int[] hardEdgeToVert = new int[2];
-		int[] sharpEdge = new int[2];
-		int[] sharpEdgeToVert = new int[2];
-		double[] smoothEdgeValue = new double[10];
-		Vec3 pos;
-		int count;
-		int face1, face2, nextVert;
-		double maxHard;
-		sharpEdge[1] = sharpEdge[0] = -1;
-		smoothEdgeValue[1] = smoothEdgeValue[0] = 1;
-		int hardnum;
-		Vec3 sharpPt;
-		double smoothness;
-		double maxDist = 0.0;
-		for (int i = 0; i < vertices.length; ++i) {
-			if (!moveVerts[i]) {
-				//fixed vertex
-				continue;
-			}
-			// adjacent polygons
-			moveVerts[i] = false;
-			int ve[] = getVertexEdges(vertices[i]);
-			numEdges = ve.length;
-			if (numEdges > smoothEdgeValue.length) {
-				smoothEdgeValue = new double[ve.length];
-			}
-			hardnum = 0;
-			sharp = 0;
-			weight = 0;
-			pos = new Vec3();
-			count = 0;
-			maxHard = 0.0;
-			for (int j = 0; j < numEdges; ++j) {
-				smoothEdgeValue[j] = 0.0;
-				if (edges[ve[j]].v1 == i) {
-					face1 = edges[ve[j]].f1;
-					face2 = edges[ve[j]].f2;
-					nextVert = edges[ve[j]].v2;
-				} else {
-					face1 = edges[ve[j]].f2;
-					face2 = edges[ve[j]].f1;
-					nextVert = edges[ve[j]].v1;
-				}
-				if (face1 != -1) {
-					r = vertices[faces[face1].v1].r.plus(vertices[faces[face1].v2].r);
-					r.add(vertices[faces[face1].v3].r);
-					r.add(vertices[faces[face1].v4].r);
-					r.scale(0.25);
-					pos.add(r);
-					pos.subtract(vertices[nextVert].r.times(1.0 / 4.0));
-					pos.subtract(vertices[getPreviousVertex(i, face1)].r.times(1.0 / 4.0));
-					pos.subtract(vertices[i].r.times(1.0 / 4.0));
-					++count;
-				}
-				pos.add(vertices[nextVert].r.times(3.0 / 2.0));
-				smoothness = edges[ve[j]].smoothness;
-				if (face1 != -1 && face2 != -1)
-					smoothness = (1.0 - smoothness) * MAX_SMOOTHNESS;
-				else
-					smoothness = MAX_SMOOTHNESS; // boundary edges are treated as hard edges.
-				if (ns + 1 <= smoothness) {
-					if (sharp < 2) {
-						sharpEdge[sharp] = ve[j];
-						sharpEdgeToVert[sharp] = nextVert;
-					}
-					++sharp;
-				} else if (ns < smoothness) {
-					weight += smoothness - ns;
-					smoothEdgeValue[j] = smoothness - ns;
-					if (smoothEdgeValue[j] > maxHard) {
-						maxHard = smoothEdgeValue[j];
-					}
-					if (hardnum < 2)
-					{
-						hardEdge[hardnum] = ve[j];
-						hardEdgeToVert[hardnum] = nextVert;
-					}
-					++hardnum;
-				}
-			}
-			pos.scale(1.0 / ((double) count * count));
-			pos.add(vertices[i].r.times(1.0 - 3.0 / (2.0 * count) - 1.0 / (4.0 * count)));
-			if (vertices[i].type != Wvertex.CORNER) {
-				switch (sharp) {
-				case 0:
-					if (hardnum == 2) {
-						weight /= 2;
-						sharpPt = new Vec3(vertices[i].r.times(0.75));
-						sharpPt.add(vertices[hardEdgeToVert[0]].r.times(0.125));
-						sharpPt.add(vertices[hardEdgeToVert[1]].r.times(0.125));
-						pos = pos.times(1 - weight).plus(sharpPt.times(weight));
-					} else if (hardnum > 2) {
-						weight /= hardnum;
-						pos = pos.times(1 - weight).plus(nverts[i].r.times(weight));
-					}
-					break;
-				case 1:
-					if (hardnum == 1) {
-						pos = pos.times(1 - maxHard).plus(vertices[i].r.times(maxHard));
-					} else if (hardnum > 1) {
-						weight /= hardnum;
-						pos = pos.times(1 - weight).plus(vertices[i].r.times(weight));
-					}
-					break;
-				case 2:
-					sharpPt = new Vec3(vertices[i].r.times(0.75));
-					sharpPt.add(vertices[sharpEdgeToVert[0]].r.times(0.125));
-					sharpPt.add(vertices[sharpEdgeToVert[1]].r.times(0.125));
-					if (hardnum == 0) {
-						pos = sharpPt;
-					}
-					else {
-						weight /= hardnum;
-						pos = sharpPt.times(1 - weight).plus(vertices[i].r.times(weight));
-					}
-					break;
-				default:
-					//new vertex is marked as corner
-					nverts[i].type = Wvertex.CORNER;
-					pos = new Vec3(vertices[i].r);
-					break;
-				}
-				if (nverts[i].type != Wvertex.CORNER) {
-					dist = Math.abs(pos.minus(nverts[i].r).dot(normals[i]));
-					if (dist > tol) {
-						moveVerts[i] = true;
-					}
-					if (dist > maxDist) {
-						maxDist = dist;
-					}
-					nverts[i].r = pos;
-				}
+		if (threads != null && vertices.length >= PARALLEL_THRESHOLD) {
+			threads.setNumIndices(vertices.length);
+			threads.setTask(new SmoothVerticesTask(nverts, moveVerts, normals, tol, ns));
+			threads.run();
+		} else {
+			SmoothingData data = new SmoothingData();
+			for (int i = 0; i < vertices.length; ++i) {
+				smoothVertex(i, nverts, moveVerts, normals, tol, ns, data);
 			}
 		}
 //		time2 = System.currentTimeMillis();
 //		t5 += time2 - time1;
 //		time1 = System.currentTimeMillis();
 		//compute mid edge vertices location
-		int v1, v2, v3, v4, v5, v6;
-		Vec3 v1r, v2r, v3r, v4r, v5r, v6r, pt2;
-		double gamma;
-		for (int i = 0; i < edges.length; ++i) {
-			index = edgeTable[i];
-			if (index < 0) {
-				//unsplit edge
-				continue;
-			}
-			if (!moveVerts[vertices.length + index]) {
-				//unmoved vert
-				continue;
-			}
-			moveVerts[vertices.length + index] = false;
-			v1 = edges[i].v1;
-			v2 = edges[i].v2;
-			face1 = edges[i].f1;
-			face2 = edges[i].f2;
-			if (face1 == -1 || face2 == -1) {
-				continue;
-			}
-			v5 = getNextVertex(v2, face1);
-			v3 = getPreviousVertex(v1, face1);
-			v4 = getNextVertex(v1, face2);
-			v6 = getPreviousVertex(v2, face2);
-			v1r = vertices[v1].r;
-			v2r = vertices[v2].r;
-			v3r = vertices[v3].r;
-			v4r = vertices[v4].r;
-			v5r = vertices[v5].r;
-			v6r = vertices[v6].r;
-			smoothness = edges[i].smoothness;
-			smoothness = (1.0 - smoothness) * MAX_SMOOTHNESS;
-			pos = null;
-			gamma = 3.0 / 8.0;
-			if (vertices[v1].type == Wvertex.CREASE) {
-				int k = getVertexEdges(vertices[v1]).length;
-				gamma = 3.0 / 8.0 - Math.cos(Math.PI / (double) k) / 4.0;
-			}
-			if (vertices[v2].type == Wvertex.CREASE) {
-				int k = getVertexEdges(vertices[v2]).length;
-				gamma = 3.0 / 8.0 + Math.cos(Math.PI / (double) k) / 4.0;
-			}
-			if (ns + 1 <= smoothness) {
-				continue;
-			} else if (ns < smoothness) {
-				pos = v1r.times(0.75 - gamma);
-				pos.add(v2r.times(gamma));
-				pt2 = new Vec3(v3r);
-				pt2.add(v4r);
-				pt2.add(v5r);
-				pt2.add(v6r);
-				pt2.scale(0.0625);
-				pos.add(pt2);
-				pos = nverts[index + vertices.length].r.times(smoothness - ns).plus(pos.times(1 - (smoothness - ns)));
-			} else {
-				pos = v1r.times(0.75 - gamma);
-				pos.add(v2r.times(gamma));
-				pt2 = new Vec3(v3r);
-				pt2.add(v4r);
-				pt2.add(v5r);
-				pt2.add(v6r);
-				pt2.scale(0.0625);
-				pos.add(pt2);
-			}
-			//dist = pos.distance(nverts[index+vertices.length].r);
-			v1r = normals[v1].plus(normals[v2]);
-			v1r.normalize();
-			dist = Math.abs(pos.minus(nverts[index+vertices.length].r).dot(v1r));
-			if ( dist > tol ) {
-				moveVerts[index+vertices.length] = true;
-			}
-			if (dist > maxDist) {
-				maxDist = dist;
+		if (threads != null && edges.length >= PARALLEL_THRESHOLD) {
+			threads.setNumIndices(edges.length);
+			threads.setTask(new SmoothEdgesTask(edgeTable, nverts, moveVerts, normals, tol, ns));
+			threads.run();
+		} else {
+			for (int i = 0; i < edges.length; ++i) {
+				smoothEdgeMidpoint(i, edgeTable, nverts, moveVerts, normals, tol, ns);
 			}
-			nverts[index+vertices.length].r = pos;
+		}
+		if (levels != null) {
+			levels.get(levels.size() - 1).refineVerts = (boolean[]) moveVerts.clone();
 		}
 		boolean refine = false;
 		for (int i = 0; i < nfaces.length; i++) {
@@ -1494,6 +1503,234 @@ public class QuadMesh extends Object3D implements FacetedMesh {
 //		}
 	}
 	
+	/**
+	 * Computes the new location of an original vertex for the current subdivision level
+	 * (BLZ algorithm). Only data belonging to vertex i is written so vertices can be
+	 * processed concurrently.
+	 */
+	private void smoothVertex(int i, QuadVertex[] nverts, boolean[] moveVerts, Vec3[] normals,
+			double tol, int ns, SmoothingData data) {
+		//variables that describe how many hard edges there
+		//are around a vertex. This will decide how old vertices
+		//are moved
+		int sharp;
+		double weight;
+		int numEdges;
+		int[] hardEdge = data.hardEdge;
+		int[] hardEdgeToVert = data.hardEdgeToVert;
+		int[] sharpEdge = data.sharpEdge;
+		int[] sharpEdgeToVert = data.sharpEdgeToVert;
+		double[] smoothEdgeValue = data.smoothEdgeValue;
+		Vec3 pos, r;
+		int count;
+		int face1, face2, nextVert;
+		double maxHard;
+		int hardnum;
+		Vec3 sharpPt;
+		double smoothness, dist;
+		if (!moveVerts[i]) {
+			//fixed vertex
+			return;
+		}
+		// adjacent polygons
+		moveVerts[i] = false;
+		int ve[] = getVertexEdges(vertices[i]);
+		numEdges = ve.length;
+		if (numEdges > smoothEdgeValue.length) {
+			smoothEdgeValue = new double[ve.length];
+			data.smoothEdgeValue = smoothEdgeValue;
+		}
+		hardnum = 0;
+		sharp = 0;
+		weight = 0;
+		pos = new Vec3();
+		count = 0;
+		maxHard = 0.0;
+		for (int j = 0; j < numEdges; ++j) {
+			smoothEdgeValue[j] = 0.0;
+			if (edges[ve[j]].v1 == i) {
+				face1 = edges[ve[j]].f1;
+				face2 = edges[ve[j]].f2;
+				nextVert = edges[ve[j]].v2;
+			} else {
+				face1 = edges[ve[j]].f2;
+				face2 = edges[ve[j]].f1;
+				nextVert = edges[ve[j]].v1;
+			}
+			if (face1 != -1) {
+				r = vertices[faces[face1].v1].r.plus(vertices[faces[face1].v2].r);
+				r.add(vertices[faces[face1].v3].r);
+				r.add(vertices[faces[face1].v4].r);
+				r.scale(0.25);
+				pos.add(r);
+				pos.subtract(vertices[nextVert].r.times(1.0 / 4.0));
+				pos.subtract(vertices[getPreviousVertex(i, face1)].r.times(1.0 / 4.0));
+				pos.subtract(vertices[i].r.times(1.0 / 4.0));
+				++count;
+			}
+			pos.add(vertices[nextVert].r.times(3.0 / 2.0));
+			smoothness = edges[ve[j]].smoothness;
+			if (face1 != -1 && face2 != -1)
+				smoothness = (1.0 - smoothness) * MAX_SMOOTHNESS;
+			else
+				smoothness = MAX_SMOOTHNESS; // boundary edges are treated as hard edges.
+			if (ns + 1 <= smoothness) {
+				if (sharp < 2) {
+					sharpEdge[sharp] = ve[j];
+					sharpEdgeToVert[sharp] = nextVert;
+				}
+				++sharp;
+			} else if (ns < smoothness) {
+				weight += smoothness - ns;
+				smoothEdgeValue[j] = smoothness - ns;
+				if (smoothEdgeValue[j] > maxHard) {
+					maxHard = smoothEdgeValue[j];
+				}
+				if (hardnum < 2)
+				{
+					hardEdge[hardnum] = ve[j];
+					hardEdgeToVert[hardnum] = nextVert;
+				}
+				++hardnum;
+			}
+		}
+		pos.scale(1.0 / ((double) count * count));
+		pos.add(vertices[i].r.times(1.0 - 3.0 / (2.0 * count) - 1.0 / (4.0 * count)));
+		if (vertices[i].type != Wvertex.CORNER) {
+			switch (sharp) {
+			case 0:
+				if (hardnum == 2) {
+					weight /= 2;
+					sharpPt = new Vec3(vertices[i].r.times(0.75));
+					sharpPt.add(vertices[hardEdgeToVert[0]].r.times(0.125));
+					sharpPt.add(vertices[hardEdgeToVert[1]].r.times(0.125));
+					pos = pos.times(1 - weight).plus(sharpPt.times(weight));
+				} else if (hardnum > 2) {
+					weight /= hardnum;
+					pos = pos.times(1 - weight).plus(nverts[i].r.times(weight));
+				}
+				break;
+			case 1:
+				if (hardnum == 1) {
+					pos = pos.times(1 - maxHard).plus(vertices[i].r.times(maxHard));
+				} else if (hardnum > 1) {
+					weight /= hardnum;
+					pos = pos.times(1 - weight).plus(vertices[i].r.times(weight));
+				}
+				break;
+			case 2:
+				sharpPt = new Vec3(vertices[i].r.times(0.75));
+				sharpPt.add(vertices[sharpEdgeToVert[0]].r.times(0.125));
+				sharpPt.add(vertices[sharpEdgeToVert[1]].r.times(0.125));
+				if (hardnum == 0) {
+					pos = sharpPt;
+				}
+				else {
+					weight /= hardnum;
+					pos = sharpPt.times(1 - weight).plus(vertices[i].r.times(weight));
+				}
+				break;
+			default:
+				//new vertex is marked as corner
+				nverts[i].type = Wvertex.CORNER;
+				pos = new Vec3(vertices[i].r);
+				break;
+			}
+			if (nverts[i].type != Wvertex.CORNER) {
+				if (normals != null) {
+					dist = Math.abs(pos.minus(nverts[i].r).dot(normals[i]));
+					if (dist > tol) {
+						moveVerts[i] = true;
+					}
+				}
+				nverts[i].r = pos;
+			}
+		}
+	}
+
+	/**
+	 * Computes the new location of the mid edge vertex of edge i for the current
+	 * subdivision level. Only data belonging to that mid edge vertex is written.
+	 */
+	private void smoothEdgeMidpoint(int i, int[] edgeTable, QuadVertex[] nverts, boolean[] moveVerts,
+			Vec3[] normals, double tol, int ns) {
+		int index, face1, face2;
+		int v1, v2, v3, v4, v5, v6;
+		Vec3 v1r, v2r, v3r, v4r, v5r, v6r, pt2, pos;
+		double gamma, smoothness, dist;
+		index = edgeTable[i];
+		if (index < 0) {
+			//unsplit edge
+			return;
+		}
+		if (!moveVerts[vertices.length + index]) {
+			//unmoved vert
+			return;
+		}
+		moveVerts[vertices.length + index] = false;
+		v1 = edges[i].v1;
+		v2 = edges[i].v2;
+		face1 = edges[i].f1;
+		face2 = edges[i].f2;
+		if (face1 == -1 || face2 == -1) {
+			return;
+		}
+		v5 = getNextVertex(v2, face1);
+		v3 = getPreviousVertex(v1, face1);
+		v4 = getNextVertex(v1, face2);
+		v6 = getPreviousVertex(v2, face2);
+		v1r = vertices[v1].r;
+		v2r = vertices[v2].r;
+		v3r = vertices[v3].r;
+		v4r = vertices[v4].r;
+		v5r = vertices[v5].r;
+		v6r = vertices[v6].r;
+		smoothness = edges[i].smoothness;
+		smoothness = (1.0 - smoothness) * MAX_SMOOTHNESS;
+		pos = null;
+		gamma = 3.0 / 8.0;
+		if (vertices[v1].type == Wvertex.CREASE) {
+			int k = getVertexEdges(vertices[v1]).length;
+			gamma = 3.0 / 8.0 - Math.cos(Math.PI / (double) k) / 4.0;
+		}
+		if (vertices[v2].type == Wvertex.CREASE) {
+			int k = getVertexEdges(vertices[v2]).length;
+			gamma = 3.0 / 8.0 + Math.cos(Math.PI / (double) k) / 4.0;
+		}
+		if (ns + 1 <= smoothness) {
+			return;
+		} else if (ns < smoothness) {
+			pos = v1r.times(0.75 - gamma);
+			pos.add(v2r.times(gamma));
+			pt2 = new Vec3(v3r);
+			pt2.add(v4r);
+			pt2.add(v5r);
+			pt2.add(v6r);
+			pt2.scale(0.0625);
+			pos.add(pt2);
+			pos = nverts[index + vertices.length].r.times(smoothness - ns).plus(pos.times(1 - (smoothness - ns)));
+		} else {
+			pos = v1r.times(0.75 - gamma);
+			pos.add(v2r.times(gamma));
+			pt2 = new Vec3(v3r);
+			pt2.add(v4r);
+			pt2.add(v5r);
+			pt2.add(v6r);
+			pt2.scale(0.0625);
+			pos.add(pt2);
+		}
+		//dist = pos.distance(nverts[index+vertices.length].r);
+		if (normals != null) {
+			v1r = normals[v1].plus(normals[v2]);
+			v1r.normalize();
+			dist = Math.abs(pos.minus(nverts[index+vertices.length].r).dot(v1r));
+			if ( dist > tol ) {
+				moveVerts[index+vertices.length] = true;
+			}
+		}
+		nverts[index+vertices.length].r = pos;
+	}
+
 	private void solveCriticalEdge(QuadEdge ed, Stack<QuadEdge> stack) {
 		QuadFace f1 = faces[ed.f1];
 		QuadFace f2 = faces[ed.f2];
@@ -1797,17 +2034,28 @@ public class QuadMesh extends Object3D implements FacetedMesh {
 		// There may be more than one normal associated with a vertex, if that vertex is
 		// on a crease.  Begin by finding a "true" normal for each face.
 		// see TriangleMesh.getRenderingMesh() for original code
-		Vec3 trueNorm[] = new Vec3 [faces.length];
+		double trueNorm[] = new double [3*faces.length];
 		for (int i = 0; i < faces.length; i++) {
-			trueNorm[i] = vertices[faces[i].v3].r.minus(vertices[faces[i].v1].r).cross(
-					vertices[faces[i].v4].r.minus(vertices[faces[i].v2].r));
-			double length = trueNorm[i].length();
+			Vec3 r1 = vertices[faces[i].v1].r;
+			Vec3 r2 = vertices[faces[i].v2].r;
+			Vec3 r3 = vertices[faces[i].v3].r;
+			Vec3 r4 = vertices[faces[i].v4].r;
+			double ax = r3.x - r1.x, ay = r3.y - r1.y, az = r3.z - r1.z;
+			double bx = r4.x - r2.x, by = r4.y - r2.y, bz = r4.z - r2.z;
+			double x = ay*bz - az*by, y = az*bx - ax*bz, z = ax*by - ay*bx;
+			double length = Math.sqrt(x*x + y*y + z*z);
 			if (length > 0.0) {
-				trueNorm[i].scale(1.0/length);
+				x *= 1.0/length;
+				y *= 1.0/length;
+				z *= 1.0/length;
 			}
+			trueNorm[3*i] = x;
+			trueNorm[3*i+1] = y;
+			trueNorm[3*i+2] = z;
 		}
 
-	    Vector<Vec3> norm = new Vector<Vec3>();
+	    // at most one normal per vertex and edge end around it
+	    Vec3[] norm = new Vec3 [vertices.length + 2*edges.length];
 	    int[] facenorm = new int [faces.length*4];
 	    int normals = 0;
 	    
@@ -1824,7 +2072,7 @@ public class QuadMesh extends Object3D implements FacetedMesh {
             
             // If this vertex is a corner or a crease, we can just set its normal to null.            
             if (vertices[i].type  == QuadVertex.CORNER || vertices[i].type  == QuadVertex.CREASE)  {
-            	norm.addElement(null);
+            	norm[normals] = null;
             	for (int j = 0; j < ed.length; j++) {
             		f = edges[ed[j]].f1;
             		tmpFace = faces[f];
@@ -1839,6 +2087,7 @@ public class QuadMesh extends Object3D implements FacetedMesh {
             		}
             		f = edges[ed[j]].f2;
             		if (f != -1) {
+            			tmpFace = faces[f];
             			if (tmpFace.v1 == i) {
             				facenorm[4*f] = normals;
             			} else if (tmpFace.v2 == i) {
@@ -1904,7 +2153,7 @@ public class QuadMesh extends Object3D implements FacetedMesh {
             			dot = -1.0; // This can occassionally happen due to roundoff error
             		if (dot > 1.0)
             			dot = 1.0;
-            		temp.add(trueNorm[faceIndex].times(Math.acos(dot)));
+            		addNormal(temp, trueNorm, faceIndex, Math.acos(dot));
             		if (otherFace != -1) {
             			tmpFace = faces[otherFace];
             			if (tmpFace.v1 == i) {
@@ -1923,7 +2172,7 @@ public class QuadMesh extends Object3D implements FacetedMesh {
             		}
             	}
             	temp.normalize();
-            	norm.addElement(temp);
+            	norm[normals] = temp;
             	normals++;
             	continue;
             }
@@ -1975,12 +2224,12 @@ groups:     do {
                       dot = -1.0; // This can occassionally happen due to roundoff error
                     if (dot > 1.0)
                       dot = 1.0;
-                    temp.add(trueNorm[m].times(Math.acos(dot)));
+                    addNormal(temp, trueNorm, m, Math.acos(dot));
                     tmpEdge = edges[ed[loop]];
                   } while (tmpEdge.f2 != -1 && tmpEdge.smoothness == 1.0f);
                 last = loop;
                 temp.normalize();
-                norm.addElement(temp);
+                norm[normals] = temp;
                 normals++;
                 loop = first = last;
                 tmpEdge = edges[ed[first]];
@@ -1989,10 +2238,8 @@ groups:     do {
             
         // Finally, assemble all the normals into an array and create the triangles.
             
-        Vec3[] normalArray = new Vec3 [norm.size()];
-        for (int i = 0; i < normalArray.length; i++) {
-        	normalArray[i] = norm.elementAt(i);
-        }
+        Vec3[] normalArray = new Vec3 [normals];
+        System.arraycopy(norm, 0, normalArray, 0, normals);
         
 		TextureMapping texMapping = getTextureMapping();
 		RenderingMesh renderingMesh = null;
@@ -2040,6 +2287,16 @@ groups:     do {
 		return renderingMesh;
 	}
 
+	/**
+	 * Adds a face normal stored in a flat array to a vertex normal,
+	 * weighted by the corner angle
+	 */
+	private static void addNormal(Vec3 normal, double[] faceNorm, int face, double angle) {
+		normal.x += faceNorm[3*face]*angle;
+		normal.y += faceNorm[3*face+1]*angle;
+		normal.z += faceNorm[3*face+2]*angle;
+	}
+
 	public void setSkeleton(Skeleton skeleton) {
 		// TODO Auto-generated method stub
 	}
@@ -2216,4 +2473,360 @@ groups:     do {
 	public void setProjectedEdges(int[] projectedEdges) {
 		this.projectedEdges = projectedEdges;	
 	}
+
+	/**
+	 * Work arrays used when computing a vertex location. Each smoothing thread
+	 * owns its own set.
+	 */
+	private static class SmoothingData {
+		int[] hardEdge = new int[2];
+		int[] hardEdgeToVert = new int[2];
+		int[] sharpEdge = new int[] { -1, -1 };
+		int[] sharpEdgeToVert = new int[2];
+		double[] smoothEdgeValue = new double[10];
+	}
+
+	/**
+	 * A smoothing level as recorded by smoothMesh(). It is used to compute again
+	 * the smoothed vertices when only vertex positions change.
+	 */
+	private static class SmoothingLevel {
+		QuadMesh mesh; //shares the vertices, edges and faces of the level
+		int[] edgeTable;
+		int edgeCount;
+		boolean[] moveVerts; //new vertices which have been smoothed
+		boolean[] refineVerts; //new vertices found to need further smoothing
+		int ns;
+
+		SmoothingLevel(QuadMesh mesh, int[] edgeTable, int edgeCount, boolean[] moveVerts, int ns) {
+			this.mesh = mesh;
+			this.edgeTable = edgeTable;
+			this.edgeCount = edgeCount;
+			this.moveVerts = moveVerts;
+			this.ns = ns;
+		}
+
+		/**
+		 * Computes again the new vertices of this level which depend on dirty vertices,
+		 * that is vertices of faces having at least one dirty vertex.
+		 * 
+		 * @param nverts The new vertices (next level vertices)
+		 * @param dirty Flags for the level vertices which have moved
+		 * @return Flags for the new vertices which have been computed
+		 */
+		boolean[] update(QuadVertex[] nverts, boolean[] dirty) {
+			QuadVertex[] vertices = mesh.vertices;
+			QuadEdge[] edges = mesh.edges;
+			QuadFace[] faces = mesh.faces;
+			boolean[] dirtyFace = new boolean[faces.length];
+			boolean[] ndirty = new boolean[nverts.length];
+			boolean[] move = (boolean[]) moveVerts.clone();
+			QuadFace face;
+			for (int i = 0; i < faces.length; i++) {
+				face = faces[i];
+				if (dirty[face.v1] || dirty[face.v2] || dirty[face.v3] || dirty[face.v4]) {
+					dirtyFace[i] = true;
+					ndirty[face.v1] = ndirty[face.v2] = ndirty[face.v3] = ndirty[face.v4] = true;
+				}
+			}
+			//original vertices
+			SmoothingData data = new SmoothingData();
+			for (int i = 0; i < vertices.length; i++) {
+				if (ndirty[i]) {
+					nverts[i].r = new Vec3(vertices[i].r);
+					mesh.smoothVertex(i, nverts, move, null, 0, ns, data);
+				}
+			}
+			//edge middles
+			Vec3 r;
+			int index, f1, f2;
+			for (int i = 0; i < edges.length; i++) {
+				index = edgeTable[i];
+				f1 = edges[i].f1;
+				f2 = edges[i].f2;
+				if (index < 0 || !((f1 != -1 && dirtyFace[f1]) || (f2 != -1 && dirtyFace[f2]))) {
+					continue;
+				}
+				r = vertices[edges[i].v1].r.plus(vertices[edges[i].v2].r);
+				r.scale(0.5);
+				nverts[index + vertices.length].r = r;
+				ndirty[index + vertices.length] = true;
+				mesh.smoothEdgeMidpoint(i, edgeTable, nverts, move, null, 0, ns);
+			}
+			//face centers
+			index = 0;
+			for (int i = 0; i < faces.length; i++) {
+				if (faces[i].mark == QuadFace.FINAL) {
+					continue;
+				}
+				if (dirtyFace[i]) {
+					face = faces[i];
+					r = vertices[face.v1].r.plus(vertices[face.v2].r);
+					r.add(vertices[face.v3].r);
+					r.add(vertices[face.v4].r);
+					r.scale(0.25);
+					nverts[index + edgeCount + vertices.length].r = r;
+					ndirty[index + edgeCount + vertices.length] = true;
+				}
+				index++;
+			}
+			return ndirty;
+		}
+
+		/**
+		 * Returns true if smoothing this level from the given positions would
+		 * flag the same new vertices for further smoothing, so that the next
+		 * level would be subdivided the same way. The tests are the ones of
+		 * smoothVertex() and smoothEdgeMidpoint().
+		 * 
+		 * @param nverts The new vertices (next level vertices)
+		 * @param pos x, y and z of the level vertices
+		 * @param npos x, y and z of the new vertices
+		 * @param tol The smoothing tolerance
+		 */
+		boolean hasSameRefinement(QuadVertex[] nverts, double[] pos, double[] npos, double tol) {
+			QuadVertex[] vertices = mesh.vertices;
+			QuadEdge[] edges = mesh.edges;
+			QuadVertex[] verts = new QuadVertex[vertices.length];
+			for (int i = 0; i < verts.length; i++) {
+				verts[i] = new QuadVertex(new Vec3(pos[3 * i], pos[3 * i + 1], pos[3 * i + 2]));
+			}
+			Vec3[] normals = new QuadMesh(verts, edges, mesh.faces).getNormals();
+			Vec3 r, n;
+			int index, v1, v2, k;
+			double smoothness;
+			//original vertices
+			for (int i = 0; i < vertices.length; i++) {
+				if (!moveVerts[i] || nverts[i].type == Wvertex.CORNER) {
+					continue;
+				}
+				k = 3 * i;
+				r = new Vec3(npos[k], npos[k + 1], npos[k + 2]);
+				if ((Math.abs(r.minus(verts[i].r).dot(normals[i])) > tol) != refineVerts[i]) {
+					return false;
+				}
+			}
+			//edge middles
+			for (int i = 0; i < edges.length; i++) {
+				index = edgeTable[i];
+				if (index < 0 || !moveVerts[index + vertices.length]
+						|| edges[i].f1 == -1 || edges[i].f2 == -1) {
+					continue;
+				}
+				smoothness = (1.0 - edges[i].smoothness) * MAX_SMOOTHNESS;
+				if (ns + 1 <= smoothness) {
+					continue;
+				}
+				v1 = edges[i].v1;
+				v2 = edges[i].v2;
+				n = normals[v1].plus(normals[v2]);
+				n.normalize();
+				r = verts[v1].r.plus(verts[v2].r);
+				r.scale(0.5);
+				k = 3 * (index + vertices.length);
+				r = new Vec3(npos[k], npos[k + 1], npos[k + 2]).minus(r);
+				if ((Math.abs(r.dot(n)) > tol) != refineVerts[index + vertices.length]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Adds the stencil step of this level. Since new vertices are linear
+		 * combinations of level vertices, the weights of level vertex j are the
+		 * new vertex positions when vertex j is set to (1, 0, 0) and all other
+		 * vertices to the origin. Only the new vertices of faces around vertex j
+		 * are computed for each vertex.
+		 * 
+		 * @param nverts The new vertices (next level vertices)
+		 * @param stencils The stencils to add the step to
+		 */
+		void addStencilStep(QuadVertex[] nverts, SubdivisionStencils stencils) {
+			QuadVertex[] vertices = mesh.vertices;
+			QuadEdge[] edges = mesh.edges;
+			QuadFace[] faces = mesh.faces;
+			Vec3[] levelPos = new Vec3[vertices.length];
+			Vec3[] newPos = new Vec3[nverts.length];
+			for (int i = 0; i < vertices.length; i++) {
+				levelPos[i] = vertices[i].r;
+				vertices[i].r = new Vec3();
+			}
+			for (int i = 0; i < nverts.length; i++) {
+				newPos[i] = nverts[i].r;
+				nverts[i].r = new Vec3();
+			}
+			int[] center = new int[faces.length];
+			int index = 0;
+			for (int i = 0; i < faces.length; i++) {
+				if (faces[i].mark == QuadFace.FINAL) {
+					center[i] = -1;
+				} else {
+					center[i] = vertices.length + edgeCount + index;
+					index++;
+				}
+			}
+			SubdivisionStencils.StepBuilder step = new SubdivisionStencils.StepBuilder(nverts.length);
+			SmoothingData data = new SmoothingData();
+			boolean[] move = (boolean[]) moveVerts.clone();
+			int[] computed = new int[nverts.length];
+			int[] newVerts = new int[nverts.length];
+			int count, f, v;
+			int[] ve;
+			int[] fv = new int[4];
+			int[] fe = new int[4];
+			QuadFace face;
+			Vec3 r;
+			for (int j = 0; j < vertices.length; j++) {
+				vertices[j].r = new Vec3(1, 0, 0);
+				count = 0;
+				ve = mesh.getVertexEdges(vertices[j]);
+				for (int k = 0; k < 2 * ve.length; k++) {
+					f = (k < ve.length ? edges[ve[k]].f1 : edges[ve[k - ve.length]].f2);
+					if (f == -1) {
+						continue;
+					}
+					face = faces[f];
+					fv[0] = face.v1;
+					fv[1] = face.v2;
+					fv[2] = face.v3;
+					fv[3] = face.v4;
+					fe[0] = face.e1;
+					fe[1] = face.e2;
+					fe[2] = face.e3;
+					fe[3] = face.e4;
+					for (int l = 0; l < 4; l++) {
+						v = fv[l];
+						if (computed[v] == j + 1) {
+							continue;
+						}
+						computed[v] = j + 1;
+						newVerts[count++] = v;
+						nverts[v].r = new Vec3(vertices[v].r);
+						move[v] = moveVerts[v];
+						mesh.smoothVertex(v, nverts, move, null, 0, ns, data);
+					}
+					for (int l = 0; l < 4; l++) {
+						if (edgeTable[fe[l]] < 0) {
+							continue;
+						}
+						v = edgeTable[fe[l]] + vertices.length;
+						if (computed[v] == j + 1) {
+							continue;
+						}
+						computed[v] = j + 1;
+						newVerts[count++] = v;
+						r = vertices[edges[fe[l]].v1].r.plus(vertices[edges[fe[l]].v2].r);
+						r.scale(0.5);
+						nverts[v].r = r;
+						move[v] = moveVerts[v];
+						mesh.smoothEdgeMidpoint(fe[l], edgeTable, nverts, move, null, 0, ns);
+					}
+					v = center[f];
+					if (v >= 0 && computed[v] != j + 1) {
+						computed[v] = j + 1;
+						newVerts[count++] = v;
+						r = vertices[face.v1].r.plus(vertices[face.v2].r);
+						r.add(vertices[face.v3].r);
+						r.add(vertices[face.v4].r);
+						r.scale(0.25);
+						nverts[v].r = r;
+					}
+				}
+				for (int k = 0; k < count; k++) {
+					v = newVerts[k];
+					if (nverts[v].r.x != 0.0) {
+						step.add(v, j, nverts[v].r.x);
+					}
+					nverts[v].r = new Vec3();
+				}
+				vertices[j].r = new Vec3();
+			}
+			stencils.addStep(step);
+			for (int i = 0; i < vertices.length; i++) {
+				vertices[i].r = levelPos[i];
+			}
+			for (int i = 0; i < nverts.length; i++) {
+				nverts[i].r = newPos[i];
+			}
+		}
+	}
+
+	/**
+	 * ThreadManager task which computes the corner normals of faces.
+	 */
+	private class FaceNormalsTask implements ThreadManager.Task {
+		private double[] corner;
+
+		public FaceNormalsTask(double[] corner) {
+			this.corner = corner;
+		}
+
+		public void execute(int index) {
+			computeCornerNormals(index, corner);
+		}
+
+		public void cleanup() {
+		}
+	}
+
+	/**
+	 * ThreadManager task which moves the original vertices of a smoothing level.
+	 */
+	private class SmoothVerticesTask implements ThreadManager.Task {
+		private QuadVertex[] nverts;
+		private boolean[] moveVerts;
+		private Vec3[] normals;
+		private double tol;
+		private int ns;
+		private ThreadLocal<SmoothingData> threadData = new ThreadLocal<SmoothingData>() {
+			@Override
+			protected SmoothingData initialValue() {
+				return new SmoothingData();
+			}
+		};
+
+		public SmoothVerticesTask(QuadVertex[] nverts, boolean[] moveVerts, Vec3[] normals, double tol, int ns) {
+			this.nverts = nverts;
+			this.moveVerts = moveVerts;
+			this.normals = normals;
+			this.tol = tol;
+			this.ns = ns;
+		}
+
+		public void execute(int index) {
+			smoothVertex(index, nverts, moveVerts, normals, tol, ns, threadData.get());
+		}
+
+		public void cleanup() {
+		}
+	}
+
+	/**
+	 * ThreadManager task which computes the mid edge vertices of a smoothing level.
+	 */
+	private class SmoothEdgesTask implements ThreadManager.Task {
+		private int[] edgeTable;
+		private QuadVertex[] nverts;
+		private boolean[] moveVerts;
+		private Vec3[] normals;
+		private double tol;
+		private int ns;
+
+		public SmoothEdgesTask(int[] edgeTable, QuadVertex[] nverts, boolean[] moveVerts, Vec3[] normals, double tol, int ns) {
+			this.edgeTable = edgeTable;
+			this.nverts = nverts;
+			this.moveVerts = moveVerts;
+			this.normals = normals;
+			this.tol = tol;
+			this.ns = ns;
+		}
+
+		public void execute(int index) {
+			smoothEdgeMidpoint(index, edgeTable, nverts, moveVerts, normals, tol, ns);
+		}
+
+		public void cleanup() {
+		}
+	}
 }
@@ -0,0 +1,262 @@
+/*
+ *  Copyright (C) 2026 by the PolyMesh plugin contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package artofillusion.polymesh;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * A bounding volume hierarchy over screen rectangles, used by PolyMeshViewer
+ * to find the vertices, edges or faces near a click or inside a selection box
+ * without testing every displayed element.
+ *
+ * Elements are given as integer bounds. They are sorted once along a Morton
+ * curve through their centers, then the tree is built by splitting ranges of
+ * sorted elements in halves, and is stored in flat arrays. Queries return the elements whose
+ * bounds, enlarged by a margin, overlap the query rectangle, sorted by index
+ * so that callers can test candidates in the same order as a linear scan.
+ *
+ * @author PolyMesh plugin contributors
+ */
+public class ScreenBoundsTree {
+
+	private final static int LEAF_SIZE = 8;
+
+	private int[] minX, minY, maxX, maxY; //element bounds
+
+	private int[] element; //elements, grouped by leaf
+
+	private int[] nodeMinX, nodeMinY, nodeMaxX, nodeMaxY;
+
+	private int[] nodeStart, nodeEnd; //leaf elements, from element[nodeStart] to element[nodeEnd - 1]
+
+	private int[] nodeChild; //first child, the second one follows; -1 for leaves
+
+	private int nodeCount;
+
+	private int[] result = new int[64];
+
+	/**
+	 * Builds a tree. Elements with minX > maxX are left out.
+	 *
+	 * @param minX
+	 *            Left of each element bounds
+	 * @param minY
+	 *            Top of each element bounds
+	 * @param maxX
+	 *            Right of each element bounds
+	 * @param maxY
+	 *            Bottom of each element bounds
+	 */
+	public ScreenBoundsTree(int[] minX, int[] minY, int[] maxX, int[] maxY) {
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		sortElements();
+		int count = element.length;
+		int size = 2 * Math.max(1, (count + LEAF_SIZE - 1) / LEAF_SIZE * 2);
+		nodeMinX = new int[size];
+		nodeMinY = new int[size];
+		nodeMaxX = new int[size];
+		nodeMaxY = new int[size];
+		nodeStart = new int[size];
+		nodeEnd = new int[size];
+		nodeChild = new int[size];
+		// split ranges of sorted elements in halves, children always come
+		// after their parent
+		nodeCount = 1;
+		nodeStart[0] = 0;
+		nodeEnd[0] = count;
+		for (int node = 0; node < nodeCount; node++) {
+			int start = nodeStart[node];
+			int end = nodeEnd[node];
+			if (end - start <= LEAF_SIZE) {
+				nodeChild[node] = -1;
+				continue;
+			}
+			if (nodeCount + 2 > nodeStart.length)
+				growNodes();
+			int mid = (start + end) >>> 1;
+			int child = nodeCount;
+			nodeCount += 2;
+			nodeChild[node] = child;
+			nodeStart[child] = start;
+			nodeEnd[child] = mid;
+			nodeStart[child + 1] = mid;
+			nodeEnd[child + 1] = end;
+		}
+		// bounds, from the leaves up
+		for (int node = nodeCount - 1; node >= 0; node--) {
+			int child = nodeChild[node];
+			if (child >= 0) {
+				nodeMinX[node] = Math.min(nodeMinX[child], nodeMinX[child + 1]);
+				nodeMinY[node] = Math.min(nodeMinY[child], nodeMinY[child + 1]);
+				nodeMaxX[node] = Math.max(nodeMaxX[child], nodeMaxX[child + 1]);
+				nodeMaxY[node] = Math.max(nodeMaxY[child], nodeMaxY[child + 1]);
+				continue;
+			}
+			int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE;
+			int x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+			for (int k = nodeStart[node]; k < nodeEnd[node]; k++) {
+				int e = element[k];
+				x0 = Math.min(x0, minX[e]);
+				y0 = Math.min(y0, minY[e]);
+				x1 = Math.max(x1, maxX[e]);
+				y1 = Math.max(y1, maxY[e]);
+			}
+			nodeMinX[node] = x0;
+			nodeMinY[node] = y0;
+			nodeMaxX[node] = x1;
+			nodeMaxY[node] = y1;
+		}
+	}
+
+	/**
+	 * Sorts elements along a Morton curve through the centers of their
+	 * bounds, so that halves of any range of sorted elements are close to
+	 * each other on screen
+	 */
+	private void sortElements() {
+		int count = 0;
+		long x0 = Long.MAX_VALUE, y0 = Long.MAX_VALUE;
+		long x1 = Long.MIN_VALUE, y1 = Long.MIN_VALUE;
+		for (int i = 0; i < minX.length; i++)
+			if (minX[i] <= maxX[i]) {
+				count++;
+				x0 = Math.min(x0, (long) minX[i] + maxX[i]);
+				y0 = Math.min(y0, (long) minY[i] + maxY[i]);
+				x1 = Math.max(x1, (long) minX[i] + maxX[i]);
+				y1 = Math.max(y1, (long) minY[i] + maxY[i]);
+			}
+		double scaleX = (x1 > x0 ? 65535.0 / (x1 - x0) : 0);
+		double scaleY = (y1 > y0 ? 65535.0 / (y1 - y0) : 0);
+		//the 32 bit Morton code is shifted by 31 bits only, so that keys stay
+		//positive and sort in curve order, indices take the 31 low bits
+		long[] key = new long[count];
+		count = 0;
+		for (int i = 0; i < minX.length; i++)
+			if (minX[i] <= maxX[i]) {
+				long x = (long) ((((long) minX[i] + maxX[i]) - x0) * scaleX);
+				long y = (long) ((((long) minY[i] + maxY[i]) - y0) * scaleY);
+				key[count++] = (interleave(x) | (interleave(y) << 1)) << 31 | i;
+			}
+		Arrays.sort(key);
+		element = new int[count];
+		for (int k = 0; k < count; k++)
+			element[k] = (int) (key[k] & 0x7fffffff);
+	}
+
+	/**
+	 * Spreads the 16 low bits of a value to even bits
+	 */
+	private static long interleave(long v) {
+		v &= 0xffff;
+		v = (v | (v << 8)) & 0x00ff00ff;
+		v = (v | (v << 4)) & 0x0f0f0f0f;
+		v = (v | (v << 2)) & 0x33333333;
+		v = (v | (v << 1)) & 0x55555555;
+		return v;
+	}
+
+	private void growNodes() {
+		int size = 2 * nodeStart.length;
+		nodeMinX = grow(nodeMinX, size);
+		nodeMinY = grow(nodeMinY, size);
+		nodeMaxX = grow(nodeMaxX, size);
+		nodeMaxY = grow(nodeMaxY, size);
+		nodeStart = grow(nodeStart, size);
+		nodeEnd = grow(nodeEnd, size);
+		nodeChild = grow(nodeChild, size);
+	}
+
+	private static int[] grow(int[] array, int length) {
+		int[] grown = new int[length];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	/**
+	 * Finds the elements whose bounds, enlarged by margin, overlap a rectangle
+	 *
+	 * @return Number of elements found. Elements are returned by
+	 *         getResult(), in increasing order.
+	 */
+	public int query(int x0, int y0, int x1, int y1, int margin) {
+		int count = 0;
+		if (element.length == 0 || nodeStart[0] == nodeEnd[0])
+			return 0;
+		long qx0 = (long) x0 - margin, qy0 = (long) y0 - margin;
+		long qx1 = (long) x1 + margin, qy1 = (long) y1 + margin;
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (nodeMaxX[node] < qx0 || nodeMinX[node] > qx1 || nodeMaxY[node] < qy0 || nodeMinY[node] > qy1)
+				continue;
+			int child = nodeChild[node];
+			if (child >= 0) {
+				if (top + 2 > stack.length)
+					stack = grow(stack, 2 * stack.length);
+				stack[top++] = child;
+				stack[top++] = child + 1;
+				continue;
+			}
+			for (int k = nodeStart[node]; k < nodeEnd[node]; k++) {
+				int e = element[k];
+				if (maxX[e] < qx0 || minX[e] > qx1 || maxY[e] < qy0 || minY[e] > qy1)
+					continue;
+				if (count == result.length)
+					result = grow(result, 2 * count);
+				result[count++] = e;
+			}
+		}
+		Arrays.sort(result, 0, count);
+		return count;
+	}
+
+	/**
+	 * Finds the elements whose bounds overlap a rectangle
+	 */
+	public int query(Rectangle r) {
+		return query(r.x, r.y, r.x + r.width, r.y + r.height, 0);
+	}
+
+	/**
+	 * Finds the elements whose bounds, enlarged by margin, contain a point
+	 */
+	public int query(int x, int y, int margin) {
+		return query(x, y, x, y, margin);
+	}
+
+	/**
+	 * Returns the elements found by the last query. The array is reused by
+	 * the next query.
+	 */
+	public int[] getResult() {
+		return result;
+	}
+
+	/**
+	 * Returns a mask of the elements found by the last query
+	 *
+	 * @param count
+	 *            Number of elements found
+	 * @param size
+	 *            Number of elements in the tree
+	 */
+	public boolean[] getResultMask(int count, int size) {
+		boolean[] mask = new boolean[size];
+		for (int k = 0; k < count; k++)
+			mask[result[k]] = true;
+		return mask;
+	}
+}
@@ -0,0 +1,368 @@
+/*
+ *  Copyright (C) 2026 by the PolyMesh plugin contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package artofillusion.polymesh;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import artofillusion.math.Vec3;
+import artofillusion.polymesh.PolyMesh.Wedge;
+import artofillusion.polymesh.PolyMesh.Wface;
+import artofillusion.polymesh.PolyMesh.Wvertex;
+
+/**
+ * Face and edge descriptors used by PolyMesh.findSimilarFaces() and
+ * findSimilarEdges(). Vertex angles and edge lengths are computed once per
+ * face, and faces are sorted by vertex count and by their largest angle, their
+ * largest edge length or their normal direction, so that the faces which can
+ * match a given face are found by binary search. Edges are sorted by length.
+ *
+ * An index is valid until mesh vertices move or the mesh topology changes, see
+ * PolyMesh.getSimilarityIndex().
+ *
+ * @author PolyMesh plugin contributors
+ */
+public class SimilarityIndex {
+
+	private Vec3[] faceNormal;
+
+	private int[] faceStart; //face f descriptors from faceStart[f] to faceStart[f + 1]
+
+	private double[] angle; //angle at each face vertex
+
+	private double[] length; //length of the edge ending at each face vertex
+
+	private double[] maxAngle;
+
+	private double[] maxLength;
+
+	private Integer[] byAngle; //faces sorted by vertex count, then max angle
+
+	private Integer[] byLength; //faces sorted by vertex count, then max length
+
+	private int[] byNormal; //faces sorted by normal grid cell
+
+	private long[] normalCell;
+
+	private double normalCellSize;
+
+	private double[] edgeLength;
+
+	private int[] byEdgeLength;
+
+	private static final double MIN_ANGLE = 0.001;
+
+	private static final double SLACK = 1e-9;
+
+	/**
+	 * Builds the descriptors of a mesh
+	 */
+	public SimilarityIndex(PolyMesh mesh) {
+		Wvertex[] vertices = (Wvertex[]) mesh.getVertices();
+		Wedge[] edges = mesh.getEdges();
+		Wface[] faces = mesh.getFaces();
+		faceNormal = mesh.getFaceNormals();
+		faceStart = new int[faces.length + 1];
+		int[][] fv = new int[faces.length][];
+		for (int i = 0; i < faces.length; i++) {
+			fv[i] = mesh.getFaceVertices(faces[i]);
+			faceStart[i + 1] = faceStart[i] + fv[i].length;
+		}
+		angle = new double[faceStart[faces.length]];
+		length = new double[angle.length];
+		maxAngle = new double[faces.length];
+		maxLength = new double[faces.length];
+		Vec3 v1, v2;
+		int pred, next;
+		for (int i = 0; i < faces.length; i++) {
+			int[] fie = fv[i];
+			int start = faceStart[i];
+			for (int j = 0; j < fie.length; j++) {
+				pred = j - 1;
+				next = j + 1;
+				if (pred < 0)
+					pred = fie.length - 1;
+				if (next == fie.length)
+					next = 0;
+				v1 = vertices[fie[pred]].r.minus(vertices[fie[j]].r);
+				length[start + j] = v1.length();
+				v2 = vertices[fie[next]].r.minus(vertices[fie[j]].r);
+				v1.normalize();
+				v2.normalize();
+				angle[start + j] = Math.acos(v1.dot(v2));
+			}
+			maxAngle[i] = max(angle, start, faceStart[i + 1]);
+			maxLength[i] = max(length, start, faceStart[i + 1]);
+		}
+		byAngle = sortFaces(maxAngle);
+		byLength = sortFaces(maxLength);
+		edgeLength = new double[edges.length];
+		for (int i = 0; i < edges.length; i++)
+			edgeLength[i] = vertices[edges[i].vertex].r
+					.distance(vertices[edges[edges[i].hedge].vertex].r);
+		byEdgeLength = sortIndices(edgeLength);
+	}
+
+	private static double max(double[] values, int from, int to) {
+		double m = Double.NEGATIVE_INFINITY;
+		for (int i = from; i < to; i++)
+			m = Math.max(m, values[i]);
+		return m;
+	}
+
+	private Integer[] sortFaces(final double[] key) {
+		Integer[] sorted = new Integer[key.length];
+		for (int i = 0; i < sorted.length; i++)
+			sorted[i] = i;
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = getVertexCount(a) - getVertexCount(b);
+				if (c != 0)
+					return c;
+				return Double.compare(key[a], key[b]);
+			}
+		});
+		return sorted;
+	}
+
+	private static int[] sortIndices(final double[] key) {
+		Integer[] sorted = new Integer[key.length];
+		for (int i = 0; i < sorted.length; i++)
+			sorted[i] = i;
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(key[a], key[b]);
+			}
+		});
+		int[] indices = new int[sorted.length];
+		for (int i = 0; i < indices.length; i++)
+			indices[i] = sorted[i];
+		return indices;
+	}
+
+	private int getVertexCount(int face) {
+		return faceStart[face + 1] - faceStart[face];
+	}
+
+	/**
+	 * Finds faces similar to selected faces. A face is selected if it meets
+	 * all chosen criteria for at least one of the selected faces.
+	 *
+	 * @see PolyMesh#findSimilarFaces(boolean[], boolean, double, boolean, double, boolean, double)
+	 */
+	public boolean[] findSimilarFaces(boolean[] selected, boolean normal, double normalTol, boolean loose,
+			double looseTol, boolean strict, double strictTol) {
+		boolean[] newSel = new boolean[selected.length];
+		double normalCrit = 1 - normalTol;
+		if (normal && !loose && !strict)
+			buildNormalGrid(normalTol);
+		int[] candidates = new int[faceNormal.length];
+		for (int i = 0; i < selected.length; i++) {
+			if (!selected[i])
+				continue;
+			newSel[i] = true;
+			int count;
+			if (strict)
+				count = findCandidates(byLength, maxLength, i, maxLength[i], strictTol, candidates);
+			else if (loose)
+				count = findCandidates(byAngle, maxAngle, i, Math.max(maxAngle[i], MIN_ANGLE), looseTol,
+						candidates);
+			else
+				count = findNormalCandidates(i, candidates);
+			for (int c = 0; c < count; c++) {
+				int j = candidates[c];
+				if (j >= selected.length || newSel[j])
+					continue;
+				if (normal && faceNormal[i].dot(faceNormal[j]) < normalCrit)
+					continue;
+				if (loose && !matches(angle, i, j, looseTol, true))
+					continue;
+				if (strict && !matches(length, i, j, strictTol, false))
+					continue;
+				newSel[j] = true;
+			}
+		}
+		return newSel;
+	}
+
+	/**
+	 * Finds faces with the same vertex count and a maximum key value close
+	 * enough to the one of the reference face for the shape criterion to be
+	 * met. If the shape difference is below tol, each relative difference is
+	 * below n * tol, so that maximum values differ by at most n * tol times
+	 * the reference maximum. Reference angles are clamped, see matches().
+	 */
+	private int findCandidates(Integer[] sorted, double[] key, int face, double reference, double tol,
+			int[] candidates) {
+		int n = getVertexCount(face);
+		double range = n * tol * Math.abs(reference) * (1 + SLACK) + SLACK;
+		double min = reference - range;
+		double max = reference + range;
+		if (Double.isNaN(min) || Double.isNaN(max))
+			return 0;
+		int lo = 0, hi = sorted.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int f = sorted[mid];
+			int c = getVertexCount(f) - n;
+			if (c < 0 || (c == 0 && key[f] < min))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		int count = 0;
+		for (int i = lo; i < sorted.length; i++) {
+			int f = sorted[i];
+			if (getVertexCount(f) != n || key[f] > max)
+				break;
+			candidates[count++] = f;
+		}
+		return count;
+	}
+
+	/**
+	 * Tells if face j matches face i for a shape criterion, trying all
+	 * rotations of j vertices
+	 */
+	private boolean matches(double[] values, int i, int j, double tol, boolean clamp) {
+		int n = getVertexCount(i);
+		if (getVertexCount(j) != n)
+			return false;
+		int si = faceStart[i], sj = faceStart[j];
+		double diff, ref;
+		int current;
+		for (int offset = 0; offset < n; offset++) {
+			diff = 0;
+			for (int k = 0; k < n; k++) {
+				current = offset + k;
+				if (current >= n)
+					current -= n;
+				ref = values[si + k];
+				if (clamp && Math.abs(ref) < MIN_ANGLE)
+					ref = MIN_ANGLE;
+				diff += Math.pow((values[sj + current] - ref) / ref, 2);
+			}
+			diff = Math.sqrt(diff) / n;
+			if (diff < tol)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Sorts faces by the cell of a regular grid their normal falls in. Cells
+	 * are large enough for normals meeting the normal criterion to lie in
+	 * neighbour cells, since for unit vectors dot >= 1 - tol means the
+	 * distance is at most sqrt(2 * tol).
+	 */
+	private void buildNormalGrid(double tol) {
+		double size = Math.sqrt(2 * Math.max(tol, 0)) * (1 + SLACK) + SLACK;
+		if (byNormal != null && size == normalCellSize)
+			return;
+		normalCellSize = size;
+		normalCell = new long[faceNormal.length];
+		for (int i = 0; i < faceNormal.length; i++)
+			normalCell[i] = getCell(faceNormal[i], 0, 0, 0);
+		Integer[] sorted = new Integer[faceNormal.length];
+		for (int i = 0; i < sorted.length; i++)
+			sorted[i] = i;
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return normalCell[a] < normalCell[b] ? -1 : (normalCell[a] > normalCell[b] ? 1 : 0);
+			}
+		});
+		byNormal = new int[sorted.length];
+		for (int i = 0; i < sorted.length; i++)
+			byNormal[i] = sorted[i];
+	}
+
+	/**
+	 * Grid cell key. Normals which are not unit vectors (degenerate faces)
+	 * all go into a special cell searched for every face.
+	 */
+	private long getCell(Vec3 n, int dx, int dy, int dz) {
+		if (!(Math.abs(n.length2() - 1) <= 1e-6))
+			return Long.MIN_VALUE;
+		long x = (long) Math.floor(n.x / normalCellSize) + dx;
+		long y = (long) Math.floor(n.y / normalCellSize) + dy;
+		long z = (long) Math.floor(n.z / normalCellSize) + dz;
+		return ((x & 0x1FFFFF) << 42) | ((y & 0x1FFFFF) << 21) | (z & 0x1FFFFF);
+	}
+
+	private int findNormalCandidates(int face, int[] candidates) {
+		int count = addCell(Long.MIN_VALUE, candidates, 0);
+		if (normalCell[face] == Long.MIN_VALUE) {
+			// a degenerate normal can only match if tol >= 1
+			for (int i = 0; i < faceNormal.length; i++)
+				if (normalCell[i] != Long.MIN_VALUE)
+					candidates[count++] = i;
+			return count;
+		}
+		if (normalCellSize >= 2) {
+			for (int i = 0; i < faceNormal.length; i++)
+				if (normalCell[i] != Long.MIN_VALUE)
+					candidates[count++] = i;
+			return count;
+		}
+		for (int dx = -1; dx <= 1; dx++)
+			for (int dy = -1; dy <= 1; dy++)
+				for (int dz = -1; dz <= 1; dz++)
+					count = addCell(getCell(faceNormal[face], dx, dy, dz), candidates, count);
+		return count;
+	}
+
+	private int addCell(long cell, int[] candidates, int count) {
+		int lo = 0, hi = byNormal.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (normalCell[byNormal[mid]] < cell)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		for (int i = lo; i < byNormal.length && normalCell[byNormal[i]] == cell; i++)
+			candidates[count++] = byNormal[i];
+		return count;
+	}
+
+	/**
+	 * Finds edges whose length differs by at most tol from the length of a
+	 * selected edge
+	 *
+	 * @see PolyMesh#findSimilarEdges(boolean[], double)
+	 */
+	public boolean[] findSimilarEdges(boolean[] selected, double tol) {
+		boolean[] newSel = new boolean[selected.length];
+		for (int i = 0; i < selected.length; i++) {
+			if (!selected[i])
+				continue;
+			double len = edgeLength[i];
+			double min = len - Math.abs(tol) * (1 + SLACK) - SLACK;
+			int lo = 0, hi = byEdgeLength.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (edgeLength[byEdgeLength[mid]] < min)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			double max = len + Math.abs(tol) * (1 + SLACK) + SLACK;
+			for (int k = lo; k < byEdgeLength.length; k++) {
+				int j = byEdgeLength[k];
+				if (edgeLength[j] > max)
+					break;
+				if (j < selected.length && Math.abs(len - edgeLength[j]) <= tol)
+					newSel[j] = true;
+			}
+			newSel[i] = true;
+		}
+		return newSel;
+	}
+}
@@ -0,0 +1,336 @@
+/*
+ *  Copyright (C) 2026 by the PolyMesh plugin contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package artofillusion.polymesh;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import artofillusion.RenderingMesh;
+import artofillusion.RenderingTriangle;
+import artofillusion.material.MaterialMapping;
+import artofillusion.math.Vec3;
+import artofillusion.texture.FaceParameterValue;
+import artofillusion.texture.FaceVertexParameterValue;
+import artofillusion.texture.ParameterValue;
+import artofillusion.texture.TextureMapping;
+import artofillusion.texture.VertexParameterValue;
+
+/**
+ * A cache of smoothed rendering meshes shared by all PolyMeshes. Entries are
+ * keyed by what the smoothed mesh depends on: topology, vertex positions,
+ * smoothness values, vertex types, texture parameter values and tolerance. All
+ * the copies of a PolyMesh which have not been modified thus share one smoothed
+ * mesh, whatever their number.
+ *
+ * Cached meshes are never handed out as is. Each PolyMesh gets a new rendering
+ * mesh sharing the cached vertices, normals and parameter values, with triangles
+ * mapped using its own texture mapping. Shared vectors must not be modified.
+ *
+ * The cache is bounded by a memory budget, least recently used entries being
+ * discarded first.
+ *
+ * @author PolyMesh plugin contributors
+ */
+public class SmoothedMeshCache {
+
+	private static SmoothedMeshCache sharedCache = new SmoothedMeshCache(Runtime.getRuntime().maxMemory() / 8);
+
+	private LinkedHashMap<Key, Entry> map;
+
+	private long budget;
+
+	private long memory;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	/**
+	 * Creates a new cache
+	 *
+	 * @param budget
+	 *            Memory budget, in bytes
+	 */
+	public SmoothedMeshCache(long budget) {
+		this.budget = budget;
+		map = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Returns the cache used by PolyMesh.getRenderingMesh()
+	 */
+	public static SmoothedMeshCache getSharedCache() {
+		return sharedCache;
+	}
+
+	/**
+	 * Builds the key identifying the smoothed mesh of a PolyMesh
+	 *
+	 * @param mesh
+	 *            The mesh
+	 * @param tol
+	 *            The rendering tolerance
+	 */
+	public static Key getKey(PolyMesh mesh, double tol) {
+		return new Key(mesh, tol);
+	}
+
+	/**
+	 * Returns a rendering mesh for a cached smoothed mesh, or null if there is
+	 * no mesh for this key
+	 *
+	 * @param key
+	 *            The smoothed mesh key
+	 * @param mapping
+	 *            Texture mapping used to map triangles
+	 * @param matMapping
+	 *            Material mapping of the rendering mesh
+	 */
+	public RenderingMesh get(Key key, TextureMapping mapping, MaterialMapping matMapping) {
+		Entry entry;
+		synchronized (this) {
+			entry = map.get(key);
+			if (entry == null) {
+				misses++;
+				return null;
+			}
+			hits++;
+		}
+		return entry.getRenderingMesh(mapping, matMapping);
+	}
+
+	/**
+	 * Adds a smoothed mesh to the cache. Least recently used meshes are
+	 * discarded until memory used is within the budget.
+	 *
+	 * @param key
+	 *            The smoothed mesh key
+	 * @param mesh
+	 *            The smoothed rendering mesh. Its vectors and parameter values
+	 *            must not be modified afterwards.
+	 */
+	public synchronized void put(Key key, RenderingMesh mesh) {
+		Entry entry = new Entry(key, mesh);
+		Entry old = map.put(key, entry);
+		if (old != null)
+			memory -= old.size;
+		memory += entry.size;
+		Iterator<Entry> it = map.values().iterator();
+		while (memory > budget && it.hasNext()) {
+			Entry e = it.next();
+			if (e == entry)
+				continue;
+			it.remove();
+			memory -= e.size;
+			evictions++;
+		}
+	}
+
+	/**
+	 * Empties the cache. Statistics are kept.
+	 */
+	public synchronized void clear() {
+		map.clear();
+		memory = 0;
+	}
+
+	/**
+	 * Sets the memory budget, in bytes
+	 */
+	public synchronized void setMemoryBudget(long budget) {
+		this.budget = budget;
+		Iterator<Entry> it = map.values().iterator();
+		while (memory > budget && it.hasNext()) {
+			memory -= it.next().size;
+			it.remove();
+			evictions++;
+		}
+	}
+
+	public synchronized long getMemoryBudget() {
+		return budget;
+	}
+
+	/**
+	 * Returns an estimate of the memory used by cached meshes, in bytes
+	 */
+	public synchronized long getMemoryUsed() {
+		return memory;
+	}
+
+	public synchronized int getMeshCount() {
+		return map.size();
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Resets hit, miss and eviction counts
+	 */
+	public synchronized void resetStatistics() {
+		hits = misses = evictions = 0;
+	}
+
+	/**
+	 * What a smoothed mesh depends on. The hash code is computed once, equality
+	 * compares all values so that different meshes never share a smoothed mesh.
+	 */
+	public static class Key {
+		private PackedTopology topology;
+
+		private double[] position;
+
+		private double tol;
+
+		private ParameterValue[] paramValue;
+
+		private int hash;
+
+		private Key(PolyMesh mesh, double tol) {
+			this.tol = tol;
+			topology = mesh.getPackedTopology();
+			PolyMesh.Wvertex[] vertices = (PolyMesh.Wvertex[]) mesh.getVertices();
+			position = new double[3 * vertices.length];
+			for (int i = 0; i < vertices.length; i++) {
+				Vec3 r = vertices[i].r;
+				position[3 * i] = r.x;
+				position[3 * i + 1] = r.y;
+				position[3 * i + 2] = r.z;
+			}
+			ParameterValue[] val = mesh.getParameterValues();
+			if (val != null) {
+				paramValue = new ParameterValue[val.length];
+				for (int i = 0; i < val.length; i++)
+					paramValue[i] = val[i].duplicate();
+			}
+			long bits = Double.doubleToLongBits(tol);
+			hash = (int) (bits ^ (bits >>> 32));
+			hash = 31 * hash + Arrays.hashCode(topology.edgeVertex);
+			hash = 31 * hash + Arrays.hashCode(topology.edgeNext);
+			hash = 31 * hash + Arrays.hashCode(topology.edgeSmoothness);
+			hash = 31 * hash + Arrays.hashCode(topology.vertexType);
+			hash = 31 * hash + Arrays.hashCode(position);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if (o == this)
+				return true;
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			if (hash != k.hash || tol != k.tol || !Arrays.equals(position, k.position))
+				return false;
+			if (topology != k.topology && !topology.hasSameTopology(k.topology))
+				return false;
+			if (paramValue == null || k.paramValue == null)
+				return paramValue == k.paramValue;
+			if (paramValue.length != k.paramValue.length)
+				return false;
+			for (int i = 0; i < paramValue.length; i++)
+				if (!paramValue[i].equals(k.paramValue[i]))
+					return false;
+			return true;
+		}
+
+		private long getSize() {
+			long size = 64 + 8 * position.length + 24 * topology.getEdgeCount()
+					+ 40 * topology.getVertexCount() + 8 * topology.getFaceCount();
+			if (paramValue != null)
+				for (int i = 0; i < paramValue.length; i++)
+					size += getSize(paramValue[i]);
+			return size;
+		}
+
+		private static long getSize(ParameterValue val) {
+			if (val instanceof VertexParameterValue)
+				return 16 + 8 * ((VertexParameterValue) val).getValue().length;
+			if (val instanceof FaceParameterValue)
+				return 16 + 8 * ((FaceParameterValue) val).getValue().length;
+			if (val instanceof FaceVertexParameterValue)
+				return 16 + 40 * ((FaceVertexParameterValue) val).getFaceCount();
+			return 16;
+		}
+	}
+
+	/**
+	 * A cached smoothed mesh
+	 */
+	private static class Entry {
+		private Vec3[] vert;
+
+		private Vec3[] norm;
+
+		private int[] index; //v1 v2 v3 n1 n2 n3 for each triangle
+
+		private ParameterValue[] param;
+
+		private long size;
+
+		private Entry(Key key, RenderingMesh mesh) {
+			vert = new Vec3[mesh.vert.length];
+			norm = new Vec3[mesh.norm.length];
+			System.arraycopy(mesh.vert, 0, vert, 0, vert.length);
+			System.arraycopy(mesh.norm, 0, norm, 0, norm.length);
+			if (mesh.param != null) {
+				param = new ParameterValue[mesh.param.length];
+				System.arraycopy(mesh.param, 0, param, 0, param.length);
+			}
+			RenderingTriangle[] tri = mesh.triangle;
+			index = new int[6 * tri.length];
+			for (int i = 0; i < tri.length; i++) {
+				index[6 * i] = tri[i].v1;
+				index[6 * i + 1] = tri[i].v2;
+				index[6 * i + 2] = tri[i].v3;
+				index[6 * i + 3] = tri[i].n1;
+				index[6 * i + 4] = tri[i].n2;
+				index[6 * i + 5] = tri[i].n3;
+			}
+			size = key.getSize() + 40 * (vert.length + norm.length) + 4 * index.length;
+			if (param != null)
+				for (int i = 0; i < param.length; i++)
+					size += Key.getSize(param[i]);
+		}
+
+		private RenderingMesh getRenderingMesh(TextureMapping mapping, MaterialMapping matMapping) {
+			Vec3[] v = new Vec3[vert.length];
+			Vec3[] n = new Vec3[norm.length];
+			System.arraycopy(vert, 0, v, 0, v.length);
+			System.arraycopy(norm, 0, n, 0, n.length);
+			RenderingTriangle[] tri = new RenderingTriangle[index.length / 6];
+			for (int i = 0; i < tri.length; i++)
+				tri[i] = mapping.mapTriangle(index[6 * i], index[6 * i + 1], index[6 * i + 2],
+						index[6 * i + 3], index[6 * i + 4], index[6 * i + 5], v);
+			RenderingMesh mesh = new RenderingMesh(v, n, tri, mapping, matMapping);
+			if (param != null) {
+				ParameterValue[] p = new ParameterValue[param.length];
+				System.arraycopy(param, 0, p, 0, p.length);
+				mesh.setParameters(p);
+			}
+			return mesh;
+		}
+	}
+}
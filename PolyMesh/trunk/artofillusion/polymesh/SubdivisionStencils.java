@@ -0,0 +1,276 @@
+/*
+ *  Copyright (C) 2026 by the PolyMesh plugin contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package artofillusion.polymesh;
+
+import artofillusion.math.Vec3;
+import artofillusion.util.ThreadManager;
+
+/**
+ * A subdivision recorded as sparse linear stencils. Once the subdivision pattern
+ * is known, every smoothing step computes new vertex positions as weighted sums
+ * of the previous step positions. Each step is stored as a sparse matrix in
+ * compressed row form, so that smoothed positions can be computed again from
+ * new control vertex positions without building any topology.
+ *
+ * Steps are kept apart rather than multiplied together: a single matrix from
+ * control vertices to the final vertices would need much more memory for deep
+ * subdivision levels.
+ *
+ * @author PolyMesh plugin contributors
+ */
+public class SubdivisionStencils {
+
+	private int controlCount;
+
+	private int[][] rowStart;
+
+	private int[][] column;
+
+	private double[][] weight;
+
+	/**
+	 * Creates an empty set of stencils
+	 *
+	 * @param controlCount
+	 *            The number of control vertices
+	 */
+	public SubdivisionStencils(int controlCount) {
+		this.controlCount = controlCount;
+		rowStart = new int[0][];
+		column = new int[0][];
+		weight = new double[0][];
+	}
+
+	/**
+	 * Adds a smoothing step. Row i of the step gives the position of vertex i
+	 * as a weighted sum of the vertices computed by the previous step.
+	 *
+	 * @param start
+	 *            column[start[i]] to column[start[i+1] - 1] are the vertices vertex i depends on
+	 * @param col
+	 *            Previous step vertices
+	 * @param w
+	 *            Weights of previous step vertices
+	 */
+	public void addStep(int[] start, int[] col, double[] w) {
+		int n = rowStart.length;
+		int[][] newRowStart = new int[n + 1][];
+		int[][] newColumn = new int[n + 1][];
+		double[][] newWeight = new double[n + 1][];
+		System.arraycopy(rowStart, 0, newRowStart, 0, n);
+		System.arraycopy(column, 0, newColumn, 0, n);
+		System.arraycopy(weight, 0, newWeight, 0, n);
+		newRowStart[n] = start;
+		newColumn[n] = col;
+		newWeight[n] = w;
+		rowStart = newRowStart;
+		column = newColumn;
+		weight = newWeight;
+	}
+
+	/**
+	 * Adds a smoothing step which weights have been collected by a StepBuilder
+	 */
+	void addStep(StepBuilder step) {
+		int rows = step.rows;
+		int count = step.count;
+		int[] start = new int[rows + 1];
+		for (int i = 0; i < count; i++)
+			start[step.entryRow[i] + 1]++;
+		for (int i = 0; i < rows; i++)
+			start[i + 1] += start[i];
+		int[] next = new int[rows];
+		System.arraycopy(start, 0, next, 0, rows);
+		int[] col = new int[count];
+		double[] w = new double[count];
+		int k;
+		for (int i = 0; i < count; i++) {
+			k = next[step.entryRow[i]]++;
+			col[k] = step.entryColumn[i];
+			w[k] = step.entryWeight[i];
+		}
+		addStep(start, col, w);
+	}
+
+	/**
+	 * Returns the number of control vertices
+	 */
+	public int getControlCount() {
+		return controlCount;
+	}
+
+	/**
+	 * Returns the number of smoothing steps
+	 */
+	public int getStepCount() {
+		return rowStart.length;
+	}
+
+	/**
+	 * Returns the number of vertices computed by the last step
+	 */
+	public int getVertexCount() {
+		if (rowStart.length == 0)
+			return controlCount;
+		return rowStart[rowStart.length - 1].length - 1;
+	}
+
+	/**
+	 * Returns the number of weights over all steps
+	 */
+	public int getWeightCount() {
+		int count = 0;
+		for (int i = 0; i < weight.length; i++)
+			count += weight[i].length;
+		return count;
+	}
+
+	/**
+	 * Computes the smoothed vertex positions for new control vertex positions.
+	 * Steps having at least QuadMesh.PARALLEL_THRESHOLD vertices are computed
+	 * using all available processors.
+	 *
+	 * @param control
+	 *            Control vertex positions
+	 * @return Smoothed vertex positions
+	 */
+	public Vec3[] evaluate(Vec3[] control) {
+		double[][] steps = evaluateSteps(control);
+		double[] pos = steps[steps.length - 1];
+		Vec3[] result = new Vec3[pos.length / 3];
+		for (int i = 0; i < result.length; i++)
+			result[i] = new Vec3(pos[3 * i], pos[3 * i + 1], pos[3 * i + 2]);
+		return result;
+	}
+
+	/**
+	 * Same as evaluate(), but the positions computed by every step are returned
+	 * as x, y and z triples.
+	 *
+	 * @param control
+	 *            Control vertex positions
+	 * @return The control vertex positions, then the positions computed by each step
+	 */
+	public double[][] evaluateSteps(Vec3[] control) {
+		double[][] steps = new double[rowStart.length + 1][];
+		double[] pos = new double[3 * controlCount];
+		for (int i = 0; i < controlCount; i++) {
+			pos[3 * i] = control[i].x;
+			pos[3 * i + 1] = control[i].y;
+			pos[3 * i + 2] = control[i].z;
+		}
+		steps[0] = pos;
+		ThreadManager threads = null;
+		try {
+			for (int s = 0; s < rowStart.length; s++) {
+				int rows = rowStart[s].length - 1;
+				double[] npos = new double[3 * rows];
+				if (rows >= QuadMesh.PARALLEL_THRESHOLD) {
+					if (threads == null)
+						threads = new ThreadManager();
+					threads.setNumIndices(rows);
+					threads.setTask(new StepTask(s, pos, npos));
+					threads.run();
+				} else {
+					for (int i = 0; i < rows; i++)
+						evaluateRow(s, i, pos, npos);
+				}
+				pos = npos;
+				steps[s + 1] = pos;
+			}
+		} finally {
+			if (threads != null)
+				threads.finish();
+		}
+		return steps;
+	}
+
+	private void evaluateRow(int step, int row, double[] pos, double[] npos) {
+		int[] start = rowStart[step];
+		int[] col = column[step];
+		double[] w = weight[step];
+		double x = 0, y = 0, z = 0;
+		int k;
+		for (int j = start[row]; j < start[row + 1]; j++) {
+			k = 3 * col[j];
+			x += w[j] * pos[k];
+			y += w[j] * pos[k + 1];
+			z += w[j] * pos[k + 2];
+		}
+		npos[3 * row] = x;
+		npos[3 * row + 1] = y;
+		npos[3 * row + 2] = z;
+	}
+
+	/**
+	 * Collects the weights of a smoothing step in any order.
+	 */
+	static class StepBuilder {
+		private int rows;
+		private int count;
+		private int[] entryRow;
+		private int[] entryColumn;
+		private double[] entryWeight;
+
+		/**
+		 * @param rows
+		 *            The number of vertices computed by the step
+		 */
+		StepBuilder(int rows) {
+			this.rows = rows;
+			entryRow = new int[4 * rows + 16];
+			entryColumn = new int[entryRow.length];
+			entryWeight = new double[entryRow.length];
+		}
+
+		/**
+		 * Adds the weight of previous step vertex col for vertex row
+		 */
+		void add(int row, int col, double w) {
+			if (count == entryRow.length) {
+				int[] newRow = new int[2 * count];
+				int[] newColumn = new int[2 * count];
+				double[] newWeight = new double[2 * count];
+				System.arraycopy(entryRow, 0, newRow, 0, count);
+				System.arraycopy(entryColumn, 0, newColumn, 0, count);
+				System.arraycopy(entryWeight, 0, newWeight, 0, count);
+				entryRow = newRow;
+				entryColumn = newColumn;
+				entryWeight = newWeight;
+			}
+			entryRow[count] = row;
+			entryColumn[count] = col;
+			entryWeight[count] = w;
+			count++;
+		}
+	}
+
+	/**
+	 * ThreadManager task which computes the rows of a smoothing step.
+	 */
+	private class StepTask implements ThreadManager.Task {
+		private int step;
+		private double[] pos;
+		private double[] npos;
+
+		public StepTask(int step, double[] pos, double[] npos) {
+			this.step = step;
+			this.pos = pos;
+			this.npos = npos;
+		}
+
+		public void execute(int index) {
+			evaluateRow(step, index, pos, npos);
+		}
+
+		public void cleanup() {
+		}
+	}
+}
@@ -0,0 +1,394 @@
+/*
+ *  Copyright (C) 2026 by the PolyMesh plugin contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package artofillusion.polymesh;
+
+import artofillusion.TextureParameter;
+import artofillusion.polymesh.PolyMesh.Wedge;
+import artofillusion.polymesh.PolyMesh.Wface;
+import artofillusion.polymesh.PolyMesh.Wvertex;
+import artofillusion.texture.FaceParameterValue;
+import artofillusion.texture.FaceVertexParameterValue;
+import artofillusion.texture.ParameterValue;
+
+/**
+ * A set of face splits applied to a PolyMesh in one go. PolyMesh operations
+ * build new vertex, edge and face arrays each time they are called, so that
+ * splitting many faces one after the other takes time proportional to the
+ * mesh size for each split. A TopologyEdit keeps the mesh edges and faces in
+ * growable arrays instead, and builds the mesh arrays once when commit() is
+ * called.
+ *
+ * Edges are numbered differently from PolyMesh ones : half edges e and e ^ 1
+ * are the two halves of the same edge. The half edges of mesh edge i are 2i
+ * and 2i + 1, 2i being the half edge with the lowest index in the mesh.
+ * Vertices and faces keep their mesh indices, new faces are numbered from
+ * there on. The mesh must not be changed by other means until the edit is
+ * committed.
+ *
+ * @author PolyMesh plugin contributors
+ */
+public class TopologyEdit {
+
+	private PolyMesh mesh;
+
+	private Wvertex[] oldVertices;
+
+	private Wface[] oldFaces;
+
+	private int oldEdgeCount; //number of edges (not half edges) in the mesh
+
+	private int[] vertEdge;
+
+	private int halfCount;
+
+	private int[] halfVertex;
+
+	private int[] halfFace;
+
+	private int[] halfNext;
+
+	private float[] halfSmoothness;
+
+	private int faceCount;
+
+	private int[] faceEdge;
+
+	private int[] faceSource; //face texture values are taken from, or -1
+
+	private boolean[] faceChanged; //false if the face vertices are those of the source face
+
+	private boolean modified;
+
+	/**
+	 * Starts editing a mesh
+	 *
+	 * @param mesh
+	 *            The mesh to edit
+	 */
+	public TopologyEdit(PolyMesh mesh) {
+		this.mesh = mesh;
+		oldVertices = (Wvertex[]) mesh.getVertices();
+		Wedge[] edges = mesh.getEdges();
+		oldFaces = mesh.getFaces();
+		oldEdgeCount = edges.length / 2;
+		vertEdge = new int[oldVertices.length];
+		//mesh half edge index to edit half edge index
+		int[] half = new int[edges.length];
+		for (int i = 0; i < oldEdgeCount; i++) {
+			half[i] = 2 * i;
+			half[edges[i].hedge] = 2 * i + 1;
+		}
+		for (int i = 0; i < vertEdge.length; i++)
+			vertEdge[i] = half[oldVertices[i].edge];
+		halfCount = edges.length;
+		int cap = halfCount + halfCount / 4 + 8;
+		halfVertex = new int[cap];
+		halfFace = new int[cap];
+		halfNext = new int[cap];
+		halfSmoothness = new float[cap];
+		for (int i = 0; i < edges.length; i++) {
+			int h = half[i];
+			halfVertex[h] = edges[i].vertex;
+			halfFace[h] = edges[i].face;
+			halfNext[h] = half[edges[i].next];
+			halfSmoothness[h] = edges[i].smoothness;
+		}
+		faceCount = oldFaces.length;
+		cap = faceCount + faceCount / 4 + 8;
+		faceEdge = new int[cap];
+		faceSource = new int[cap];
+		faceChanged = new boolean[cap];
+		for (int i = 0; i < faceCount; i++) {
+			faceEdge[i] = half[oldFaces[i].edge];
+			faceSource[i] = i;
+		}
+	}
+
+	private void ensureHalfEdgeCapacity(int count) {
+		if (count <= halfVertex.length)
+			return;
+		int cap = Math.max(count, 2 * halfVertex.length);
+		halfVertex = grow(halfVertex, cap);
+		halfFace = grow(halfFace, cap);
+		halfNext = grow(halfNext, cap);
+		halfSmoothness = grow(halfSmoothness, cap);
+	}
+
+	private void ensureFaceCapacity(int count) {
+		if (count <= faceEdge.length)
+			return;
+		int cap = Math.max(count, 2 * faceEdge.length);
+		faceEdge = grow(faceEdge, cap);
+		faceSource = grow(faceSource, cap);
+		faceChanged = grow(faceChanged, cap);
+	}
+
+	private static int[] grow(int[] array, int length) {
+		int[] result = new int[length];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+	private static float[] grow(float[] array, int length) {
+		float[] result = new float[length];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+	private static boolean[] grow(boolean[] array, int length) {
+		boolean[] result = new boolean[length];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+	/**
+	 * Returns the vertex a half edge points to
+	 */
+	public int getEdgeVertex(int e) {
+		return halfVertex[e];
+	}
+
+	/**
+	 * Returns the face on the left of a half edge, or -1 for boundary half
+	 * edges
+	 */
+	public int getEdgeFace(int e) {
+		return halfFace[e];
+	}
+
+	/**
+	 * Returns the half edges leaving a vertex, in the same order as
+	 * PolyMesh.getVertexEdges() does
+	 */
+	public int[] getVertexEdges(int v) {
+		int start = vertEdge[v];
+		int count = 1;
+		int e = start;
+		while (halfNext[e ^ 1] != start) {
+			e = halfNext[e ^ 1];
+			if (++count > halfCount) {
+				System.out.println("TopologyEdit : too many edges around vertex " + v);
+				return null;
+			}
+		}
+		int[] ed = new int[count];
+		ed[0] = start;
+		e = start;
+		count = 0;
+		while (halfNext[e ^ 1] != start) {
+			e = halfNext[e ^ 1];
+			ed[++count] = e;
+		}
+		return ed;
+	}
+
+	/**
+	 * Returns the vertices of a face, in the same order as
+	 * PolyMesh.getFaceVertices() does
+	 */
+	public int[] getFaceVertices(int f) {
+		int e = faceEdge[f];
+		int start = halfVertex[e];
+		int count = 1;
+		while (halfVertex[halfNext[e]] != start) {
+			e = halfNext[e];
+			if (++count > halfCount) {
+				System.out.println("TopologyEdit : face " + f + " is not closed");
+				return null;
+			}
+		}
+		int[] v = new int[count];
+		e = faceEdge[f];
+		v[0] = halfVertex[e];
+		count = 0;
+		while (halfVertex[halfNext[e]] != start) {
+			e = halfNext[e];
+			v[++count] = halfVertex[e];
+		}
+		return v;
+	}
+
+	private int newEdge() {
+		ensureHalfEdgeCapacity(halfCount + 2);
+		int e = halfCount;
+		halfFace[e] = halfFace[e + 1] = -1;
+		halfNext[e] = e;
+		halfNext[e + 1] = e + 1;
+		halfSmoothness[e] = halfSmoothness[e + 1] = 1.0f;
+		halfCount += 2;
+		modified = true;
+		return e;
+	}
+
+	private int newFace(int edge, int source) {
+		ensureFaceCapacity(faceCount + 1);
+		faceEdge[faceCount] = edge;
+		faceSource[faceCount] = source;
+		faceChanged[faceCount] = true;
+		modified = true;
+		return faceCount++;
+	}
+
+	/**
+	 * Splits a face in two by a new edge between two of its vertices. The part
+	 * of the face going from v1 to v2 becomes the new face.
+	 *
+	 * @return The new face index, or -1 if the vertices don't both belong to
+	 *         the face
+	 */
+	public int splitFace(int f, int v1, int v2) {
+		int e1next = -1, e1prev = -1, e2next = -1, e2prev = -1;
+		int[] e1 = getVertexEdges(v1);
+		for (int i = 0; i < e1.length; i++) {
+			if (halfFace[e1[i]] == f)
+				e1next = e1[i];
+			if (halfFace[e1[i] ^ 1] == f)
+				e1prev = e1[i] ^ 1;
+		}
+		int[] e2 = getVertexEdges(v2);
+		for (int i = 0; i < e2.length; i++) {
+			if (halfFace[e2[i]] == f)
+				e2next = e2[i];
+			if (halfFace[e2[i] ^ 1] == f)
+				e2prev = e2[i] ^ 1;
+		}
+		if (v1 == v2 || e1next < 0 || e1prev < 0 || e2next < 0 || e2prev < 0)
+			return -1;
+		int n = newEdge();
+		halfVertex[n] = v1;
+		halfFace[n] = f;
+		halfNext[n] = e1next;
+		halfVertex[n + 1] = v2;
+		halfFace[n + 1] = f;
+		halfNext[n + 1] = e2next;
+		halfNext[e2prev] = n;
+		halfNext[e1prev] = n + 1;
+		int face = newFace(n, faceSource[f]);
+		int e = n;
+		halfFace[e] = face;
+		while (halfVertex[halfNext[e]] != v1) {
+			e = halfNext[e];
+			halfFace[e] = face;
+		}
+		if (halfFace[faceEdge[f]] != f)
+			faceEdge[f] = n + 1;
+		faceChanged[f] = true;
+		return face;
+	}
+
+	/**
+	 * Returns true if the mesh has been changed since the edit started
+	 */
+	public boolean isModified() {
+		return modified;
+	}
+
+	/**
+	 * Builds the mesh arrays from the edit and updates the mesh texture
+	 * parameters and seams accordingly. The edit must not be used afterwards.
+	 */
+	public void commit() {
+		int ne = halfCount / 2;
+		Wvertex[] vertices = new Wvertex[oldVertices.length];
+		for (int i = 0; i < vertices.length; i++) {
+			vertices[i] = mesh.new Wvertex(oldVertices[i]);
+			vertices[i].edge = mapEdge(vertEdge[i], ne);
+		}
+		Wedge[] edges = new Wedge[2 * ne];
+		for (int i = 0; i < halfCount; i++) {
+			int index = mapEdge(i, ne);
+			edges[index] = mesh.new Wedge(halfVertex[i], mapEdge(i ^ 1, ne), halfFace[i], mapEdge(halfNext[i], ne));
+			edges[index].smoothness = halfSmoothness[i];
+		}
+		Wface[] faces = new Wface[faceCount];
+		for (int i = 0; i < faceCount; i++)
+			faces[i] = mesh.new Wface(mapEdge(faceEdge[i], ne));
+		ParameterValue[] newParamVal = updateParameters();
+		boolean[] oldSeams = mesh.getSeams();
+		mesh.setMeshTopology(vertices, edges, faces);
+		if (newParamVal != null)
+			mesh.setParameterValues(newParamVal);
+		if (oldSeams != null) {
+			boolean[] seams = new boolean[ne];
+			System.arraycopy(oldSeams, 0, seams, 0, oldEdgeCount);
+			mesh.setSeams(seams);
+		}
+		modified = false;
+	}
+
+	/**
+	 * Edit half edge index to mesh half edge index
+	 */
+	private static int mapEdge(int e, int edgeCount) {
+		if (e < 0)
+			return -1;
+		return (e & 1) == 0 ? e >> 1 : (e >> 1) + edgeCount;
+	}
+
+	/**
+	 * Builds texture parameter values matching the edited mesh
+	 */
+	private ParameterValue[] updateParameters() {
+		ParameterValue oldParamVal[] = mesh.getParameterValues();
+		if (oldParamVal == null)
+			return null;
+		TextureParameter param[] = mesh.getParameters();
+		ParameterValue newParamVal[] = new ParameterValue[oldParamVal.length];
+		for (int k = 0; k < oldParamVal.length; k++) {
+			if (oldParamVal[k] instanceof FaceParameterValue) {
+				double oldval[] = ((FaceParameterValue) oldParamVal[k]).getValue();
+				double newval[] = new double[faceCount];
+				for (int i = 0; i < faceCount; i++)
+					newval[i] = faceSource[i] >= 0 && faceSource[i] < oldval.length ? oldval[faceSource[i]]
+							: param[k].defaultVal;
+				newParamVal[k] = new FaceParameterValue(newval);
+			} else if (oldParamVal[k] instanceof FaceVertexParameterValue) {
+				FaceVertexParameterValue fvpv = (FaceVertexParameterValue) oldParamVal[k];
+				double newval[][] = new double[faceCount][];
+				for (int i = 0; i < faceCount; i++)
+					newval[i] = getFaceVertexValues(fvpv, i);
+				newParamVal[k] = new FaceVertexParameterValue(newval);
+			} else
+				newParamVal[k] = oldParamVal[k].duplicate();
+		}
+		return newParamVal;
+	}
+
+	/**
+	 * Per face vertex values of a face. Values of vertices which belonged to
+	 * the source face are kept, other ones get the average value.
+	 */
+	private double[] getFaceVertexValues(FaceVertexParameterValue fvpv, int f) {
+		int src = faceSource[f];
+		if (src >= 0 && src < fvpv.getFaceCount() && !faceChanged[f]) {
+			double val[] = new double[fvpv.getFaceVertexCount(src)];
+			for (int i = 0; i < val.length; i++)
+				val[i] = fvpv.getValue(src, i);
+			return val;
+		}
+		int[] fv = getFaceVertices(f);
+		double val[] = new double[fv.length];
+		int[] srcVert = null;
+		if (src >= 0 && src < fvpv.getFaceCount())
+			srcVert = mesh.getFaceVertices(oldFaces[src]);
+		for (int i = 0; i < fv.length; i++)
+			val[i] = getSourceValue(fvpv, src, srcVert, fv[i]);
+		return val;
+	}
+
+	private double getSourceValue(FaceVertexParameterValue fvpv, int src, int[] srcVert, int v) {
+		if (srcVert != null) {
+			for (int j = 0; j < srcVert.length; j++)
+				if (srcVert[j] == v)
+					return fvpv.getValue(src, j);
+		}
+		return fvpv.getAverageValue();
+	}
+}
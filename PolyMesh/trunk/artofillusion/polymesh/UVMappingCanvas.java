@@ -308,6 +308,14 @@ public class UVMappingCanvas extends CustomWidget {
 
 	private int[] selectionDistance;
 
+	private int[] selectionOrder; // selected vertices by increasing distance
+
+	private VertexAdjacency pieceAdjacency; // visible edges of current piece
+
+	private VertexAdjacency selectionAdjacency; // all edges, selection indices
+
+	private UnfoldedEdge[] adjacencyEdges; // edges adjacencies were built from
+
 	private int currentPiece; // only one piece can be selected for edition
 
 	private UVMappingEditorDialog parent;
@@ -1284,10 +1292,9 @@ public class UVMappingCanvas extends CustomWidget {
 	 */
 	// from triangle mesh editor
 	public void findSelectionDistance() {
-		int i, j;
+		int i;
 		UnfoldedMesh mesh = meshes[currentPiece];
 		int dist[] = new int[mesh.getVertices().length];
-		UnfoldedEdge e[] = mesh.getEdges();
 
 		int maxDistance = parent.getMaxTensionDistance();
 		// First, set each distance to 0 or -1, depending on whether that vertex
@@ -1297,19 +1304,42 @@ public class UVMappingCanvas extends CustomWidget {
 		for (i = 0; i < selected.length; i++)
 			dist[mappingData.verticesTable[currentPiece][i]] = selected[i] ? 0 : -1;
 		// Now extend this outward up to maxDistance.
-		for (i = 0; i < maxDistance; i++)
-			for (j = 0; j < e.length; j++) {
-				if (e[j].hidden)
-					continue;
-				if (dist[e[j].v1] == -1 && dist[e[j].v2] == i)
-					dist[e[j].v1] = i + 1;
-				else if (dist[e[j].v2] == -1 && dist[e[j].v1] == i)
-					dist[e[j].v2] = i + 1;
-			}
+		updateAdjacency();
+		int[] order = pieceAdjacency.findDistances(dist, maxDistance);
 		selectionDistance = new int[selected.length];
 		for (i = 0; i < selected.length; i++) {
 			selectionDistance[i] = dist[mappingData.verticesTable[currentPiece][i]];
 		}
+		int count = 0;
+		for (i = 0; i < order.length; i++)
+			if (mappingData.invVerticesTable[currentPiece][order[i]] != -1)
+				order[count++] = mappingData.invVerticesTable[currentPiece][order[i]];
+		selectionOrder = new int[count];
+		System.arraycopy(order, 0, selectionOrder, 0, count);
+	}
+
+	/**
+	 * Builds the vertex adjacencies of the current piece, unless they have
+	 * already been built
+	 */
+	private void updateAdjacency() {
+		UnfoldedMesh mesh = meshes[currentPiece];
+		UnfoldedEdge e[] = mesh.getEdges();
+		if (e == adjacencyEdges)
+			return;
+		int[] v1 = new int[e.length];
+		int[] v2 = new int[e.length];
+		for (int j = 0; j < e.length; j++) {
+			v1[j] = e[j].hidden ? -1 : e[j].v1;
+			v2[j] = e[j].hidden ? -1 : e[j].v2;
+		}
+		pieceAdjacency = new VertexAdjacency(mesh.getVertices().length, v1, v2);
+		for (int j = 0; j < e.length; j++) {
+			v1[j] = mappingData.invVerticesTable[currentPiece][e[j].v1];
+			v2[j] = mappingData.invVerticesTable[currentPiece][e[j].v2];
+		}
+		selectionAdjacency = new VertexAdjacency(mappingData.verticesTable[currentPiece].length, v1, v2);
+		adjacencyEdges = e;
 	}
 
 	/**
@@ -1320,9 +1350,8 @@ public class UVMappingCanvas extends CustomWidget {
 
 	public void adjustDeltas(Vec2 delta[]) {
 		int dist[] = getSelectionDistance();
-		int count[] = new int[delta.length];
-		UnfoldedMesh mesh = meshes[currentPiece];
-		UnfoldedEdge edge[] = mesh.getEdges();
+		updateAdjacency();
+		VertexAdjacency adj = selectionAdjacency;
 		int maxDistance = parent.getMaxTensionDistance();
 		double tension = parent.getTensionValue();
 		double scale[] = new double[maxDistance + 1];
@@ -1330,27 +1359,18 @@ public class UVMappingCanvas extends CustomWidget {
 		for (int i = 0; i < delta.length; i++)
 			if (dist[i] != 0)
 				delta[i].set(0.0, 0.0);
-		int v1, v2;
-		for (int i = 0; i < maxDistance; i++) {
-			for (int j = 0; j < count.length; j++)
-				count[j] = 0;
-			for (int j = 0; j < edge.length; j++) {
-				v1 = mappingData.invVerticesTable[currentPiece][edge[j].v1];
-				v2 = mappingData.invVerticesTable[currentPiece][edge[j].v2];
-				if (v1 == -1 || v2 == -1) {
-					continue;
-				}
-				if (dist[v1] == i && dist[v2] == i + 1) {
-					count[v2]++;
-					delta[v2].add(delta[v1]);
-				} else if (dist[v2] == i && dist[v1] == i + 1) {
-					count[v1]++;
-					delta[v1].add(delta[v2]);
+		for (int k = 0; k < selectionOrder.length; k++) {
+			int v = selectionOrder[k];
+			if (dist[v] <= 0)
+				continue;
+			int count = 0;
+			for (int j = adj.start[v]; j < adj.start[v + 1]; j++)
+				if (dist[adj.neighbor[j]] == dist[v] - 1) {
+					count++;
+					delta[v].add(delta[adj.neighbor[j]]);
 				}
-			}
-			for (int j = 0; j < count.length; j++)
-				if (count[j] > 1)
-					delta[j].scale(1.0 / count[j]);
+			if (count > 1)
+				delta[v].scale(1.0 / count);
 		}
 		for (int i = 0; i < scale.length; i++)
 			scale[i] = Math.pow((maxDistance - i + 1.0) / (maxDistance + 1.0),
@@ -115,25 +115,31 @@ public class UVMappingData {
 
 		public UVMeshMapping(DataInputStream in, Scene scene)
 				throws IOException, InvalidObjectException {
+			this(in, getTextureIDs(scene));
+		}
+
+		/**
+		 * Reads a mapping, texture indices being turned into texture ids
+		 * through a table rather than a scene
+		 */
+		public UVMeshMapping(DataInputStream in, int[] textureIDs)
+				throws IOException, InvalidObjectException {
 			short version = in.readShort();
 			if (version < 0 || version > 1)
 				throw new InvalidObjectException("");
 			name = in.readUTF();
 			int count = in.readInt();
 			textures = new ArrayList<Integer>();
-			Texture tex;
 			int index;
-			int numTex = scene.getNumTextures();
 			for (int i = 0; i < count; i++) {
 				index = in.readInt();
 				if (index == -1) {
 					//texture unknown at save time
 					continue;
 				}
-				if (index < numTex) {
-					tex = scene.getTexture(index);
+				if (index < textureIDs.length) {
 					System.out.println("texture loaded ok");
-					textures.add(tex.getID());
+					textures.add(textureIDs[index]);
 				} else {
 					System.out.println("texture loading workaround");
 					textures.add(index);
@@ -212,6 +218,21 @@ public class UVMappingData {
 
 	public UVMappingData(DataInputStream in, Scene scene) throws IOException,
 			InvalidObjectException {
+		this(in, getTextureIDs(scene));
+	}
+
+	/**
+	 * Reads mapping data, texture indices being turned into texture ids
+	 * through a table rather than a scene. This allows reading the data after
+	 * the scene has been loaded, as long as the table was built at load time.
+	 * 
+	 * @param in
+	 *            The input stream
+	 * @param textureIDs
+	 *            The id of each scene texture, as returned by getTextureIDs()
+	 */
+	public UVMappingData(DataInputStream in, int[] textureIDs) throws IOException,
+			InvalidObjectException {
 		short version = in.readShort();
 		if (version < 0 || version > 0)
 			throw new InvalidObjectException("");
@@ -223,12 +244,27 @@ public class UVMappingData {
 		count = in.readInt();
 		mappings = new ArrayList<UVMeshMapping>();
 		for (int i = 0; i < count; i++) {
-			mappings.add(new UVMeshMapping(in, scene));
+			mappings.add(new UVMeshMapping(in, textureIDs));
 		}
 		sampling = in.readInt();
 		setTables();
 	}
 
+	/**
+	 * Returns the id of each scene texture, in scene order
+	 * 
+	 * @param scene
+	 *            The scene, may be null in which case the table is empty
+	 */
+	public static int[] getTextureIDs(Scene scene) {
+		if (scene == null)
+			return new int[0];
+		int[] ids = new int[scene.getNumTextures()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = scene.getTexture(i).getID();
+		return ids;
+	}
+
 	/**
 	 * Creates a mapping from default vertices positions or from
 	 * an existing mapping vertices positions
@@ -0,0 +1,126 @@
+/*
+ *  Copyright (C) 2026 by the PolyMesh plugin contributors
+ *  This program is free software; you can redistribute it and/or modify it under the
+ *  terms of the GNU General Public License as published by the Free Software
+ *  Foundation; either version 2 of the License, or (at your option) any later version.
+ *  This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ *  WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+ *  PARTICULAR PURPOSE.  See the GNU General Public License for more details.
+ */
+package artofillusion.polymesh;
+
+/**
+ * Vertex adjacency packed into int arrays : the neighbours of vertex v are
+ * neighbor[start[v]] to neighbor[start[v + 1] - 1], listed in the order of
+ * the edges they were built from. A neighbour linked by several edges is
+ * listed once per edge.
+ *
+ * Used by mesh editors to find the distance between vertices and the current
+ * selection with a breadth first search, rather than sweeping all edges once
+ * per distance step, and to spread selection moves according to mesh tension.
+ *
+ * @author PolyMesh plugin contributors
+ */
+public class VertexAdjacency {
+
+	/** Neighbours of v start at start[v], start[vertexCount] is the list size */
+	public final int[] start;
+
+	/** Neighbour lists */
+	public final int[] neighbor;
+
+	/**
+	 * Builds the adjacency from edge end points. Edges with a negative end
+	 * point are skipped.
+	 *
+	 * @param vertexCount
+	 *            Number of vertices
+	 * @param v1
+	 *            First vertex of each edge
+	 * @param v2
+	 *            Second vertex of each edge
+	 */
+	public VertexAdjacency(int vertexCount, int[] v1, int[] v2) {
+		start = new int[vertexCount + 1];
+		for (int i = 0; i < v1.length; i++)
+			if (v1[i] >= 0 && v2[i] >= 0) {
+				start[v1[i] + 1]++;
+				start[v2[i] + 1]++;
+			}
+		for (int i = 0; i < vertexCount; i++)
+			start[i + 1] += start[i];
+		neighbor = new int[start[vertexCount]];
+		int[] pos = new int[vertexCount];
+		System.arraycopy(start, 0, pos, 0, vertexCount);
+		for (int i = 0; i < v1.length; i++)
+			if (v1[i] >= 0 && v2[i] >= 0) {
+				neighbor[pos[v1[i]]++] = v2[i];
+				neighbor[pos[v2[i]]++] = v1[i];
+			}
+	}
+
+	public int getVertexCount() {
+		return start.length - 1;
+	}
+
+	/**
+	 * Computes the distance in edges from each vertex to the nearest source
+	 * vertex, up to a maximum distance.
+	 *
+	 * @param dist
+	 *            On entry, 0 for source vertices and -1 for other ones. On
+	 *            return, the distance of vertices up to maxDistance edges away
+	 *            from a source, -1 for vertices farther away.
+	 * @param maxDistance
+	 *            Maximum distance
+	 * @return Vertices reached, sources first, in increasing distance order
+	 */
+	public int[] findDistances(int[] dist, int maxDistance) {
+		int[] queue = new int[dist.length];
+		int head = 0, tail = 0;
+		for (int i = 0; i < dist.length; i++)
+			if (dist[i] == 0)
+				queue[tail++] = i;
+		while (head < tail) {
+			int v = queue[head++];
+			int d = dist[v];
+			if (d >= maxDistance)
+				break;
+			for (int k = start[v]; k < start[v + 1]; k++) {
+				int u = neighbor[k];
+				if (dist[u] == -1) {
+					dist[u] = d + 1;
+					queue[tail++] = u;
+				}
+			}
+		}
+		int[] reached = new int[tail];
+		System.arraycopy(queue, 0, reached, 0, tail);
+		return reached;
+	}
+
+	/**
+	 * Computes tension weights : vertices at distance d from the selection
+	 * move by ((maxDistance - d + 1) / (maxDistance + 1))^tension times the
+	 * move of their neighbours at distance d - 1.
+	 *
+	 * @param dist
+	 *            Distance of each vertex to the selection, as computed by
+	 *            findDistances()
+	 * @return Weight of each vertex, 1 for selected vertices and 0 for
+	 *         vertices out of reach
+	 */
+	public static double[] getTensionWeights(int[] dist, int maxDistance, double tension) {
+		double scale[] = new double[maxDistance + 1];
+		for (int i = 0; i < scale.length; i++)
+			scale[i] = Math.pow((maxDistance - i + 1.0) / (maxDistance + 1.0), tension);
+		double[] weight = new double[dist.length];
+		for (int i = 0; i < dist.length; i++) {
+			if (dist[i] == 0)
+				weight[i] = 1.0;
+			else if (dist[i] > 0)
+				weight[i] = scale[dist[i]];
+		}
+		return weight;
+	}
+}
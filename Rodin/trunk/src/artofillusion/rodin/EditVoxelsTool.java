@@ -23,6 +23,7 @@ public abstract class EditVoxelsTool extends EditingTool
 {
   protected int width, offset, padding;
   protected float values[], weight[];
+  private byte block[];
   private UndoRecord undo;
 
   public EditVoxelsTool(EditingWindow win)
@@ -67,6 +68,7 @@ public abstract class EditVoxelsTool extends EditingTool
     width = (int) Math.floor(2*radius)+2*padding;
     values = new float[width*width*width];
     weight = new float[width*width*width];
+    block = new byte[width*width*width];
 
     // Calculate the weights for each voxel.
 
@@ -127,21 +129,19 @@ public abstract class EditVoxelsTool extends EditingTool
               int index = i*width*width+j*width+k;
               if (weight[index] == 0.0f)
                 continue;
-              int xindex = xbase+i;
-              int yindex = ybase+j;
-              int zindex = zbase+k;
-              float newValue = weight[index]*computeNewValue(i, j, k, dir)+(1.0f-weight[index])*voxels.getValue(xindex, yindex, zindex);
+              float newValue = weight[index]*computeNewValue(i, j, k, dir)+(1.0f-weight[index])*values[index];
               if (newValue < Byte.MIN_VALUE)
                 newValue = Byte.MIN_VALUE;
               if (newValue > Byte.MAX_VALUE)
                 newValue = Byte.MAX_VALUE;
-              voxels.setValue(xindex, yindex, zindex, (byte) newValue);
+              block[index] = (byte) newValue;
             }
+    voxels.writeBlock(xbase, ybase, zbase, width, width, width, block);
 
     // Update the view.
 
     VoxelObjectEditorWindow win = (VoxelObjectEditorWindow) theWindow;
-    win.objectChanged();
+    win.objectChanged(x-offset, x-offset+width, y-offset, y-offset+width, z-offset, z-offset+width);
     win.voxelsChanged(x-offset, x-offset+width, y-offset, y-offset+width, z-offset, z-offset+width);
     theWindow.updateImage();
   }
@@ -162,6 +162,7 @@ public abstract class EditVoxelsTool extends EditingTool
     undo = null;
     values = null;
     weight = null;
+    block = null;
   }
 
   protected abstract void computePadding(double radius);
@@ -174,16 +175,9 @@ public abstract class EditVoxelsTool extends EditingTool
 
   private void findVoxelValues(VoxelOctree voxels, int xbase, int ybase, int zbase, float values[])
   {
-    for (int i = 0; i < width; i++)
-      for (int j = 0; j < width; j++)
-        for (int k = 0; k < width; k++)
-        {
-          int index = i*width*width+j*width+k;
-          int x = i+xbase;
-          int y = j+ybase;
-          int z = k+zbase;
-          values[index] = voxels.getValue(x, y, z);
-        }
+    voxels.readBlock(xbase, ybase, zbase, width, width, width, block);
+    for (int i = 0; i < block.length; i++)
+      values[i] = block[i];
   }
 
   /**
@@ -11,6 +11,7 @@
 package artofillusion.rodin;
 
 import artofillusion.math.*;
+import artofillusion.util.*;
 
 import java.util.*;
 import java.util.List;
@@ -318,8 +319,34 @@ public class MarchingCubes
           {-1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1}
   };
 
+  private static final int MIN_SLAB_WIDTH = 8;
+  private static final int edgeAxis[] = new int[12];
+  private static final int edgeBase[][] = new int[12][3];
+
+  static
+  {
+    // For each edge of a cell, record its direction and the offset of its lower corner.
+
+    for (int edge = 0; edge < 12; edge++)
+    {
+      int corner1 = edgeConnection[edge][0];
+      int corner2 = edgeConnection[edge][1];
+      for (int axis = 0; axis < 3; axis++)
+      {
+        if (edgeDirection[edge][axis] != 0.0)
+          edgeAxis[edge] = axis;
+        edgeBase[edge][axis] = Math.min(vertexOffset[corner1][axis], vertexOffset[corner2][axis]);
+      }
+    }
+  }
+
   /**
    * Construct a mesh from a VoxelOctree.
+   * <p>
+   * The grid is divided into slabs along the x axis, which are processed in parallel.  The
+   * vertices a slab creates on its lower boundary are then replaced by the ones created by
+   * the previous slab, so the resulting mesh is identical to the one produced by processing
+   * the whole grid at once.
    *
    * @param voxels     the VoxelOctree for which to create a mesh
    * @param scale      the size of the mesh that should be generated
@@ -330,151 +357,400 @@ public class MarchingCubes
   public static void generateMesh(VoxelOctree voxels, double scale, List<Vec3> vertices, List<int[]> faces)
   {
     int width = 1<<voxels.getDepth();
-    double cellSize = scale/(width-1);
-    byte cornerValues[] = new byte[8];
-    int edgeVertIndex[] = new int[12];
-    HashMap<Integer, Integer> xEdgeVertMap = new HashMap<Integer, Integer>();
-    HashMap<Integer, Integer> yEdgeVertMap = new HashMap<Integer, Integer>();
-    HashMap<Integer, Integer> zEdgeVertMap = new HashMap<Integer, Integer>();
     int bounds[] = voxels.findDataBounds();
+
+    // Grid points beyond the data bounds are outside, so the surface can cross the layer of
+    // cells on either side of them.
+
     int minx = Math.max(0, bounds[0]-1);
-    int maxx = Math.min(width-1, bounds[1]);
+    int maxx = Math.min(width-1, bounds[1]+1);
     int miny = Math.max(0, bounds[2]-1);
-    int maxy = Math.min(width-1, bounds[3]);
+    int maxy = Math.min(width-1, bounds[3]+1);
     int minz = Math.max(0, bounds[4]-1);
-    int maxz = Math.min(width-1, bounds[5]);
-    int ysize = maxy-miny+2;
-    int zsize = maxz-minz+2;
+    int maxz = Math.min(width-1, bounds[5]+1);
+    if (maxx <= minx || maxy <= miny || maxz <= minz)
+      return;
+    int numSlabs = Math.min((maxx-minx)/MIN_SLAB_WIDTH, 4*Runtime.getRuntime().availableProcessors());
+    if (numSlabs < 1)
+      numSlabs = 1;
+    MeshBlock slabs[] = new MeshBlock[numSlabs];
+    for (int i = 0; i < numSlabs; i++)
+      slabs[i] = new MeshBlock(minx+(maxx-minx)*i/numSlabs, minx+(maxx-minx)*(i+1)/numSlabs, miny, maxy, minz, maxz);
+    generateBlocks(voxels, scale, slabs, numSlabs);
+    joinBlocks(slabs, width, 1.0, vertices, faces);
+  }
 
-    // Look up the values for the x==minx plane.
+  /**
+   * Generate the mesh for each of a set of blocks, processing them in parallel.
+   *
+   * @param voxels     the VoxelOctree for which to create a mesh
+   * @param scale      the size of the mesh for the whole grid
+   * @param blocks     the blocks to generate.  The blocks should be empty.
+   * @param count      the number of elements of blocks to generate
+   */
 
-    byte values[][] = new byte[2][ysize*zsize];
-    for (int j = 0; j < ysize; j++)
-      for (int k = 0; k < zsize; k++)
-        values[0][j*zsize+k] = voxels.getValue(minx, j+miny, k+minz);
-    for (int i = minx; i < maxx; i++)
+  static void generateBlocks(VoxelOctree voxels, double scale, MeshBlock blocks[], int count)
+  {
+    if (count == 0)
+      return;
+    BlockTask task = new BlockTask(voxels, scale, blocks);
+    if (count == 1)
+      task.execute(0);
+    else
     {
-      // Look up the values for the next plane.
+      ThreadManager threads = new ThreadManager(count, task);
+      threads.run();
+      threads.finish();
+    }
+  }
 
-      for (int j = 0; j < ysize; j++)
-        for (int k = 0; k < zsize; k++)
-          values[1][j*zsize+k] = voxels.getValue(i+1, j+miny, k+minz);
-      for (int j = miny; j < maxy; j++)
-      {
-        for (int k = minz; k < maxz; k++)
+  /**
+   * Add the vertices and faces of a set of blocks to a mesh.  Vertices a block shares with
+   * blocks earlier in the array are replaced by the ones those blocks created, so blocks
+   * for slabs in increasing x order give the same mesh as processing the slabs together.
+   *
+   * @param blocks     the blocks to join.  Null elements are skipped.
+   * @param width      the width of the grid the blocks were generated from
+   * @param scale      the factor by which vertex coordinates should be multiplied
+   * @param vertices   the coordinates of mesh vertices will be added to this List
+   * @param faces      an int[3] will be added to this List containing the vertex indices for each mesh face
+   */
+
+  static void joinBlocks(MeshBlock blocks[], int width, double scale, List<Vec3> vertices, List<int[]> faces)
+  {
+    EdgeVertexMap boundaryVert = new EdgeVertexMap();
+    for (MeshBlock block : blocks)
+    {
+      if (block == null)
+        continue;
+      int index[] = new int[block.vertCount];
+      Arrays.fill(index, -1);
+      for (int i = 0; i < block.boundaryCount; i++)
+        index[block.boundaryVert[i]] = boundaryVert.get(block.boundaryEdge[i]);
+      for (int i = 0; i < block.vertCount; i++)
+        if (index[i] == -1)
         {
-          // Record the values at the four corners of this cell, and record which ones are outside.
+          index[i] = vertices.size();
+          vertices.add(new Vec3(block.vert[3*i]*scale, block.vert[3*i+1]*scale, block.vert[3*i+2]*scale));
+        }
+      for (int i = 0; i < block.faceCount; i++)
+        faces.add(new int[] {index[block.face[3*i]], index[block.face[3*i+1]], index[block.face[3*i+2]]});
+      for (int i = 0; i < block.boundaryCount; i++)
+        boundaryVert.put(block.boundaryEdge[i], index[block.boundaryVert[i]]);
+    }
+  }
 
-          int flagIndex = 0;
-          for (int corner = 0; corner < 8; corner++)
-          {
-            cornerValues[corner] = values[vertexOffset[corner][0]][(j-miny+vertexOffset[corner][1])*zsize+k-minz+vertexOffset[corner][2]];
-            if (cornerValues[corner] <= 0)
-              flagIndex += 1<<corner;
-          }
-          int edgeFlag = cubeEdgeFlags[flagIndex];
-          if (edgeFlag == 0)
-            continue;
-          double baseX = cellSize*i-0.5*scale;
-          double baseY = cellSize*j-0.5*scale;
-          double baseZ = cellSize*k-0.5*scale;
+  /**
+   * Get a key which identifies an edge of the grid.
+   *
+   * @param axis     the direction of the edge (0, 1, or 2 for x, y, or z)
+   * @param x        the x coordinate of the lower end of the edge
+   * @param y        the y coordinate of the lower end of the edge
+   * @param z        the z coordinate of the lower end of the edge
+   * @param width    the width of the grid
+   */
+
+  private static long getEdgeKey(int axis, int x, int y, int z, int width)
+  {
+    return (((long) axis*width+x)*width+y)*width+z;
+  }
+
+  /**
+   * This holds the part of the mesh generated for a box of cells.  Vertex and face indices
+   * are local to the block.  Vertices on edges lying on a face of the box may also be created
+   * by neighboring blocks.  They are listed in boundaryVert, and the keys of their edges
+   * (see getEdgeKey()) in boundaryEdge.
+   */
+
+  static class MeshBlock
+  {
+    final int fromx, tox, fromy, toy, fromz, toz;
+    double vert[] = new double[0];
+    int face[] = new int[0], boundaryVert[] = new int[0];
+    long boundaryEdge[] = new long[0];
+    int vertCount, faceCount, boundaryCount;
+
+    /**
+     * Create an empty block for the cells whose lower corners are in the range
+     * [fromx, tox) x [fromy, toy) x [fromz, toz).
+     */
+
+    MeshBlock(int fromx, int tox, int fromy, int toy, int fromz, int toz)
+    {
+      this.fromx = fromx;
+      this.tox = tox;
+      this.fromy = fromy;
+      this.toy = toy;
+      this.fromz = fromz;
+      this.toz = toz;
+    }
+
+    int addVertex(double x, double y, double z)
+    {
+      if (3*vertCount == vert.length)
+        vert = Arrays.copyOf(vert, Math.max(3*64, 2*vert.length));
+      vert[3*vertCount] = x;
+      vert[3*vertCount+1] = y;
+      vert[3*vertCount+2] = z;
+      return vertCount++;
+    }
 
-          // Compute a vertex for each edge of the cell that intersects the surface.
+    void addFace(int v1, int v2, int v3)
+    {
+      if (3*faceCount == face.length)
+        face = Arrays.copyOf(face, Math.max(3*64, 2*face.length));
+      face[3*faceCount] = v1;
+      face[3*faceCount+1] = v2;
+      face[3*faceCount+2] = v3;
+      faceCount++;
+    }
+
+    void addBoundaryVertex(int vertex, long edge)
+    {
+      if (boundaryCount == boundaryVert.length)
+      {
+        boundaryVert = Arrays.copyOf(boundaryVert, Math.max(32, 2*boundaryVert.length));
+        boundaryEdge = Arrays.copyOf(boundaryEdge, boundaryVert.length);
+      }
+      boundaryVert[boundaryCount] = vertex;
+      boundaryEdge[boundaryCount] = edge;
+      boundaryCount++;
+    }
+  }
 
-          for (int edge = 0; edge < 12; edge++)
+  /**
+   * This is a ThreadManager task for generating the mesh for each block.
+   */
+
+  private static class BlockTask implements ThreadManager.Task
+  {
+    private VoxelOctree voxels;
+    private double scale, cellSize;
+    private int width, planeSize;
+    private MeshBlock blocks[];
+    private ThreadLocal<Workspace> workspace = new ThreadLocal<Workspace>() {
+      @Override
+      protected Workspace initialValue()
+      {
+        return new Workspace(planeSize);
+      }
+    };
+
+    public BlockTask(VoxelOctree voxels, double scale, MeshBlock blocks[])
+    {
+      this.voxels = voxels;
+      this.scale = scale;
+      this.blocks = blocks;
+      width = voxels.getWidth();
+      cellSize = scale/(width-1);
+      for (MeshBlock block : blocks)
+        if (block != null)
+          planeSize = Math.max(planeSize, (block.toy-block.fromy+1)*(block.toz-block.fromz+1));
+    }
+
+    public void execute(int index)
+    {
+      MeshBlock block = blocks[index];
+      Workspace ws = workspace.get();
+      byte values[][] = ws.values;
+      byte cornerValues[] = ws.cornerValues;
+      int edgeVertIndex[] = ws.edgeVertIndex;
+      int miny = block.fromy, maxy = block.toy;
+      int minz = block.fromz, maxz = block.toz;
+      int ysize = maxy-miny+1;
+      int zsize = maxz-minz+1;
+
+      // Look up the values for the x==fromx plane.
+
+      voxels.readBlock(block.fromx, miny, minz, 1, ysize, zsize, values[0]);
+      Arrays.fill(ws.yEdgeVert[0], -1);
+      Arrays.fill(ws.zEdgeVert[0], -1);
+      for (int i = block.fromx; i < block.tox; i++)
+      {
+        // Look up the values for the next plane.
+
+        voxels.readBlock(i+1, miny, minz, 1, ysize, zsize, values[1]);
+        Arrays.fill(ws.xEdgeVert, -1);
+        Arrays.fill(ws.yEdgeVert[1], -1);
+        Arrays.fill(ws.zEdgeVert[1], -1);
+        for (int j = miny; j < maxy; j++)
+        {
+          for (int k = minz; k < maxz; k++)
           {
-            if ((edgeFlag&(1<<edge)) != 0)
+            // Record the values at the four corners of this cell, and record which ones are outside.
+
+            int flagIndex = 0;
+            for (int corner = 0; corner < 8; corner++)
             {
-              int corner1 = edgeConnection[edge][0];
-              int vert1 = width*width*(i+vertexOffset[corner1][0])+width*(j+vertexOffset[corner1][1])+(k+vertexOffset[corner1][2]);
-              int corner2 = edgeConnection[edge][1];
-              int vert2 = width*width*(i+vertexOffset[corner2][0])+width*(j+vertexOffset[corner2][1])+(k+vertexOffset[corner2][2]);
-              Integer firstVert = (vert1 < vert2 ? vert1 : vert2);
+              cornerValues[corner] = values[vertexOffset[corner][0]][(j-miny+vertexOffset[corner][1])*zsize+k-minz+vertexOffset[corner][2]];
+              if (cornerValues[corner] <= 0)
+                flagIndex += 1<<corner;
+            }
+            int edgeFlag = cubeEdgeFlags[flagIndex];
+            if (edgeFlag == 0)
+              continue;
+            double baseX = cellSize*i-0.5*scale;
+            double baseY = cellSize*j-0.5*scale;
+            double baseZ = cellSize*k-0.5*scale;
 
-              // See if we already created a vertex for this edge.
+            // Compute a vertex for each edge of the cell that intersects the surface.
 
-              if (edgeDirection[edge][0] != 0.0)
-              {
-                Integer vertIndex = xEdgeVertMap.get(firstVert);
-                if (vertIndex == null)
-                  xEdgeVertMap.put(firstVert, vertices.size());
-                else
-                {
-                  edgeVertIndex[edge] = vertIndex;
-                  continue;
-                }
-              }
-              if (edgeDirection[edge][1] != 0.0)
-              {
-                Integer vertIndex = yEdgeVertMap.get(firstVert);
-                if (vertIndex == null)
-                  yEdgeVertMap.put(firstVert, vertices.size());
-                else
-                {
-                  edgeVertIndex[edge] = vertIndex;
-                  continue;
-                }
-              }
-              if (edgeDirection[edge][2] != 0.0)
+            for (int edge = 0; edge < 12; edge++)
+            {
+              if ((edgeFlag&(1<<edge)) != 0)
               {
-                Integer vertIndex = zEdgeVertMap.get(firstVert);
-                if (vertIndex == null)
-                  zEdgeVertMap.put(firstVert, vertices.size());
+                // See if we already created a vertex for this edge.
+
+                int base[] = edgeBase[edge];
+                int axis = edgeAxis[edge];
+                int edgeIndex = (j-miny+base[1])*zsize+k-minz+base[2];
+                int edgeVert[];
+                if (axis == 0)
+                  edgeVert = ws.xEdgeVert;
+                else if (axis == 1)
+                  edgeVert = ws.yEdgeVert[base[0]];
                 else
+                  edgeVert = ws.zEdgeVert[base[0]];
+                if (edgeVert[edgeIndex] != -1)
                 {
-                  edgeVertIndex[edge] = vertIndex;
+                  edgeVertIndex[edge] = edgeVert[edgeIndex];
                   continue;
                 }
-              }
 
-              // Create a new vertex.
+                // Create a new vertex.
+
+                double offset = findOffset(cornerValues[edgeConnection[edge][0]], cornerValues[edgeConnection[edge][1]]);
+                int vert = block.addVertex(
+                    baseX+(vertexOffset[edgeConnection[edge][0]][0]+offset*edgeDirection[edge][0])*cellSize,
+                    baseY+(vertexOffset[edgeConnection[edge][0]][1]+offset*edgeDirection[edge][1])*cellSize,
+                    baseZ+(vertexOffset[edgeConnection[edge][0]][2]+offset*edgeDirection[edge][2])*cellSize
+                );
+                edgeVert[edgeIndex] = vert;
+                edgeVertIndex[edge] = vert;
 
-              edgeVertIndex[edge] = vertices.size();
-              double offset = findOffset(cornerValues[edgeConnection[edge][0]], cornerValues[edgeConnection[edge][1]]);
-              vertices.add(new Vec3(
-                  baseX+(vertexOffset[edgeConnection[edge][0]][0]+offset*edgeDirection[edge][0])*cellSize,
-                  baseY+(vertexOffset[edgeConnection[edge][0]][1]+offset*edgeDirection[edge][1])*cellSize,
-                  baseZ+(vertexOffset[edgeConnection[edge][0]][2]+offset*edgeDirection[edge][2])*cellSize
-              ));
+                // Record vertices on the faces of the block, so the blocks can be joined later.
+
+                int x = i+base[0], y = j+base[1], z = k+base[2];
+                if ((axis != 0 && (x == block.fromx || x == block.tox)) ||
+                    (axis != 1 && (y == block.fromy || y == block.toy)) ||
+                    (axis != 2 && (z == block.fromz || z == block.toz)))
+                  block.addBoundaryVertex(vert, getEdgeKey(axis, x, y, z, width));
+              }
             }
-          }
 
-          // Create new faces.
+            // Create new faces.
 
-          for (int face = 0; face < 5; face++)
-          {
-            if (triangleConnectionTable[flagIndex][3*face] < 0)
-              break;
-            faces.add(new int[] {
-                edgeVertIndex[triangleConnectionTable[flagIndex][3*face]],
-                edgeVertIndex[triangleConnectionTable[flagIndex][3*face+1]],
-                edgeVertIndex[triangleConnectionTable[flagIndex][3*face+2]],
-            });
+            for (int face = 0; face < 5; face++)
+            {
+              if (triangleConnectionTable[flagIndex][3*face] < 0)
+                break;
+              block.addFace(edgeVertIndex[triangleConnectionTable[flagIndex][3*face]],
+                  edgeVertIndex[triangleConnectionTable[flagIndex][3*face+1]],
+                  edgeVertIndex[triangleConnectionTable[flagIndex][3*face+2]]);
+            }
           }
         }
+
+        // Swap the arrays so the values and edge vertices for x==i+1 will be in the first ones.
+
+        byte temp[] = values[0];
+        values[0] = values[1];
+        values[1] = temp;
+        int tempVert[] = ws.yEdgeVert[0];
+        ws.yEdgeVert[0] = ws.yEdgeVert[1];
+        ws.yEdgeVert[1] = tempVert;
+        tempVert = ws.zEdgeVert[0];
+        ws.zEdgeVert[0] = ws.zEdgeVert[1];
+        ws.zEdgeVert[1] = tempVert;
       }
+    }
+
+    public void cleanup()
+    {
+    }
+  }
+
+  /**
+   * This holds the arrays used by a thread while processing blocks.  The edge vertex arrays
+   * hold the index of the vertex created on each edge of the current layer of cells, or -1.
+   */
+
+  private static class Workspace
+  {
+    byte values[][];
+    byte cornerValues[] = new byte[8];
+    int edgeVertIndex[] = new int[12];
+    int xEdgeVert[], yEdgeVert[][], zEdgeVert[][];
+
+    Workspace(int planeSize)
+    {
+      values = new byte[2][planeSize];
+      xEdgeVert = new int[planeSize];
+      yEdgeVert = new int[2][planeSize];
+      zEdgeVert = new int[2][planeSize];
+    }
+  }
+
+  /**
+   * This is a map from edge keys to vertex indices, using open addressing.
+   */
+
+  private static class EdgeVertexMap
+  {
+    private long keys[] = new long[64];
+    private int value[] = new int[64];
+    private boolean used[] = new boolean[64];
+    private int size;
+
+    /**
+     * Get the vertex for an edge, or -1 if there is none.
+     */
 
-      // Clean up the edge vertex maps, deleting records for vertices that we don't need any more.
-
-      int firstNeeded = width*width*(i+1);
-      Iterator<Map.Entry<Integer, Integer>> xiter = xEdgeVertMap.entrySet().iterator();
-      while (xiter.hasNext())
-        if (xiter.next().getKey() < firstNeeded)
-          xiter.remove();
-      Iterator<Map.Entry<Integer, Integer>> yiter = yEdgeVertMap.entrySet().iterator();
-      while (yiter.hasNext())
-        if (yiter.next().getKey() < firstNeeded)
-          yiter.remove();
-      Iterator<Map.Entry<Integer, Integer>> ziter = zEdgeVertMap.entrySet().iterator();
-      while (ziter.hasNext())
-        if (ziter.next().getKey() < firstNeeded)
-          ziter.remove();
-
-      // Swap the value arrays so the values for x==i+1 will be in values[0].
-
-      byte temp[] = values[0];
-      values[0] = values[1];
-      values[1] = temp;
+    int get(long key)
+    {
+      int mask = keys.length-1;
+      for (int i = hash(key)&mask; used[i]; i = (i+1)&mask)
+        if (keys[i] == key)
+          return value[i];
+      return -1;
+    }
+
+    void put(long key, int vertex)
+    {
+      if (2*(size+1) > keys.length)
+        grow();
+      int mask = keys.length-1;
+      int i;
+      for (i = hash(key)&mask; used[i]; i = (i+1)&mask)
+        if (keys[i] == key)
+        {
+          value[i] = vertex;
+          return;
+        }
+      keys[i] = key;
+      value[i] = vertex;
+      used[i] = true;
+      size++;
+    }
+
+    private void grow()
+    {
+      long oldKeys[] = keys;
+      int oldValue[] = value;
+      boolean oldUsed[] = used;
+      keys = new long[2*oldKeys.length];
+      value = new int[keys.length];
+      used = new boolean[keys.length];
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++)
+        if (oldUsed[i])
+          put(oldKeys[i], oldValue[i]);
+    }
+
+    private static int hash(long key)
+    {
+      long h = key*0x9E3779B97F4A7C15L;
+      return (int) (h^(h>>>32));
     }
   }
 
@@ -74,7 +74,7 @@ public class PaintVoxelsTool extends EditingTool
     tracer = new VoxelTracer(copy);
     int range[] = paintPoint(lastPos, obj);
     VoxelObjectEditorWindow win = (VoxelObjectEditorWindow) theWindow;
-    win.objectChanged();
+    win.objectChanged(range[0], range[1], range[2], range[3], range[4], range[5]);
     VoxelOctree voxels = obj.getVoxels();
     win.voxelsChanged(Math.max(0, range[0]-1), Math.min(voxels.getWidth()-1, range[1]+1),
         Math.max(0, range[2]-1), Math.min(voxels.getWidth()-1, range[3]+1), Math.max(0, range[4]-1),
@@ -99,7 +99,7 @@ public class PaintVoxelsTool extends EditingTool
     }
     int range[] = paintLine(lastPos, pos, obj);
     VoxelObjectEditorWindow win = (VoxelObjectEditorWindow) theWindow;
-    win.objectChanged();
+    win.objectChanged(range[0], range[1], range[2], range[3], range[4], range[5]);
     VoxelOctree voxels = obj.getVoxels();
     win.voxelsChanged(Math.max(0, range[0]-1), Math.min(voxels.getWidth()-1, range[1]+1),
         Math.max(0, range[2]-1), Math.min(voxels.getWidth()-1, range[3]+1), Math.max(0, range[4]-1),
@@ -175,6 +175,12 @@ public class PaintVoxelsTool extends EditingTool
       width *= 2;
       obj.setScale(obj.getScale()*2);
     }
+    int xsize = maxx-minx+1;
+    int ysize = maxy-miny+1;
+    int zsize = maxz-minz+1;
+    byte values[] = new byte[xsize*ysize*zsize];
+    voxels.readBlock(minx, miny, minz, xsize, ysize, zsize, values);
+    boolean changed = false;
     for (int x = minx; x <= maxx; x++)
       for (int y = miny; y <= maxy; y++)
         for (int z = minz; z <= maxz; z++)
@@ -185,7 +191,8 @@ public class PaintVoxelsTool extends EditingTool
           double dist = Math.sqrt(dx*dx + dy*dy + dz*dz);
           if (dist >= radius+1.0)
             continue;
-          byte oldValue = voxels.getValue(x, y, z);
+          int index = ((x-minx)*ysize+y-miny)*zsize+z-minz;
+          byte oldValue = values[index];
           byte newValue;
           if (negative)
           {
@@ -202,8 +209,13 @@ public class PaintVoxelsTool extends EditingTool
               newValue = (byte) Math.max(oldValue, Byte.MAX_VALUE*(radius-dist));
           }
           if (newValue != oldValue)
-            voxels.setValue(x, y, z, newValue);
+          {
+            values[index] = newValue;
+            changed = true;
+          }
         }
+    if (changed)
+      voxels.writeBlock(minx, miny, minz, xsize, ysize, zsize, values);
     return new int[] {minx, maxx, miny, maxy, minz, maxz};
   }
 
@@ -23,6 +23,7 @@ public class SmudgeVoxelsTool extends EditingTool
 {
   private int width, offset;
   private float lastValues[], values[], weight[];
+  private byte block[];
   private float smoothing = 1.0f;
   private int lastx, lasty, lastz;
   private Vec3 lastPos;
@@ -81,6 +82,7 @@ public class SmudgeVoxelsTool extends EditingTool
     lastValues = new float[width*width*width];
     values = new float[width*width*width];
     weight = new float[width*width*width];
+    block = new byte[width*width*width];
 
     // Calculate the weights for each voxel.
 
@@ -223,7 +225,7 @@ public class SmudgeVoxelsTool extends EditingTool
     VoxelOctree voxels = obj.getVoxels();
     while (true)
     {
-      // Look up the new values, then smooth the old and new values.
+      // Look up the values for the region containing both the old and new locations.
 
       int xbase = x-offset;
       int ybase = y-offset;
@@ -231,7 +233,21 @@ public class SmudgeVoxelsTool extends EditingTool
       int lastxbase = lastx-offset;
       int lastybase = lasty-offset;
       int lastzbase = lastz-offset;
-      findVoxelValues(voxels, xbase, ybase, zbase, values);
+      int regionx = Math.min(xbase, lastxbase);
+      int regiony = Math.min(ybase, lastybase);
+      int regionz = Math.min(zbase, lastzbase);
+      int xsize = Math.abs(xbase-lastxbase)+width;
+      int ysize = Math.abs(ybase-lastybase)+width;
+      int zsize = Math.abs(zbase-lastzbase)+width;
+      byte region[] = new byte[xsize*ysize*zsize];
+      voxels.readBlock(regionx, regiony, regionz, xsize, ysize, zsize, region);
+      for (int i = 0; i < width; i++)
+        for (int j = 0; j < width; j++)
+          for (int k = 0; k < width; k++)
+            values[i*width*width+j*width+k] = region[((xbase-regionx+i)*ysize+ybase-regiony+j)*zsize+zbase-regionz+k];
+
+      // Smooth the old and new values.
+
       for (int i = 0; i < width; i++)
           for (int j = 0; j < width; j++)
               for (int k = 0; k < width; k++)
@@ -240,15 +256,12 @@ public class SmudgeVoxelsTool extends EditingTool
                 if (values[index] >= lastValues[index] || weight[index] == 0.0f)
                   continue;
                 float transfer = 0.5f*smoothing*weight[index]*(lastValues[index]-values[index]);
-                int xindex = lastxbase+i;
-                int yindex = lastybase+j;
-                int zindex = lastzbase+k;
-                voxels.setValue(xindex, yindex, zindex, (byte) (voxels.getValue(xindex, yindex, zindex)-transfer));
-                xindex = xbase+i;
-                yindex = ybase+j;
-                zindex = zbase+k;
-                voxels.setValue(xindex, yindex, zindex, (byte) (voxels.getValue(xindex, yindex, zindex)+transfer));
+                int regionIndex = ((lastxbase-regionx+i)*ysize+lastybase-regiony+j)*zsize+lastzbase-regionz+k;
+                region[regionIndex] = (byte) (region[regionIndex]-transfer);
+                regionIndex = ((xbase-regionx+i)*ysize+ybase-regiony+j)*zsize+zbase-regionz+k;
+                region[regionIndex] = (byte) (region[regionIndex]+transfer);
               }
+      voxels.writeBlock(regionx, regiony, regionz, xsize, ysize, zsize, region);
       lastx = x;
       lasty = y;
       lastz = z;
@@ -297,7 +310,7 @@ public class SmudgeVoxelsTool extends EditingTool
     // Update the view.
 
     VoxelObjectEditorWindow win = (VoxelObjectEditorWindow) theWindow;
-    win.objectChanged();
+    win.objectChanged(minx, maxx, miny, maxy, minz, maxz);
     win.voxelsChanged(minx, maxx, miny, maxy, minz, maxz);
     theWindow.updateImage();
   }
@@ -313,6 +326,7 @@ public class SmudgeVoxelsTool extends EditingTool
     lastValues = null;
     values = null;
     weight = null;
+    block = null;
   }
 
   /**
@@ -321,16 +335,9 @@ public class SmudgeVoxelsTool extends EditingTool
 
   private void findVoxelValues(VoxelOctree voxels, int xbase, int ybase, int zbase, float values[])
   {
-    for (int i = 0; i < width; i++)
-      for (int j = 0; j < width; j++)
-        for (int k = 0; k < width; k++)
-        {
-          int index = i*width*width+j*width+k;
-          int x = i+xbase;
-          int y = j+ybase;
-          int z = k+zbase;
-          values[index] = voxels.getValue(x, y, z);
-        }
+    voxels.readBlock(xbase, ybase, zbase, width, width, width, block);
+    for (int i = 0; i < block.length; i++)
+      values[i] = block[i];
   }
 
   /**
@@ -0,0 +1,129 @@
+/* Copyright (C) 2026 by the Rodin plugin contributors
+
+   This program is free software; you can redistribute it and/or modify it under the
+   terms of the GNU General Public License as published by the Free Software
+   Foundation; either version 2 of the License, or (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful, but WITHOUT ANY
+   WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A
+   PARTICULAR PURPOSE.  See the GNU General Public License for more details. */
+
+package artofillusion.rodin;
+
+import artofillusion.math.*;
+
+import java.util.*;
+import java.util.List;
+
+/**
+ * This class stores the mesh for a VoxelOctree, divided into cubic chunks of cells, so that
+ * after a block of values changes only the chunks near it need to be regenerated.  The mesh
+ * for each chunk is generated by MarchingCubes.  Chunks are joined by merging the vertices
+ * they create on shared edges, so the complete mesh has the same faces as one produced by
+ * processing every cell of the grid at once.
+ */
+
+public class VoxelMeshCache
+{
+  public static final int CHUNK_SIZE = 32;
+
+  private MarchingCubes.MeshBlock chunk[];
+  private int depth, numChunks;
+
+  public VoxelMeshCache()
+  {
+  }
+
+  /**
+   * Create a copy of this cache.  Chunks that have been generated are shared between the
+   * copies, since they are never modified.
+   */
+
+  public synchronized VoxelMeshCache duplicate()
+  {
+    VoxelMeshCache copy = new VoxelMeshCache();
+    if (chunk != null)
+    {
+      copy.chunk = chunk.clone();
+      copy.depth = depth;
+      copy.numChunks = numChunks;
+    }
+    return copy;
+  }
+
+  /**
+   * Discard all chunks.  This should be called when the values of the VoxelOctree have
+   * changed in ways that are not described by a block.
+   */
+
+  public synchronized void invalidate()
+  {
+    chunk = null;
+  }
+
+  /**
+   * Discard the chunks containing cells that have a corner inside a block of grid points.
+   * This should be called whenever a block of values in the VoxelOctree has changed.
+   */
+
+  public synchronized void invalidate(int fromx, int tox, int fromy, int toy, int fromz, int toz)
+  {
+    if (chunk == null)
+      return;
+    int minx = Math.max(0, (fromx-1)/CHUNK_SIZE), maxx = Math.min(numChunks-1, tox/CHUNK_SIZE);
+    int miny = Math.max(0, (fromy-1)/CHUNK_SIZE), maxy = Math.min(numChunks-1, toy/CHUNK_SIZE);
+    int minz = Math.max(0, (fromz-1)/CHUNK_SIZE), maxz = Math.min(numChunks-1, toz/CHUNK_SIZE);
+    for (int i = minx; i <= maxx; i++)
+      for (int j = miny; j <= maxy; j++)
+        for (int k = minz; k <= maxz; k++)
+          chunk[(i*numChunks+j)*numChunks+k] = null;
+  }
+
+  /**
+   * Construct a mesh from a VoxelOctree, regenerating only the chunks which have been
+   * discarded since the last call.
+   *
+   * @param voxels     the VoxelOctree for which to create a mesh.  This must be the same
+   *                   VoxelOctree (or have the same values) every time this is called, except
+   *                   for changes reported through invalidate().
+   * @param scale      the size of the mesh that should be generated
+   * @param vertices   the coordinates of mesh vertices will be added to this List
+   * @param faces      an int[3] will be added to this List containing the vertex indices for each mesh face
+   */
+
+  public synchronized void generateMesh(VoxelOctree voxels, double scale, List<Vec3> vertices, List<int[]> faces)
+  {
+    int width = voxels.getWidth();
+    if (chunk == null || depth != voxels.getDepth())
+    {
+      depth = voxels.getDepth();
+      numChunks = (width-1+CHUNK_SIZE-1)/CHUNK_SIZE;
+      chunk = new MarchingCubes.MeshBlock[numChunks*numChunks*numChunks];
+    }
+
+    // Create the missing chunks.  Chunks whose cells are all outside the data bounds are empty.
+
+    int bounds[] = voxels.findDataBounds();
+    MarchingCubes.MeshBlock update[] = new MarchingCubes.MeshBlock[chunk.length];
+    int count = 0;
+    for (int i = 0; i < numChunks; i++)
+      for (int j = 0; j < numChunks; j++)
+        for (int k = 0; k < numChunks; k++)
+        {
+          int index = (i*numChunks+j)*numChunks+k;
+          if (chunk[index] != null)
+            continue;
+          int fromx = i*CHUNK_SIZE, tox = Math.min(fromx+CHUNK_SIZE, width-1);
+          int fromy = j*CHUNK_SIZE, toy = Math.min(fromy+CHUNK_SIZE, width-1);
+          int fromz = k*CHUNK_SIZE, toz = Math.min(fromz+CHUNK_SIZE, width-1);
+          chunk[index] = new MarchingCubes.MeshBlock(fromx, tox, fromy, toy, fromz, toz);
+          if (tox >= bounds[0] && fromx <= bounds[1] && toy >= bounds[2] && fromy <= bounds[3] && toz >= bounds[4] && fromz <= bounds[5])
+            update[count++] = chunk[index];
+        }
+
+    // Chunks are generated with a cell size of 1, and scaled when they are joined.
+
+    MarchingCubes.generateBlocks(voxels, width-1, update, count);
+    MarchingCubes.joinBlocks(chunk, width, scale/(width-1), vertices, faces);
+  }
+}
@@ -26,12 +26,14 @@ public class VoxelObject extends ImplicitObject
   private WireframeMesh cachedWire;
   private RenderingMesh cachedMesh;
   private BoundingBox cachedBounds;
+  private VoxelMeshCache meshCache;
   private boolean voxelsAreShared;
 
   public VoxelObject(int depth)
   {
     voxels = new VoxelOctree(depth);
     scale = 1.0;
+    meshCache = new VoxelMeshCache();
   }
 
   public double getScale()
@@ -100,6 +102,7 @@ public class VoxelObject extends ImplicitObject
     vo.voxelsAreShared = true;
     copyTextureAndMaterial(obj);
     clearCachedMeshes();
+    meshCache = vo.meshCache.duplicate();
   }
 
   public BoundingBox getBounds()
@@ -143,7 +146,7 @@ public class VoxelObject extends ImplicitObject
       return cachedMesh;
     ArrayList<Vec3> vertices = new ArrayList<Vec3>();
     ArrayList<int[]> faces = new ArrayList<int[]>();
-    MarchingCubes.generateMesh(voxels, scale, vertices, faces);
+    meshCache.generateMesh(voxels, scale, vertices, faces);
     RenderingTriangle tri[] = new RenderingTriangle[faces.size()];
     Vec3 vert[] = vertices.toArray(new Vec3[vertices.size()]);
     for (int i = 0; i < tri.length; i++)
@@ -173,17 +176,15 @@ public class VoxelObject extends ImplicitObject
       for (int y = 0; y < ysize; y++)
         for (int z = 0; z < 3; z++)
           values[z][x][y] = Byte.MIN_VALUE;
-    for (int x = 1; x <= xsize; x++)
-      for (int y = 1; y <= ysize; y++)
-      {
-        values[1][x][y] = voxels.getValue(bounds[0]+x-1, bounds[2]+y-1, bounds[4]);
-        values[2][x][y] = voxels.getValue(bounds[0]+x-1, bounds[2]+y-1, bounds[4]+1);
-      }
+    byte plane[] = new byte[xsize*ysize];
+    loadPlane(bounds, bounds[4], plane, values[1]);
+    loadPlane(bounds, bounds[4]+1, plane, values[2]);
 
     // Loop over values and find ones that can be set to Byte.MIN_VALUE or Byte.MAX_VALUE.
 
     for (int z = bounds[4]; z <= bounds[5]; z++)
     {
+      boolean changed = false;
       for (int x = 1; x <= xsize; x++)
         for (int y = 1; y <= ysize; y++)
         {
@@ -201,24 +202,44 @@ public class VoxelObject extends ImplicitObject
                 else if (val > 0)
                   numPositive++;
               }
+          byte newValue = values[1][x][y];
           if (numNegative == 27)
-            voxels.setValue(x+bounds[0]-1, y+bounds[2]-1, z, Byte.MIN_VALUE);
+            newValue = Byte.MIN_VALUE;
           else if (numPositive == 27)
-            voxels.setValue(x+bounds[0]-1, y+bounds[2]-1, z, Byte.MAX_VALUE);
+            newValue = Byte.MAX_VALUE;
+          if (newValue != values[1][x][y])
+            changed = true;
+          plane[(x-1)*ysize+y-1] = newValue;
         }
 
+      // Store the new values for the whole layer at once.
+
+      if (changed)
+        voxels.writeBlock(bounds[0], bounds[2], z, xsize, ysize, 1, plane);
+
       // Load the next layer of values.
 
       byte temp[][] = values[0];
       values[0] = values[1];
       values[1] = values[2];
       values[2] = temp;
-      for (int x = 1; x <= xsize; x++)
-        for (int y = 1; y <= ysize; y++)
-          values[2][x][y] = voxels.getValue(bounds[0]+x-1, bounds[2]+y-1, z+2);
+      loadPlane(bounds, z+2, plane, values[2]);
     }
   }
 
+  /**
+   * Copy the values for one z layer of the data bounds into the interior of a padded array.
+   */
+
+  private void loadPlane(int bounds[], int z, byte plane[], byte values[][])
+  {
+    int xsize = bounds[1]-bounds[0]+1;
+    int ysize = bounds[3]-bounds[2]+1;
+    voxels.readBlock(bounds[0], bounds[2], z, xsize, ysize, 1, plane);
+    for (int x = 1; x <= xsize; x++)
+      System.arraycopy(plane, (x-1)*ysize, values[x], 1, ysize);
+  }
+
 
   public Keyframe getPoseKeyframe()
   {
@@ -265,7 +286,7 @@ public class VoxelObject extends ImplicitObject
   {
     ArrayList<Vec3> vertices = new ArrayList<Vec3>();
     ArrayList<int[]> faces = new ArrayList<int[]>();
-    MarchingCubes.generateMesh(voxels, scale, vertices, faces);
+    meshCache.generateMesh(voxels, scale, vertices, faces);
     Vec3 vert[] = vertices.toArray(new Vec3[vertices.size()]);
     int face[][] = faces.toArray(new int[faces.size()][]);
     return new TriangleMesh(vert, face);
@@ -286,6 +307,20 @@ public class VoxelObject extends ImplicitObject
     cachedWire = null;
     cachedMesh = null;
     cachedBounds = null;
+    meshCache.invalidate();
+  }
+
+  /**
+   * Discard cached meshes after a block of voxel values has changed.  Only the parts of the
+   * mesh near the block will be regenerated.
+   */
+
+  public void clearCachedMeshes(int fromx, int tox, int fromy, int toy, int fromz, int toz)
+  {
+    cachedWire = null;
+    cachedMesh = null;
+    cachedBounds = null;
+    meshCache.invalidate(fromx, tox, fromy, toy, fromz, toz);
   }
 
   /**
@@ -295,20 +330,42 @@ public class VoxelObject extends ImplicitObject
   public VoxelObject(DataInputStream in, Scene theScene) throws IOException
   {
     super(in, theScene);
+    meshCache = new VoxelMeshCache();
     scale = in.readDouble();
     voxels = new VoxelOctree(in.readInt());
     int minx = in.readInt();
     int maxx = in.readInt();
     int miny = in.readInt();
     int maxy = in.readInt();
+    int ysize = maxy-miny+1;
+    int first[] = new int[Math.max(ysize, 0)];
+    byte column[][] = new byte[first.length][];
     for (int i = minx; i <= maxx; i++)
-      for (int j = miny; j <= maxy; j++)
+    {
+      // Read the columns for this value of x, then store them all together.
+
+      int minz = Integer.MAX_VALUE, maxz = Integer.MIN_VALUE;
+      for (int j = 0; j < ysize; j++)
       {
-        int first = in.readShort();
-        int count = in.readShort();
-        for (int k = 0; k < count; k++)
-          voxels.setValue(i, j, first+k, in.readByte());
+        first[j] = in.readShort();
+        column[j] = new byte[in.readShort()];
+        in.readFully(column[j]);
+        if (column[j].length > 0)
+        {
+          minz = Math.min(minz, first[j]);
+          maxz = Math.max(maxz, first[j]+column[j].length-1);
+        }
       }
+      if (minz > maxz)
+        continue;
+      int zsize = maxz-minz+1;
+      byte values[] = new byte[ysize*zsize];
+      Arrays.fill(values, Byte.MIN_VALUE);
+      for (int j = 0; j < ysize; j++)
+        if (column[j].length > 0)
+          System.arraycopy(column[j], 0, values, j*zsize+first[j]-minz, column[j].length);
+      voxels.writeBlock(i, miny, minz, 1, ysize, zsize, values);
+    }
   }
 
   /**
@@ -326,19 +383,25 @@ public class VoxelObject extends ImplicitObject
     out.writeInt(bounds[1]);
     out.writeInt(bounds[2]);
     out.writeInt(bounds[3]);
+    int ysize = bounds[3]-bounds[2]+1;
+    int zsize = bounds[5]-bounds[4]+1;
+    byte values[] = new byte[ysize*zsize];
     for (int i = bounds[0]; i <= bounds[1]; i++)
-      for (int j = bounds[2]; j <= bounds[3]; j++)
+    {
+      voxels.readBlock(i, bounds[2], bounds[4], 1, ysize, zsize, values);
+      for (int j = 0; j < ysize; j++)
       {
+        int base = j*zsize-bounds[4];
         int first, last;
-        for (first = bounds[4]; first <= bounds[5] && voxels.getValue(i, j, first) == Byte.MIN_VALUE; first++);
+        for (first = bounds[4]; first <= bounds[5] && values[base+first] == Byte.MIN_VALUE; first++);
         if (first > bounds[5])
           last = first-1;
         else
-          for (last = bounds[5]; voxels.getValue(i, j, last) == Byte.MIN_VALUE; last--);
+          for (last = bounds[5]; values[base+last] == Byte.MIN_VALUE; last--);
         out.writeShort(first-1);
         out.writeShort(last-first+1);
-        for (int k = first; k <= last; k++)
-          out.writeByte(voxels.getValue(i, j, k));
+        out.write(values, base+first, last-first+1);
       }
+    }
   }
 }
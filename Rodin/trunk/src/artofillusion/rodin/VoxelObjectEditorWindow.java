@@ -179,6 +179,14 @@ public class VoxelObjectEditorWindow extends ObjectEditorWindow
     ((VoxelObject) getObject().getObject()).clearCachedMeshes();
   }
 
+  /** This should be called whenever a block of values in the object has changed. */
+
+  public void objectChanged(int fromx, int tox, int fromy, int toy, int fromz, int toz)
+  {
+    getObject().clearCachedMeshes();
+    ((VoxelObject) getObject().getObject()).clearCachedMeshes(fromx, tox, fromy, toy, fromz, toz);
+  }
+
   /** This should be called whenever the VoxelObject has changed. */
 
   public void voxelsChanged()
@@ -140,8 +140,9 @@ public class VoxelObjectViewer extends ViewerCanvas
     if (maxx > minx)
     {
       ThreadManager threads = getWindow().getThreadManager();
-      threads.setNumIndices((maxx-minx)*(maxy-miny));
-      threads.setTask(new RenderTask(minx, maxx, miny));
+      RenderTask task = new RenderTask(minx, maxx, miny, maxy);
+      threads.setNumIndices(task.getTileCount());
+      threads.setTask(task);
       threads.run();
     }
 
@@ -250,13 +251,20 @@ public class VoxelObjectViewer extends ViewerCanvas
   }
 
   /**
-   * This is a ThreadManager task for rendering the viewing in parallel.
+   * This is a ThreadManager task for rendering the viewing in parallel.  Each index renders a
+   * square tile of pixels.  Tiles are processed in Morton order, so tiles rendered at about the
+   * same time are close together on screen and look up nearby parts of the VoxelObject.  A tile
+   * whose rays all miss the bounding box of the surface is cleared without tracing any rays.
    */
 
   private class RenderTask implements ThreadManager.Task
   {
-    private int viewWidth, regionWidth, xoffset, yoffset;
+    private static final int TILE_SIZE = 16;
+
+    private int viewWidth, minx, maxx, miny, maxy, tilesx;
+    private int tileOrder[];
     private Vec3 origin, direction, base, dx, dy, viewDir;
+    private Vec3 boundsCorner[];
     private VoxelTracer tracer;
     ThreadLocal<ThreadInfo> threadInfo = new ThreadLocal<ThreadInfo>() {
       @Override
@@ -267,11 +275,18 @@ public class VoxelObjectViewer extends ViewerCanvas
         info.direction = new Vec3(direction);
         info.normal = new Vec3();
         info.color = new RGBColor();
+        info.rayOrigin = new Vec3[4];
+        info.rayDirection = new Vec3[4];
+        for (int i = 0; i < 4; i++)
+        {
+          info.rayOrigin[i] = new Vec3();
+          info.rayDirection[i] = new Vec3();
+        }
         return info;
       }
     };
 
-    public RenderTask(int minx, int maxx, int miny)
+    public RenderTask(int minx, int maxx, int miny, int maxy)
     {
       Mat4 toLocal = getWindow().getObject().getCoords().toLocal();
       if (theCamera.isPerspective())
@@ -292,19 +307,116 @@ public class VoxelObjectViewer extends ViewerCanvas
         dx = theCamera.convertScreenToWorld(new Point(1, 0), 0.0, false).minus(base);
         dy = theCamera.convertScreenToWorld(new Point(0, 1), 0.0, false).minus(base);
       }
-      xoffset = minx;
-      yoffset = miny;
-      regionWidth = maxx-minx;
+      this.minx = minx;
+      this.maxx = maxx;
+      this.miny = miny;
+      this.maxy = maxy;
       viewWidth = getBounds().width;
       viewDir = theCamera.getViewToWorld().timesDirection(Vec3.vz());
       tracer = getWindow().getVoxelTracer();
+      boundsCorner = tracer.getBounds().getCorners();
+
+      // Sort the tiles into Morton order.
+
+      tilesx = (maxx-minx+TILE_SIZE-1)/TILE_SIZE;
+      int tilesy = (maxy-miny+TILE_SIZE-1)/TILE_SIZE;
+      long key[] = new long[tilesx*tilesy];
+      for (int i = 0; i < tilesx; i++)
+        for (int j = 0; j < tilesy; j++)
+        {
+          long code = 0;
+          for (int bit = 0; bit < 16; bit++)
+            code |= ((long) ((i>>bit)&1)<<(2*bit)) | ((long) ((j>>bit)&1)<<(2*bit+1));
+          key[i+j*tilesx] = (code<<32)+i+j*tilesx;
+        }
+      Arrays.sort(key);
+      tileOrder = new int[key.length];
+      for (int i = 0; i < key.length; i++)
+        tileOrder[i] = (int) key[i];
+    }
+
+    /**
+     * Get the number of tiles to render.  This is the number of indices the task should be
+     * executed for.
+     */
+
+    public int getTileCount()
+    {
+      return tileOrder.length;
     }
 
     public void execute(int index)
     {
-      int i = index%regionWidth+xoffset;
-      int j = index/regionWidth+yoffset;
+      int tile = tileOrder[index];
+      int fromx = minx+(tile%tilesx)*TILE_SIZE;
+      int fromy = miny+(tile/tilesx)*TILE_SIZE;
+      int tox = Math.min(fromx+TILE_SIZE, maxx);
+      int toy = Math.min(fromy+TILE_SIZE, maxy);
       ThreadInfo info = threadInfo.get();
+      if (!isTileVisible(fromx, tox-1, fromy, toy-1, info))
+      {
+        for (int j = fromy; j < toy; j++)
+          Arrays.fill(pixel, fromx+j*viewWidth, tox+j*viewWidth, 0);
+        return;
+      }
+      for (int j = fromy; j < toy; j++)
+        for (int i = fromx; i < tox; i++)
+          renderPixel(i, j, info);
+    }
+
+    /**
+     * Determine whether any ray in a tile might hit the bounding box of the surface.  The rays
+     * through the corners of the tile bound a volume containing all the others.  If every corner
+     * of the bounding box is outside one of its sides, no ray can hit the surface.
+     */
+
+    private boolean isTileVisible(int fromx, int tox, int fromy, int toy, ThreadInfo info)
+    {
+      setRay(fromx, fromy, info.rayOrigin[0], info.rayDirection[0]);
+      setRay(tox, fromy, info.rayOrigin[1], info.rayDirection[1]);
+      setRay(tox, toy, info.rayOrigin[2], info.rayDirection[2]);
+      setRay(fromx, toy, info.rayOrigin[3], info.rayDirection[3]);
+      for (int side = 0; side < 4; side++)
+      {
+        // Find the plane containing the rays through two adjacent corners, oriented so the
+        // other corners are on its positive side.
+
+        Vec3 orig1 = info.rayOrigin[side], dir1 = info.rayDirection[side];
+        Vec3 orig2 = info.rayOrigin[(side+1)%4], dir2 = info.rayDirection[(side+1)%4];
+        Vec3 normal = orig2.plus(dir2).minus(orig1).cross(dir1);
+        Vec3 opposite = info.rayOrigin[(side+2)%4].plus(info.rayDirection[(side+2)%4]).minus(orig1);
+        if (normal.dot(opposite) < 0.0)
+          normal.scale(-1.0);
+        boolean outside = true;
+        for (int i = 0; i < boundsCorner.length && outside; i++)
+          outside = (normal.dot(boundsCorner[i].minus(orig1)) < 0.0);
+        if (outside)
+          return false;
+      }
+      return true;
+    }
+
+    /**
+     * Find the ray through a pixel.
+     */
+
+    private void setRay(int i, int j, Vec3 rayOrigin, Vec3 rayDirection)
+    {
+      if (theCamera.isPerspective())
+      {
+        rayOrigin.set(origin);
+        rayDirection.set(base.x+i*dx.x+j*dy.x, base.y+i*dx.y+j*dy.y, base.z+i*dx.z+j*dy.z);
+        rayDirection.subtract(origin);
+      }
+      else
+      {
+        rayOrigin.set(base.x+i*dx.x+j*dy.x, base.y+i*dx.y+j*dy.y, base.z+i*dx.z+j*dy.z);
+        rayDirection.set(direction);
+      }
+    }
+
+    private void renderPixel(int i, int j, ThreadInfo info)
+    {
       if (theCamera.isPerspective())
       {
         info.direction.set(base.x+i*dx.x+j*dy.x, base.y+i*dx.y+j*dy.y, base.z+i*dx.z+j*dy.z);
@@ -333,6 +445,7 @@ public class VoxelObjectViewer extends ViewerCanvas
     private class ThreadInfo
     {
       public Vec3 origin, direction, normal;
+      public Vec3 rayOrigin[], rayDirection[];
       public RGBColor color;
     }
   }
@@ -120,6 +120,134 @@ public class VoxelOctree
     return node;
   }
 
+  /**
+   * Get the values of a block of grid points.  This is much faster than calling getValue()
+   * for each point, since the tree is only traversed once for the whole block, and regions
+   * of constant value are copied with a single fill.
+   *
+   * @param x0       the x coordinate of the first point in the block
+   * @param y0       the y coordinate of the first point in the block
+   * @param z0       the z coordinate of the first point in the block
+   * @param dx       the size of the block along the x axis
+   * @param dy       the size of the block along the y axis
+   * @param dz       the size of the block along the z axis
+   * @param values   on exit, the value of the point (x0+i, y0+j, z0+k) is stored in
+   *                 values[(i*dy+j)*dz+k].  Points outside the grid are set to Byte.MIN_VALUE.
+   */
+
+  public void readBlock(int x0, int y0, int z0, int dx, int dy, int dz, byte values[])
+  {
+    if (dx <= 0 || dy <= 0 || dz <= 0)
+      return;
+    int width = 1<<depth;
+    if (x0 < 0 || y0 < 0 || z0 < 0 || x0+dx > width || y0+dy > width || z0+dz > width)
+      Arrays.fill(values, 0, dx*dy*dz, Byte.MIN_VALUE);
+    readBlock(root, depth, 0, 0, 0, x0, y0, z0, dx, dy, dz, values);
+  }
+
+  private void readBlock(VoxelTreeNode node, int depth, int nx, int ny, int nz, int x0, int y0, int z0, int dx, int dy, int dz, byte values[])
+  {
+    int size = 1<<depth;
+    int fromx = Math.max(nx, x0), tox = Math.min(nx+size, x0+dx);
+    int fromy = Math.max(ny, y0), toy = Math.min(ny+size, y0+dy);
+    int fromz = Math.max(nz, z0), toz = Math.min(nz+size, z0+dz);
+    if (fromx >= tox || fromy >= toy || fromz >= toz)
+      return;
+    if (node.children == null)
+    {
+      for (int x = fromx; x < tox; x++)
+        for (int y = fromy; y < toy; y++)
+        {
+          int base = ((x-x0)*dy+y-y0)*dz-z0;
+          Arrays.fill(values, base+fromz, base+toz, node.value);
+        }
+      return;
+    }
+    depth--;
+    int half = 1<<depth;
+    for (int child = 0; child < 8; child++)
+      readBlock(node.children[child], depth, nx+((child&4) == 0 ? 0 : half), ny+((child&2) == 0 ? 0 : half),
+          nz+((child&1) == 0 ? 0 : half), x0, y0, z0, dx, dy, dz, values);
+  }
+
+  /**
+   * Set the values of a block of grid points.  This is much faster than calling setValue()
+   * for each point.  The tree is traversed once for the whole block, and nodes whose values
+   * have all become equal are merged as the traversal returns.
+   *
+   * @param x0       the x coordinate of the first point in the block
+   * @param y0       the y coordinate of the first point in the block
+   * @param z0       the z coordinate of the first point in the block
+   * @param dx       the size of the block along the x axis
+   * @param dy       the size of the block along the y axis
+   * @param dz       the size of the block along the z axis
+   * @param values   the value of the point (x0+i, y0+j, z0+k) is values[(i*dy+j)*dz+k].
+   *                 Points outside the grid are ignored.
+   */
+
+  public void writeBlock(int x0, int y0, int z0, int dx, int dy, int dz, byte values[])
+  {
+    if (dx <= 0 || dy <= 0 || dz <= 0)
+      return;
+    root = writeBlock(root, depth, 0, 0, 0, x0, y0, z0, dx, dy, dz, values);
+  }
+
+  private VoxelTreeNode writeBlock(VoxelTreeNode node, int depth, int nx, int ny, int nz, int x0, int y0, int z0, int dx, int dy, int dz, byte values[])
+  {
+    int size = 1<<depth;
+    if (nx >= x0+dx || nx+size <= x0 || ny >= y0+dy || ny+size <= y0 || nz >= z0+dz || nz+size <= z0)
+      return node;
+    if (depth == 0)
+      return leafNode[values[((nx-x0)*dy+ny-y0)*dz+nz-z0]-Byte.MIN_VALUE];
+    if (node.children == null)
+    {
+      // If the part of the node inside the block is uniform, the node may not need to be split.
+
+      int fromx = Math.max(nx, x0), tox = Math.min(nx+size, x0+dx);
+      int fromy = Math.max(ny, y0), toy = Math.min(ny+size, y0+dy);
+      int fromz = Math.max(nz, z0), toz = Math.min(nz+size, z0+dz);
+      byte value = values[((fromx-x0)*dy+fromy-y0)*dz+fromz-z0];
+      if (isUniform(fromx, tox, fromy, toy, fromz, toz, x0, y0, z0, dy, dz, values, value))
+      {
+        if (value == node.value)
+          return node;
+        if (tox-fromx == size && toy-fromy == size && toz-fromz == size)
+          return leafNode[value-Byte.MIN_VALUE];
+      }
+      VoxelTreeNode oldNode = node;
+      node = new VoxelTreeNode();
+      for (int i = 0; i < node.children.length; i++)
+        node.children[i] = leafNode[oldNode.value-Byte.MIN_VALUE];
+    }
+    depth--;
+    int half = 1<<depth;
+    for (int child = 0; child < 8; child++)
+      node.children[child] = writeBlock(node.children[child], depth, nx+((child&4) == 0 ? 0 : half), ny+((child&2) == 0 ? 0 : half),
+          nz+((child&1) == 0 ? 0 : half), x0, y0, z0, dx, dy, dz, values);
+    byte value = node.children[0].value;
+    for (int m = 0; m < 8; m++)
+      if (node.children[m].children != null || node.children[m].value != value)
+        return node;
+    return leafNode[value-Byte.MIN_VALUE];
+  }
+
+  /**
+   * Determine whether all values for a range of grid points inside a block equal a given value.
+   */
+
+  private static boolean isUniform(int fromx, int tox, int fromy, int toy, int fromz, int toz, int x0, int y0, int z0, int dy, int dz, byte values[], byte value)
+  {
+    for (int x = fromx; x < tox; x++)
+      for (int y = fromy; y < toy; y++)
+      {
+        int base = ((x-x0)*dy+y-y0)*dz-z0;
+        for (int z = fromz; z < toz; z++)
+          if (values[base+z] != value)
+            return false;
+      }
+    return true;
+  }
+
   /**
    * Find the range of grid points that contain values greater than Byte.MIN_VALUE.
    * It is returned as the array [minx, maxx, miny, maxy, minz, maxz].
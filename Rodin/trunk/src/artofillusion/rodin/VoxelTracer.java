@@ -14,14 +14,21 @@ import artofillusion.math.*;
 
 /**
  * This class is used for tracing rays through a VoxelObject.
+ * <p>
+ * It keeps a flag for every cell of the grid, telling whether the surface passes through it.
+ * The flags are also combined into a pyramid of coarser levels, where each flag covers a
+ * block of 2x2x2 flags on the level below.  When a ray reaches a cell the surface does not
+ * pass through, it can then skip the largest empty block containing that cell in a single step,
+ * so rays crossing large empty or solid regions do not need to visit every cell.
  */
 
 public class VoxelTracer
 {
   private VoxelObject obj;
-  private int flags[];
+  private int flags[][];
   private int minx, maxx, miny, maxy, minz, maxz;
-  private int width;
+  private int width, numLevels;
+  private int levelWidth[];
 
   private static final int vertexOffset[][] = new int[][]
   {
@@ -38,8 +45,16 @@ public class VoxelTracer
   private void initialize()
   {
     width = obj.getVoxels().getWidth()-1;
+    numLevels = obj.getVoxels().getDepth();
     flags = null;
-    flags = new int[(width*width*width+31)/32];
+    flags = new int[numLevels+1][];
+    levelWidth = new int[numLevels+1];
+    for (int level = 0; level <= numLevels; level++)
+    {
+      int w = (width+(1<<level)-1)>>level;
+      levelWidth[level] = w;
+      flags[level] = new int[(w*w*w+31)/32];
+    }
     findBounds();
     updateFlags(minx, maxx, miny, maxy, minz, maxz);
   }
@@ -55,6 +70,19 @@ public class VoxelTracer
     maxz = Math.min(width-1, bounds[5]);
   }
 
+  /**
+   * Get a box (in the VoxelObject's local coordinate system) containing every point at which
+   * findRayIntersection() can find an intersection.
+   */
+
+  public BoundingBox getBounds()
+  {
+    double scale = obj.getScale()/width;
+    return new BoundingBox((minx-1-0.5*width)*scale, (maxx+1-0.5*width)*scale,
+        (miny-1-0.5*width)*scale, (maxy+1-0.5*width)*scale,
+        (minz-1-0.5*width)*scale, (maxz+1-0.5*width)*scale);
+  }
+
   /**
    * This updates internal data structures for the entire VoxelObject.
    */
@@ -97,16 +125,12 @@ public class VoxelTracer
     // Look up the values for the x==fromx plane.
 
     byte values[][] = new byte[2][ysize*zsize];
-    for (int j = 0; j < ysize; j++)
-      for (int k = 0; k < zsize; k++)
-        values[0][j*zsize+k] = voxels.getValue(fromx, j+fromy, k+fromz);
+    voxels.readBlock(fromx, fromy, fromz, 1, ysize, zsize, values[0]);
     for (int i = fromx; i <= tox; i++)
     {
       // Look up the values for the next plane.
 
-      for (int j = 0; j < ysize; j++)
-        for (int k = 0; k < zsize; k++)
-          values[1][j*zsize+k] = voxels.getValue(i+1, j+fromy, k+fromz);
+      voxels.readBlock(i+1, fromy, fromz, 1, ysize, zsize, values[1]);
       for (int j = fromy; j <= toy; j++)
       {
         for (int k = fromz; k <= toz; k++)
@@ -125,9 +149,9 @@ public class VoxelTracer
           }
           int index = i*width*width+j*width+k;
           if ((numBelow != 0 && numBelow != 8) || numZero > 0)
-            flags[index/32] |= 1<<(index%32);
+            flags[0][index/32] |= 1<<(index%32);
           else
-            flags[index/32] &= 0xFFFFFFFF-(1<<(index%32));
+            flags[0][index/32] &= 0xFFFFFFFF-(1<<(index%32));
         }
       }
 
@@ -137,6 +161,51 @@ public class VoxelTracer
       values[0] = values[1];
       values[1] = temp;
     }
+
+    // Update the blocks containing the changed cells on each coarser level.
+
+    for (int level = 1; level <= numLevels; level++)
+    {
+      fromx >>= 1;
+      tox >>= 1;
+      fromy >>= 1;
+      toy >>= 1;
+      fromz >>= 1;
+      toz >>= 1;
+      int w = levelWidth[level];
+      for (int i = fromx; i <= tox; i++)
+        for (int j = fromy; j <= toy; j++)
+          for (int k = fromz; k <= toz; k++)
+          {
+            int index = (i*w+j)*w+k;
+            if (isFlagSet(level-1, 2*i, 2*j, 2*k) || isFlagSet(level-1, 2*i, 2*j, 2*k+1) ||
+                isFlagSet(level-1, 2*i, 2*j+1, 2*k) || isFlagSet(level-1, 2*i, 2*j+1, 2*k+1) ||
+                isFlagSet(level-1, 2*i+1, 2*j, 2*k) || isFlagSet(level-1, 2*i+1, 2*j, 2*k+1) ||
+                isFlagSet(level-1, 2*i+1, 2*j+1, 2*k) || isFlagSet(level-1, 2*i+1, 2*j+1, 2*k+1))
+              flags[level][index/32] |= 1<<(index%32);
+            else
+              flags[level][index/32] &= 0xFFFFFFFF-(1<<(index%32));
+          }
+    }
+  }
+
+  /**
+   * Get whether the surface passes through a block of cells.  Blocks outside the grid are
+   * always empty.
+   *
+   * @param level     the level of the block.  Each block contains 2^level cells along each axis.
+   * @param x         the x index of the block on that level
+   * @param y         the y index of the block on that level
+   * @param z         the z index of the block on that level
+   */
+
+  private boolean isFlagSet(int level, int x, int y, int z)
+  {
+    int w = levelWidth[level];
+    if (x >= w || y >= w || z >= w)
+      return false;
+    int index = (x*w+y)*w+z;
+    return ((flags[level][index/32]&(1<<(index%32))) != 0);
   }
 
   /**
@@ -328,7 +397,44 @@ public class VoxelTracer
     while (true)
     {
       int index = x*width*width+y*width+z;
-      if ((flags[index/32]&(1<<(index%32))) != 0)
+      if ((flags[0][index/32]&(1<<(index%32))) == 0)
+      {
+        // The surface does not pass through this voxel.  Find the largest empty block
+        // containing it.
+
+        int level = 0;
+        while (level < numLevels && !isFlagSet(level+1, x>>(level+1), y>>(level+1), z>>(level+1)))
+          level++;
+        if (level > 0)
+        {
+          // Skip to the first voxel after the block.
+
+          int size = 1<<level;
+          int blockx = (x>>level)<<level;
+          int blocky = (y>>level)<<level;
+          int blockz = (z>>level)<<level;
+          double texitx = (stepx > 0 ? (blockx+size-ox)/dx : stepx < 0 ? (blockx-ox)/dx : Double.MAX_VALUE);
+          double texity = (stepy > 0 ? (blocky+size-oy)/dy : stepy < 0 ? (blocky-oy)/dy : Double.MAX_VALUE);
+          double texitz = (stepz > 0 ? (blockz+size-oz)/dz : stepz < 0 ? (blockz-oz)/dz : Double.MAX_VALUE);
+          double texit = Math.min(texitx, Math.min(texity, texitz));
+          x = Math.max(Math.min((int) (ox+texit*dx), stepx > 0 ? blockx+size-1 : x), stepx < 0 ? blockx : x);
+          y = Math.max(Math.min((int) (oy+texit*dy), stepy > 0 ? blocky+size-1 : y), stepy < 0 ? blocky : y);
+          z = Math.max(Math.min((int) (oz+texit*dz), stepz > 0 ? blockz+size-1 : z), stepz < 0 ? blockz : z);
+          if (texit == texitx)
+            x = (stepx > 0 ? blockx+size : blockx-1);
+          else if (texit == texity)
+            y = (stepy > 0 ? blocky+size : blocky-1);
+          else
+            z = (stepz > 0 ? blockz+size : blockz-1);
+          if (x < minx || x > maxx || y < miny || y > maxy || z < minz || z > maxz)
+            return 0.0;
+          tmaxx = (stepx > 0 ? (x+1-ox)/dx : stepx < 0 ? (x-ox)/dx : Double.MAX_VALUE);
+          tmaxy = (stepy > 0 ? (y+1-oy)/dy : stepy < 0 ? (y-oy)/dy : Double.MAX_VALUE);
+          tmaxz = (stepz > 0 ? (z+1-oz)/dz : stepz < 0 ? (z-oz)/dz : Double.MAX_VALUE);
+          continue;
+        }
+      }
+      else
       {
         // There is a piece of the surface in this voxel, so see if the ray intersects it.
         // First find the values of t at which the ray enters and exits it.
@@ -392,65 +498,66 @@ public class VoxelTracer
               texit = t1;
           }
         }
-        if (tenter < 0.0)
-            continue; // Ignore intersections in the voxel containing the origin.
-
-        // Look up the values at the eight corners of the voxel.
-
-        values[0] = voxels.getValue(x, y, z);
-        values[1] = voxels.getValue(x, y, z+1);
-        values[2] = voxels.getValue(x, y+1, z);
-        values[3] = voxels.getValue(x, y+1, z+1);
-        values[4] = voxels.getValue(x+1, y, z);
-        values[5] = voxels.getValue(x+1, y, z+1);
-        values[6] = voxels.getValue(x+1, y+1, z);
-        values[7] = voxels.getValue(x+1, y+1, z+1);
-
-        // Find the positions within the voxel where the ray enters and exits.
-
-        double xenter = ox+dx*tenter-x;
-        double yenter = oy+dy*tenter-y;
-        double zenter = oz+dz*tenter-z;
-        double xexit = ox+dx*texit-x;
-        double yexit = oy+dy*texit-y;
-        double zexit = oz+dz*texit-z;
-
-        // Interpolate the find the values at those points.
-
-        double enterValue = values[0]*(1.0-xenter)*(1.0-yenter)*(1.0-zenter)
-                           +values[1]*(1.0-xenter)*(1.0-yenter)*zenter
-                           +values[2]*(1.0-xenter)*yenter*(1.0-zenter)
-                           +values[3]*(1.0-xenter)*yenter*zenter
-                           +values[4]*xenter*(1.0-yenter)*(1.0-zenter)
-                           +values[5]*xenter*(1.0-yenter)*zenter
-                           +values[6]*xenter*yenter*(1.0-zenter)
-                           +values[7]*xenter*yenter*zenter;
-        double exitValue = values[0]*(1.0-xexit)*(1.0-yexit)*(1.0-zexit)
-                           +values[1]*(1.0-xexit)*(1.0-yexit)*zexit
-                           +values[2]*(1.0-xexit)*yexit*(1.0-zexit)
-                           +values[3]*(1.0-xexit)*yexit*zexit
-                           +values[4]*xexit*(1.0-yexit)*(1.0-zexit)
-                           +values[5]*xexit*(1.0-yexit)*zexit
-                           +values[6]*xexit*yexit*(1.0-zexit)
-                           +values[7]*xexit*yexit*zexit;
-        if ((enterValue > 0 && exitValue <= 0) || (enterValue <= 0 && exitValue > 0))
+        if (tenter >= 0.0 && tenter <= texit) // Ignore intersections in the voxel containing the origin.
         {
-          // Find the intersection point.
-
-          double weight1 = Math.abs(exitValue);
-          double weight2 = Math.abs(enterValue);
-          double d = 1.0/(weight1+weight2);
-          weight1 *= d;
-          weight2 *= d;
-          double tintersect = (tenter*weight1 + texit*weight2)/scale;
-          if (normal != null)
+
+          // Look up the values at the eight corners of the voxel.
+
+          values[0] = voxels.getValue(x, y, z);
+          values[1] = voxels.getValue(x, y, z+1);
+          values[2] = voxels.getValue(x, y+1, z);
+          values[3] = voxels.getValue(x, y+1, z+1);
+          values[4] = voxels.getValue(x+1, y, z);
+          values[5] = voxels.getValue(x+1, y, z+1);
+          values[6] = voxels.getValue(x+1, y+1, z);
+          values[7] = voxels.getValue(x+1, y+1, z+1);
+
+          // Find the positions within the voxel where the ray enters and exits.
+
+          double xenter = ox+dx*tenter-x;
+          double yenter = oy+dy*tenter-y;
+          double zenter = oz+dz*tenter-z;
+          double xexit = ox+dx*texit-x;
+          double yexit = oy+dy*texit-y;
+          double zexit = oz+dz*texit-z;
+
+          // Interpolate the find the values at those points.
+
+          double enterValue = values[0]*(1.0-xenter)*(1.0-yenter)*(1.0-zenter)
+                             +values[1]*(1.0-xenter)*(1.0-yenter)*zenter
+                             +values[2]*(1.0-xenter)*yenter*(1.0-zenter)
+                             +values[3]*(1.0-xenter)*yenter*zenter
+                             +values[4]*xenter*(1.0-yenter)*(1.0-zenter)
+                             +values[5]*xenter*(1.0-yenter)*zenter
+                             +values[6]*xenter*yenter*(1.0-zenter)
+                             +values[7]*xenter*yenter*zenter;
+          double exitValue = values[0]*(1.0-xexit)*(1.0-yexit)*(1.0-zexit)
+                             +values[1]*(1.0-xexit)*(1.0-yexit)*zexit
+                             +values[2]*(1.0-xexit)*yexit*(1.0-zexit)
+                             +values[3]*(1.0-xexit)*yexit*zexit
+                             +values[4]*xexit*(1.0-yexit)*(1.0-zexit)
+                             +values[5]*xexit*(1.0-yexit)*zexit
+                             +values[6]*xexit*yexit*(1.0-zexit)
+                             +values[7]*xexit*yexit*zexit;
+          if ((enterValue > 0 && exitValue <= 0) || (enterValue <= 0 && exitValue > 0))
           {
-            normal.set(values[0]+values[1]+values[2]+values[3]-values[4]-values[5]-values[6]-values[7],
-                       values[0]+values[1]-values[2]-values[3]+values[4]+values[5]-values[6]-values[7],
-                       values[0]-values[1]+values[2]-values[3]+values[4]-values[5]+values[6]-values[7]);
-            normal.normalize();
+            // Find the intersection point.
+
+            double weight1 = Math.abs(exitValue);
+            double weight2 = Math.abs(enterValue);
+            double d = 1.0/(weight1+weight2);
+            weight1 *= d;
+            weight2 *= d;
+            double tintersect = (tenter*weight1 + texit*weight2)/scale;
+            if (normal != null)
+            {
+              normal.set(values[0]+values[1]+values[2]+values[3]-values[4]-values[5]-values[6]-values[7],
+                         values[0]+values[1]-values[2]-values[3]+values[4]+values[5]-values[6]-values[7],
+                         values[0]-values[1]+values[2]-values[3]+values[4]-values[5]+values[6]-values[7]);
+              normal.normalize();
+            }
+            return tintersect;
           }
-          return tintersect;
         }
       }
 